@@ -0,0 +1,71 @@
+package site.hanschen.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+
+import io.reactivex.SingleObserver;
+import io.reactivex.disposables.Disposable;
+import site.hanschen.api.user.UserCenterAsyncApi;
+
+/**
+ * 通过异步stub调用，不占用线程：每个并发位置的调用结束后在gRPC的回调线程中发起下一次调用
+ *
+ * @author HansChen
+ */
+class AsyncDriver implements Driver {
+
+    private final UserCenterAsyncApi mApi;
+    private final Workload           mWorkload;
+    private final Session[]          mSessions;
+    private final LatencyStats       mStats;
+    private final CountDownLatch     mStopped;
+
+    private volatile boolean mRunning;
+
+    AsyncDriver(UserCenterAsyncApi api, Workload workload, Session[] sessions, LatencyStats stats) {
+        this.mApi = api;
+        this.mWorkload = workload;
+        this.mSessions = sessions;
+        this.mStats = stats;
+        this.mStopped = new CountDownLatch(sessions.length);
+    }
+
+    @Override
+    public void start() {
+        mRunning = true;
+        for (Session session : mSessions) {
+            callNext(session);
+        }
+    }
+
+    private void callNext(final Session session) {
+        if (!mRunning) {
+            mStopped.countDown();
+            return;
+        }
+        final Operation operation = mWorkload.next();
+        final long start = System.nanoTime();
+        operation.call(mApi, session, mWorkload.payload()).subscribe(new SingleObserver<Boolean>() {
+            @Override
+            public void onSubscribe(Disposable d) {
+            }
+
+            @Override
+            public void onSuccess(Boolean succeed) {
+                mStats.record(operation, System.nanoTime() - start, succeed);
+                callNext(session);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                mStats.record(operation, System.nanoTime() - start, false);
+                callNext(session);
+            }
+        });
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        mRunning = false;
+        mStopped.await();
+    }
+}
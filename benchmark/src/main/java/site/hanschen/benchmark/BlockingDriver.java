@@ -0,0 +1,64 @@
+package site.hanschen.benchmark;
+
+import site.hanschen.api.user.UserCenterApi;
+
+/**
+ * 每个并发位置一个线程，循环通过阻塞stub调用
+ *
+ * @author HansChen
+ */
+class BlockingDriver implements Driver {
+
+    private final UserCenterApi mApi;
+    private final Workload      mWorkload;
+    private final Session[]     mSessions;
+    private final LatencyStats  mStats;
+    private final Thread[]      mThreads;
+
+    private volatile boolean mRunning;
+
+    BlockingDriver(UserCenterApi api, Workload workload, Session[] sessions, LatencyStats stats) {
+        this.mApi = api;
+        this.mWorkload = workload;
+        this.mSessions = sessions;
+        this.mStats = stats;
+        this.mThreads = new Thread[sessions.length];
+    }
+
+    @Override
+    public void start() {
+        mRunning = true;
+        for (int i = 0; i < mThreads.length; i++) {
+            final Session session = mSessions[i];
+            mThreads[i] = new Thread("blocking-" + i) {
+                @Override
+                public void run() {
+                    while (mRunning) {
+                        callOnce(session);
+                    }
+                }
+            };
+            mThreads[i].start();
+        }
+    }
+
+    private void callOnce(Session session) {
+        Operation operation = mWorkload.next();
+        long start = System.nanoTime();
+        boolean succeed;
+        try {
+            succeed = operation.call(mApi, session, mWorkload.payload());
+        } catch (RuntimeException e) {
+            succeed = false;
+        }
+        mStats.record(operation, System.nanoTime() - start, succeed);
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        mRunning = false;
+        for (Thread thread : mThreads) {
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package site.hanschen.benchmark;
+
+/**
+ * 保持固定数量的调用同时进行，直到{@link #stop()}
+ *
+ * @author HansChen
+ */
+interface Driver {
+
+    void start();
+
+    /**
+     * 不再发起新的调用，等待进行中的调用结束
+     */
+    void stop() throws InterruptedException;
+}
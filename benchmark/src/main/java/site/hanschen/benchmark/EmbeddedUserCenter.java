@@ -0,0 +1,87 @@
+package site.hanschen.benchmark;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import site.hanschen.api.user.UserCenterApi;
+import site.hanschen.server.UserCenterService;
+import site.hanschen.server.store.MemoryAccountStore;
+
+/**
+ * 在同一个进程中运行的UserCenter服务，验证码直接交给压力测试用来注册账号。
+ * {@link Transport#IN_PROCESS}不经过网络，只测量客户端和服务端的代码；{@link Transport#NETTY}经过本机的TCP和HTTP/2
+ *
+ * @author HansChen
+ */
+class EmbeddedUserCenter implements Closeable {
+
+    enum Transport {
+        IN_PROCESS,
+        NETTY
+    }
+
+    private final Map<String, String> mCodes = new ConcurrentHashMap<>();
+    private final ExecutorService     mExecutor;
+    private final Server              mServer;
+    private final ManagedChannel      mChannel;
+
+    EmbeddedUserCenter(Transport transport) throws IOException {
+        UserCenterService service = new UserCenterService(new MemoryAccountStore()) {
+            @Override
+            protected void sendVerificationCode(String email, String code) {
+                mCodes.put(email, code);
+            }
+        };
+        // 和UserCenterServer一样使用CPU核数的线程
+        mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        if (transport == Transport.IN_PROCESS) {
+            String name = "user-center-benchmark-" + System.nanoTime();
+            mServer = InProcessServerBuilder.forName(name).addService(service).executor(mExecutor).build().start();
+            mChannel = InProcessChannelBuilder.forName(name).build();
+        } else {
+            mServer = NettyServerBuilder.forPort(0).addService(service).executor(mExecutor).build().start();
+            mChannel = NettyChannelBuilder.forAddress("localhost", mServer.getPort()).usePlaintext(true).build();
+        }
+    }
+
+    ManagedChannel getChannel() {
+        return mChannel;
+    }
+
+    /**
+     * 注册并登录账号
+     */
+    Session createSession(UserCenterApi api, String email, String password) {
+        if (!api.requestVerificationCode(email).getSucceed()
+            || !api.register(email, mCodes.remove(email), password).getSucceed()) {
+            throw new IllegalStateException("Cannot register " + email);
+        }
+        Session session = new Session(email, password);
+        session.token = api.login(email, password).getToken();
+        return session;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.shutdownNow();
+        mServer.shutdownNow();
+        try {
+            mChannel.awaitTermination(5, TimeUnit.SECONDS);
+            mServer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,149 @@
+package site.hanschen.benchmark;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按调用类型记录延迟(纳秒)和失败次数。调用线程通过{@link Recorder}无锁记录，
+ * 报告线程定时取出这段时间的直方图输出吞吐量，正式测试阶段的数据累加到总的直方图中
+ *
+ * @author HansChen
+ */
+class LatencyStats {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Operation[]     mOperations  = Operation.values();
+    private final Recorder[]      mRecorders   = new Recorder[mOperations.length];
+    private final Histogram[]     mIntervals   = new Histogram[mOperations.length];
+    private final Histogram[]     mTotals      = new Histogram[mOperations.length];
+    private final AtomicLongArray mErrors      = new AtomicLongArray(mOperations.length);
+    private final long[]          mLastErrors  = new long[mOperations.length];
+    private final long[]          mTotalErrors = new long[mOperations.length];
+    private       long            mMeasureStart;
+    private       long            mMeasureEnd;
+
+    LatencyStats() {
+        for (int i = 0; i < mOperations.length; i++) {
+            mRecorders[i] = new Recorder(SIGNIFICANT_DIGITS);
+            mTotals[i] = new Histogram(SIGNIFICANT_DIGITS);
+        }
+    }
+
+    /**
+     * 调用线程中调用，失败的调用只计数，不记录延迟
+     */
+    void record(Operation operation, long latencyNanos, boolean succeed) {
+        if (succeed) {
+            mRecorders[operation.ordinal()].recordValue(latencyNanos);
+        } else {
+            mErrors.incrementAndGet(operation.ordinal());
+        }
+    }
+
+    /**
+     * 开始正式测试，丢弃预热阶段的数据
+     */
+    synchronized void startMeasuring() {
+        collect(false);
+        mMeasureStart = System.nanoTime();
+    }
+
+    synchronized void stopMeasuring() {
+        collect(true);
+        mMeasureEnd = System.nanoTime();
+    }
+
+    /**
+     * 输出上次调用以来的吞吐量和延迟
+     *
+     * @param elapsedSeconds 测试开始以来的秒数
+     * @param measuring      是否累加到总的数据
+     */
+    synchronized void printInterval(PrintStream out, long elapsedSeconds, long intervalNanos, boolean measuring) {
+        collect(measuring);
+        Histogram all = new Histogram(SIGNIFICANT_DIGITS);
+        long errors = 0;
+        for (int i = 0; i < mOperations.length; i++) {
+            all.add(mIntervals[i]);
+            errors += mLastErrors[i];
+        }
+        out.printf("%5ds %10.0f ops/s  p50 %8.1f us  p99 %8.1f us  errors %d%s%n",
+                   elapsedSeconds,
+                   all.getTotalCount() * (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos,
+                   micros(all.getValueAtPercentile(50)),
+                   micros(all.getValueAtPercentile(99)),
+                   errors,
+                   measuring ? "" : "  (warm-up)");
+    }
+
+    synchronized Result result(String name) {
+        double seconds = (mMeasureEnd - mMeasureStart) / (double) TimeUnit.SECONDS.toNanos(1);
+        Histogram all = new Histogram(SIGNIFICANT_DIGITS);
+        long errors = 0;
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-10s %10s %10s %10s %10s %10s %10s %8s%n",
+                                     name, "count", "ops/s", "p50(us)", "p99(us)", "p999(us)", "max(us)", "errors"));
+        for (int i = 0; i < mOperations.length; i++) {
+            if (mTotals[i].getTotalCount() == 0 && mTotalErrors[i] == 0) {
+                continue;
+            }
+            all.add(mTotals[i]);
+            errors += mTotalErrors[i];
+            builder.append(line(mOperations[i].key, mTotals[i], mTotalErrors[i], seconds));
+        }
+        builder.append(line("all", all, errors, seconds));
+        return new Result(name, all.getTotalCount() / seconds, all, errors, builder.toString());
+    }
+
+    private void collect(boolean measuring) {
+        for (int i = 0; i < mOperations.length; i++) {
+            mIntervals[i] = mRecorders[i].getIntervalHistogram(mIntervals[i]);
+            mLastErrors[i] = mErrors.getAndSet(i, 0);
+            if (measuring) {
+                mTotals[i].add(mIntervals[i]);
+                mTotalErrors[i] += mLastErrors[i];
+            }
+        }
+    }
+
+    private static String line(String name, Histogram histogram, long errors, double seconds) {
+        return String.format("%-10s %10d %10.0f %10.1f %10.1f %10.1f %10.1f %8d%n",
+                             name,
+                             histogram.getTotalCount(),
+                             histogram.getTotalCount() / seconds,
+                             micros(histogram.getValueAtPercentile(50)),
+                             micros(histogram.getValueAtPercentile(99)),
+                             micros(histogram.getValueAtPercentile(99.9)),
+                             micros(histogram.getMaxValue()),
+                             errors);
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    /**
+     * 一次测试的汇总结果
+     */
+    static class Result {
+
+        final String    name;
+        final double    throughput;
+        final Histogram latencies;
+        final long      errors;
+        final String    report;
+
+        Result(String name, double throughput, Histogram latencies, long errors, String report) {
+            this.name = name;
+            this.throughput = throughput;
+            this.latencies = latencies;
+            this.errors = errors;
+            this.report = report;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package site.hanschen.benchmark;
+
+import io.reactivex.Single;
+import io.reactivex.functions.Function;
+import site.hanschen.api.user.LoginReply;
+import site.hanschen.api.user.ResultReply;
+import site.hanschen.api.user.UserCenterApi;
+import site.hanschen.api.user.UserCenterAsyncApi;
+import site.hanschen.api.user.UserInfo;
+import site.hanschen.api.user.UserInfoReply;
+
+/**
+ * 压力测试中的调用类型，分别通过阻塞接口和异步接口发起，返回服务端是否执行成功
+ *
+ * @author HansChen
+ */
+enum Operation {
+
+    LOGIN("login") {
+        @Override
+        boolean call(UserCenterApi api, Session session, UserInfo payload) {
+            return onLogin(session, api.login(session.email, session.password));
+        }
+
+        @Override
+        Single<Boolean> call(UserCenterAsyncApi api, final Session session, UserInfo payload) {
+            return api.login(session.email, session.password).map(new Function<LoginReply, Boolean>() {
+                @Override
+                public Boolean apply(LoginReply reply) throws Exception {
+                    return onLogin(session, reply);
+                }
+            });
+        }
+    },
+
+    REQUEST_USER_INFO("userInfo") {
+        @Override
+        boolean call(UserCenterApi api, Session session, UserInfo payload) {
+            return api.requestUserInfo(session.token).getSucceed();
+        }
+
+        @Override
+        Single<Boolean> call(UserCenterAsyncApi api, Session session, UserInfo payload) {
+            return api.requestUserInfo(session.token).map(new Function<UserInfoReply, Boolean>() {
+                @Override
+                public Boolean apply(UserInfoReply reply) throws Exception {
+                    return reply.getSucceed();
+                }
+            });
+        }
+    },
+
+    UPDATE_USER_INFO("update") {
+        @Override
+        boolean call(UserCenterApi api, Session session, UserInfo payload) {
+            return api.updateUserInfo(session.token, payload).getSecceed();
+        }
+
+        @Override
+        Single<Boolean> call(UserCenterAsyncApi api, Session session, UserInfo payload) {
+            return api.updateUserInfo(session.token, payload).map(new Function<ResultReply, Boolean>() {
+                @Override
+                public Boolean apply(ResultReply reply) throws Exception {
+                    return reply.getSecceed();
+                }
+            });
+        }
+    };
+
+    final String key;
+
+    Operation(String key) {
+        this.key = key;
+    }
+
+    abstract boolean call(UserCenterApi api, Session session, UserInfo payload);
+
+    abstract Single<Boolean> call(UserCenterAsyncApi api, Session session, UserInfo payload);
+
+    static Operation fromKey(String key) {
+        for (Operation operation : values()) {
+            if (operation.key.equals(key)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation: " + key);
+    }
+
+    private static boolean onLogin(Session session, LoginReply reply) {
+        if (reply.getSucceed()) {
+            session.token = reply.getToken();
+        }
+        return reply.getSucceed();
+    }
+}
@@ -0,0 +1,18 @@
+package site.hanschen.benchmark;
+
+/**
+ * 一个并发调用位置使用的账号，同一时刻只有一个调用在使用，token在登录后更新
+ *
+ * @author HansChen
+ */
+class Session {
+
+    final String email;
+    final String password;
+    volatile String token;
+
+    Session(String email, String password) {
+        this.email = email;
+        this.password = password;
+    }
+}
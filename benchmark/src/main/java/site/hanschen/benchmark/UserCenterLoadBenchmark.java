@@ -0,0 +1,173 @@
+package site.hanschen.benchmark;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import site.hanschen.api.user.UserCenterApi;
+import site.hanschen.api.user.UserCenterApiImpl;
+import site.hanschen.api.user.UserCenterAsyncApiImpl;
+
+/**
+ * UserCenter接口的压力测试，在同一个进程中启动服务端，通过客户端实际使用的{@link UserCenterApiImpl}和
+ * {@link UserCenterAsyncApiImpl}保持固定数量的并发调用，每秒输出吞吐量，最后输出各个调用的p50/p99/p999延迟:
+ * <pre>
+ * ./gradlew :benchmark:run -PappArgs="--transport=netty --concurrency=64 --client=both"
+ * </pre>
+ * 参数:
+ * <pre>
+ * --transport=in-process|netty     默认in-process
+ * --client=blocking|async|both     默认both，both时依次测试并比较
+ * --concurrency=N                  同时进行的调用数，每个调用位置使用一个账号，默认16
+ * --mix=login:1,userInfo:8,update:1 调用比例
+ * --payload=N                      修改用户信息时个人简介的字节数，默认256
+ * --warmup=S --duration=S          预热和正式测试的秒数，默认5和30
+ * </pre>
+ *
+ * @author HansChen
+ */
+public class UserCenterLoadBenchmark {
+
+    static class Options {
+
+        EmbeddedUserCenter.Transport transport   = EmbeddedUserCenter.Transport.IN_PROCESS;
+        List<String>                 clients     = new ArrayList<>();
+        int                          concurrency = 16;
+        String                       mix         = "login:1,userInfo:8,update:1";
+        int                          payload     = 256;
+        int                          warmup      = 5;
+        int                          duration    = 30;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            String client = "both";
+            for (String arg : args) {
+                int index = arg.indexOf('=');
+                if (!arg.startsWith("--") || index < 0) {
+                    throw new IllegalArgumentException("Malformed argument: " + arg);
+                }
+                String key = arg.substring(2, index);
+                String value = arg.substring(index + 1);
+                switch (key) {
+                    case "transport":
+                        options.transport = EmbeddedUserCenter.Transport.valueOf(value.toUpperCase(Locale.US)
+                                                                                      .replace('-', '_'));
+                        break;
+                    case "client":
+                        client = value;
+                        break;
+                    case "concurrency":
+                        options.concurrency = Integer.parseInt(value);
+                        break;
+                    case "mix":
+                        options.mix = value;
+                        break;
+                    case "payload":
+                        options.payload = Integer.parseInt(value);
+                        break;
+                    case "warmup":
+                        options.warmup = Integer.parseInt(value);
+                        break;
+                    case "duration":
+                        options.duration = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            }
+            if ("both".equals(client)) {
+                options.clients.add("blocking");
+                options.clients.add("async");
+            } else if ("blocking".equals(client) || "async".equals(client)) {
+                options.clients.add(client);
+            } else {
+                throw new IllegalArgumentException("Unknown client: " + client);
+            }
+            if (options.concurrency <= 0 || options.duration <= 0 || options.warmup < 0 || options.payload < 0) {
+                throw new IllegalArgumentException("concurrency and duration must be positive");
+            }
+            return options;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        List<LatencyStats.Result> results = new ArrayList<>();
+        for (String client : options.clients) {
+            LatencyStats.Result result = run(options, client, System.out);
+            System.out.println();
+            System.out.print(result.report);
+            System.out.println();
+            results.add(result);
+        }
+        if (results.size() > 1) {
+            printComparison(System.out, results);
+        }
+    }
+
+    static LatencyStats.Result run(Options options, String client, PrintStream out) throws Exception {
+        EmbeddedUserCenter center = new EmbeddedUserCenter(options.transport);
+        try {
+            UserCenterApi blockingApi = new UserCenterApiImpl(center.getChannel());
+            Session[] sessions = new Session[options.concurrency];
+            for (int i = 0; i < sessions.length; i++) {
+                sessions[i] = center.createSession(blockingApi, "user" + i + "@benchmark.local", "password" + i);
+            }
+            Workload workload = Workload.parse(options.mix, options.payload);
+            LatencyStats stats = new LatencyStats();
+            Driver driver;
+            if ("blocking".equals(client)) {
+                driver = new BlockingDriver(blockingApi, workload, sessions, stats);
+            } else {
+                driver = new AsyncDriver(new UserCenterAsyncApiImpl(center.getChannel()), workload, sessions, stats);
+            }
+            out.printf("%s client, %s transport, concurrency %d, mix %s, payload %d bytes%n",
+                       client,
+                       options.transport.name().toLowerCase(Locale.US),
+                       options.concurrency,
+                       options.mix,
+                       options.payload);
+
+            driver.start();
+            if (options.warmup == 0) {
+                stats.startMeasuring();
+            }
+            long start = System.nanoTime();
+            long last = start;
+            long interval = TimeUnit.SECONDS.toNanos(1);
+            for (int second = 1; second <= options.warmup + options.duration; second++) {
+                long sleep = start + second * interval - System.nanoTime();
+                if (sleep > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                }
+                long now = System.nanoTime();
+                stats.printInterval(out, second, now - last, second > options.warmup);
+                last = now;
+                if (second == options.warmup) {
+                    stats.startMeasuring();
+                }
+            }
+            stats.stopMeasuring();
+            driver.stop();
+            return stats.result(client);
+        } finally {
+            center.close();
+        }
+    }
+
+    private static void printComparison(PrintStream out, List<LatencyStats.Result> results) {
+        LatencyStats.Result base = results.get(0);
+        out.printf("%-10s %10s %10s %10s %10s %10s%n", "client", "ops/s", "p50(us)", "p99(us)", "p999(us)", "vs " + base.name);
+        for (LatencyStats.Result result : results) {
+            out.printf("%-10s %10.0f %10.1f %10.1f %10.1f %9.2fx%n",
+                       result.name,
+                       result.throughput,
+                       result.latencies.getValueAtPercentile(50) / 1000.0,
+                       result.latencies.getValueAtPercentile(99) / 1000.0,
+                       result.latencies.getValueAtPercentile(99.9) / 1000.0,
+                       result.throughput / base.throughput);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package site.hanschen.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import site.hanschen.api.user.Sex;
+import site.hanschen.api.user.UserInfo;
+
+/**
+ * 按比例随机选择调用类型，例如"login:1,userInfo:8,update:1"表示10%登录、80%获取用户信息、10%修改用户信息
+ *
+ * @author HansChen
+ */
+class Workload {
+
+    private final Operation[] mOperations;
+    private final int[]       mCumulative;
+    private final UserInfo    mPayload;
+
+    private Workload(Operation[] operations, int[] cumulative, UserInfo payload) {
+        this.mOperations = operations;
+        this.mCumulative = cumulative;
+        this.mPayload = payload;
+    }
+
+    /**
+     * @param payloadSize 修改用户信息时个人简介的长度
+     */
+    static Workload parse(String mix, int payloadSize) {
+        List<Operation> operations = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Malformed mix: " + mix);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight: " + part);
+            }
+            if (weight > 0) {
+                operations.add(Operation.fromKey(pair[0].trim()));
+                weights.add(weight);
+            }
+        }
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("Empty mix: " + mix);
+        }
+        int[] cumulative = new int[weights.size()];
+        int total = 0;
+        for (int i = 0; i < weights.size(); i++) {
+            total += weights.get(i);
+            cumulative[i] = total;
+        }
+        char[] bio = new char[payloadSize];
+        Arrays.fill(bio, 'x');
+        UserInfo payload = UserInfo.newBuilder()
+                                   .setNickname("runner")
+                                   .setPhone("13800000000")
+                                   .setBirthday("1990-01-01")
+                                   .setSex(Sex.MALE)
+                                   .setBio(new String(bio))
+                                   .build();
+        return new Workload(operations.toArray(new Operation[operations.size()]), cumulative, payload);
+    }
+
+    Operation next() {
+        int value = ThreadLocalRandom.current().nextInt(mCumulative[mCumulative.length - 1]);
+        for (int i = 0; i < mCumulative.length; i++) {
+            if (value < mCumulative[i]) {
+                return mOperations[i];
+            }
+        }
+        throw new AssertionError();
+    }
+
+    UserInfo payload() {
+        return mPayload;
+    }
+}
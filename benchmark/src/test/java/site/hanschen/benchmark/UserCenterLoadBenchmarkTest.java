@@ -0,0 +1,59 @@
+package site.hanschen.benchmark;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用很短的时间运行一次压力测试，确认两种客户端都能正常调用并输出报告
+ *
+ * @author HansChen
+ */
+public class UserCenterLoadBenchmarkTest {
+
+    @Test
+    public void blockingClientInProcess() throws Exception {
+        assertRuns("--client=blocking", "--transport=in-process");
+    }
+
+    @Test
+    public void asyncClientOverNetty() throws Exception {
+        assertRuns("--client=async", "--transport=netty");
+    }
+
+    @Test
+    public void parseOptions() throws Exception {
+        UserCenterLoadBenchmark.Options options = UserCenterLoadBenchmark.Options.parse(new String[]{"--concurrency=8"});
+        assertEquals(8, options.concurrency);
+        assertEquals(2, options.clients.size());
+        assertEquals(EmbeddedUserCenter.Transport.IN_PROCESS, options.transport);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownOperation() throws Exception {
+        Workload.parse("login:1,logout:1", 0);
+    }
+
+    private static void assertRuns(String... args) throws Exception {
+        String[] all = new String[args.length + 4];
+        System.arraycopy(args, 0, all, 0, args.length);
+        all[args.length] = "--concurrency=4";
+        all[args.length + 1] = "--warmup=0";
+        all[args.length + 2] = "--duration=1";
+        all[args.length + 3] = "--payload=1024";
+        UserCenterLoadBenchmark.Options options = UserCenterLoadBenchmark.Options.parse(all);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        LatencyStats.Result result = UserCenterLoadBenchmark.run(options,
+                                                                 options.clients.get(0),
+                                                                 new PrintStream(output, true));
+        assertEquals(0, result.errors);
+        assertTrue(result.latencies.getTotalCount() > 0);
+        assertTrue(result.report.contains("userInfo"));
+        assertTrue(output.toString().contains("ops/s"));
+    }
+}
@@ -0,0 +1,135 @@
+package site.hanschen.microbenchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.Schedulers;
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.service.StepCallbackDispatcher;
+import site.hanschen.runwithyou.service.StepCounter;
+import site.hanschen.runwithyou.utils.Clock;
+import site.hanschen.runwithyou.utils.TimeUtils;
+
+/**
+ * 计步服务每收到一次传感器上报执行的代码：计算当日步数、提交回调、按间隔生成记录，不包括通知栏和数据库写入。
+ * 每个事件的内存分配用-prof gc查看gc.alloc.rate.norm
+ *
+ * @author HansChen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepEventBenchmark {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * 相邻两次上报的间隔，10000时每次上报都会生成一条记录
+     */
+    @Param({"200", "10000"})
+    public long mEventIntervalMillis;
+
+    private LatestRecordSink       mSink;
+    private StepCounter            mCounter;
+    private StepCallbackDispatcher mDispatcher;
+    private long                   mNow;
+    private long                   mCountSinceReboot;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // 开机一天，今天上午已经有记录，第一次上报走完整的calcStepOfDay
+        mNow = TimeUtils.startOfDay(System.currentTimeMillis()) + 12 * HOUR;
+        mCountSinceReboot = 10000;
+        mSink = new LatestRecordSink(new StepRecord(mCountSinceReboot - 500, mNow - HOUR, 3000));
+        mCounter = new StepCounter(mSink, new FixedClock(24 * HOUR));
+        mDispatcher = new StepCallbackDispatcher(new StepCallbackDispatcher.Broadcaster() {
+            @Override
+            public int broadcast(long stepCount) {
+                return 1;
+            }
+        }, Schedulers.single(), new Clock() {
+            @Override
+            public long elapsedRealtime() {
+                // Clock.SYSTEM依赖Android
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+            }
+        }, StepCallbackDispatcher.DEFAULT_FRAME_INTERVAL);
+        mCounter.update(mCountSinceReboot, mNow);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mDispatcher.close();
+    }
+
+    @Benchmark
+    public long onStepCounterChanged() {
+        mNow += mEventIntervalMillis;
+        mCountSinceReboot++;
+        long stepCount = mCounter.update(mCountSinceReboot, mNow);
+        mDispatcher.dispatch(stepCount);
+        mCounter.record(mNow);
+        return stepCount;
+    }
+
+    /**
+     * 服务启动后的第一次上报
+     */
+    @Benchmark
+    public long calcStepOfDay() {
+        return mCounter.calcStepOfDay(mCountSinceReboot, mNow);
+    }
+
+    /**
+     * 和StepRecordWriter一样只在内存中保留最后一条记录，不测量缓冲区和后台写入
+     */
+    private static class LatestRecordSink implements StepCounter.RecordSink {
+
+        private volatile StepRecord mLatestRecord;
+
+        LatestRecordSink(StepRecord record) {
+            this.mLatestRecord = record;
+        }
+
+        @Override
+        public StepRecord getLatestRecord() {
+            return mLatestRecord;
+        }
+
+        @Override
+        public boolean append(StepRecord record) {
+            mLatestRecord = record;
+            return true;
+        }
+    }
+
+    private static class FixedClock implements Clock {
+
+        private final long mElapsedRealtime;
+
+        FixedClock(long elapsedRealtime) {
+            this.mElapsedRealtime = elapsedRealtime;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return mElapsedRealtime;
+        }
+    }
+}
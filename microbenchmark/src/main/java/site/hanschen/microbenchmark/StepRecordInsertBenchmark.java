@@ -0,0 +1,175 @@
+package site.hanschen.microbenchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.database.repository.StepRollup;
+
+/**
+ * 在嵌入式SQLite中写入一批计步记录的耗时，对应StepRepositoryImpl#insertRecords的一个事务：
+ * 插入记录，用{@link StepRollup}聚合后逐个读取并更新分钟、小时、天汇总表，最后更新最新状态。
+ * 表结构和greenDAO生成的Dao一致，汇总表和StepRepositoryImpl#updateRollup一样先load再insertOrReplace。
+ * 结果是每个事务的耗时，除以batchSize得到每条记录的耗时
+ *
+ * @author HansChen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepRecordInsertBenchmark {
+
+    private static final long     RECORD_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+    private static final int      STATE_ID        = 1;
+    private static final String[] ROLLUP_TABLES   = {"STEP_MINUTE_ENTITY", "STEP_HOUR_ENTITY", "STEP_DAY_ENTITY"};
+
+    /**
+     * 1是每条记录单独一个事务，30和StepRecordWriter.DEFAULT_FLUSH_SIZE相同
+     */
+    @Param({"1", "30"})
+    public int mBatchSize;
+
+    @Param({"DELETE", "WAL"})
+    public String mJournalMode;
+
+    private File                mFile;
+    private Connection          mConnection;
+    private PreparedStatement   mInsertRecord;
+    private PreparedStatement   mReplaceState;
+    private PreparedStatement[] mLoadRollup    = new PreparedStatement[ROLLUP_TABLES.length];
+    private PreparedStatement[] mReplaceRollup = new PreparedStatement[ROLLUP_TABLES.length];
+    private StepRecord          mLatestRecord;
+    private long                mStepTime;
+    private long                mStepCount;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        mFile = File.createTempFile("step-record", ".db");
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getAbsolutePath());
+        Statement statement = mConnection.createStatement();
+        try {
+            statement.execute("PRAGMA journal_mode=" + mJournalMode);
+            statement.execute("CREATE TABLE \"STEP_RECORD_ENTITY\" (" +
+                                      "\"_id\" INTEGER PRIMARY KEY AUTOINCREMENT ," +
+                                      "\"COUNT_SINCE_REBOOT\" INTEGER NOT NULL ," +
+                                      "\"STEP_TIME\" INTEGER NOT NULL ," +
+                                      "\"STEP_COUNT\" INTEGER NOT NULL );");
+            statement.execute("CREATE INDEX IDX_STEP_RECORD_ENTITY_STEP_TIME ON \"STEP_RECORD_ENTITY\"" +
+                                      " (\"STEP_TIME\" ASC);");
+            statement.execute("CREATE TABLE \"STEP_STATE_ENTITY\" (" +
+                                      "\"_id\" INTEGER PRIMARY KEY ," +
+                                      "\"COUNT_SINCE_REBOOT\" INTEGER NOT NULL ," +
+                                      "\"STEP_TIME\" INTEGER NOT NULL ," +
+                                      "\"STEP_COUNT\" INTEGER NOT NULL );");
+            for (String table : ROLLUP_TABLES) {
+                statement.execute("CREATE TABLE \"" + table + "\" (" +
+                                          "\"START_TIME\" INTEGER PRIMARY KEY ," +
+                                          "\"STEP_COUNT\" INTEGER NOT NULL );");
+            }
+        } finally {
+            statement.close();
+        }
+        mConnection.setAutoCommit(false);
+        mInsertRecord = mConnection.prepareStatement("INSERT INTO \"STEP_RECORD_ENTITY\" " +
+                                                     "(\"COUNT_SINCE_REBOOT\",\"STEP_TIME\",\"STEP_COUNT\") VALUES (?,?,?)");
+        mReplaceState = mConnection.prepareStatement("INSERT OR REPLACE INTO \"STEP_STATE_ENTITY\" " +
+                                                     "(\"_id\",\"COUNT_SINCE_REBOOT\",\"STEP_TIME\",\"STEP_COUNT\") VALUES (?,?,?,?)");
+        for (int i = 0; i < ROLLUP_TABLES.length; i++) {
+            mLoadRollup[i] = mConnection.prepareStatement("SELECT \"START_TIME\",\"STEP_COUNT\" FROM \"" + ROLLUP_TABLES[i] + "\"" +
+                                                          " WHERE \"START_TIME\"=?");
+            mReplaceRollup[i] = mConnection.prepareStatement("INSERT OR REPLACE INTO \"" + ROLLUP_TABLES[i] + "\"" +
+                                                             " (\"START_TIME\",\"STEP_COUNT\") VALUES (?,?)");
+        }
+        mStepTime = System.currentTimeMillis();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        mInsertRecord.close();
+        mReplaceState.close();
+        for (int i = 0; i < ROLLUP_TABLES.length; i++) {
+            mLoadRollup[i].close();
+            mReplaceRollup[i].close();
+        }
+        mConnection.close();
+        for (String suffix : new String[]{"", "-journal", "-wal", "-shm"}) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(mFile.getPath() + suffix).delete();
+        }
+    }
+
+    @Benchmark
+    public void insertRecords() throws SQLException {
+        StepRollup rollup = new StepRollup(mLatestRecord);
+        StepRecord last = null;
+        for (int i = 0; i < mBatchSize; i++) {
+            mStepTime += RECORD_INTERVAL;
+            mStepCount += 15;
+            last = new StepRecord(mStepCount, mStepTime, mStepCount);
+            rollup.add(last);
+            mInsertRecord.setLong(1, last.getCountSinceReboot());
+            mInsertRecord.setLong(2, last.getStepTime());
+            mInsertRecord.setLong(3, last.getStepCount());
+            mInsertRecord.addBatch();
+        }
+        mInsertRecord.executeBatch();
+        updateRollup(0, rollup.getMinuteDeltas());
+        updateRollup(1, rollup.getHourDeltas());
+        updateRollup(2, rollup.getDayDeltas());
+        mReplaceState.setLong(1, STATE_ID);
+        mReplaceState.setLong(2, last.getCountSinceReboot());
+        mReplaceState.setLong(3, last.getStepTime());
+        mReplaceState.setLong(4, last.getStepCount());
+        mReplaceState.executeUpdate();
+        mConnection.commit();
+        mLatestRecord = last;
+    }
+
+    /**
+     * 每个时间段一次load和一次insertOrReplace，和greenDAO的StepXxxEntityDao执行的语句相同
+     */
+    private void updateRollup(int table, Map<Long, Long> deltas) throws SQLException {
+        PreparedStatement load = mLoadRollup[table];
+        PreparedStatement replace = mReplaceRollup[table];
+        for (Map.Entry<Long, Long> delta : deltas.entrySet()) {
+            long stepCount = 0;
+            load.setLong(1, delta.getKey());
+            ResultSet result = load.executeQuery();
+            try {
+                if (result.next()) {
+                    stepCount = result.getLong(2);
+                }
+            } finally {
+                result.close();
+            }
+            replace.setLong(1, delta.getKey());
+            replace.setLong(2, stepCount + delta.getValue());
+            replace.executeUpdate();
+        }
+    }
+}
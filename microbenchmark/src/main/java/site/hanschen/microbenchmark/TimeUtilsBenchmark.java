@@ -0,0 +1,52 @@
+package site.hanschen.microbenchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import site.hanschen.runwithyou.utils.TimeUtils;
+
+/**
+ * {@link TimeUtils#isSameDayOfMillis(long, long)}在两个时间相差不到一天时要计算两次时区偏移
+ *
+ * @author HansChen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeUtilsBenchmark {
+
+    // 不能是final，否则JIT可能把结果当作常量折叠
+    private long mNow     = System.currentTimeMillis();
+    private long mHourAgo = mNow - TimeUnit.HOURS.toMillis(1);
+    private long mWeekAgo = mNow - TimeUnit.DAYS.toMillis(7);
+
+    @Benchmark
+    public boolean isSameDayOfMillis() {
+        return TimeUtils.isSameDayOfMillis(mHourAgo, mNow);
+    }
+
+    /**
+     * 相差超过一天，不需要计算时区偏移
+     */
+    @Benchmark
+    public boolean isSameDayOfMillisFarApart() {
+        return TimeUtils.isSameDayOfMillis(mWeekAgo, mNow);
+    }
+
+    @Benchmark
+    public long startOfDay() {
+        return TimeUtils.startOfDay(mNow);
+    }
+}
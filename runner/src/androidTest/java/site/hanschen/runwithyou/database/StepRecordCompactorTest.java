@@ -0,0 +1,177 @@
+package site.hanschen.runwithyou.database;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.greenrobot.greendao.database.Database;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import site.hanschen.runwithyou.database.entity.StepRecordEntity;
+import site.hanschen.runwithyou.database.gen.DaoMaster;
+import site.hanschen.runwithyou.database.gen.DaoSession;
+import site.hanschen.runwithyou.database.gen.StepRecordEntityDao;
+import site.hanschen.runwithyou.database.repository.SettingRepository;
+import site.hanschen.runwithyou.utils.TimeUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author HansChen
+ */
+@RunWith(AndroidJUnit4.class)
+public class StepRecordCompactorTest {
+
+    private static final String DB_NAME        = "compactor-test-db";
+    private static final int    RETENTION_DAYS = 3;
+    private static final long   DAY            = TimeUnit.DAYS.toMillis(1);
+    private static final long   INTERVAL       = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * 2017-01-10 12:00(本地时间)，避开夏令时切换
+     */
+    private static final long NOW = TimeUtils.startOfDay(1484049600000L) + DAY / 2;
+
+    private Context          mContext;
+    private RunnerOpenHelper mHelper;
+    private DaoSession       mSession;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new RunnerOpenHelper(mContext, DB_NAME, null);
+        mSession = new DaoMaster(mHelper.getWritableDatabase()).newSession();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void keepLastRecordPerHourBeforeCutoff() throws Exception {
+        long cutoff = TimeUtils.startOfDay(NOW - RETENTION_DAYS * DAY);
+        List<StepRecordEntity> expected = new ArrayList<>();
+        List<StepRecordEntity> records = new ArrayList<>();
+        long stepCount = 0;
+        for (long time = cutoff - 3 * DAY; time <= NOW; time += INTERVAL) {
+            stepCount = TimeUtils.isSameDayOfMillis(time, time - INTERVAL) ? stepCount + 100 : 100;
+            StepRecordEntity record = new StepRecordEntity(null, stepCount, time, stepCount);
+            records.add(record);
+            // 截止时间前每小时只剩最后一条(xx:50)，之后的记录全部保留
+            if (time >= cutoff || time + INTERVAL == TimeUtils.startOfHour(time) + TimeUnit.HOURS.toMillis(1)) {
+                expected.add(record);
+            }
+        }
+        StepRecordEntityDao dao = mSession.getStepRecordEntityDao();
+        dao.insertInTx(records);
+        dao.detachAll();
+
+        // 每小时6条记录，批次大小7保证同一小时的记录跨越多个批次
+        StepRecordCompactor compactor = new StepRecordCompactor(mSession, new FakeSettingRepository(), 7, 0);
+        StepRecordCompactor.Progress progress = compactor.compact(NOW);
+
+        assertEquals(cutoff, progress.getCutoffTime());
+        assertEquals(3 * TimeUnit.DAYS.toHours(1) * 6, progress.getScannedCount());
+        assertEquals(records.size() - expected.size(), progress.getDeletedCount());
+
+        List<StepRecordEntity> remaining = dao.queryBuilder().orderAsc(StepRecordEntityDao.Properties.Id).list();
+        assertEquals(expected.size(), remaining.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getStepTime(), remaining.get(i).getStepTime());
+            assertEquals(expected.get(i).getStepCount(), remaining.get(i).getStepCount());
+        }
+
+        // 再次压缩没有可以删除的记录
+        assertEquals(0, compactor.compact(NOW).getDeletedCount());
+    }
+
+    @Test
+    public void reclaimSpaceIncrementally() throws Exception {
+        Database db = mSession.getDatabase();
+        assertEquals(StepRecordCompactor.AUTO_VACUUM_INCREMENTAL, StepRecordCompactor.queryLong(db, "PRAGMA auto_vacuum"));
+
+        List<StepRecordEntity> records = new ArrayList<>();
+        for (long time = NOW - 10 * DAY; time < NOW - 5 * DAY; time += TimeUnit.SECONDS.toMillis(10)) {
+            records.add(new StepRecordEntity(null, 1, time, 1));
+        }
+        mSession.getStepRecordEntityDao().insertInTx(records);
+        mSession.getStepRecordEntityDao().detachAll();
+
+        StepRecordCompactor.Progress progress = new StepRecordCompactor(mSession, new FakeSettingRepository()).compact(NOW);
+        assertTrue(progress.getDeletedCount() > 0);
+        assertTrue(progress.getVacuumedPages() > 0);
+        assertEquals(0, StepRecordCompactor.queryLong(db, "PRAGMA freelist_count"));
+    }
+
+    @Test
+    public void switchExistingDatabaseWhenAllowed() throws Exception {
+        // 升级前创建的数据库没有增量auto_vacuum
+        Database db = mSession.getDatabase();
+        db.execSQL("PRAGMA auto_vacuum = NONE");
+        db.execSQL("VACUUM");
+        assertEquals(0, StepRecordCompactor.queryLong(db, "PRAGMA auto_vacuum"));
+
+        List<StepRecordEntity> records = new ArrayList<>();
+        for (long time = NOW - 10 * DAY; time < NOW - 5 * DAY; time += TimeUnit.SECONDS.toMillis(10)) {
+            records.add(new StepRecordEntity(null, 1, time, 1));
+        }
+        mSession.getStepRecordEntityDao().insertInTx(records);
+        mSession.getStepRecordEntityDao().detachAll();
+
+        FakeConditions conditions = new FakeConditions();
+        StepRecordCompactor compactor = new StepRecordCompactor(mSession, new FakeSettingRepository());
+        compactor.setConditions(conditions);
+        StepRecordCompactor.Progress progress = compactor.compact(NOW);
+        assertTrue(progress.getDeletedCount() > 0);
+        assertFalse(progress.isSwitchedToIncremental());
+        assertEquals(0, StepRecordCompactor.queryLong(db, "PRAGMA auto_vacuum"));
+        assertTrue(StepRecordCompactor.queryLong(db, "PRAGMA freelist_count") > 0);
+
+        // 充电并且灭屏后切换一次，之后每批删除都会增量回收
+        conditions.mAllowed = true;
+        assertTrue(compactor.compact(NOW).isSwitchedToIncremental());
+        assertEquals(StepRecordCompactor.AUTO_VACUUM_INCREMENTAL, StepRecordCompactor.queryLong(db, "PRAGMA auto_vacuum"));
+        assertEquals(0, StepRecordCompactor.queryLong(db, "PRAGMA freelist_count"));
+        assertFalse(compactor.compact(NOW).isSwitchedToIncremental());
+    }
+
+    private static class FakeConditions implements StepRecordCompactor.Conditions {
+
+        private boolean mAllowed;
+
+        @Override
+        public boolean isFullVacuumAllowed() {
+            return mAllowed;
+        }
+    }
+
+    private static class FakeSettingRepository implements SettingRepository {
+
+        @Override
+        public int getTargetStep() {
+            return 0;
+        }
+
+        @Override
+        public boolean isForegroundService() {
+            return false;
+        }
+
+        @Override
+        public int getRawRecordRetentionDays() {
+            return RETENTION_DAYS;
+        }
+    }
+}
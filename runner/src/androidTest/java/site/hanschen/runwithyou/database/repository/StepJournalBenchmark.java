@@ -0,0 +1,171 @@
+package site.hanschen.runwithyou.database.repository;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.greenrobot.greendao.database.Database;
+import org.greenrobot.greendao.database.StandardDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.database.RunnerOpenHelper;
+import site.hanschen.runwithyou.database.entity.StepRecordEntity;
+import site.hanschen.runwithyou.database.gen.DaoMaster;
+import site.hanschen.runwithyou.database.gen.StepRecordEntityDao;
+import site.hanschen.runwithyou.database.journal.StepJournal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * 比较{@link StepJournalRepository}和{@link StepRepositoryImpl}的写入耗时与磁盘占用，结果输出到logcat。
+ * 与JMH一样先预热再测量，每次批量写入{@link StepRecordWriter#DEFAULT_FLUSH_SIZE}条记录。
+ * 数据库文件还包括汇总表、状态表和索引，所以另外把相同的记录写入只有原始记录表的数据库，和段文件的实际长度比较
+ *
+ * @author HansChen
+ */
+@RunWith(AndroidJUnit4.class)
+public class StepJournalBenchmark {
+
+    private static final String TAG                   = "StepJournalBenchmark";
+    private static final String DB_NAME               = "benchmark-journal-db";
+    private static final String RAW_DB_NAME           = "benchmark-journal-raw-db";
+    private static final String JOURNAL_DIR           = "benchmark-journal";
+    private static final int    WARMUP_ITERATIONS     = 3;
+    private static final int    MEASURE_ITERATIONS    = 5;
+    private static final int    RECORDS_PER_ITERATION = 3000;
+
+    private Context mContext;
+    private File    mJournalDir;
+    private long    mStepTime;
+    private long    mStepCount;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mJournalDir = new File(mContext.getFilesDir(), JOURNAL_DIR);
+        cleanUp();
+        mStepTime = 1490000000000L;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cleanUp();
+    }
+
+    @Test
+    public void compareWriteCost() throws Exception {
+        RunnerOpenHelper helper = new RunnerOpenHelper(mContext, DB_NAME, null);
+        StepRepository database = new StepRepositoryImpl(new DaoMaster(helper.getWritableDatabase()).newSession());
+        StepJournal journal = new StepJournal(mJournalDir);
+        StepRepository journalRepository = new StepJournalRepository(journal);
+
+        double databaseNanos = measure("greenDAO", database);
+        double journalNanos = measure("journal", journalRepository);
+
+        assertNotNull(journalRepository.getLatestRecord());
+        assertEquals(database.getLatestRecord().getStepTime(), journalRepository.getLatestRecord().getStepTime());
+
+        long rawTableBytes = writeRawTable(journal);
+        long journalUsedBytes = journal.getUsedBytes();
+        long journalFileBytes = journal.getFileBytes();
+        helper.close();
+        journal.close();
+        long databaseBytes = mContext.getDatabasePath(DB_NAME).length();
+
+        Log.i(TAG, String.format(Locale.US, "write: greenDAO %.0f ns/record, journal %.0f ns/record (%.1fx)",
+                                 databaseNanos, journalNanos, databaseNanos / journalNanos));
+        Log.i(TAG, String.format(Locale.US, "disk: greenDAO %d bytes (raw table only %d bytes), journal files %d bytes (written %d bytes)",
+                                 databaseBytes, rawTableBytes, journalFileBytes, journalUsedBytes));
+        Log.i(TAG, String.format(Locale.US, "disk: raw table / journal files %.2fx",
+                                 (double) rawTableBytes / journalFileBytes));
+    }
+
+    /**
+     * 把日志中的全部记录写入只有原始记录表(包括它的索引)的数据库，不计时
+     *
+     * @return 关闭后数据库文件的长度
+     */
+    private long writeRawTable(StepJournal journal) throws Exception {
+        SQLiteDatabase sqLiteDatabase = mContext.openOrCreateDatabase(RAW_DB_NAME, Context.MODE_PRIVATE, null);
+        Database db = new StandardDatabase(sqLiteDatabase);
+        StepRecordEntityDao.createTable(db, false);
+        final StepRecordEntityDao dao = new DaoMaster(db).newSession().getStepRecordEntityDao();
+        final List<StepRecordEntity> entities = new ArrayList<>(StepRecordWriter.DEFAULT_FLUSH_SIZE);
+        journal.readAfter(0, Integer.MAX_VALUE, new StepJournal.Visitor() {
+            @Override
+            public void visit(StepRecord record) {
+                entities.add(new StepRecordEntity(null, record.getCountSinceReboot(), record.getStepTime(), record.getStepCount()));
+                if (entities.size() == StepRecordWriter.DEFAULT_FLUSH_SIZE) {
+                    dao.insertInTx(entities);
+                    entities.clear();
+                }
+            }
+        });
+        dao.insertInTx(entities);
+        sqLiteDatabase.close();
+        return mContext.getDatabasePath(RAW_DB_NAME).length();
+    }
+
+    /**
+     * @return 测量阶段平均每条记录的写入耗时(纳秒)
+     */
+    private double measure(String name, StepRepository repository) {
+        long saved = mStepTime;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runIteration(repository);
+        }
+        long total = 0;
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            long nanos = runIteration(repository);
+            Log.i(TAG, String.format(Locale.US, "%s iteration %d: %.0f ns/record", name, i, (double) nanos / RECORDS_PER_ITERATION));
+            total += nanos;
+        }
+        // 两个实现写入相同的数据
+        mStepTime = saved;
+        mStepCount = 0;
+        return (double) total / (MEASURE_ITERATIONS * RECORDS_PER_ITERATION);
+    }
+
+    private long runIteration(StepRepository repository) {
+        List<List<StepRecord>> batches = new ArrayList<>();
+        List<StepRecord> batch = new ArrayList<>(StepRecordWriter.DEFAULT_FLUSH_SIZE);
+        for (int i = 0; i < RECORDS_PER_ITERATION; i++) {
+            mStepTime += 10000;
+            mStepCount += i % 20;
+            batch.add(new StepRecord(mStepCount, mStepTime, mStepCount % 30000));
+            if (batch.size() == StepRecordWriter.DEFAULT_FLUSH_SIZE) {
+                batches.add(batch);
+                batch = new ArrayList<>(StepRecordWriter.DEFAULT_FLUSH_SIZE);
+            }
+        }
+        long start = System.nanoTime();
+        for (List<StepRecord> records : batches) {
+            repository.insertRecords(records);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void cleanUp() {
+        mContext.deleteDatabase(DB_NAME);
+        mContext.deleteDatabase(RAW_DB_NAME);
+        File[] files = mJournalDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mJournalDir.delete();
+    }
+}
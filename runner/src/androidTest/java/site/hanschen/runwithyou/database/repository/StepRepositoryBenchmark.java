@@ -0,0 +1,101 @@
+package site.hanschen.runwithyou.database.repository;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.database.RunnerOpenHelper;
+import site.hanschen.runwithyou.database.entity.StepRecordEntity;
+import site.hanschen.runwithyou.database.gen.DaoMaster;
+import site.hanschen.runwithyou.database.gen.DaoSession;
+import site.hanschen.runwithyou.database.gen.StepRecordEntityDao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * 在500万行原始记录上比较{@link StepRepositoryImpl#getLatestRecord()}的冷启动耗时，结果输出到logcat
+ *
+ * @author HansChen
+ */
+@RunWith(AndroidJUnit4.class)
+public class StepRepositoryBenchmark {
+
+    private static final String TAG       = "StepRepositoryBenchmark";
+    private static final String DB_NAME   = "benchmark-runner-db";
+    private static final int    ROW_COUNT = 5_000_000;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void coldStartLatestRecord() throws Exception {
+        RunnerOpenHelper helper = new RunnerOpenHelper(mContext, DB_NAME, null);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long start = System.nanoTime();
+        // 每10秒一条记录，步数单调递增
+        db.execSQL("WITH RECURSIVE seq(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM seq LIMIT " + ROW_COUNT + ") " +
+                   "INSERT INTO \"" + StepRecordEntityDao.TABLENAME + "\" (" +
+                   StepRecordEntityDao.Properties.CountSinceReboot.columnName + ", " +
+                   StepRecordEntityDao.Properties.StepTime.columnName + ", " +
+                   StepRecordEntityDao.Properties.StepCount.columnName + ") " +
+                   "SELECT x, 1400000000000 + x * 10000, x % 30000 FROM seq");
+        Log.i(TAG, "fill " + ROW_COUNT + " rows: " + (System.nanoTime() - start) / 1000000 + "ms");
+
+        StepRecord last = new StepRecord(ROW_COUNT + 1, 1400000000000L + (ROW_COUNT + 1) * 10000L, 1);
+        new StepRepositoryImpl(new DaoMaster(db).newSession()).insertRecord(last);
+        helper.close();
+
+        // 模拟进程重启后的冷启动
+        helper = new RunnerOpenHelper(mContext, DB_NAME, null);
+        DaoSession session = new DaoMaster(helper.getWritableDatabase()).newSession();
+
+        // 和被替换的实现相同，按主键倒序取一条
+        start = System.nanoTime();
+        StepRecordEntity raw = session.getStepRecordEntityDao()
+                                      .queryBuilder()
+                                      .orderDesc(StepRecordEntityDao.Properties.Id)
+                                      .limit(1)
+                                      .unique();
+        long rawNanos = System.nanoTime() - start;
+
+        StepRepositoryImpl repository = new StepRepositoryImpl(session);
+        start = System.nanoTime();
+        StepRecord cold = repository.getLatestRecord();
+        long coldNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        StepRecord cached = repository.getLatestRecord();
+        long cachedNanos = System.nanoTime() - start;
+        helper.close();
+
+        Log.i(TAG, "latest by raw table rowid: " + rawNanos / 1000 + "us");
+        Log.i(TAG, "latest from state row (cold): " + coldNanos / 1000 + "us");
+        Log.i(TAG, "latest from memory cache: " + cachedNanos / 1000 + "us");
+
+        assertNotNull(raw);
+        assertNotNull(cold);
+        assertEquals(raw.getStepTime(), cold.getStepTime());
+        assertEquals(raw.getStepCount(), cold.getStepCount());
+        assertEquals(raw.getCountSinceReboot(), cold.getCountSinceReboot());
+        assertEquals(cold, cached);
+    }
+}
@@ -0,0 +1,91 @@
+package site.hanschen.api;
+
+import io.grpc.ConnectivityState;
+
+/**
+ * {@link ManagedChannelProvider}的连接统计，由{@link ManagedChannelProvider#getMetrics()}生成的快照
+ *
+ * @author HansChen
+ */
+public class ChannelMetrics {
+
+    private final ConnectivityState mState;
+    private final int               mChannelsCreated;
+    private final int               mWarmUps;
+    private final int               mNetworkChanges;
+    private final int               mConnects;
+    private final int               mFailures;
+    private final long              mLastConnectLatency;
+
+    ChannelMetrics(ConnectivityState state,
+                   int channelsCreated,
+                   int warmUps,
+                   int networkChanges,
+                   int connects,
+                   int failures,
+                   long lastConnectLatency) {
+        this.mState = state;
+        this.mChannelsCreated = channelsCreated;
+        this.mWarmUps = warmUps;
+        this.mNetworkChanges = networkChanges;
+        this.mConnects = connects;
+        this.mFailures = failures;
+        this.mLastConnectLatency = lastConnectLatency;
+    }
+
+    /**
+     * @return 当前channel的状态，还没有创建channel时为{@link ConnectivityState#IDLE}
+     */
+    public ConnectivityState getState() {
+        return mState;
+    }
+
+    /**
+     * @return 创建过的channel数，网络切换后会重建
+     */
+    public int getChannelsCreated() {
+        return mChannelsCreated;
+    }
+
+    public int getWarmUps() {
+        return mWarmUps;
+    }
+
+    public int getNetworkChanges() {
+        return mNetworkChanges;
+    }
+
+    /**
+     * @return 进入{@link ConnectivityState#READY}的次数
+     */
+    public int getConnects() {
+        return mConnects;
+    }
+
+    /**
+     * @return 进入{@link ConnectivityState#TRANSIENT_FAILURE}的次数
+     */
+    public int getFailures() {
+        return mFailures;
+    }
+
+    /**
+     * @return 最近一次从开始连接到{@link ConnectivityState#READY}的毫秒数，没有连接过时为-1
+     */
+    public long getLastConnectLatency() {
+        return mLastConnectLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelMetrics{" +
+                "mState=" + mState +
+                ", mChannelsCreated=" + mChannelsCreated +
+                ", mWarmUps=" + mWarmUps +
+                ", mNetworkChanges=" + mNetworkChanges +
+                ", mConnects=" + mConnects +
+                ", mFailures=" + mFailures +
+                ", mLastConnectLatency=" + mLastConnectLatency +
+                '}';
+    }
+}
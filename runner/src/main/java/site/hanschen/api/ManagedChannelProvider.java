@@ -0,0 +1,301 @@
+package site.hanschen.api;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.reactivex.Scheduler;
+
+/**
+ * 管理一个gRPC连接的生命周期：
+ * <ul>
+ * <li>{@link #warmUp()}在后台创建channel并提前建立连接，第一次调用不需要等待TCP和HTTP/2握手</li>
+ * <li>{@link #onNetworkChanged()}在网络切换后重建channel，不必等keepalive发现旧连接已经断开</li>
+ * <li>{@link #getMetrics()}统计连接状态</li>
+ * </ul>
+ * stub都使用{@link #getChannel()}，底层的channel重建后不需要重新创建stub
+ *
+ * @author HansChen
+ */
+public class ManagedChannelProvider {
+
+    public interface Factory {
+
+        /**
+         * 创建一个新的channel，keepalive和空闲超时在这里配置
+         */
+        ManagedChannel create();
+    }
+
+    private final Factory              mFactory;
+    private final Scheduler            mScheduler;
+    private final ManagedChannel       mChannel = new SwitchingChannel();
+    private final Object               mLock    = new Object();
+    /* 网络切换后被替换的channel，等待已有的调用结束 */
+    private final List<ManagedChannel> mRetired = new ArrayList<>();
+
+    private ManagedChannel mCurrent;
+    private boolean        mShutdown;
+    private long           mConnectingSince = -1;
+
+    private int  mChannelsCreated;
+    private int  mWarmUps;
+    private int  mNetworkChanges;
+    private int  mConnects;
+    private int  mFailures;
+    private long mLastConnectLatency = -1;
+
+    /**
+     * @param scheduler 执行创建channel和发起连接的线程
+     */
+    public ManagedChannelProvider(Factory factory, Scheduler scheduler) {
+        this.mFactory = factory;
+        this.mScheduler = scheduler;
+    }
+
+    public ManagedChannel getChannel() {
+        return mChannel;
+    }
+
+    /**
+     * 在后台创建channel并开始连接，不等待连接完成
+     */
+    public void warmUp() {
+        mScheduler.scheduleDirect(new Runnable() {
+            @Override
+            public void run() {
+                requestConnection();
+            }
+        });
+    }
+
+    /**
+     * 网络切换后旧的连接已经不可用，创建新的channel并开始连接，旧的channel在已有的调用结束后关闭。
+     * 还没有创建过channel时不需要处理，第一次使用时会在新的网络上连接
+     */
+    public void onNetworkChanged() {
+        mScheduler.scheduleDirect(new Runnable() {
+            @Override
+            public void run() {
+                ManagedChannel old;
+                synchronized (mLock) {
+                    if (mShutdown || mCurrent == null) {
+                        return;
+                    }
+                    mNetworkChanges++;
+                    old = mCurrent;
+                    mRetired.add(old);
+                    mCurrent = createLocked();
+                }
+                old.shutdown();
+                requestConnection();
+            }
+        });
+    }
+
+    public ChannelMetrics getMetrics() {
+        synchronized (mLock) {
+            ConnectivityState state = mCurrent == null ? ConnectivityState.IDLE : mCurrent.getState(false);
+            return new ChannelMetrics(state,
+                                      mChannelsCreated,
+                                      mWarmUps,
+                                      mNetworkChanges,
+                                      mConnects,
+                                      mFailures,
+                                      mLastConnectLatency);
+        }
+    }
+
+    private void requestConnection() {
+        ManagedChannel channel = current();
+        synchronized (mLock) {
+            if (mShutdown || channel != mCurrent || channel.getState(false) != ConnectivityState.IDLE) {
+                return;
+            }
+            mWarmUps++;
+            mConnectingSince = mScheduler.now(TimeUnit.MILLISECONDS);
+        }
+        channel.getState(true);
+    }
+
+    private ManagedChannel current() {
+        synchronized (mLock) {
+            if (mCurrent == null) {
+                mCurrent = createLocked();
+                if (mShutdown) {
+                    // 关闭后的调用和已关闭的channel一样直接失败
+                    mCurrent.shutdown();
+                }
+            }
+            return mCurrent;
+        }
+    }
+
+    private ManagedChannel createLocked() {
+        Iterator<ManagedChannel> iterator = mRetired.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isTerminated()) {
+                iterator.remove();
+            }
+        }
+        ManagedChannel channel = mFactory.create();
+        mChannelsCreated++;
+        mConnectingSince = -1;
+        watch(channel, ConnectivityState.IDLE);
+        return channel;
+    }
+
+    private void watch(final ManagedChannel channel, ConnectivityState state) {
+        channel.notifyWhenStateChanged(state, new Runnable() {
+            @Override
+            public void run() {
+                ConnectivityState now = channel.getState(false);
+                onStateChanged(channel, now);
+                if (now != ConnectivityState.SHUTDOWN) {
+                    watch(channel, now);
+                }
+            }
+        });
+    }
+
+    private void onStateChanged(ManagedChannel channel, ConnectivityState state) {
+        long now = mScheduler.now(TimeUnit.MILLISECONDS);
+        synchronized (mLock) {
+            if (channel != mCurrent) {
+                return;
+            }
+            switch (state) {
+                case CONNECTING:
+                    if (mConnectingSince < 0) {
+                        mConnectingSince = now;
+                    }
+                    break;
+                case READY:
+                    mConnects++;
+                    if (mConnectingSince >= 0) {
+                        mLastConnectLatency = now - mConnectingSince;
+                    }
+                    mConnectingSince = -1;
+                    break;
+                case TRANSIENT_FAILURE:
+                    // 重试的时间也算在这次连接中
+                    mFailures++;
+                    break;
+                default:
+                    mConnectingSince = -1;
+                    break;
+            }
+        }
+    }
+
+    private void shutdown(boolean now) {
+        List<ManagedChannel> channels;
+        synchronized (mLock) {
+            mShutdown = true;
+            channels = new ArrayList<>(mRetired);
+            if (mCurrent != null) {
+                channels.add(mCurrent);
+            }
+        }
+        for (ManagedChannel channel : channels) {
+            if (now) {
+                channel.shutdownNow();
+            } else {
+                channel.shutdown();
+            }
+        }
+    }
+
+    private List<ManagedChannel> allChannels() {
+        synchronized (mLock) {
+            List<ManagedChannel> channels = new ArrayList<>(mRetired);
+            if (mCurrent != null) {
+                channels.add(mCurrent);
+            }
+            return channels;
+        }
+    }
+
+    /**
+     * 调用转发给当前的channel，关闭时关闭所有channel
+     */
+    private class SwitchingChannel extends ManagedChannel {
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+            return current().newCall(method, callOptions);
+        }
+
+        @Override
+        public String authority() {
+            return current().authority();
+        }
+
+        @Override
+        public ConnectivityState getState(boolean requestConnection) {
+            return current().getState(requestConnection);
+        }
+
+        /**
+         * 只监听当前的channel，网络切换后不会再收到通知
+         */
+        @Override
+        public void notifyWhenStateChanged(ConnectivityState source, Runnable callback) {
+            current().notifyWhenStateChanged(source, callback);
+        }
+
+        @Override
+        public void resetConnectBackoff() {
+            current().resetConnectBackoff();
+        }
+
+        @Override
+        public ManagedChannel shutdown() {
+            ManagedChannelProvider.this.shutdown(false);
+            return this;
+        }
+
+        @Override
+        public ManagedChannel shutdownNow() {
+            ManagedChannelProvider.this.shutdown(true);
+            return this;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            synchronized (mLock) {
+                return mShutdown;
+            }
+        }
+
+        @Override
+        public boolean isTerminated() {
+            if (!isShutdown()) {
+                return false;
+            }
+            for (ManagedChannel channel : allChannels()) {
+                if (!channel.isTerminated()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            for (ManagedChannel channel : allChannels()) {
+                if (!channel.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+            return isTerminated();
+        }
+    }
+}
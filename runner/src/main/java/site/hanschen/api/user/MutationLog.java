@@ -0,0 +1,122 @@
+package site.hanschen.api.user;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 只追加的{@link OutboxEntry}日志，每条记录(大端):
+ * <pre>
+ * int length | int crc | length bytes OutboxEntry
+ * </pre>
+ * crc是OutboxEntry的CRC32。每次追加后都同步到磁盘，打开时以第一条不完整或校验失败的记录为结尾，截掉之后的数据
+ *
+ * @author HansChen
+ */
+class MutationLog implements Closeable {
+
+    private static final int HEADER_SIZE = 8;
+    /* 单条记录不会超过这个大小，超过说明长度字段已经损坏 */
+    private static final int MAX_ENTRY_SIZE = 64 * 1024;
+
+    private final File             mFile;
+    private final CRC32            mCrc = new CRC32();
+    private       RandomAccessFile mRaf;
+
+    MutationLog(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create outbox directory: " + dir);
+        }
+        this.mFile = file;
+        this.mRaf = new RandomAccessFile(file, "rw");
+    }
+
+    /**
+     * @return 按写入顺序的所有完整记录
+     */
+    List<OutboxEntry> readAll() throws IOException {
+        List<OutboxEntry> entries = new ArrayList<>();
+        long length = mRaf.length();
+        long position = 0;
+        mRaf.seek(0);
+        while (position + HEADER_SIZE <= length) {
+            int size = mRaf.readInt();
+            int crc = mRaf.readInt();
+            if (size < 0 || size > MAX_ENTRY_SIZE || position + HEADER_SIZE + size > length) {
+                break;
+            }
+            byte[] data = new byte[size];
+            mRaf.readFully(data);
+            if (crc(data) != crc) {
+                break;
+            }
+            entries.add(OutboxEntry.parseFrom(data));
+            position += HEADER_SIZE + size;
+        }
+        if (position < length) {
+            // 追加时崩溃留下的残缺记录
+            mRaf.setLength(position);
+        }
+        return entries;
+    }
+
+    void append(OutboxEntry entry) throws IOException {
+        byte[] data = entry.toByteArray();
+        byte[] record = new byte[HEADER_SIZE + data.length];
+        putInt(record, 0, data.length);
+        putInt(record, 4, crc(data));
+        System.arraycopy(data, 0, record, HEADER_SIZE, data.length);
+        mRaf.seek(mRaf.length());
+        mRaf.write(record);
+        mRaf.getFD().sync();
+    }
+
+    /**
+     * 用entries替换整个日志，先写到临时文件再替换，过程中崩溃不会丢失原来的日志
+     */
+    void rewrite(List<OutboxEntry> entries) throws IOException {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        MutationLog log = new MutationLog(tmp);
+        try {
+            log.mRaf.setLength(0);
+            for (OutboxEntry entry : entries) {
+                log.append(entry);
+            }
+        } finally {
+            log.close();
+        }
+        mRaf.close();
+        if (!tmp.renameTo(mFile)) {
+            mRaf = new RandomAccessFile(mFile, "rw");
+            throw new IOException("Cannot replace outbox log: " + mFile);
+        }
+        mRaf = new RandomAccessFile(mFile, "rw");
+    }
+
+    long length() throws IOException {
+        return mRaf.length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRaf.close();
+    }
+
+    private int crc(byte[] data) {
+        mCrc.reset();
+        mCrc.update(data, 0, data.length);
+        return (int) mCrc.getValue();
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,75 @@
+package site.hanschen.api.user;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * 上传调用的流量控制：只在{@link ClientCallStreamObserver#isReady()}时从{@link StepBatchSource}读取下一批，
+ * 不会把整个历史都读到内存中排队。回复交给{@link UnaryCall}的observer
+ *
+ * @author HansChen
+ */
+class StepBatchSender implements ClientResponseObserver<StepBatch, UploadCheckpoint> {
+
+    private final StepBatchSource                  mSource;
+    private final StreamObserver<UploadCheckpoint> mReplyObserver;
+
+    private ClientCallStreamObserver<StepBatch> mRequests;
+    private boolean                             mDone;
+
+    StepBatchSender(StepBatchSource source, StreamObserver<UploadCheckpoint> replyObserver) {
+        this.mSource = source;
+        this.mReplyObserver = replyObserver;
+    }
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<StepBatch> requests) {
+        mRequests = requests;
+        requests.setOnReadyHandler(new Runnable() {
+            @Override
+            public void run() {
+                sendWhileReady();
+            }
+        });
+    }
+
+    private void sendWhileReady() {
+        if (mDone) {
+            return;
+        }
+        try {
+            // 服务端提前结束时onError可能在onNext中直接回调
+            while (!mDone && mRequests.isReady()) {
+                StepBatch batch = mSource.next();
+                if (batch == null) {
+                    mDone = true;
+                    mRequests.onCompleted();
+                    return;
+                }
+                mRequests.onNext(batch);
+            }
+        } catch (Exception e) {
+            mDone = true;
+            // 取消调用，错误通过onError交给下游
+            mRequests.onError(e);
+        }
+    }
+
+    @Override
+    public void onNext(UploadCheckpoint reply) {
+        mReplyObserver.onNext(reply);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        mDone = true;
+        mReplyObserver.onError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+        mDone = true;
+        mReplyObserver.onCompleted();
+    }
+}
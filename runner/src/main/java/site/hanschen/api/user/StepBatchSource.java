@@ -0,0 +1,20 @@
+package site.hanschen.api.user;
+
+import android.support.annotation.Nullable;
+
+/**
+ * 按需提供上传的{@link StepBatch}，只在连接可以继续发送时才读取下一批
+ *
+ * @author HansChen
+ */
+public interface StepBatchSource {
+
+    /**
+     * 在gRPC的回调线程中调用，不会并发调用
+     *
+     * @return 下一批记录，没有更多记录时返回null
+     * @throws Exception 读取失败，上传会被取消
+     */
+    @Nullable
+    StepBatch next() throws Exception;
+}
@@ -0,0 +1,84 @@
+package site.hanschen.api.user;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+
+/**
+ * {@link StepRecord}和{@link StepBatch}之间的转换，客户端和服务端共用
+ *
+ * @author HansChen
+ */
+public final class StepBatches {
+
+    private StepBatches() {
+        /* cannot be instantiated */
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    /**
+     * @param deviceId     序号所属的安装标识
+     * @param baseTime     这一批之前最后一条记录的时间
+     * @param baseSequence 这一批之前最后一条记录的序号
+     * @param records      按序号升序，序号都大于baseSequence，时间可能倒退
+     */
+    public static StepBatch encode(String token, String deviceId, long baseTime, long baseSequence, List<StepRecord> records) {
+        StepBatch.Builder builder = StepBatch.newBuilder()
+                                             .setToken(token)
+                                             .setDeviceId(deviceId)
+                                             .setBaseTime(baseTime)
+                                             .setBaseSequence(baseSequence);
+        long time = baseTime;
+        long sequence = baseSequence;
+        long count = 0;
+        long rebootCount = 0;
+        for (StepRecord record : records) {
+            builder.addTimeDeltas(record.getStepTime() - time);
+            builder.addSequenceDeltas(record.getSequence() - sequence);
+            builder.addCountDeltas(record.getStepCount() - count);
+            builder.addRebootCountDeltas(record.getCountSinceReboot() - rebootCount);
+            time = record.getStepTime();
+            sequence = record.getSequence();
+            count = record.getStepCount();
+            rebootCount = record.getCountSinceReboot();
+        }
+        return builder.build();
+    }
+
+    public static List<StepRecord> decode(StepBatch batch) {
+        int size = checkSize(batch);
+        List<StepRecord> records = new ArrayList<>(size);
+        long time = batch.getBaseTime();
+        long sequence = batch.getBaseSequence();
+        long count = 0;
+        long rebootCount = 0;
+        for (int i = 0; i < size; i++) {
+            time += batch.getTimeDeltas(i);
+            sequence += batch.getSequenceDeltas(i);
+            count += batch.getCountDeltas(i);
+            rebootCount += batch.getRebootCountDeltas(i);
+            StepRecord record = new StepRecord(rebootCount, time, count);
+            record.setSequence(sequence);
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * @return 这一批的记录数
+     * @throws IllegalArgumentException 各个差值数组的长度不一致
+     */
+    private static int checkSize(StepBatch batch) {
+        int size = batch.getTimeDeltasCount();
+        if (batch.getSequenceDeltasCount() != size
+            || batch.getCountDeltasCount() != size
+            || batch.getRebootCountDeltasCount() != size) {
+            throw new IllegalArgumentException("malformed batch: " + size + " times, "
+                                               + batch.getSequenceDeltasCount() + " sequences, "
+                                               + batch.getCountDeltasCount() + " counts, "
+                                               + batch.getRebootCountDeltasCount() + " reboot counts");
+        }
+        return size;
+    }
+}
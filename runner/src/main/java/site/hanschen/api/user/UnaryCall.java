@@ -0,0 +1,64 @@
+package site.hanschen.api.user;
+
+import io.grpc.Context;
+import io.grpc.stub.StreamObserver;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.functions.Cancellable;
+
+/**
+ * 把异步stub的一次调用转换成{@link io.reactivex.Single}：订阅时才发起调用，
+ * 结果在gRPC的回调线程中发出，取消订阅时通过{@link Context.CancellableContext}取消调用
+ *
+ * @author HansChen
+ */
+abstract class UnaryCall<T> implements SingleOnSubscribe<T> {
+
+    /**
+     * 使用异步stub发起调用，结果交给observer
+     */
+    protected abstract void start(StreamObserver<T> observer);
+
+    @Override
+    public void subscribe(final SingleEmitter<T> emitter) throws Exception {
+        final Context.CancellableContext context = Context.current().withCancellation();
+        emitter.setCancellable(new Cancellable() {
+            @Override
+            public void cancel() throws Exception {
+                // 调用结束后也会执行，此时没有影响
+                context.cancel(null);
+            }
+        });
+        context.run(new Runnable() {
+            @Override
+            public void run() {
+                start(new StreamObserver<T>() {
+
+                    private T mReply;
+
+                    @Override
+                    public void onNext(T value) {
+                        mReply = value;
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        // 取消订阅导致的CANCELLED不再需要交给下游
+                        if (!emitter.isDisposed()) {
+                            emitter.onError(t);
+                        }
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        if (mReply != null) {
+                            emitter.onSuccess(mReply);
+                        } else if (!emitter.isDisposed()) {
+                            emitter.onError(new IllegalStateException("call completed without a reply"));
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
@@ -6,7 +6,6 @@ import java.util.concurrent.TimeUnit;
 
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
-import site.hanschen.runwithyou.utils.MD5Utils;
 
 /**
  * @author HansChen
@@ -16,7 +15,6 @@ public class UserCenterApiImpl implements UserCenterApi {
 
     private final ManagedChannel                        channel;
     private final UserCenterGrpc.UserCenterBlockingStub blockingStub;
-    private final UserCenterGrpc.UserCenterStub         asyncStub;
 
 
     /**
@@ -31,9 +29,15 @@ public class UserCenterApiImpl implements UserCenterApi {
      * Construct client for accessing UserCenter server using the existing channel.
      */
     public UserCenterApiImpl(ManagedChannelBuilder<?> channelBuilder) {
-        channel = channelBuilder.build();
+        this(channelBuilder.build());
+    }
+
+    /**
+     * Construct client for accessing UserCenter server using the existing channel.
+     */
+    public UserCenterApiImpl(ManagedChannel channel) {
+        this.channel = channel;
         blockingStub = UserCenterGrpc.newBlockingStub(channel);
-        asyncStub = UserCenterGrpc.newStub(channel);
     }
 
     public void shutdown() throws InterruptedException {
@@ -42,55 +46,36 @@ public class UserCenterApiImpl implements UserCenterApi {
 
     @Override
     public LoginReply login(final String username, final String password) {
-        LoginInfo info = LoginInfo.newBuilder().setUsername(username).setPasswordMd5(MD5Utils.getMD5(password)).build();
-        return blockingStub.login(info);
+        return blockingStub.login(UserCenterRequests.login(username, password));
     }
 
     @Override
     public VerificationReply requestVerificationCode(String email) {
-        VerificationRequest request = VerificationRequest.newBuilder().setEmail(email).build();
-        return blockingStub.requestVerificationCode(request);
+        return blockingStub.requestVerificationCode(UserCenterRequests.verification(email));
     }
 
     @Override
     public RegisterReply register(final String email, final String verificationCode, final String password) {
-        RegisterInfo info = RegisterInfo.newBuilder()
-                                        .setEmail(email)
-                                        .setPassword(password)
-                                        .setVerificationCode(verificationCode)
-                                        .setPasswordMd5(MD5Utils.getMD5(password))
-                                        .build();
-        return blockingStub.register(info);
+        return blockingStub.register(UserCenterRequests.register(email, verificationCode, password));
     }
 
     @Override
     public AuthorizationReply requestAuthorization(final String username, final String password) {
-        AuthorizationRequest info = AuthorizationRequest.newBuilder()
-                                                        .setUsername(username)
-                                                        .setPasswordMd5(MD5Utils.getMD5(password))
-                                                        .build();
-        return blockingStub.requestAuthorization(info);
+        return blockingStub.requestAuthorization(UserCenterRequests.authorization(username, password));
     }
 
     @Override
     public NewPasswordReply changePassword(final String token, final String newPassword, final String authorization) {
-        NewPassword password = NewPassword.newBuilder()
-                                          .setToken(token)
-                                          .setNewPassword(MD5Utils.getMD5(newPassword))
-                                          .setAuthorization(authorization)
-                                          .build();
-        return blockingStub.changePassword(password);
+        return blockingStub.changePassword(UserCenterRequests.newPassword(token, newPassword, authorization));
     }
 
     @Override
     public UserInfoReply requestUserInfo(final String token) {
-        OperateToken operateToken = OperateToken.newBuilder().setToken(token).build();
-        return blockingStub.requestUserInfo(operateToken);
+        return blockingStub.requestUserInfo(UserCenterRequests.operateToken(token));
     }
 
     @Override
     public ResultReply updateUserInfo(final String token, final UserInfo userInfo) {
-        UpdateRequest request = UpdateRequest.newBuilder().setToken(token).setUserInfo(userInfo).build();
-        return blockingStub.updateUserInfo(request);
+        return blockingStub.updateUserInfo(UserCenterRequests.update(token, userInfo));
     }
 }
@@ -1,99 +1,97 @@
 package site.hanschen.api.user;
 
+import android.support.annotation.Nullable;
+
 import io.reactivex.Observable;
-import io.reactivex.ObservableEmitter;
-import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.schedulers.Schedulers;
+import io.reactivex.functions.Function;
 
 
 /**
+ * 在主线程中返回{@link UserCenterAsyncApi}的结果，调用过程不占用线程，用户信息经过{@link UserInfoCache}，
+ * 用户信息的修改先保存到{@link UserCenterOutbox}再在后台发送
+ *
  * @author HansChen
  */
 public class UserCenterApiWrapper {
 
-    private UserCenterApi mApi;
+    private UserCenterAsyncApi mApi;
+    private UserInfoCache      mUserInfoCache;
+    private UserCenterOutbox   mOutbox;
 
-    public UserCenterApiWrapper(UserCenterApi api) {
+    public UserCenterApiWrapper(UserCenterAsyncApi api, UserInfoCache userInfoCache, UserCenterOutbox outbox) {
         this.mApi = api;
+        this.mUserInfoCache = userInfoCache;
+        this.mOutbox = outbox;
     }
 
     public Observable<LoginReply> login(final String username, final String password) {
-        return new ObservableApi<LoginReply>() {
-            @Override
-            protected LoginReply getResult() throws Exception {
-                return mApi.login(username, password);
-            }
-        }.create();
+        return onMainThread(mApi.login(username, password));
     }
 
     public Observable<VerificationReply> requestVerificationCode(final String email) {
-        return new ObservableApi<VerificationReply>() {
-            @Override
-            protected VerificationReply getResult() throws Exception {
-                return mApi.requestVerificationCode(email);
-            }
-        }.create();
+        return onMainThread(mApi.requestVerificationCode(email));
     }
 
     public Observable<RegisterReply> register(final String email, final String verificationCode, final String password) {
-        return new ObservableApi<RegisterReply>() {
-            @Override
-            protected RegisterReply getResult() throws Exception {
-                return mApi.register(email, verificationCode, password);
-            }
-        }.create();
+        return onMainThread(mApi.register(email, verificationCode, password));
     }
 
     public Observable<AuthorizationReply> requestAuthorization(final String username, final String password) {
-        return new ObservableApi<AuthorizationReply>() {
-            @Override
-            protected AuthorizationReply getResult() throws Exception {
-                return mApi.requestAuthorization(username, password);
-            }
-        }.create();
+        return onMainThread(mApi.requestAuthorization(username, password));
     }
 
+    /**
+     * 直接发送，返回服务端的结果，新密码和授权码不会保存到本地
+     */
     public Observable<NewPasswordReply> changePassword(final String token, final String newPassword, final String authorization) {
-        return new ObservableApi<NewPasswordReply>() {
-            @Override
-            protected NewPasswordReply getResult() throws Exception {
-                return mApi.changePassword(token, newPassword, authorization);
-            }
-        }.create();
+        return onMainThread(mApi.changePassword(token, newPassword, authorization));
     }
 
+    /**
+     * 有缓存时先返回缓存，缓存过期时后台更新后可能再返回一次。还有没发送的修改时返回修改后的信息
+     *
+     * @see UserInfoCache#requestUserInfo(String)
+     */
     public Observable<UserInfoReply> requestUserInfo(final String token) {
-        return new ObservableApi<UserInfoReply>() {
+        return mUserInfoCache.requestUserInfo(token).map(new Function<UserInfoReply, UserInfoReply>() {
             @Override
-            protected UserInfoReply getResult() throws Exception {
-                return mApi.requestUserInfo(token);
+            public UserInfoReply apply(UserInfoReply reply) throws Exception {
+                UserInfo pending = mOutbox.getPendingUserInfo(token);
+                if (pending == null || !reply.getSucceed()) {
+                    return reply;
+                }
+                return reply.toBuilder().setUserInfo(pending).build();
             }
-        }.create();
+        }).observeOn(AndroidSchedulers.mainThread());
     }
 
-    public Observable<ResultReply> updateUserInfo(final String token, final UserInfo userInfo) {
-        return new ObservableApi<ResultReply>() {
-            @Override
-            protected ResultReply getResult() throws Exception {
-                return mApi.updateUserInfo(token, userInfo);
-            }
-        }.create();
+    /**
+     * 修改保存到本地后就返回幂等键，之后在后台发送，同一个token还没发送的修改只发送最新的一次
+     *
+     * @see UserCenterOutbox#updateUserInfo(String, UserInfo)
+     */
+    public Observable<String> updateUserInfo(final String token, final UserInfo userInfo) {
+        return onMainThread(mOutbox.updateUserInfo(token, userInfo));
     }
 
+    /**
+     * @see UserCenterOutbox#getFailedUserInfo(String)
+     */
+    @Nullable
+    public UserInfo getFailedUserInfo(String token) {
+        return mOutbox.getFailedUserInfo(token);
+    }
 
-    private static abstract class ObservableApi<T> {
-
-        public Observable<T> create() {
-            return Observable.create(new ObservableOnSubscribe<T>() {
-                @Override
-                public void subscribe(ObservableEmitter<T> emitter) throws Exception {
-                    emitter.onNext(getResult());
-                    emitter.onComplete();
-                }
-            }).subscribeOn(Schedulers.io()).observeOn(AndroidSchedulers.mainThread());
-        }
+    /**
+     * @see UserCenterOutbox#discardFailedUserInfo(String)
+     */
+    public void discardFailedUserInfo(String token) {
+        mOutbox.discardFailedUserInfo(token);
+    }
 
-        protected abstract T getResult() throws Exception;
+    private static <T> Observable<T> onMainThread(Single<T> single) {
+        return single.toObservable().observeOn(AndroidSchedulers.mainThread());
     }
 }
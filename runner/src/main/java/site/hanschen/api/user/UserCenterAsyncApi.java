@@ -0,0 +1,79 @@
+package site.hanschen.api.user;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Single;
+
+/**
+ * {@link UserCenterApi}的异步版本，订阅时才发起调用，不占用线程等待结果，
+ * 取消订阅会取消正在进行的调用
+ *
+ * @author HansChen
+ */
+public interface UserCenterAsyncApi {
+
+    /**
+     * @return 使用新的超时时间的实例，超时从每次订阅时开始计算
+     */
+    UserCenterAsyncApi withDeadline(long duration, TimeUnit unit);
+
+    /**
+     * @see UserCenterApi#login(String, String)
+     */
+    Single<LoginReply> login(String username, String password);
+
+    /**
+     * @see UserCenterApi#requestVerificationCode(String)
+     */
+    Single<VerificationReply> requestVerificationCode(String email);
+
+    /**
+     * @see UserCenterApi#register(String, String, String)
+     */
+    Single<RegisterReply> register(String email, String verificationCode, String password);
+
+    /**
+     * @see UserCenterApi#requestAuthorization(String, String)
+     */
+    Single<AuthorizationReply> requestAuthorization(String username, String password);
+
+    /**
+     * @see UserCenterApi#changePassword(String, String, String)
+     */
+    Single<NewPasswordReply> changePassword(String token, String newPassword, String authorization);
+
+    /**
+     * 发送已经构造好的请求，重放待发送的修改时使用，请求中的幂等键保证服务端只执行一次
+     */
+    Single<NewPasswordReply> changePassword(NewPassword request);
+
+    /**
+     * @see UserCenterApi#requestUserInfo(String)
+     */
+    Single<UserInfoReply> requestUserInfo(String token);
+
+    /**
+     * @see UserCenterApi#updateUserInfo(String, UserInfo)
+     */
+    Single<ResultReply> updateUserInfo(String token, UserInfo userInfo);
+
+    /**
+     * 发送已经构造好的请求，重放待发送的修改时使用，请求中的幂等键保证服务端只执行一次
+     */
+    Single<ResultReply> updateUserInfo(UpdateRequest request);
+
+    /**
+     * 获取这个设备的计步记录上传检查点
+     *
+     * @param token    用户标识
+     * @param deviceId 本地序号所属的安装标识
+     */
+    Single<UploadCheckpoint> requestUploadCheckpoint(String token, String deviceId);
+
+    /**
+     * 上传计步记录，连接可以继续发送时才从source读取下一批，source返回null后结束上传
+     *
+     * @return 上传后服务端的检查点
+     */
+    Single<UploadCheckpoint> uploadSteps(StepBatchSource source);
+}
@@ -0,0 +1,144 @@
+package site.hanschen.api.user;
+
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.Channel;
+import io.grpc.stub.StreamObserver;
+import io.reactivex.Single;
+
+/**
+ * 直接使用{@link UserCenterGrpc.UserCenterStub}实现，每次调用都带有超时时间
+ *
+ * @author HansChen
+ */
+public class UserCenterAsyncApiImpl implements UserCenterAsyncApi {
+
+    public static final long DEFAULT_DEADLINE_MILLIS = 10000;
+
+    private final UserCenterGrpc.UserCenterStub mStub;
+    private final long                          mDeadlineMillis;
+
+    public UserCenterAsyncApiImpl(Channel channel) {
+        this(UserCenterGrpc.newStub(channel), DEFAULT_DEADLINE_MILLIS);
+    }
+
+    private UserCenterAsyncApiImpl(UserCenterGrpc.UserCenterStub stub, long deadlineMillis) {
+        this.mStub = stub;
+        this.mDeadlineMillis = deadlineMillis;
+    }
+
+    @Override
+    public UserCenterAsyncApi withDeadline(long duration, TimeUnit unit) {
+        return new UserCenterAsyncApiImpl(mStub, unit.toMillis(duration));
+    }
+
+    private UserCenterGrpc.UserCenterStub stub() {
+        return mStub.withDeadlineAfter(mDeadlineMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Single<LoginReply> login(String username, String password) {
+        final LoginInfo info = UserCenterRequests.login(username, password);
+        return Single.create(new UnaryCall<LoginReply>() {
+            @Override
+            protected void start(StreamObserver<LoginReply> observer) {
+                stub().login(info, observer);
+            }
+        });
+    }
+
+    @Override
+    public Single<VerificationReply> requestVerificationCode(String email) {
+        final VerificationRequest request = UserCenterRequests.verification(email);
+        return Single.create(new UnaryCall<VerificationReply>() {
+            @Override
+            protected void start(StreamObserver<VerificationReply> observer) {
+                stub().requestVerificationCode(request, observer);
+            }
+        });
+    }
+
+    @Override
+    public Single<RegisterReply> register(String email, String verificationCode, String password) {
+        final RegisterInfo info = UserCenterRequests.register(email, verificationCode, password);
+        return Single.create(new UnaryCall<RegisterReply>() {
+            @Override
+            protected void start(StreamObserver<RegisterReply> observer) {
+                stub().register(info, observer);
+            }
+        });
+    }
+
+    @Override
+    public Single<AuthorizationReply> requestAuthorization(String username, String password) {
+        final AuthorizationRequest request = UserCenterRequests.authorization(username, password);
+        return Single.create(new UnaryCall<AuthorizationReply>() {
+            @Override
+            protected void start(StreamObserver<AuthorizationReply> observer) {
+                stub().requestAuthorization(request, observer);
+            }
+        });
+    }
+
+    @Override
+    public Single<NewPasswordReply> changePassword(String token, String newPassword, String authorization) {
+        return changePassword(UserCenterRequests.newPassword(token, newPassword, authorization));
+    }
+
+    @Override
+    public Single<NewPasswordReply> changePassword(final NewPassword password) {
+        return Single.create(new UnaryCall<NewPasswordReply>() {
+            @Override
+            protected void start(StreamObserver<NewPasswordReply> observer) {
+                stub().changePassword(password, observer);
+            }
+        });
+    }
+
+    @Override
+    public Single<UserInfoReply> requestUserInfo(String token) {
+        final OperateToken operateToken = UserCenterRequests.operateToken(token);
+        return Single.create(new UnaryCall<UserInfoReply>() {
+            @Override
+            protected void start(StreamObserver<UserInfoReply> observer) {
+                stub().requestUserInfo(operateToken, observer);
+            }
+        });
+    }
+
+    @Override
+    public Single<ResultReply> updateUserInfo(String token, UserInfo userInfo) {
+        return updateUserInfo(UserCenterRequests.update(token, userInfo));
+    }
+
+    @Override
+    public Single<ResultReply> updateUserInfo(final UpdateRequest request) {
+        return Single.create(new UnaryCall<ResultReply>() {
+            @Override
+            protected void start(StreamObserver<ResultReply> observer) {
+                stub().updateUserInfo(request, observer);
+            }
+        });
+    }
+
+    @Override
+    public Single<UploadCheckpoint> requestUploadCheckpoint(String token, String deviceId) {
+        final CheckpointRequest request = UserCenterRequests.checkpoint(token, deviceId);
+        return Single.create(new UnaryCall<UploadCheckpoint>() {
+            @Override
+            protected void start(StreamObserver<UploadCheckpoint> observer) {
+                stub().requestUploadCheckpoint(request, observer);
+            }
+        });
+    }
+
+    @Override
+    public Single<UploadCheckpoint> uploadSteps(final StepBatchSource source) {
+        return Single.create(new UnaryCall<UploadCheckpoint>() {
+            @Override
+            protected void start(StreamObserver<UploadCheckpoint> observer) {
+                stub().uploadSteps(new StepBatchSender(source, observer));
+            }
+        });
+    }
+}
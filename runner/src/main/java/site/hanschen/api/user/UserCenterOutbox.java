@@ -0,0 +1,508 @@
+package site.hanschen.api.user;
+
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.Status;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleObserver;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Function;
+
+/**
+ * 离线优先的修改队列：{@link #updateUserInfo(String, UserInfo)}先写入本地只追加的日志，写入后就返回，
+ * 之后按顺序逐个发送，网络不可用时保留在日志中，调用{@link #flush()}(例如网络恢复时)或者等待一段时间后重试。
+ * <p>
+ * 每个修改带有幂等键，重发时服务端只执行一次；同一个token还没有发送的{@link UserInfo}修改会被后来的修改合并，只发送最新的一次。
+ * 服务端返回结果或者返回不可重试的错误后修改才从队列中移除，被拒绝的{@link UserInfo}修改保留为失败状态，
+ * 见{@link #getFailedUserInfo(String)}。
+ * <p>
+ * 修改密码带有新密码和授权码，不经过这个队列，由调用方直接通过{@link UserCenterAsyncApi}发送并等待服务端的结果。
+ * 旧版本写入日志的修改密码请求在第一次打开时丢弃并重写日志。
+ * <p>
+ * 日志读写和发送都在{@link Scheduler}的同一个{@link Scheduler.Worker}中按顺序执行
+ *
+ * @author HansChen
+ */
+public class UserCenterOutbox {
+
+    public static final long DEFAULT_RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+    public static final long MAX_RETRY_DELAY     = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * 已完成的记录超过这个大小时重写日志，只保留还没有发送的修改
+     */
+    private static final long COMPACT_THRESHOLD = 16 * 1024;
+
+    public interface Listener {
+
+        /**
+         * 修改已经完成，在发送线程中回调
+         *
+         * @param succeed 服务端是否执行成功，不可重试的错误也算作失败
+         */
+        void onMutationSent(PendingMutation mutation, boolean succeed);
+    }
+
+    private final File                  mFile;
+    private final UserCenterAsyncApi    mApi;
+    private final Scheduler.Worker      mWorker;
+    private final long                  mRetryDelay;
+    private final List<PendingMutation> mPending      = new ArrayList<>();
+    /* 还没有发送的用户信息，界面显示时覆盖服务端返回的旧数据 */
+    private final Map<String, UserInfo> mPendingInfos = new ConcurrentHashMap<>();
+    /* 被服务端拒绝的用户信息修改，每个token只保留最新的一次 */
+    private final Map<String, PendingMutation> mFailedInfos = new ConcurrentHashMap<>();
+
+    private volatile Listener        mListener;
+    private          MutationLog     mLog;
+    private          PendingMutation mInFlight;
+    private          long            mNextSequence = 1;
+    private          long            mNextRetryDelay;
+    private          Disposable      mRetry;
+    private          long            mDoneBytes;
+
+    private volatile int mPendingCount;
+    private volatile int mSentCount;
+    private volatile int mCoalescedCount;
+
+    public UserCenterOutbox(File file, UserCenterAsyncApi api, Scheduler scheduler) {
+        this(file, api, scheduler, DEFAULT_RETRY_DELAY);
+    }
+
+    public UserCenterOutbox(File file, UserCenterAsyncApi api, Scheduler scheduler, long retryDelay) {
+        this.mFile = file;
+        this.mApi = api;
+        this.mWorker = scheduler.createWorker();
+        this.mRetryDelay = retryDelay;
+        this.mNextRetryDelay = retryDelay;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 修改写入日志后返回幂等键，之后在后台发送
+     */
+    public Single<String> updateUserInfo(String token, UserInfo userInfo) {
+        return enqueue(PendingMutation.newBuilder()
+                                      .setUpdateUserInfo(UserCenterRequests.update(token, userInfo, newRequestId())));
+    }
+
+    /**
+     * 立即重试发送，例如网络恢复时
+     */
+    public void flush() {
+        mWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (open()) {
+                    mNextRetryDelay = mRetryDelay;
+                    drain();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return 这个token还没有发送完成的用户信息
+     */
+    @Nullable
+    public UserInfo getPendingUserInfo(String token) {
+        return mPendingInfos.get(token);
+    }
+
+    /**
+     * @return 这个token被服务端拒绝的用户信息，用户重新提交({@link #updateUserInfo(String, UserInfo)})或者放弃之前一直保留
+     */
+    @Nullable
+    public UserInfo getFailedUserInfo(String token) {
+        PendingMutation failed = mFailedInfos.get(token);
+        return failed != null ? failed.getUpdateUserInfo().getUserInfo() : null;
+    }
+
+    /**
+     * 放弃这个token被服务端拒绝的用户信息
+     */
+    public void discardFailedUserInfo(final String token) {
+        mWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!open()) {
+                    return;
+                }
+                PendingMutation failed = mFailedInfos.remove(token);
+                if (failed != null) {
+                    try {
+                        markDone(failed);
+                        compactIfNeeded();
+                    } catch (IOException ignore) {
+                        // 重启后仍然显示为失败，可以再次放弃
+                    }
+                }
+            }
+        });
+    }
+
+    public int getPendingCount() {
+        return mPendingCount;
+    }
+
+    public int getSentCount() {
+        return mSentCount;
+    }
+
+    /**
+     * @return 被后来的修改合并而没有发送的次数
+     */
+    public int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    private static String newRequestId() {
+        return UUID.randomUUID().toString();
+    }
+
+    private Single<String> enqueue(final PendingMutation.Builder builder) {
+        return Single.create(new SingleOnSubscribe<String>() {
+            @Override
+            public void subscribe(final SingleEmitter<String> emitter) throws Exception {
+                mWorker.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            openOrThrow();
+                            PendingMutation mutation = builder.setSequence(mNextSequence).setCreateTime(now()).build();
+                            mLog.append(OutboxEntry.newBuilder().setMutation(mutation).build());
+                            mNextSequence++;
+                            add(mutation);
+                            emitter.onSuccess(requestId(mutation));
+                        } catch (IOException e) {
+                            emitter.onError(e);
+                            return;
+                        }
+                        drain();
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean open() {
+        try {
+            openOrThrow();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 第一次使用时从日志恢复还没有完成的修改
+     */
+    private void openOrThrow() throws IOException {
+        if (mLog != null) {
+            return;
+        }
+        MutationLog log = new MutationLog(mFile);
+        List<OutboxEntry> entries;
+        try {
+            entries = log.readAll();
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+        mLog = log;
+        boolean hasPassword = false;
+        for (OutboxEntry entry : entries) {
+            switch (entry.getEntryCase()) {
+                case MUTATION:
+                    mNextSequence = Math.max(mNextSequence, entry.getMutation().getSequence() + 1);
+                    if (entry.getMutation().getMutationCase() != PendingMutation.MutationCase.UPDATE_USER_INFO) {
+                        // 旧版本写入的修改密码请求，授权码早已过期
+                        hasPassword = true;
+                        break;
+                    }
+                    add(entry.getMutation());
+                    break;
+                case DONE_SEQUENCE:
+                    remove(entry.getDoneSequence());
+                    removeFailed(entry.getDoneSequence());
+                    break;
+                case FAILED_SEQUENCE:
+                    PendingMutation failed = remove(entry.getFailedSequence());
+                    if (failed != null && isLatestUserInfo(failed)) {
+                        mFailedInfos.put(failed.getUpdateUserInfo().getToken(), failed);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        mDoneBytes = mLog.length();
+        if (hasPassword) {
+            // 新密码不能继续留在磁盘上，清除失败时下次打开再试
+            try {
+                compact();
+            } catch (IOException e) {
+                mLog = null;
+                mPending.clear();
+                mPendingInfos.clear();
+                mFailedInfos.clear();
+                mPendingCount = 0;
+                log.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 加入队尾，同一个token还没有发送的用户信息修改被合并
+     */
+    private void add(PendingMutation mutation) throws IOException {
+        if (mutation.getMutationCase() == PendingMutation.MutationCase.UPDATE_USER_INFO) {
+            String token = mutation.getUpdateUserInfo().getToken();
+            Iterator<PendingMutation> iterator = mPending.iterator();
+            while (iterator.hasNext()) {
+                PendingMutation pending = iterator.next();
+                if (pending != mInFlight
+                    && pending.getMutationCase() == PendingMutation.MutationCase.UPDATE_USER_INFO
+                    && pending.getUpdateUserInfo().getToken().equals(token)) {
+                    iterator.remove();
+                    if (mLog != null) {
+                        markDone(pending);
+                    }
+                    mCoalescedCount++;
+                }
+            }
+            mPendingInfos.put(token, mutation.getUpdateUserInfo().getUserInfo());
+            // 重新提交后不再显示之前的失败
+            PendingMutation failed = mFailedInfos.remove(token);
+            if (failed != null && mLog != null) {
+                markDone(failed);
+            }
+        }
+        mPending.add(mutation);
+        mPendingCount = mPending.size();
+    }
+
+    /**
+     * @return 被移除的修改，不在队列中时返回null
+     */
+    @Nullable
+    private PendingMutation remove(long sequence) {
+        PendingMutation removed = null;
+        Iterator<PendingMutation> iterator = mPending.iterator();
+        while (iterator.hasNext()) {
+            PendingMutation pending = iterator.next();
+            if (pending.getSequence() == sequence) {
+                iterator.remove();
+                if (pending.getMutationCase() == PendingMutation.MutationCase.UPDATE_USER_INFO) {
+                    String token = pending.getUpdateUserInfo().getToken();
+                    if (mPendingInfos.get(token) == pending.getUpdateUserInfo().getUserInfo()) {
+                        mPendingInfos.remove(token);
+                    }
+                }
+                removed = pending;
+                break;
+            }
+        }
+        mPendingCount = mPending.size();
+        return removed;
+    }
+
+    private void removeFailed(long sequence) {
+        Iterator<PendingMutation> iterator = mFailedInfos.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getSequence() == sequence) {
+                iterator.remove();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return 是用户信息修改，并且同一个token没有更新的修改在排队
+     */
+    private boolean isLatestUserInfo(PendingMutation mutation) {
+        return mutation.getMutationCase() == PendingMutation.MutationCase.UPDATE_USER_INFO
+               && !mPendingInfos.containsKey(mutation.getUpdateUserInfo().getToken());
+    }
+
+    private void markDone(PendingMutation mutation) throws IOException {
+        long before = mLog.length();
+        mLog.append(OutboxEntry.newBuilder().setDoneSequence(mutation.getSequence()).build());
+        mDoneBytes += mLog.length() - before;
+    }
+
+    private void markFailed(PendingMutation mutation) throws IOException {
+        long before = mLog.length();
+        mLog.append(OutboxEntry.newBuilder().setFailedSequence(mutation.getSequence()).build());
+        mDoneBytes += mLog.length() - before;
+    }
+
+    private void drain() {
+        if (mInFlight != null || mPending.isEmpty()) {
+            return;
+        }
+        if (mRetry != null) {
+            mRetry.dispose();
+            mRetry = null;
+        }
+        final PendingMutation mutation = mPending.get(0);
+        mInFlight = mutation;
+        send(mutation).subscribe(new SingleObserver<Boolean>() {
+            @Override
+            public void onSubscribe(Disposable d) {
+            }
+
+            @Override
+            public void onSuccess(final Boolean succeed) {
+                mWorker.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSent(mutation, succeed);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(final Throwable e) {
+                mWorker.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isRetryable(e)) {
+                            mInFlight = null;
+                            scheduleRetry();
+                        } else {
+                            onSent(mutation, false);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private Single<Boolean> send(PendingMutation mutation) {
+        switch (mutation.getMutationCase()) {
+            case UPDATE_USER_INFO:
+                return mApi.updateUserInfo(mutation.getUpdateUserInfo()).map(new Function<ResultReply, Boolean>() {
+                    @Override
+                    public Boolean apply(ResultReply reply) throws Exception {
+                        return reply.getSecceed();
+                    }
+                });
+            default:
+                return Single.just(false);
+        }
+    }
+
+    private void onSent(PendingMutation mutation, boolean succeed) {
+        mInFlight = null;
+        mNextRetryDelay = mRetryDelay;
+        mSentCount++;
+        complete(mutation, succeed);
+        drain();
+    }
+
+    /**
+     * 从队列中移除已经完成的修改，被拒绝的用户信息修改保留为失败状态，已经有更新的修改在排队时除外
+     */
+    private void complete(PendingMutation mutation, boolean succeed) {
+        remove(mutation.getSequence());
+        try {
+            if (!succeed && isLatestUserInfo(mutation)) {
+                mFailedInfos.put(mutation.getUpdateUserInfo().getToken(), mutation);
+                markFailed(mutation);
+            } else {
+                markDone(mutation);
+            }
+            compactIfNeeded();
+        } catch (IOException ignore) {
+            // 重启后会重发，服务端按幂等键去重
+        }
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onMutationSent(mutation, succeed);
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if ((mPending.isEmpty() && mDoneBytes > 0) || mDoneBytes > COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * 重写日志，只保留还没有发送和失败的修改
+     */
+    private void compact() throws IOException {
+        List<OutboxEntry> entries = new ArrayList<>();
+        // 失败的修改比还在排队的修改早，重放时不能合并掉后者
+        for (PendingMutation failed : mFailedInfos.values()) {
+            entries.add(OutboxEntry.newBuilder().setMutation(failed).build());
+            entries.add(OutboxEntry.newBuilder().setFailedSequence(failed.getSequence()).build());
+        }
+        for (PendingMutation pending : mPending) {
+            entries.add(OutboxEntry.newBuilder().setMutation(pending).build());
+        }
+        mLog.rewrite(entries);
+        mDoneBytes = 0;
+    }
+
+    private long now() {
+        return mWorker.now(TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleRetry() {
+        if (mRetry != null) {
+            return;
+        }
+        mRetry = mWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mRetry = null;
+                drain();
+            }
+        }, mNextRetryDelay, TimeUnit.MILLISECONDS);
+        mNextRetryDelay = Math.min(mNextRetryDelay * 2, MAX_RETRY_DELAY);
+    }
+
+    /**
+     * 网络问题导致的失败保留在队列中重试，其他错误重试也不会成功
+     */
+    private static boolean isRetryable(Throwable e) {
+        switch (Status.fromThrowable(e).getCode()) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case RESOURCE_EXHAUSTED:
+            case ABORTED:
+            case CANCELLED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static String requestId(PendingMutation mutation) {
+        switch (mutation.getMutationCase()) {
+            case UPDATE_USER_INFO:
+                return mutation.getUpdateUserInfo().getRequestId();
+            default:
+                return "";
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package site.hanschen.api.user;
+
+import site.hanschen.runwithyou.utils.MD5Utils;
+
+/**
+ * 构造各个接口的请求，同步和异步实现共用
+ *
+ * @author HansChen
+ */
+final class UserCenterRequests {
+
+    private UserCenterRequests() {
+        /* cannot be instantiated */
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    static LoginInfo login(String username, String password) {
+        return LoginInfo.newBuilder().setUsername(username).setPasswordMd5(MD5Utils.getMD5(password)).build();
+    }
+
+    static VerificationRequest verification(String email) {
+        return VerificationRequest.newBuilder().setEmail(email).build();
+    }
+
+    static RegisterInfo register(String email, String verificationCode, String password) {
+        return RegisterInfo.newBuilder()
+                           .setEmail(email)
+                           .setPassword(password)
+                           .setVerificationCode(verificationCode)
+                           .setPasswordMd5(MD5Utils.getMD5(password))
+                           .build();
+    }
+
+    static AuthorizationRequest authorization(String username, String password) {
+        return AuthorizationRequest.newBuilder().setUsername(username).setPasswordMd5(MD5Utils.getMD5(password)).build();
+    }
+
+    static NewPassword newPassword(String token, String newPassword, String authorization) {
+        return newPassword(token, newPassword, authorization, "");
+    }
+
+    static NewPassword newPassword(String token, String newPassword, String authorization, String requestId) {
+        return NewPassword.newBuilder()
+                          .setToken(token)
+                          .setNewPassword(MD5Utils.getMD5(newPassword))
+                          .setAuthorization(authorization)
+                          .setRequestId(requestId)
+                          .build();
+    }
+
+    static OperateToken operateToken(String token) {
+        return OperateToken.newBuilder().setToken(token).build();
+    }
+
+    static CheckpointRequest checkpoint(String token, String deviceId) {
+        return CheckpointRequest.newBuilder().setToken(token).setDeviceId(deviceId).build();
+    }
+
+    static UpdateRequest update(String token, UserInfo userInfo) {
+        return update(token, userInfo, "");
+    }
+
+    static UpdateRequest update(String token, UserInfo userInfo, String requestId) {
+        return UpdateRequest.newBuilder().setToken(token).setUserInfo(userInfo).setRequestId(requestId).build();
+    }
+}
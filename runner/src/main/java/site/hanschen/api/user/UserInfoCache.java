@@ -0,0 +1,276 @@
+package site.hanschen.api.user;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.BiConsumer;
+import io.reactivex.functions.Consumer;
+import site.hanschen.runwithyou.utils.MD5Utils;
+
+/**
+ * 缓存{@link UserCenterAsyncApi#requestUserInfo(String)}的结果，内存中保留最近使用的几个，同时保存到磁盘。
+ * <ul>
+ * <li>缓存时间不超过ttl时直接使用缓存，不发起调用</li>
+ * <li>超过ttl但不超过ttl + maxStale时先返回缓存，同时重新请求，结果不同时再返回一次</li>
+ * <li>超过ttl + maxStale或者没有缓存时等待请求的结果</li>
+ * </ul>
+ * 缓存按token保存，{@link #updateUserInfo(String, UserInfo)}后删除对应的缓存，退出登录时调用{@link #clear()}
+ *
+ * @author HansChen
+ */
+public class UserInfoCache {
+
+    private static final int MEMORY_ENTRIES = 4;
+
+    private final UserCenterAsyncApi mApi;
+    private final File               mDir;
+    private final Scheduler          mScheduler;
+    private final long               mTtl;
+    private final long               mMaxStale;
+    private final Object             mLock   = new Object();
+    private final Map<String, Entry> mMemory = new LinkedHashMap<String, Entry>(MEMORY_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+
+    /* 删除缓存时加一，在这之前发起的请求结果不再写入缓存 */
+    private long mGeneration;
+    private int  mHits;
+    private int  mStaleHits;
+    private int  mMisses;
+
+    /**
+     * @param dir       保存缓存的目录
+     * @param scheduler 读写磁盘的线程，同时作为时钟
+     */
+    public UserInfoCache(UserCenterAsyncApi api, File dir, Scheduler scheduler, long ttl, long maxStale, TimeUnit unit) {
+        this.mApi = api;
+        this.mDir = dir;
+        this.mScheduler = scheduler;
+        this.mTtl = unit.toMillis(ttl);
+        this.mMaxStale = unit.toMillis(maxStale);
+    }
+
+    /**
+     * 返回一个或两个结果，第一个是缓存或者请求的结果，第二个是后台更新后发生变化的结果。
+     * 已经返回了缓存时，后台更新失败不会报错
+     */
+    public Observable<UserInfoReply> requestUserInfo(final String token) {
+        return Observable.defer(new Callable<ObservableSource<UserInfoReply>>() {
+            @Override
+            public ObservableSource<UserInfoReply> call() throws Exception {
+                long now = mScheduler.now(TimeUnit.MILLISECONDS);
+                long generation;
+                Entry entry;
+                synchronized (mLock) {
+                    generation = mGeneration;
+                    entry = read(token);
+                    if (entry == null || now - entry.mFetchTime >= mTtl + mMaxStale) {
+                        mMisses++;
+                        return fetch(token, generation).toObservable();
+                    }
+                    if (now - entry.mFetchTime < mTtl) {
+                        mHits++;
+                        return Observable.just(success(entry.mUserInfo));
+                    }
+                    mStaleHits++;
+                }
+                return Observable.just(success(entry.mUserInfo))
+                                 .concatWith(fetch(token, generation).toObservable()
+                                                                     .onErrorResumeNext(Observable.<UserInfoReply>empty()))
+                                 .distinctUntilChanged();
+            }
+        }).subscribeOn(mScheduler);
+    }
+
+    /**
+     * 更新用户信息，开始和结束时都删除缓存，无论结果如何服务端的数据都可能已经改变，
+     * 这期间返回的请求结果也不会写入缓存
+     */
+    public Single<ResultReply> updateUserInfo(final String token, UserInfo userInfo) {
+        return mApi.updateUserInfo(token, userInfo).doOnSubscribe(new Consumer<Disposable>() {
+            @Override
+            public void accept(Disposable disposable) throws Exception {
+                invalidate(token);
+            }
+        }).doOnEvent(new BiConsumer<ResultReply, Throwable>() {
+            @Override
+            public void accept(ResultReply reply, Throwable throwable) throws Exception {
+                invalidate(token);
+            }
+        });
+    }
+
+    public void invalidate(String token) {
+        synchronized (mLock) {
+            mGeneration++;
+            mMemory.remove(token);
+            deleteFile(fileOf(token));
+        }
+    }
+
+    /**
+     * 删除所有用户的缓存
+     */
+    public void clear() {
+        synchronized (mLock) {
+            mGeneration++;
+            mMemory.clear();
+            File[] files = mDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    deleteFile(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 直接使用缓存的次数
+     */
+    public int getHits() {
+        synchronized (mLock) {
+            return mHits;
+        }
+    }
+
+    /**
+     * @return 返回过期的缓存并在后台更新的次数
+     */
+    public int getStaleHits() {
+        synchronized (mLock) {
+            return mStaleHits;
+        }
+    }
+
+    /**
+     * @return 需要等待请求结果的次数
+     */
+    public int getMisses() {
+        synchronized (mLock) {
+            return mMisses;
+        }
+    }
+
+    private Single<UserInfoReply> fetch(final String token, final long generation) {
+        return mApi.requestUserInfo(token).observeOn(mScheduler).doOnSuccess(new Consumer<UserInfoReply>() {
+            @Override
+            public void accept(UserInfoReply reply) throws Exception {
+                synchronized (mLock) {
+                    if (generation != mGeneration) {
+                        return;
+                    }
+                    if (reply.getSucceed()) {
+                        write(token, new Entry(reply.getUserInfo(), mScheduler.now(TimeUnit.MILLISECONDS)));
+                    } else if (reply.getErrCode() == UserInfoReply.ErrorCode.TOKEN_INVALID) {
+                        mMemory.remove(token);
+                        deleteFile(fileOf(token));
+                    }
+                }
+            }
+        });
+    }
+
+    private static UserInfoReply success(UserInfo userInfo) {
+        return UserInfoReply.newBuilder().setSucceed(true).setUserInfo(userInfo).build();
+    }
+
+    private Entry read(String token) {
+        Entry entry = mMemory.get(token);
+        if (entry != null) {
+            return entry;
+        }
+        File file = fileOf(token);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            long fetchTime = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            entry = new Entry(UserInfo.parseFrom(data), fetchTime);
+            mMemory.put(token, entry);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            // 文件损坏，当作没有缓存
+            deleteFile(file);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    private void write(String token, Entry entry) {
+        mMemory.put(token, entry);
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            return;
+        }
+        File file = fileOf(token);
+        File tmp = new File(mDir, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            byte[] data = entry.mUserInfo.toByteArray();
+            out = new DataOutputStream(new FileOutputStream(tmp));
+            out.writeLong(entry.mFetchTime);
+            out.writeInt(data.length);
+            out.write(data);
+            out.close();
+            out = null;
+            // 写完再替换，不会读到写了一半的文件
+            if (!tmp.renameTo(file)) {
+                deleteFile(tmp);
+            }
+        } catch (IOException e) {
+            deleteFile(tmp);
+        } finally {
+            close(out);
+        }
+    }
+
+    private File fileOf(String token) {
+        return new File(mDir, MD5Utils.getMD5(token));
+    }
+
+    private static void deleteFile(File file) {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final UserInfo mUserInfo;
+        private final long     mFetchTime;
+
+        Entry(UserInfo userInfo, long fetchTime) {
+            this.mUserInfo = userInfo;
+            this.mFetchTime = fetchTime;
+        }
+    }
+}
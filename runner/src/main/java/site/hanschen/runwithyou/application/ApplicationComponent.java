@@ -5,17 +5,26 @@ import android.bluetooth.BluetoothAdapter;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.hardware.SensorManager;
+import android.os.PowerManager;
 import android.support.annotation.Nullable;
 
 import javax.inject.Singleton;
 
 import dagger.Component;
+import site.hanschen.api.ManagedChannelProvider;
 import site.hanschen.api.user.UserCenterApi;
 import site.hanschen.api.user.UserCenterApiWrapper;
+import site.hanschen.api.user.UserCenterAsyncApi;
+import site.hanschen.api.user.UserCenterOutbox;
+import site.hanschen.api.user.UserInfoCache;
 import site.hanschen.runwithyou.dagger.AppContext;
+import site.hanschen.runwithyou.database.StepRecordCompactor;
+import site.hanschen.runwithyou.database.repository.DeviceRepository;
 import site.hanschen.runwithyou.database.repository.SettingRepository;
 import site.hanschen.runwithyou.database.repository.StepRepository;
+import site.hanschen.runwithyou.eventbus.EventBus;
 import site.hanschen.runwithyou.service.RunnerManager;
+import site.hanschen.runwithyou.upload.StepUploader;
 
 /**
  * @author HansChen
@@ -33,16 +42,34 @@ public interface ApplicationComponent {
 
     StepRepository getStepRepository();
 
+    DeviceRepository getDeviceRepository();
+
+    StepRecordCompactor getStepRecordCompactor();
+
+    StepUploader getStepUploader();
+
     SharedPreferences getDefaultSharedPreferences();
 
+    EventBus getEventBus();
+
     SensorManager getSensorManager();
 
+    PowerManager getPowerManager();
+
     NotificationManager getNotificationManager();
 
     @Nullable
     BluetoothAdapter getBluetoothAdapter();
 
+    ManagedChannelProvider getUserCenterChannelProvider();
+
     UserCenterApi getUserCenterApi();
 
+    UserCenterAsyncApi getUserCenterAsyncApi();
+
     UserCenterApiWrapper getUserCenterApiWrapper();
+
+    UserInfoCache getUserInfoCache();
+
+    UserCenterOutbox getUserCenterOutbox();
 }
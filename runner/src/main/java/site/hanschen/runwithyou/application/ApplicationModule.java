@@ -6,24 +6,49 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.sqlite.SQLiteDatabase;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
 import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
+import android.widget.Toast;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.reactivex.schedulers.Schedulers;
+import site.hanschen.api.ManagedChannelProvider;
+import site.hanschen.api.user.PendingMutation;
 import site.hanschen.api.user.UserCenterApi;
 import site.hanschen.api.user.UserCenterApiImpl;
 import site.hanschen.api.user.UserCenterApiWrapper;
+import site.hanschen.api.user.UserCenterAsyncApi;
+import site.hanschen.api.user.UserCenterAsyncApiImpl;
+import site.hanschen.api.user.UserCenterOutbox;
+import site.hanschen.api.user.UserInfoCache;
 import site.hanschen.runwithyou.dagger.AppContext;
+import site.hanschen.runwithyou.database.RunnerOpenHelper;
+import site.hanschen.runwithyou.database.StepRecordCompactor;
 import site.hanschen.runwithyou.database.gen.DaoMaster;
 import site.hanschen.runwithyou.database.gen.DaoSession;
+import site.hanschen.runwithyou.database.repository.DeviceRepository;
+import site.hanschen.runwithyou.database.repository.DeviceRepositoryImpl;
 import site.hanschen.runwithyou.database.repository.SettingRepository;
 import site.hanschen.runwithyou.database.repository.SettingRepositoryImpl;
+import site.hanschen.runwithyou.database.repository.StepJournalRepository;
 import site.hanschen.runwithyou.database.repository.StepRepository;
 import site.hanschen.runwithyou.database.repository.StepRepositoryImpl;
+import site.hanschen.runwithyou.eventbus.EventBus;
 import site.hanschen.runwithyou.service.RunnerManager;
+import site.hanschen.runwithyou.upload.InstallationId;
+import site.hanschen.runwithyou.upload.StepUploader;
 
 /**
  * @author HansChen
@@ -54,12 +79,30 @@ class ApplicationModule {
         return PreferenceManager.getDefaultSharedPreferences(context);
     }
 
+    @Provides
+    @Singleton
+    EventBus provideEventBus() {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        return new EventBus(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        });
+    }
+
     @Provides
     @Singleton
     SensorManager provideSensorManager(@AppContext Context context) {
         return (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
     }
 
+    @Provides
+    @Singleton
+    PowerManager providePowerManager(@AppContext Context context) {
+        return (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+    }
+
     @Provides
     @Singleton
     NotificationManager provideNotificationManager(@AppContext Context context) {
@@ -81,27 +124,123 @@ class ApplicationModule {
     @Provides
     @Singleton
     DaoSession provideDaoSession(@AppContext Context context) {
-        DaoMaster.OpenHelper helper = new DaoMaster.DevOpenHelper(context, "runner-db", null);
+        DaoMaster.OpenHelper helper = new RunnerOpenHelper(context, "runner-db", null);
         SQLiteDatabase db = helper.getWritableDatabase();
         return new DaoMaster(db).newSession();
     }
 
     @Provides
     @Singleton
-    StepRepository provideStepRepository(DaoSession daoSession) {
-        return new StepRepositoryImpl(daoSession.getStepRecordEntityDao());
+    StepRepository provideStepRepository(@AppContext Context context, DaoSession daoSession) {
+        boolean journal = false;
+        if (journal) {
+            return new StepJournalRepository(new File(context.getFilesDir(), "step-journal"));
+        }
+        return new StepRepositoryImpl(daoSession);
+    }
+
+    @Provides
+    @Singleton
+    DeviceRepository provideDeviceRepository(DaoSession daoSession) {
+        return new DeviceRepositoryImpl(daoSession, Schedulers.single());
+    }
+
+    @Provides
+    @Singleton
+    StepRecordCompactor provideStepRecordCompactor(DaoSession daoSession, SettingRepository settingRepository) {
+        return new StepRecordCompactor(daoSession, settingRepository);
+    }
+
+    @Provides
+    @Singleton
+    StepUploader provideStepUploader(@AppContext Context context, StepRepository stepRepository, UserCenterAsyncApi api) {
+        return new StepUploader(stepRepository, api, InstallationId.get(context));
+    }
+
+    @Provides
+    @Singleton
+    ManagedChannelProvider provideUserCenterChannelProvider() {
+        return new ManagedChannelProvider(new ManagedChannelProvider.Factory() {
+            @Override
+            public ManagedChannel create() {
+                boolean remoteServer = true;
+                // 服务端默认不接受间隔小于5分钟的keepalive，空闲10分钟后断开连接，下次调用时重新连接
+                return ManagedChannelBuilder.forAddress(remoteServer ? "www.hanschen.site" : "192.168.1.3", 8980)
+                                            .usePlaintext(true)
+                                            .keepAliveTime(5, TimeUnit.MINUTES)
+                                            .keepAliveTimeout(20, TimeUnit.SECONDS)
+                                            .keepAliveWithoutCalls(false)
+                                            .idleTimeout(10, TimeUnit.MINUTES)
+                                            .build();
+            }
+        }, Schedulers.io());
+    }
+
+    @Provides
+    @Singleton
+    ManagedChannel provideUserCenterChannel(ManagedChannelProvider provider) {
+        return provider.getChannel();
+    }
+
+    @Provides
+    @Singleton
+    UserCenterApi provideUserCenterApi(ManagedChannel channel) {
+        return new UserCenterApiImpl(channel);
+    }
+
+    @Provides
+    @Singleton
+    UserCenterAsyncApi provideUserCenterAsyncApi(ManagedChannel channel) {
+        return new UserCenterAsyncApiImpl(channel);
+    }
+
+    @Provides
+    @Singleton
+    UserInfoCache provideUserInfoCache(@AppContext Context context, UserCenterAsyncApi api) {
+        // 10分钟内直接使用缓存，7天内先显示缓存再更新
+        return new UserInfoCache(api,
+                                 new File(context.getCacheDir(), "user-info"),
+                                 Schedulers.io(),
+                                 TimeUnit.MINUTES.toMillis(10),
+                                 TimeUnit.DAYS.toMillis(7),
+                                 TimeUnit.MILLISECONDS);
     }
 
     @Provides
     @Singleton
-    UserCenterApi provideUserCenterApi() {
-        boolean remoteServer = true;
-        return new UserCenterApiImpl(remoteServer ? "www.hanschen.site" : "192.168.1.3", 8980);
+    UserCenterOutbox provideUserCenterOutbox(@AppContext final Context context,
+                                             UserCenterAsyncApi api,
+                                             final UserInfoCache userInfoCache) {
+        UserCenterOutbox outbox = new UserCenterOutbox(new File(context.getFilesDir(), "outbox/mutations.log"),
+                                                       api,
+                                                       Schedulers.io());
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        outbox.setListener(new UserCenterOutbox.Listener() {
+            @Override
+            public void onMutationSent(PendingMutation mutation, boolean succeed) {
+                if (mutation.getMutationCase() == PendingMutation.MutationCase.UPDATE_USER_INFO) {
+                    userInfoCache.invalidate(mutation.getUpdateUserInfo().getToken());
+                }
+                if (succeed) {
+                    return;
+                }
+                // 保存时已经提示成功，失败要再告诉用户，用户信息还会在个人资料页提示重新提交
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(context, "个人资料没有保存到服务器，请重新提交", Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
+        return outbox;
     }
 
     @Provides
     @Singleton
-    UserCenterApiWrapper provideUserCenterApiWrapper(UserCenterApi api) {
-        return new UserCenterApiWrapper(api);
+    UserCenterApiWrapper provideUserCenterApiWrapper(UserCenterAsyncApi api,
+                                                     UserInfoCache userInfoCache,
+                                                     UserCenterOutbox outbox) {
+        return new UserCenterApiWrapper(api, userInfoCache, outbox);
     }
 }
@@ -29,6 +29,8 @@ public class AuthManager {
     }
 
     public void logout() {
+        // 退出后不再保留用户信息的缓存
+        RunnerApplication.getInstance().getAppComponent().getUserInfoCache().clear();
         email = null;
         token = null;
     }
@@ -2,9 +2,14 @@ package site.hanschen.runwithyou.application;
 
 
 import android.app.Activity;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.ServiceConnection;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.support.multidex.MultiDex;
@@ -13,7 +18,7 @@ import android.util.Log;
 import com.squareup.leakcanary.LeakCanary;
 
 import site.hanschen.common.base.application.BaseApplication;
-import site.hanschen.runwithyou.eventbus.EventBus;
+import site.hanschen.runwithyou.eventbus.RunnerEventReceiver;
 import site.hanschen.runwithyou.service.RunnerManager;
 import site.hanschen.runwithyou.service.RunnerService;
 import site.hanschen.runwithyou.utils.IMMLeaks;
@@ -32,6 +37,7 @@ public class RunnerApplication extends BaseApplication {
     private static RunnerApplication    sInstance;
     private        RunnerManager        mRunnerManager;
     private        ApplicationComponent mApplicationComponent;
+    private        RunnerEventReceiver  mEventReceiver;
 
     public static RunnerApplication getInstance() {
         return sInstance;
@@ -71,8 +77,12 @@ public class RunnerApplication extends BaseApplication {
         sInstance = RunnerApplication.this;
         IMMLeaks.fixFocusedViewLeak(RunnerApplication.this);
         LeakCanary.install(this);
-        bindRunnerService();
         mApplicationComponent = DaggerApplicationComponent.builder().applicationModule(new ApplicationModule(this)).build();
+        mEventReceiver = new RunnerEventReceiver(mApplicationComponent.getEventBus());
+        bindRunnerService();
+        mApplicationComponent.getUserCenterChannelProvider().warmUp();
+        mApplicationComponent.getUserCenterOutbox().flush();
+        registerReceiver(mNetworkReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
     }
 
     public ApplicationComponent getAppComponent() {
@@ -94,7 +104,7 @@ public class RunnerApplication extends BaseApplication {
         public void onServiceConnected(ComponentName name, IBinder service) {
             mRunnerManager = RunnerManager.Stub.asInterface(service);
             try {
-                mRunnerManager.registerCallback(EventBus.getInstance());
+                mRunnerManager.registerCallback(mEventReceiver);
             } catch (RemoteException ignore) {
             }
         }
@@ -105,6 +115,29 @@ public class RunnerApplication extends BaseApplication {
         }
     };
 
+    /**
+     * 连上和之前不同的网络后，原来的连接已经不可用，重建UserCenter的连接，并发送离线时保存的修改
+     */
+    private final BroadcastReceiver mNetworkReceiver = new BroadcastReceiver() {
+
+        private static final int NO_NETWORK = -1;
+
+        private int mNetworkType = NO_NETWORK;
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo info = manager.getActiveNetworkInfo();
+            int type = info != null && info.isConnected() ? info.getType() : NO_NETWORK;
+            // 注册时收到的粘性广播只用来记录当前网络
+            if (!isInitialStickyBroadcast() && type != NO_NETWORK && type != mNetworkType) {
+                mApplicationComponent.getUserCenterChannelProvider().onNetworkChanged();
+                mApplicationComponent.getUserCenterOutbox().flush();
+            }
+            mNetworkType = type;
+        }
+    };
+
     private void bindRunnerService() {
         RunnerService.bind(getApplicationContext(), mConn);
     }
@@ -5,7 +5,7 @@ import android.support.annotation.Nullable;
 import android.widget.Toast;
 
 import site.hanschen.common.base.activity.BaseActivity;
-import site.hanschen.runwithyou.eventbus.EventBus;
+import site.hanschen.runwithyou.application.RunnerApplication;
 
 /**
  * @author HansChen
@@ -20,7 +20,7 @@ public class RunnerBaseActivity extends BaseActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        EventBus.getInstance().unregisterCallback(RunnerBaseActivity.this);
+        RunnerApplication.getInstance().getAppComponent().getEventBus().unregister(RunnerBaseActivity.this);
     }
 
     protected void toast(CharSequence text) {
@@ -4,7 +4,7 @@ import android.app.Activity;
 import android.app.Fragment;
 import android.content.Context;
 
-import site.hanschen.runwithyou.eventbus.EventBus;
+import site.hanschen.runwithyou.application.RunnerApplication;
 
 /**
  * @author HansChen
@@ -22,6 +22,6 @@ public class RunnerBaseFragment extends Fragment {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        EventBus.getInstance().unregisterCallback(RunnerBaseFragment.this);
+        RunnerApplication.getInstance().getAppComponent().getEventBus().unregister(RunnerBaseFragment.this);
     }
 }
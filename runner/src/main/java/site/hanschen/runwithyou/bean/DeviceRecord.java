@@ -0,0 +1,125 @@
+package site.hanschen.runwithyou.bean;
+
+
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+/**
+ * 设备索引中的一条记录，不可变，更新时返回新的实例
+ *
+ * @author HansChen
+ */
+public class DeviceRecord {
+
+    /**
+     * 没有信号强度，与{@link android.bluetooth.BluetoothDevice#EXTRA_RSSI}缺省时一致
+     */
+    public static final int NO_RSSI = Short.MIN_VALUE;
+
+    private final String mAddress;
+    private final String mName;
+    private final int    mRssi;
+    private final long   mLastSeenTime;
+    private final int    mConnectAttempts;
+    private final int    mConnectSuccesses;
+    private final long   mLastConnectedTime;
+
+    public DeviceRecord(String address, String name, int rssi, long lastSeenTime, int connectAttempts, int connectSuccesses,
+                        long lastConnectedTime) {
+        this.mAddress = address;
+        this.mName = name;
+        this.mRssi = rssi;
+        this.mLastSeenTime = lastSeenTime;
+        this.mConnectAttempts = connectAttempts;
+        this.mConnectSuccesses = connectSuccesses;
+        this.mLastConnectedTime = lastConnectedTime;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getRssi() {
+        return mRssi;
+    }
+
+    public long getLastSeenTime() {
+        return mLastSeenTime;
+    }
+
+    public int getConnectAttempts() {
+        return mConnectAttempts;
+    }
+
+    public int getConnectSuccesses() {
+        return mConnectSuccesses;
+    }
+
+    public long getLastConnectedTime() {
+        return mLastConnectedTime;
+    }
+
+    /**
+     * 平滑后的连接成功率，没有连接过的设备为0.5
+     */
+    public double getSuccessRate() {
+        return (mConnectSuccesses + 1.0) / (mConnectAttempts + 2.0);
+    }
+
+    public Device toDevice() {
+        return new Device(mName, mAddress);
+    }
+
+    /**
+     * 发现时名称可能为空，此时保留之前的名称
+     */
+    public DeviceRecord withSeen(String name, int rssi, long time) {
+        return new DeviceRecord(mAddress, name != null ? name : mName, rssi, time, mConnectAttempts, mConnectSuccesses,
+                                mLastConnectedTime);
+    }
+
+    public DeviceRecord withConnectResult(boolean succeed, long time) {
+        return new DeviceRecord(mAddress,
+                                mName,
+                                mRssi,
+                                mLastSeenTime,
+                                mConnectAttempts + 1,
+                                succeed ? mConnectSuccesses + 1 : mConnectSuccesses,
+                                succeed ? time : mLastConnectedTime);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        DeviceRecord that = (DeviceRecord) o;
+
+        return mRssi == that.mRssi && mLastSeenTime == that.mLastSeenTime && mConnectAttempts == that.mConnectAttempts &&
+               mConnectSuccesses == that.mConnectSuccesses && mLastConnectedTime == that.mLastConnectedTime &&
+               mAddress.equals(that.mAddress) && (mName != null ? mName.equals(that.mName) : that.mName == null);
+    }
+
+    @Override
+    public int hashCode() {
+        return mAddress.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceRecord{" +
+                "mAddress='" + mAddress + '\'' +
+                ", mName='" + mName + '\'' +
+                ", mRssi=" + mRssi +
+                ", mConnectAttempts=" + mConnectAttempts +
+                ", mConnectSuccesses=" + mConnectSuccesses +
+                '}';
+    }
+}
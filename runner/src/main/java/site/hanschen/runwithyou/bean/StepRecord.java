@@ -9,6 +9,7 @@ public class StepRecord {
     private long mCountSinceReboot;
     private long mStepTime;
     private long mStepCount;
+    private long mSequence;
 
     public StepRecord(long countSinceReboot, long stepTime, long stepCount) {
         this.mCountSinceReboot = countSinceReboot;
@@ -40,12 +41,24 @@ public class StepRecord {
         this.mStepCount = stepCount;
     }
 
+    /**
+     * @return 记录在仓库中的写入序号，按写入顺序递增但不一定连续，还没有写入仓库时为0
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.mSequence = sequence;
+    }
+
     @Override
     public String toString() {
         return "StepRecord{" +
                 "mCountSinceReboot=" + mCountSinceReboot +
                 ", mStepTime=" + mStepTime +
                 ", mStepCount=" + mStepCount +
+                ", mSequence=" + mSequence +
                 '}';
     }
 }
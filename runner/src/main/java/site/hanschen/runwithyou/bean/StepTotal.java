@@ -0,0 +1,42 @@
+package site.hanschen.runwithyou.bean;
+
+
+/**
+ * 某个时间段(分钟、小时或天)内的步数汇总
+ *
+ * @author HansChen
+ */
+public class StepTotal {
+
+    private long mStartTime;
+    private long mStepCount;
+
+    public StepTotal(long startTime, long stepCount) {
+        this.mStartTime = startTime;
+        this.mStepCount = stepCount;
+    }
+
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    public void setStartTime(long startTime) {
+        this.mStartTime = startTime;
+    }
+
+    public long getStepCount() {
+        return mStepCount;
+    }
+
+    public void setStepCount(long stepCount) {
+        this.mStepCount = stepCount;
+    }
+
+    @Override
+    public String toString() {
+        return "StepTotal{" +
+                "mStartTime=" + mStartTime +
+                ", mStepCount=" + mStepCount +
+                '}';
+    }
+}
@@ -1,5 +1,7 @@
 package site.hanschen.runwithyou.bluetooth;
 
+import android.support.annotation.Nullable;
+
 import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
 
 /**
@@ -29,9 +31,26 @@ public interface BluetoothControler {
     void connect(Device device, boolean secure);
 
     /**
-     * 发送数据
+     * 发送一帧数据，加入发送队列后立即返回，不会阻塞
+     *
+     * @param type 帧类型，取值范围[0, {@link Frame#MAX_TYPE}]
+     * @param out  帧内容，长度不超过{@link Frame#MAX_PAYLOAD}，返回后可以修改
+     * @return 未连接或发送队列已满时返回false，队列有空间后回调{@link BluetoothListener#onWritable()}
+     */
+    boolean sendData(int type, byte[] out);
+
+    /**
+     * 发送out中[offset, offset + length)的数据
+     *
+     * @see #sendData(int, byte[])
+     */
+    boolean sendData(int type, byte[] out, int offset, int length);
+
+    /**
+     * @return 当前连接的发送统计，未连接时返回null
      */
-    void sendData(byte[] out);
+    @Nullable
+    SendMetrics getSendMetrics();
 
     /**
      * 注册监听器
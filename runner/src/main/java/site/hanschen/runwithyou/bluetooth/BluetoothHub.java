@@ -0,0 +1,52 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import android.support.annotation.Nullable;
+
+/**
+ * 多人跑模式下，一台手机同时接受多个成员的蓝牙连接。
+ * <p>
+ * 每个成员都有独立的发送队列，一个成员接收得慢只会让它自己的队列变满，不影响发给其他成员的数据
+ *
+ * @author HansChen
+ */
+public interface BluetoothHub {
+
+    /**
+     * 开始接受成员的连接，直到{@link #stop()}
+     *
+     * @param secure 是否需要配对
+     */
+    void start(boolean secure);
+
+    /**
+     * 停止接受连接并断开所有成员
+     */
+    void stop();
+
+    /**
+     * 发送一帧数据给指定的成员，加入它的发送队列后立即返回
+     *
+     * @return 成员不存在或它的发送队列已满时返回false，队列有空间后回调{@link HubListener#onPeerWritable(int)}
+     * @see BluetoothControler#sendData(int, byte[], int, int)
+     */
+    boolean sendData(int peerId, int type, byte[] out, int offset, int length);
+
+    /**
+     * 发送一帧数据给所有成员，发送队列已满的成员会被跳过
+     *
+     * @return 成功加入发送队列的成员数
+     */
+    int broadcast(int type, byte[] out, int offset, int length);
+
+    int getPeerCount();
+
+    /**
+     * @return 发给这个成员的发送统计，成员不存在时返回null
+     */
+    @Nullable
+    SendMetrics getSendMetrics(int peerId);
+
+    void registerListener(HubListener listener);
+
+    void clearListener();
+}
@@ -0,0 +1,424 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import site.hanschen.common.utils.PreconditionUtils;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+/**
+ * 和{@link ControlerCore}一样，接受连接、成员加入和断开都在单线程事件循环中处理，
+ * 阻塞的accept和每个成员的读写在I/O线程池中执行。
+ * <p>
+ * 成员数达到上限后关闭监听，有成员断开后重新开始监听；
+ * {@link HubListener}的回调都在构造时传入的{@link Scheduler}中执行，默认是主线程
+ *
+ * @author HansChen
+ */
+public class BluetoothHubImpl implements BluetoothHub {
+
+    private static final String TAG = "BluetoothHubImpl";
+
+    /**
+     * 一个蓝牙主设备最多同时和7个从设备通信
+     */
+    public static final int DEFAULT_MAX_PEERS = 7;
+
+    /**
+     * 监听失败后等待一段时间再重新监听
+     */
+    static final long LISTEN_RETRY_DELAY = 1000;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    // Idle frames kept per peer, receiving never blocks on the pool
+    private static final int FRAME_POOL_SIZE = 8;
+
+    private final Transport                mTransport;
+    private final Scheduler                mCallbackScheduler;
+    private final int                      mMaxPeers;
+    private final ScheduledExecutorService mLoop;
+    private final ExecutorService          mIoPool;
+    // 只在事件循环线程中修改，发送时在调用方的线程读取
+    private final Map<Integer, Peer>       mPeers = new ConcurrentHashMap<>();
+    private volatile HubListener           mListener;
+
+    // 以下状态只在事件循环线程中访问
+    private boolean    mRunning;
+    private boolean    mSecure;
+    private AcceptTask mAcceptTask;
+    private int        mNextPeerId = 1;
+
+    public BluetoothHubImpl(BluetoothAdapter adapter) {
+        this(new RfcommTransport(PreconditionUtils.checkNotNull(adapter, "BluetoothAdapter cannot be null!")),
+             AndroidSchedulers.mainThread(),
+             DEFAULT_MAX_PEERS);
+    }
+
+    BluetoothHubImpl(Transport transport, Scheduler callbackScheduler, int maxPeers) {
+        this.mTransport = transport;
+        this.mCallbackScheduler = callbackScheduler;
+        this.mMaxPeers = maxPeers;
+        ScheduledThreadPoolExecutor loop = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("HubLoop"));
+        loop.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        loop.allowCoreThreadTimeOut(true);
+        // 一个监听，每个成员读写各一个
+        int ioThreads = 1 + 2 * maxPeers;
+        ThreadPoolExecutor ioPool = new ThreadPoolExecutor(ioThreads, ioThreads,
+                                                           KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                                           new LinkedBlockingQueue<Runnable>(),
+                                                           new NamedThreadFactory("HubIO"));
+        ioPool.allowCoreThreadTimeOut(true);
+        this.mLoop = loop;
+        this.mIoPool = ioPool;
+    }
+
+    @Override
+    public void start(final boolean secure) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (mRunning) {
+                    return;
+                }
+                mRunning = true;
+                mSecure = secure;
+                updateServer();
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mRunning = false;
+                closeServer();
+                for (Peer peer : new ArrayList<>(mPeers.values())) {
+                    removePeer(peer);
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean sendData(int peerId, int type, byte[] out, int offset, int length) {
+        Peer peer = mPeers.get(peerId);
+        return peer != null && peer.mOutbox.offer(type, out, offset, length);
+    }
+
+    @Override
+    public int broadcast(int type, byte[] out, int offset, int length) {
+        int accepted = 0;
+        for (Peer peer : mPeers.values()) {
+            if (peer.mOutbox.offer(type, out, offset, length)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Override
+    public int getPeerCount() {
+        return mPeers.size();
+    }
+
+    @Override
+    public SendMetrics getSendMetrics(int peerId) {
+        Peer peer = mPeers.get(peerId);
+        return peer == null ? null : peer.mOutbox.getMetrics();
+    }
+
+    @Override
+    public void registerListener(HubListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void clearListener() {
+        mListener = null;
+    }
+
+    /**
+     * 断开所有成员并停止事件循环和I/O线程
+     */
+    void shutdown() {
+        stop();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mLoop.shutdown();
+                mIoPool.shutdown();
+            }
+        });
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return mLoop.awaitTermination(timeout, unit)
+               && mIoPool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private void post(Runnable event) {
+        try {
+            mLoop.execute(event);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "event loop has been shut down");
+        }
+    }
+
+    private void submit(Runnable task) {
+        try {
+            mIoPool.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "I/O pool has been shut down");
+        }
+    }
+
+    /**
+     * 有空位时监听，满员后关闭监听
+     */
+    private void updateServer() {
+        if (!mRunning) {
+            return;
+        }
+        if (mPeers.size() >= mMaxPeers) {
+            closeServer();
+            return;
+        }
+        if (mAcceptTask != null) {
+            return;
+        }
+        try {
+            mAcceptTask = new AcceptTask(mTransport.listen(mSecure));
+            submit(mAcceptTask);
+        } catch (IOException e) {
+            Log.e(TAG, "listen() failed", e);
+            mLoop.schedule(mUpdateServer, LISTEN_RETRY_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private final Runnable mUpdateServer = new Runnable() {
+        @Override
+        public void run() {
+            updateServer();
+        }
+    };
+
+    private void closeServer() {
+        if (mAcceptTask != null) {
+            mAcceptTask.mServer.close();
+            mAcceptTask = null;
+        }
+    }
+
+    private void onAccepted(AcceptTask task, Transport.Link link) {
+        if (task != mAcceptTask) {
+            // The server has been closed, too many peers or stopped
+            if (link != null) {
+                link.close();
+            }
+            return;
+        }
+        if (link == null) {
+            mAcceptTask = null;
+            task.mServer.close();
+            mLoop.schedule(mUpdateServer, LISTEN_RETRY_DELAY, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        final Peer peer;
+        try {
+            peer = new Peer(mNextPeerId++, link);
+        } catch (IOException e) {
+            Log.e(TAG, "streams of peer not created", e);
+            link.close();
+            submit(task);
+            return;
+        }
+        mPeers.put(peer.mId, peer);
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                HubListener listener = mListener;
+                if (listener != null) {
+                    listener.onPeerConnected(peer.mId, peer.mDevice);
+                }
+            }
+        });
+        peer.start();
+
+        // Keep accepting on the same server until the hub is full
+        if (mPeers.size() < mMaxPeers) {
+            submit(task);
+        } else {
+            closeServer();
+        }
+    }
+
+    private void onPeerClosed(Peer peer) {
+        // Ignore peers that have been removed by stop()
+        if (mPeers.get(peer.mId) == peer) {
+            removePeer(peer);
+            updateServer();
+        }
+    }
+
+    private void removePeer(final Peer peer) {
+        mPeers.remove(peer.mId);
+        peer.close();
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                HubListener listener = mListener;
+                if (listener != null) {
+                    listener.onPeerDisconnected(peer.mId);
+                }
+            }
+        });
+    }
+
+    private void deliver(Runnable callback) {
+        mCallbackScheduler.scheduleDirect(callback);
+    }
+
+    /**
+     * Accepts one connection per run, resubmitted by the event loop while the hub has room
+     */
+    private class AcceptTask implements Runnable {
+
+        private final Transport.Server mServer;
+
+        AcceptTask(Transport.Server server) {
+            this.mServer = server;
+        }
+
+        @Override
+        public void run() {
+            Transport.Link link = null;
+            try {
+                link = mServer.accept(0);
+            } catch (IOException e) {
+                Log.e(TAG, "accept() failed", e);
+            }
+            final Transport.Link accepted = link;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    onAccepted(AcceptTask.this, accepted);
+                }
+            });
+        }
+    }
+
+    /**
+     * A connected peer with its own reader task and send queue
+     */
+    private class Peer implements Runnable {
+
+        private final int            mId;
+        private final Transport.Link mLink;
+        private final Device         mDevice;
+        private final FrameReader    mReader;
+        private final FrameOutbox    mOutbox;
+
+        Peer(int id, Transport.Link link) throws IOException {
+            this.mId = id;
+            this.mLink = link;
+            this.mDevice = link.getRemoteDevice();
+            this.mReader = new FrameReader(link.getInputStream(), new FramePool(FRAME_POOL_SIZE));
+            this.mOutbox = new FrameOutbox(link.getOutputStream(), new PeerOutboxCallback(id));
+        }
+
+        void start() {
+            submit(mOutbox);
+            submit(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    deliverFrame(mReader.read());
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "peer " + mId + " disconnected", e);
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    onPeerClosed(Peer.this);
+                }
+            });
+        }
+
+        private void deliverFrame(final Frame frame) {
+            deliver(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        HubListener listener = mListener;
+                        if (listener != null) {
+                            listener.onDataReceived(mId, frame);
+                        }
+                    } finally {
+                        frame.recycle();
+                    }
+                }
+            });
+        }
+
+        void close() {
+            mOutbox.close();
+            mLink.close();
+        }
+    }
+
+    private class PeerOutboxCallback implements FrameOutbox.Callback {
+
+        private final int mPeerId;
+
+        PeerOutboxCallback(int peerId) {
+            this.mPeerId = peerId;
+        }
+
+        @Override
+        public void onBatchSent(int frames, int bytes) {
+        }
+
+        @Override
+        public void onWritable() {
+            deliver(new Runnable() {
+                @Override
+                public void run() {
+                    HubListener listener = mListener;
+                    if (listener != null) {
+                        listener.onPeerWritable(mPeerId);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onWriteFailed(IOException e) {
+            // The reader task notices the broken connection and removes the peer
+            Log.e(TAG, "Exception during write to peer " + mPeerId, e);
+        }
+    }
+}
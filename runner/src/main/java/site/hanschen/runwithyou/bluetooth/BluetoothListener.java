@@ -30,26 +30,40 @@ public interface BluetoothListener {
     void onConnectSucceed(Device device);
 
     /**
-     * 蓝牙连接失败, 主动发起蓝牙连接失败后调用
+     * 蓝牙连接失败, 主动发起蓝牙连接失败且重试次数用完后调用
      */
     void onConnectFailed(Device device);
 
     /**
-     * 蓝牙连接断开, 已建立蓝牙连接后, 由于某种原因导致连接断开后回调
+     * 蓝牙连接断开, 已建立蓝牙连接后, 由于某种原因导致连接断开后回调。
+     * 主动连接的一方之后会自动重连, 监听的一方会重新开始监听
      */
     void onConnectLost();
 
     /**
-     * 成功发生数据后调用
+     * 连接失败或断开后, 等待一段时间后重新连接
      *
-     * @param buffer 发送的数据内容
+     * @param attempt 第几次重连, 从1开始
      */
-    void onDataSent(byte[] buffer);
+    void onReconnecting(Device device, int attempt);
 
     /**
-     * 接收到数据后调用
+     * 成功发送数据后调用，多个帧合并为一次写入时只回调一次
      *
-     * @param buffer 接收的数据内容
+     * @param frames 本次写入的帧数
+     * @param bytes  本次写入的字节数
      */
-    void onDataReceived(byte[] buffer, int byteRead);
+    void onDataSent(int frames, int bytes);
+
+    /**
+     * 发送队列满导致{@link BluetoothControler#sendData(int, byte[])}返回false之后，队列有空间时调用
+     */
+    void onWritable();
+
+    /**
+     * 接收到一帧数据后调用，回调返回后frame会被回收，不能继续持有
+     *
+     * @param frame 接收的数据帧
+     */
+    void onDataReceived(Frame frame);
 }
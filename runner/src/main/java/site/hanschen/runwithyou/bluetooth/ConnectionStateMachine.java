@@ -0,0 +1,218 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+/**
+ * 蓝牙连接的状态机，决定什么时候监听、连接和重连，具体的socket操作由{@link Actions}完成。
+ * <p>
+ * 主动连接的一方在连接失败或断开后，按{@link ReconnectBackoff}等待后重新连接缓存的设备；
+ * 监听的一方在连接断开后重新开始监听，等待对方重连。重试次数用完后回到{@link State#IDLE}。
+ * <p>
+ * 所有方法都持有状态机的锁，{@link Actions}的回调也在锁内执行；
+ * {@link ControlerCore}只在事件循环线程中调用，重连也调度到同一个线程
+ *
+ * @author HansChen
+ */
+class ConnectionStateMachine {
+
+    enum State {
+        IDLE,
+        LISTENING,
+        CONNECTING,
+        CONNECTED,
+        /**
+         * 等待下一次重连
+         */
+        WAITING
+    }
+
+    interface Actions {
+
+        void startListening(boolean secure, int timeout);
+
+        void startConnecting(Device device, boolean secure);
+
+        /**
+         * 关闭正在进行的监听、连接和已建立的连接
+         */
+        void closeConnections();
+
+        void onConnected(Device device);
+
+        /**
+         * 已建立的连接断开，之后会自动重连或重新监听
+         */
+        void onConnectionLost();
+
+        void onReconnectScheduled(Device device, int attempt, long delay);
+
+        /**
+         * 监听超时或重连次数用完，已回到{@link State#IDLE}
+         *
+         * @param from 放弃之前的状态
+         */
+        void onGaveUp(State from);
+    }
+
+    private enum Role {
+        NONE,
+        CLIENT,
+        SERVER
+    }
+
+    private final Actions          mActions;
+    private final ReconnectBackoff mBackoff;
+    private final Scheduler        mScheduler;
+
+    private State      mState = State.IDLE;
+    private Role       mRole  = Role.NONE;
+    private Device     mDevice;
+    private boolean    mSecure;
+    private int        mTimeout;
+    private int        mAttempt;
+    private Disposable mRetry;
+
+    ConnectionStateMachine(Actions actions, ReconnectBackoff backoff, Scheduler scheduler) {
+        this.mActions = actions;
+        this.mBackoff = backoff;
+        this.mScheduler = scheduler;
+    }
+
+    synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return 最近连接过的设备，重连时直接使用，不需要重新搜索
+     */
+    synchronized Device getCachedDevice() {
+        return mDevice;
+    }
+
+    /**
+     * @return 已建立连接时返回false
+     */
+    synchronized boolean listen(boolean secure, int timeout) {
+        if (mState == State.CONNECTED || mState == State.CONNECTING) {
+            return false;
+        }
+        cancelRetry();
+        mRole = Role.SERVER;
+        mSecure = secure;
+        mTimeout = timeout;
+        mAttempt = 0;
+        mState = State.LISTENING;
+        mActions.startListening(secure, timeout);
+        return true;
+    }
+
+    synchronized void connect(Device device, boolean secure) {
+        cancelRetry();
+        mActions.closeConnections();
+        mRole = Role.CLIENT;
+        mDevice = device;
+        mSecure = secure;
+        mAttempt = 0;
+        mState = State.CONNECTING;
+        mActions.startConnecting(device, secure);
+    }
+
+    /**
+     * @return 不在监听或连接状态时返回false，调用方需要关闭这个连接
+     */
+    synchronized boolean onConnected(Device device, boolean secure) {
+        if (mState != State.LISTENING && mState != State.CONNECTING) {
+            return false;
+        }
+        mDevice = device;
+        mSecure = secure;
+        mAttempt = 0;
+        mState = State.CONNECTED;
+        mActions.onConnected(device);
+        return true;
+    }
+
+    synchronized void onConnectFailed() {
+        if (mState == State.CONNECTING) {
+            scheduleRetry();
+        }
+    }
+
+    synchronized void onListenTimeout() {
+        if (mState == State.LISTENING) {
+            giveUp();
+        }
+    }
+
+    synchronized void onConnectionLost() {
+        if (mState != State.CONNECTED) {
+            return;
+        }
+        mActions.closeConnections();
+        mActions.onConnectionLost();
+        if (mRole == Role.SERVER) {
+            mState = State.LISTENING;
+            mActions.startListening(mSecure, mTimeout);
+        } else {
+            scheduleRetry();
+        }
+    }
+
+    /**
+     * 停止所有连接和重连，保留缓存的设备
+     */
+    synchronized void reset() {
+        cancelRetry();
+        mActions.closeConnections();
+        mRole = Role.NONE;
+        mAttempt = 0;
+        mState = State.IDLE;
+    }
+
+    private void scheduleRetry() {
+        mAttempt++;
+        if (mDevice == null || !mBackoff.canRetry(mAttempt)) {
+            giveUp();
+            return;
+        }
+        long delay = mBackoff.getDelay(mAttempt);
+        mState = State.WAITING;
+        mActions.onReconnectScheduled(mDevice, mAttempt, delay);
+        mRetry = mScheduler.scheduleDirect(mRetryRunnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void giveUp() {
+        State from = mState;
+        cancelRetry();
+        mActions.closeConnections();
+        mRole = Role.NONE;
+        mAttempt = 0;
+        mState = State.IDLE;
+        mActions.onGaveUp(from);
+    }
+
+    private void cancelRetry() {
+        if (mRetry != null) {
+            mRetry.dispose();
+            mRetry = null;
+        }
+    }
+
+    private final Runnable mRetryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ConnectionStateMachine.this) {
+                if (mState != State.WAITING) {
+                    return;
+                }
+                mRetry = null;
+                mState = State.CONNECTING;
+                mActions.startConnecting(mDevice, mSecure);
+            }
+        }
+    };
+}
@@ -0,0 +1,468 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.Schedulers;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+/**
+ * 蓝牙连接的核心，单线程事件循环。
+ * <p>
+ * 监听、连接、重置等命令和socket的事件(连接成功、失败、断开)都投递到事件循环线程中按顺序处理，
+ * 所有状态只在这个线程中读写，不需要加锁；阻塞的accept、connect和读写在固定大小的I/O线程池中执行，
+ * 反复连接和监听不会创建新的线程。I/O任务结束后把结果投递回事件循环，已经被取消或替换的任务的结果直接丢弃。
+ * <p>
+ * {@link BluetoothListener}的回调在事件循环线程或I/O线程中执行，收到的帧由监听器负责回收
+ *
+ * @author HansChen
+ */
+class ControlerCore {
+
+    private static final String TAG = "ControlerCore";
+
+    /**
+     * 最多同时有安全和非安全两个监听，或者一个连接的读写两个任务，再留出被取消的任务退出前占用的线程
+     */
+    static final int IO_THREADS = 4;
+
+    /**
+     * 空闲的线程超过这个时间后退出，控制器不再使用时不需要显式关闭
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    // Idle frames kept per connection, receiving never blocks on the pool
+    private static final int FRAME_POOL_SIZE = 16;
+
+    private final Transport                mTransport;
+    private final BluetoothListener        mListener;
+    private final ScheduledExecutorService mLoop;
+    private final ExecutorService          mIoPool;
+    private final ConnectionStateMachine   mStateMachine;
+
+    // 以下状态只在事件循环线程中访问
+    private AcceptTask  mSecureAccept;
+    private AcceptTask  mInsecureAccept;
+    private ConnectTask mConnectTask;
+    private Connection  mIncoming;
+    private Connection  mConnection;
+
+    // 发送在调用方的线程，只读取当前连接的发送队列
+    private volatile FrameOutbox mOutbox;
+
+    ControlerCore(Transport transport, BluetoothListener listener) {
+        this(transport, listener, new ReconnectBackoff());
+    }
+
+    ControlerCore(Transport transport, BluetoothListener listener, ReconnectBackoff backoff) {
+        this.mTransport = transport;
+        this.mListener = listener;
+        ScheduledThreadPoolExecutor loop = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("BluetoothLoop"));
+        loop.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        loop.allowCoreThreadTimeOut(true);
+        ThreadPoolExecutor ioPool = new ThreadPoolExecutor(IO_THREADS, IO_THREADS,
+                                                           KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                                           new LinkedBlockingQueue<Runnable>(),
+                                                           new NamedThreadFactory("BluetoothIO"));
+        ioPool.allowCoreThreadTimeOut(true);
+        this.mLoop = loop;
+        this.mIoPool = ioPool;
+        this.mStateMachine = new ConnectionStateMachine(new LoopActions(), backoff, Schedulers.from(mLoop));
+    }
+
+    void listen(final boolean secure, final int timeout) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mStateMachine.listen(secure, timeout);
+            }
+        });
+    }
+
+    void connect(final Device device, final boolean secure) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mStateMachine.connect(device, secure);
+            }
+        });
+    }
+
+    void reset() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mStateMachine.reset();
+            }
+        });
+    }
+
+    /**
+     * 可以在任意线程调用，不经过事件循环
+     */
+    boolean sendData(int type, byte[] out, int offset, int length) {
+        FrameOutbox outbox = mOutbox;
+        return outbox != null && outbox.offer(type, out, offset, length);
+    }
+
+    SendMetrics getSendMetrics() {
+        FrameOutbox outbox = mOutbox;
+        return outbox == null ? null : outbox.getMetrics();
+    }
+
+    ConnectionStateMachine.State getState() {
+        return mStateMachine.getState();
+    }
+
+    /**
+     * 关闭所有连接并停止事件循环和I/O线程，之后的命令都会被忽略
+     */
+    void shutdown() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mStateMachine.reset();
+                mLoop.shutdown();
+                mIoPool.shutdown();
+            }
+        });
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return mLoop.awaitTermination(timeout, unit)
+               && mIoPool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private void post(Runnable event) {
+        try {
+            mLoop.execute(event);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "event loop has been shut down");
+        }
+    }
+
+    private void submit(Runnable task) {
+        try {
+            mIoPool.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "I/O pool has been shut down");
+        }
+    }
+
+    private void onAcceptFinished(AcceptTask task, Connection connection) {
+        boolean current = task == (task.mSecure ? mSecureAccept : mInsecureAccept);
+        if (current) {
+            if (task.mSecure) {
+                mSecureAccept = null;
+            } else {
+                mInsecureAccept = null;
+            }
+            task.cancel();
+        }
+        if (connection != null) {
+            // The state machine decides whether the connection is still wanted
+            connected(connection);
+        } else if (current) {
+            mStateMachine.onListenTimeout();
+        }
+    }
+
+    private void onConnectFinished(ConnectTask task, Connection connection) {
+        // Ignore attempts that have been cancelled or replaced
+        if (task != mConnectTask) {
+            if (connection != null) {
+                connection.close();
+            }
+            return;
+        }
+        mConnectTask = null;
+        if (connection == null) {
+            mStateMachine.onConnectFailed();
+        } else {
+            connected(connection);
+        }
+    }
+
+    private void onConnectionFinished(Connection connection) {
+        // Reconnect or listen again, unless this connection was closed on purpose
+        if (connection == mConnection) {
+            mStateMachine.onConnectionLost();
+        }
+    }
+
+    private void connected(Connection connection) {
+        mIncoming = connection;
+        boolean accepted = mStateMachine.onConnected(connection.mDevice, connection.mSecure);
+        mIncoming = null;
+        if (!accepted) {
+            // Either not ready or already connected. Terminate new connection.
+            connection.close();
+        }
+    }
+
+    private void cancelConnecting() {
+        if (mSecureAccept != null) {
+            mSecureAccept.cancel();
+            mSecureAccept = null;
+        }
+        if (mInsecureAccept != null) {
+            mInsecureAccept.cancel();
+            mInsecureAccept = null;
+        }
+        if (mConnectTask != null) {
+            mConnectTask.cancel();
+            mConnectTask = null;
+        }
+    }
+
+    /**
+     * Socket operations requested by the state machine, always called on the event loop
+     */
+    private class LoopActions implements ConnectionStateMachine.Actions {
+
+        @Override
+        public void startListening(boolean secure, int timeout) {
+            if ((secure ? mSecureAccept : mInsecureAccept) == null) {
+                Transport.Server server = null;
+                try {
+                    server = mTransport.listen(secure);
+                } catch (IOException e) {
+                    Log.e(TAG, "listen() failed", e);
+                }
+                AcceptTask task = new AcceptTask(server, secure, timeout);
+                if (secure) {
+                    mSecureAccept = task;
+                } else {
+                    mInsecureAccept = task;
+                }
+                submit(task);
+            }
+            mListener.onListenStart();
+        }
+
+        @Override
+        public void startConnecting(Device device, boolean secure) {
+            if (mConnectTask != null) {
+                mConnectTask.cancel();
+            }
+            Transport.Link link = null;
+            try {
+                link = mTransport.createLink(device, secure);
+            } catch (IOException e) {
+                Log.e(TAG, "create() failed", e);
+            }
+            mConnectTask = new ConnectTask(link, secure);
+            submit(mConnectTask);
+            mListener.onConnectStart(device);
+        }
+
+        @Override
+        public void closeConnections() {
+            cancelConnecting();
+            if (mConnection != null) {
+                mOutbox = null;
+                mConnection.close();
+                mConnection = null;
+            }
+        }
+
+        @Override
+        public void onConnected(Device device) {
+            // We only want to connect to one device
+            cancelConnecting();
+            mConnection = mIncoming;
+            mOutbox = mConnection.mOutbox;
+            mConnection.start();
+            mListener.onConnectSucceed(device);
+        }
+
+        @Override
+        public void onConnectionLost() {
+            mListener.onConnectLost();
+        }
+
+        @Override
+        public void onReconnectScheduled(Device device, int attempt, long delay) {
+            Log.d(TAG, "reconnect to " + device + " in " + delay + "ms, attempt " + attempt);
+            mListener.onReconnecting(device, attempt);
+        }
+
+        @Override
+        public void onGaveUp(ConnectionStateMachine.State from) {
+            if (from == ConnectionStateMachine.State.LISTENING) {
+                mListener.onListenTimeout();
+            } else {
+                mListener.onConnectFailed(mStateMachine.getCachedDevice());
+            }
+        }
+    }
+
+    /**
+     * Runs while listening for incoming connections, until a connection is accepted or timeout
+     */
+    private class AcceptTask implements Runnable {
+
+        private final Transport.Server mServer;
+        private final boolean          mSecure;
+        private final int              mTimeout;
+
+        AcceptTask(Transport.Server server, boolean secure, int timeout) {
+            this.mServer = server;
+            this.mSecure = secure;
+            this.mTimeout = timeout;
+        }
+
+        @Override
+        public void run() {
+            Connection connection = null;
+            if (mServer != null) {
+                Transport.Link link = null;
+                try {
+                    // This is a blocking call and will only return on a successful connection or an exception
+                    link = mServer.accept(mTimeout);
+                    connection = new Connection(link, mSecure);
+                } catch (IOException e) {
+                    Log.e(TAG, "accept() failed", e);
+                    if (link != null) {
+                        link.close();
+                    }
+                }
+            }
+            final Connection accepted = connection;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    onAcceptFinished(AcceptTask.this, accepted);
+                }
+            });
+        }
+
+        void cancel() {
+            if (mServer != null) {
+                mServer.close();
+            }
+        }
+    }
+
+    /**
+     * Runs while attempting to make an outgoing connection, the connection either succeeds or fails
+     */
+    private class ConnectTask implements Runnable {
+
+        private final Transport.Link mLink;
+        private final boolean        mSecure;
+
+        ConnectTask(Transport.Link link, boolean secure) {
+            this.mLink = link;
+            this.mSecure = secure;
+        }
+
+        @Override
+        public void run() {
+            Connection connection = null;
+            if (mLink != null) {
+                try {
+                    // This is a blocking call and will only return on a successful connection or an exception
+                    mLink.connect();
+                    connection = new Connection(mLink, mSecure);
+                } catch (IOException e) {
+                    Log.e(TAG, "connect() failed", e);
+                    mLink.close();
+                }
+            }
+            final Connection connected = connection;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    onConnectFinished(ConnectTask.this, connected);
+                }
+            });
+        }
+
+        void cancel() {
+            if (mLink != null) {
+                mLink.close();
+            }
+        }
+    }
+
+    /**
+     * An established connection, frames are read and written on two tasks of the I/O pool
+     */
+    private class Connection implements Runnable {
+
+        private final Transport.Link mLink;
+        private final Device         mDevice;
+        private final boolean        mSecure;
+        private final FrameReader    mReader;
+        private final FrameOutbox    mOutbox;
+
+        Connection(Transport.Link link, boolean secure) throws IOException {
+            this.mLink = link;
+            this.mDevice = link.getRemoteDevice();
+            this.mSecure = secure;
+            this.mReader = new FrameReader(link.getInputStream(), new FramePool(FRAME_POOL_SIZE));
+            this.mOutbox = new FrameOutbox(link.getOutputStream(), new OutboxCallback());
+        }
+
+        void start() {
+            submit(mOutbox);
+            submit(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                // Keep listening to the InputStream until the connection is closed
+                while (true) {
+                    // Every frame owns its buffer until the listener recycles it
+                    mListener.onDataReceived(mReader.read());
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "disconnected", e);
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    onConnectionFinished(Connection.this);
+                }
+            });
+        }
+
+        void close() {
+            mOutbox.close();
+            mLink.close();
+        }
+    }
+
+    /**
+     * Runs on the writer task, one callback per batch instead of per frame
+     */
+    private class OutboxCallback implements FrameOutbox.Callback {
+
+        @Override
+        public void onBatchSent(int frames, int bytes) {
+            mListener.onDataSent(frames, bytes);
+        }
+
+        @Override
+        public void onWritable() {
+            mListener.onWritable();
+        }
+
+        @Override
+        public void onWriteFailed(IOException e) {
+            // The read side notices the broken connection and reports it
+            Log.e(TAG, "Exception during write", e);
+        }
+    }
+}
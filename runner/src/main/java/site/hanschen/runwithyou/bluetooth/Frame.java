@@ -0,0 +1,87 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import java.util.Arrays;
+
+/**
+ * 蓝牙连接上传输的一帧数据，格式为：版本(1字节) + 类型(1字节) + 长度(2字节) + 内容
+ * <p>
+ * 接收到的Frame来自{@link FramePool}，缓冲区会被后续的帧重用，只在回调期间有效，需要保留内容请调用{@link #copyPayload()}
+ *
+ * @author HansChen
+ */
+public final class Frame {
+
+    public static final int VERSION     = 1;
+    public static final int HEADER_SIZE = 4;
+    public static final int MAX_TYPE    = 0xFF;
+    public static final int MAX_PAYLOAD = 4096;
+
+    private final FramePool mPool;
+    private final byte[]    mBuffer = new byte[MAX_PAYLOAD];
+    private       int       mType;
+    private       int       mLength;
+    private       boolean   mInUse;
+
+    Frame(FramePool pool) {
+        this.mPool = pool;
+    }
+
+    void set(int type, int length) {
+        mType = type;
+        mLength = length;
+    }
+
+    void markInUse() {
+        mInUse = true;
+    }
+
+    byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return 内容所在的缓冲区，有效数据为[0, {@link #getLength()})，回收后不能再访问
+     */
+    public byte[] getPayload() {
+        checkInUse();
+        return mBuffer;
+    }
+
+    public byte[] copyPayload() {
+        checkInUse();
+        return Arrays.copyOf(mBuffer, mLength);
+    }
+
+    /**
+     * 归还缓冲区，之后不能再访问这个Frame
+     */
+    public void recycle() {
+        checkInUse();
+        mInUse = false;
+        mType = 0;
+        mLength = 0;
+        mPool.recycle(this);
+    }
+
+    private void checkInUse() {
+        if (!mInUse) {
+            throw new IllegalStateException("Frame has been recycled");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Frame{" +
+                "mType=" + mType +
+                ", mLength=" + mLength +
+                '}';
+    }
+}
@@ -0,0 +1,186 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import site.hanschen.runwithyou.utils.Clock;
+
+/**
+ * 有界的发送队列，调用方不会阻塞在socket上：
+ * {@link #offer(int, byte[])}把帧编码到待发送缓冲区后立即返回，写线程({@link #run()})把缓冲区中的所有帧合并为一次写入。
+ * <p>
+ * 两个缓冲区交替使用，写线程写出一个的同时调用方填充另一个，不分配对象。
+ * 缓冲区已满时offer返回false，之后缓冲区被写线程取走时回调{@link Callback#onWritable()}
+ *
+ * @author HansChen
+ */
+public class FrameOutbox implements Runnable {
+
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    public interface Callback {
+
+        /**
+         * 写入一批数据后在写线程回调
+         */
+        void onBatchSent(int frames, int bytes);
+
+        /**
+         * 之前拒绝过发送，现在队列有空间了，在写线程回调
+         */
+        void onWritable();
+
+        /**
+         * 写入失败，写线程退出
+         */
+        void onWriteFailed(IOException e);
+    }
+
+    private final OutputStream mOut;
+    private final Callback     mCallback;
+    private final Clock        mClock;
+    private final int          mCapacity;
+    private final long         mStartTime;
+
+    private byte[]  mPending;
+    private byte[]  mWriting;
+    private int     mPendingBytes;
+    private int     mPendingFrames;
+    private boolean mRejected;
+    private boolean mClosed;
+
+    private int  mMaxQueuedBytes;
+    private long mSentFrames;
+    private long mSentBytes;
+    private long mWrites;
+    private long mRejectedFrames;
+    private long mTotalWriteLatency;
+    private long mMaxWriteLatency;
+
+    public FrameOutbox(OutputStream out, Callback callback) {
+        this(out, callback, Clock.SYSTEM, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 待发送的最大字节数，至少能容纳一个最大的帧
+     */
+    public FrameOutbox(OutputStream out, Callback callback, Clock clock, int capacity) {
+        if (capacity < Frame.HEADER_SIZE + Frame.MAX_PAYLOAD) {
+            throw new IllegalArgumentException("capacity too small: " + capacity);
+        }
+        this.mOut = out;
+        this.mCallback = callback;
+        this.mClock = clock;
+        this.mCapacity = capacity;
+        this.mStartTime = clock.elapsedRealtime();
+        this.mPending = new byte[capacity];
+        this.mWriting = new byte[capacity];
+    }
+
+    public boolean offer(int type, byte[] payload) {
+        return offer(type, payload, 0, payload.length);
+    }
+
+    /**
+     * 加入发送队列，可以在任意线程调用，返回后payload可以被修改
+     *
+     * @return 队列已满或已关闭时返回false
+     */
+    public synchronized boolean offer(int type, byte[] payload, int offset, int length) {
+        if (mClosed || mPendingBytes + Frame.HEADER_SIZE + length > mCapacity) {
+            // 超出帧长度限制的参数错误仍然抛出异常，不算作背压
+            if (length > Frame.MAX_PAYLOAD) {
+                throw new IllegalArgumentException("Frame too large: " + length);
+            }
+            mRejected = true;
+            mRejectedFrames++;
+            return false;
+        }
+        mPendingBytes += FrameWriter.encode(type, payload, offset, length, mPending, mPendingBytes);
+        mPendingFrames++;
+        mMaxQueuedBytes = Math.max(mMaxQueuedBytes, mPendingBytes);
+        if (mPendingFrames == 1) {
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * 写线程，直到{@link #close()}或写入失败后返回
+     */
+    @Override
+    public void run() {
+        while (true) {
+            byte[] batch;
+            int bytes;
+            int frames;
+            boolean writable;
+            synchronized (this) {
+                while (mPendingFrames == 0 && !mClosed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        mClosed = true;
+                    }
+                }
+                if (mClosed) {
+                    return;
+                }
+                batch = mPending;
+                bytes = mPendingBytes;
+                frames = mPendingFrames;
+                mPending = mWriting;
+                mWriting = batch;
+                mPendingBytes = 0;
+                mPendingFrames = 0;
+                writable = mRejected;
+                mRejected = false;
+            }
+            if (writable) {
+                mCallback.onWritable();
+            }
+
+            long start = mClock.elapsedRealtime();
+            try {
+                mOut.write(batch, 0, bytes);
+                mOut.flush();
+            } catch (IOException e) {
+                close();
+                mCallback.onWriteFailed(e);
+                return;
+            }
+            long latency = mClock.elapsedRealtime() - start;
+            synchronized (this) {
+                mSentFrames += frames;
+                mSentBytes += bytes;
+                mWrites++;
+                mTotalWriteLatency += latency;
+                mMaxWriteLatency = Math.max(mMaxWriteLatency, latency);
+            }
+            mCallback.onBatchSent(frames, bytes);
+        }
+    }
+
+    /**
+     * 停止写线程，丢弃未发送的数据
+     */
+    public synchronized void close() {
+        mClosed = true;
+        mPendingBytes = 0;
+        mPendingFrames = 0;
+        notifyAll();
+    }
+
+    public synchronized SendMetrics getMetrics() {
+        return new SendMetrics(mPendingFrames,
+                               mPendingBytes,
+                               mMaxQueuedBytes,
+                               mSentFrames,
+                               mSentBytes,
+                               mWrites,
+                               mRejectedFrames,
+                               mTotalWriteLatency,
+                               mMaxWriteLatency,
+                               mClock.elapsedRealtime() - mStartTime);
+    }
+}
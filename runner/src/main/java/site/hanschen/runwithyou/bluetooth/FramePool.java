@@ -0,0 +1,41 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Frame}的对象池，读线程获取，消费者回收，可以在不同线程调用。
+ * 池中最多保留maxPooled个空闲的Frame，消费者来不及处理时临时分配新的Frame，不阻塞读线程
+ *
+ * @author HansChen
+ */
+public class FramePool {
+
+    private final ArrayBlockingQueue<Frame> mFree;
+    private final AtomicInteger             mCreated = new AtomicInteger();
+
+    public FramePool(int maxPooled) {
+        this.mFree = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    public Frame obtain() {
+        Frame frame = mFree.poll();
+        if (frame == null) {
+            mCreated.incrementAndGet();
+            frame = new Frame(this);
+        }
+        frame.markInUse();
+        return frame;
+    }
+
+    void recycle(Frame frame) {
+        mFree.offer(frame);
+    }
+
+    /**
+     * @return 累计分配的Frame个数
+     */
+    public int getCreatedCount() {
+        return mCreated.get();
+    }
+}
@@ -0,0 +1,51 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+
+/**
+ * 从输入流中解析{@link Frame}，在读线程调用
+ *
+ * @author HansChen
+ */
+public class FrameReader {
+
+    private final DataInputStream mIn;
+    private final FramePool       mPool;
+
+    public FrameReader(InputStream in, FramePool pool) {
+        this.mIn = new DataInputStream(new BufferedInputStream(in, Frame.HEADER_SIZE + Frame.MAX_PAYLOAD));
+        this.mPool = pool;
+    }
+
+    /**
+     * 阻塞直到读取完整的一帧
+     *
+     * @return 从{@link FramePool}获取的Frame，使用完毕后需要调用{@link Frame#recycle()}
+     * @throws java.io.EOFException 连接在帧的中间断开
+     * @throws ProtocolException    版本不匹配或长度超出限制
+     */
+    public Frame read() throws IOException {
+        int version = mIn.readUnsignedByte();
+        if (version != Frame.VERSION) {
+            throw new ProtocolException("Unsupported frame version: " + version);
+        }
+        int type = mIn.readUnsignedByte();
+        int length = mIn.readUnsignedShort();
+        if (length > Frame.MAX_PAYLOAD) {
+            throw new ProtocolException("Frame too large: " + length);
+        }
+        Frame frame = mPool.obtain();
+        try {
+            mIn.readFully(frame.getBuffer(), 0, length);
+        } catch (IOException e) {
+            frame.recycle();
+            throw e;
+        }
+        frame.set(type, length);
+        return frame;
+    }
+}
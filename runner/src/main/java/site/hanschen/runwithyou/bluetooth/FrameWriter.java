@@ -0,0 +1,49 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 把数据编码为{@link Frame}写入输出流，可以在多个线程调用，每一帧通过一次write写出
+ *
+ * @author HansChen
+ */
+public class FrameWriter {
+
+    private final OutputStream mOut;
+    private final byte[]       mBuffer = new byte[Frame.HEADER_SIZE + Frame.MAX_PAYLOAD];
+
+    public FrameWriter(OutputStream out) {
+        this.mOut = out;
+    }
+
+    public void write(int type, byte[] payload) throws IOException {
+        write(type, payload, 0, payload.length);
+    }
+
+    public synchronized void write(int type, byte[] payload, int offset, int length) throws IOException {
+        int size = encode(type, payload, offset, length, mBuffer, 0);
+        mOut.write(mBuffer, 0, size);
+        mOut.flush();
+    }
+
+    /**
+     * 把一帧编码到dst的position位置
+     *
+     * @return 写入的字节数
+     */
+    static int encode(int type, byte[] payload, int offset, int length, byte[] dst, int position) {
+        if (type < 0 || type > Frame.MAX_TYPE) {
+            throw new IllegalArgumentException("Invalid frame type: " + type);
+        }
+        if (length > Frame.MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Frame too large: " + length);
+        }
+        dst[position] = (byte) Frame.VERSION;
+        dst[position + 1] = (byte) type;
+        dst[position + 2] = (byte) (length >>> 8);
+        dst[position + 3] = (byte) length;
+        System.arraycopy(payload, offset, dst, position + Frame.HEADER_SIZE, length);
+        return Frame.HEADER_SIZE + length;
+    }
+}
@@ -0,0 +1,33 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+/**
+ * {@link BluetoothHub}的回调，同一个成员的回调按发生的顺序执行
+ *
+ * @author HansChen
+ */
+public interface HubListener {
+
+    /**
+     * 有新的成员加入
+     *
+     * @param peerId 成员的编号，同一个hub中不会重复使用
+     */
+    void onPeerConnected(int peerId, Device device);
+
+    /**
+     * 成员断开连接或者hub停止
+     */
+    void onPeerDisconnected(int peerId);
+
+    /**
+     * 收到成员发来的一帧数据，回调返回后frame会被回收，需要保留的数据要复制出来
+     */
+    void onDataReceived(int peerId, Frame frame);
+
+    /**
+     * 这个成员的发送队列满过，现在有空间了
+     */
+    void onPeerWritable(int peerId);
+}
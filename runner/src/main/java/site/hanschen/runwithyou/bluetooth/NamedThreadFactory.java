@@ -0,0 +1,24 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 线程名加上序号，方便在日志和线程列表中区分
+ *
+ * @author HansChen
+ */
+class NamedThreadFactory implements ThreadFactory {
+
+    private final String        mName;
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    NamedThreadFactory(String name) {
+        this.mName = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        return new Thread(r, mName + "-" + mCount.incrementAndGet());
+    }
+}
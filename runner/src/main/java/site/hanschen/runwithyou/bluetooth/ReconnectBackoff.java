@@ -0,0 +1,51 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import java.util.Random;
+
+/**
+ * 重连的退避策略：每次失败后等待时间加倍，不超过上限，并在后一半区间内随机抖动，避免两端同时重试
+ *
+ * @author HansChen
+ */
+class ReconnectBackoff {
+
+    static final long DEFAULT_BASE_DELAY   = 1000;
+    static final long DEFAULT_MAX_DELAY    = 30000;
+    static final int  DEFAULT_MAX_ATTEMPTS = 6;
+
+    private final long   mBaseDelay;
+    private final long   mMaxDelay;
+    private final int    mMaxAttempts;
+    private final Random mRandom;
+
+    ReconnectBackoff() {
+        this(DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MAX_ATTEMPTS, new Random());
+    }
+
+    ReconnectBackoff(long baseDelay, long maxDelay, int maxAttempts, Random random) {
+        this.mBaseDelay = baseDelay;
+        this.mMaxDelay = maxDelay;
+        this.mMaxAttempts = maxAttempts;
+        this.mRandom = random;
+    }
+
+    /**
+     * @return 是否还可以进行第attempt次重试，从1开始
+     */
+    boolean canRetry(int attempt) {
+        return attempt <= mMaxAttempts;
+    }
+
+    /**
+     * @return 第attempt次重试前等待的毫秒数，在[delay / 2, delay]之间
+     */
+    long getDelay(int attempt) {
+        long delay = mBaseDelay;
+        for (int i = 1; i < attempt && delay < mMaxDelay; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, mMaxDelay);
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+}
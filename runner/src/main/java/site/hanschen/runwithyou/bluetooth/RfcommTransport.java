@@ -0,0 +1,132 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+/**
+ * 基于RFCOMM socket的{@link Transport}
+ *
+ * @author HansChen
+ */
+class RfcommTransport implements Transport {
+
+    private static final String TAG = "RfcommTransport";
+
+    // Name for the SDP record when creating server socket
+    private static final String NAME_SECURE   = "BluetoothSecure";
+    private static final String NAME_INSECURE = "BluetoothInsecure";
+
+    // Unique UUID for this application
+    private static final UUID MY_UUID_SECURE   = UUID.fromString("768665b1-dd18-4115-bd65-bf4b686f7725");
+    private static final UUID MY_UUID_INSECURE = UUID.fromString("c155917b-84b1-4d81-a1c0-90b3cdb8f18c");
+
+    private final BluetoothAdapter mAdapter;
+    // 只在事件循环线程中访问
+    private       BluetoothDevice  mRemoteDevice;
+
+    RfcommTransport(BluetoothAdapter adapter) {
+        this.mAdapter = adapter;
+    }
+
+    @Override
+    public Server listen(boolean secure) throws IOException {
+        BluetoothServerSocket socket;
+        if (secure) {
+            socket = mAdapter.listenUsingRfcommWithServiceRecord(NAME_SECURE, MY_UUID_SECURE);
+        } else {
+            socket = mAdapter.listenUsingInsecureRfcommWithServiceRecord(NAME_INSECURE, MY_UUID_INSECURE);
+        }
+        return new RfcommServer(socket);
+    }
+
+    @Override
+    public Link createLink(Device device, boolean secure) throws IOException {
+        // Reuse the BluetoothDevice of the last connection when reconnecting to the same peer
+        BluetoothDevice remote = mRemoteDevice;
+        if (remote == null || !remote.getAddress().equals(device.getAddress())) {
+            remote = mAdapter.getRemoteDevice(device.getAddress());
+            mRemoteDevice = remote;
+        }
+        BluetoothSocket socket;
+        if (secure) {
+            socket = remote.createRfcommSocketToServiceRecord(MY_UUID_SECURE);
+        } else {
+            socket = remote.createInsecureRfcommSocketToServiceRecord(MY_UUID_INSECURE);
+        }
+        return new RfcommLink(socket);
+    }
+
+    private class RfcommServer implements Server {
+
+        private final BluetoothServerSocket mSocket;
+
+        RfcommServer(BluetoothServerSocket socket) {
+            this.mSocket = socket;
+        }
+
+        @Override
+        public Link accept(int timeout) throws IOException {
+            return new RfcommLink(timeout > 0 ? mSocket.accept(timeout) : mSocket.accept());
+        }
+
+        @Override
+        public void close() {
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close() of server failed", e);
+            }
+        }
+    }
+
+    private class RfcommLink implements Link {
+
+        private final BluetoothSocket mSocket;
+
+        RfcommLink(BluetoothSocket socket) {
+            this.mSocket = socket;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            // Always cancel discovery because it will slow down a connection
+            mAdapter.cancelDiscovery();
+            mSocket.connect();
+        }
+
+        @Override
+        public Device getRemoteDevice() {
+            BluetoothDevice remote = mSocket.getRemoteDevice();
+            return new Device(remote.getName(), remote.getAddress());
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return mSocket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return mSocket.getOutputStream();
+        }
+
+        @Override
+        public void close() {
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close() of socket failed", e);
+            }
+        }
+    }
+}
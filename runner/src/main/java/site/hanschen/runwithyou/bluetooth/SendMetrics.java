@@ -0,0 +1,122 @@
+package site.hanschen.runwithyou.bluetooth;
+
+/**
+ * 一个连接的发送统计，由{@link FrameOutbox#getMetrics()}生成的快照
+ *
+ * @author HansChen
+ */
+public class SendMetrics {
+
+    private final int  mQueuedFrames;
+    private final int  mQueuedBytes;
+    private final int  mMaxQueuedBytes;
+    private final long mSentFrames;
+    private final long mSentBytes;
+    private final long mWrites;
+    private final long mRejectedFrames;
+    private final long mTotalWriteLatency;
+    private final long mMaxWriteLatency;
+    private final long mElapsed;
+
+    SendMetrics(int queuedFrames,
+                int queuedBytes,
+                int maxQueuedBytes,
+                long sentFrames,
+                long sentBytes,
+                long writes,
+                long rejectedFrames,
+                long totalWriteLatency,
+                long maxWriteLatency,
+                long elapsed) {
+        this.mQueuedFrames = queuedFrames;
+        this.mQueuedBytes = queuedBytes;
+        this.mMaxQueuedBytes = maxQueuedBytes;
+        this.mSentFrames = sentFrames;
+        this.mSentBytes = sentBytes;
+        this.mWrites = writes;
+        this.mRejectedFrames = rejectedFrames;
+        this.mTotalWriteLatency = totalWriteLatency;
+        this.mMaxWriteLatency = maxWriteLatency;
+        this.mElapsed = elapsed;
+    }
+
+    /**
+     * @return 队列中等待发送的帧数
+     */
+    public int getQueuedFrames() {
+        return mQueuedFrames;
+    }
+
+    /**
+     * @return 队列中等待发送的字节数
+     */
+    public int getQueuedBytes() {
+        return mQueuedBytes;
+    }
+
+    /**
+     * @return 队列出现过的最大字节数
+     */
+    public int getMaxQueuedBytes() {
+        return mMaxQueuedBytes;
+    }
+
+    public long getSentFrames() {
+        return mSentFrames;
+    }
+
+    public long getSentBytes() {
+        return mSentBytes;
+    }
+
+    /**
+     * @return socket写入次数，多个帧合并为一次写入
+     */
+    public long getWrites() {
+        return mWrites;
+    }
+
+    /**
+     * @return 队列已满被拒绝的帧数
+     */
+    public long getRejectedFrames() {
+        return mRejectedFrames;
+    }
+
+    /**
+     * @return 平均每次写入的毫秒数
+     */
+    public long getAverageWriteLatency() {
+        return mWrites == 0 ? 0 : mTotalWriteLatency / mWrites;
+    }
+
+    /**
+     * @return 单次写入的最大毫秒数
+     */
+    public long getMaxWriteLatency() {
+        return mMaxWriteLatency;
+    }
+
+    /**
+     * @return 连接建立以来的平均发送速率
+     */
+    public long getBytesPerSecond() {
+        return mElapsed <= 0 ? 0 : mSentBytes * 1000 / mElapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "SendMetrics{" +
+                "mQueuedFrames=" + mQueuedFrames +
+                ", mQueuedBytes=" + mQueuedBytes +
+                ", mMaxQueuedBytes=" + mMaxQueuedBytes +
+                ", mSentFrames=" + mSentFrames +
+                ", mSentBytes=" + mSentBytes +
+                ", mWrites=" + mWrites +
+                ", mRejectedFrames=" + mRejectedFrames +
+                ", mAverageWriteLatency=" + getAverageWriteLatency() +
+                ", mMaxWriteLatency=" + mMaxWriteLatency +
+                ", mBytesPerSecond=" + getBytesPerSecond() +
+                '}';
+    }
+}
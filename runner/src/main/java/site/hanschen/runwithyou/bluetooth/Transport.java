@@ -0,0 +1,57 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+/**
+ * 蓝牙socket的抽象，阻塞的方法都在{@link ControlerCore}的I/O线程池中调用，
+ * 其他方法在事件循环线程中调用，不能阻塞
+ *
+ * @author HansChen
+ */
+interface Transport {
+
+    /**
+     * 注册监听，之后调用{@link Server#accept(int)}等待连接
+     */
+    Server listen(boolean secure) throws IOException;
+
+    /**
+     * 创建到device的连接，之后调用{@link Link#connect()}
+     */
+    Link createLink(Device device, boolean secure) throws IOException;
+
+    interface Server {
+
+        /**
+         * 阻塞直到有连接，超时或{@link #close()}后抛出IOException
+         *
+         * @param timeout 超时时间，小于等于0时一直等待
+         */
+        Link accept(int timeout) throws IOException;
+
+        void close();
+    }
+
+    interface Link {
+
+        /**
+         * 阻塞直到连接成功，失败或{@link #close()}后抛出IOException
+         */
+        void connect() throws IOException;
+
+        Device getRemoteDevice();
+
+        InputStream getInputStream() throws IOException;
+
+        OutputStream getOutputStream() throws IOException;
+
+        /**
+         * 关闭连接，阻塞在这个连接上的读写都会抛出IOException
+         */
+        void close();
+    }
+}
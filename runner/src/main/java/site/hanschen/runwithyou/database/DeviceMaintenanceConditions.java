@@ -0,0 +1,38 @@
+package site.hanschen.runwithyou.database;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+
+/**
+ * 正在充电并且灭屏时才执行重写整个数据库的维护任务
+ *
+ * @author HansChen
+ */
+public class DeviceMaintenanceConditions implements StepRecordCompactor.Conditions {
+
+    private final Context mContext;
+
+    public DeviceMaintenanceConditions(Context context) {
+        this.mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public boolean isFullVacuumAllowed() {
+        return isCharging() && !isScreenOn();
+    }
+
+    private boolean isCharging() {
+        // ACTION_BATTERY_CHANGED是粘性广播，不需要真正注册接收器
+        Intent battery = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean isScreenOn() {
+        PowerManager manager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        return manager.isScreenOn();
+    }
+}
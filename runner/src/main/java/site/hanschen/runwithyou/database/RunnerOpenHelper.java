@@ -0,0 +1,171 @@
+package site.hanschen.runwithyou.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.greenrobot.greendao.database.Database;
+import org.greenrobot.greendao.database.DatabaseStatement;
+
+import java.util.Map;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.database.gen.DaoMaster;
+import site.hanschen.runwithyou.database.gen.DeviceEntityDao;
+import site.hanschen.runwithyou.database.gen.StepDayEntityDao;
+import site.hanschen.runwithyou.database.gen.StepHourEntityDao;
+import site.hanschen.runwithyou.database.gen.StepMinuteEntityDao;
+import site.hanschen.runwithyou.database.gen.StepRecordEntityDao;
+import site.hanschen.runwithyou.database.gen.StepStateEntityDao;
+import site.hanschen.runwithyou.database.repository.StepRepositoryImpl;
+import site.hanschen.runwithyou.database.repository.StepRollup;
+
+/**
+ * 按版本逐步迁移数据库，不像{@link DaoMaster.DevOpenHelper}那样在升级时删除所有表
+ *
+ * @author HansChen
+ */
+public class RunnerOpenHelper extends DaoMaster.OpenHelper {
+
+    private static final String TAG = "RunnerOpenHelper";
+
+    /**
+     * 回填汇总表时，内存中最多累积的分钟数
+     */
+    private static final int BACKFILL_FLUSH_SIZE = 1000;
+
+    public RunnerOpenHelper(Context context, String name) {
+        super(context, name);
+    }
+
+    public RunnerOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory) {
+        super(context, name, factory);
+    }
+
+    /**
+     * 在数据库还没有原始记录时切换为增量auto_vacuum模式，供{@link StepRecordCompactor}分批回收空间。
+     * 切换需要一次完整的VACUUM，这里只在数据库很小时执行，已有数据的数据库由{@link StepRecordCompactor}在充电并且灭屏时切换；
+     * onOpen在建表和迁移的事务之外调用
+     */
+    @Override
+    public void onOpen(Database db) {
+        super.onOpen(db);
+        if (StepRecordCompactor.queryLong(db, "PRAGMA auto_vacuum") == StepRecordCompactor.AUTO_VACUUM_INCREMENTAL) {
+            return;
+        }
+        if (StepRecordCompactor.queryLong(db, "SELECT COUNT(*) FROM (SELECT 1 FROM \"" +
+                                              StepRecordEntityDao.TABLENAME + "\" LIMIT 1)") == 0) {
+            Log.i(TAG, "Switching to incremental auto_vacuum");
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+    }
+
+    @Override
+    public void onUpgrade(Database db, int oldVersion, int newVersion) {
+        Log.i(TAG, "Upgrading schema from version " + oldVersion + " to " + newVersion);
+        if (oldVersion < 2) {
+            migrateToVersion2(db);
+        }
+        if (oldVersion < 3) {
+            migrateToVersion3(db);
+        }
+        if (oldVersion < 4) {
+            migrateToVersion4(db);
+        }
+        if (oldVersion < 5) {
+            migrateToVersion5(db);
+        }
+    }
+
+    /**
+     * 版本2新增分钟、小时、天汇总表，并用已有的原始记录回填
+     */
+    private void migrateToVersion2(Database db) {
+        StepMinuteEntityDao.createTable(db, true);
+        StepHourEntityDao.createTable(db, true);
+        StepDayEntityDao.createTable(db, true);
+
+        StepRollup rollup = new StepRollup(null);
+        Cursor cursor = db.rawQuery("SELECT " + StepRecordEntityDao.Properties.CountSinceReboot.columnName + ", " +
+                                    StepRecordEntityDao.Properties.StepTime.columnName + ", " +
+                                    StepRecordEntityDao.Properties.StepCount.columnName + " FROM \"" +
+                                    StepRecordEntityDao.TABLENAME + "\" ORDER BY " +
+                                    StepRecordEntityDao.Properties.Id.columnName, null);
+        try {
+            while (cursor.moveToNext()) {
+                rollup.add(new StepRecord(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2)));
+                if (rollup.size() >= BACKFILL_FLUSH_SIZE) {
+                    writeRollup(db, rollup);
+                    rollup.clear();
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        writeRollup(db, rollup);
+    }
+
+    /**
+     * 版本3新增只有一行的当前计步状态表，用最后一条原始记录初始化
+     */
+    private void migrateToVersion3(Database db) {
+        StepStateEntityDao.createTable(db, true);
+        db.execSQL("INSERT OR REPLACE INTO \"" + StepStateEntityDao.TABLENAME + "\" (" +
+                   StepStateEntityDao.Properties.Id.columnName + ", " +
+                   StepStateEntityDao.Properties.CountSinceReboot.columnName + ", " +
+                   StepStateEntityDao.Properties.StepTime.columnName + ", " +
+                   StepStateEntityDao.Properties.StepCount.columnName + ") SELECT " +
+                   StepRepositoryImpl.STATE_ID + ", " +
+                   StepRecordEntityDao.Properties.CountSinceReboot.columnName + ", " +
+                   StepRecordEntityDao.Properties.StepTime.columnName + ", " +
+                   StepRecordEntityDao.Properties.StepCount.columnName + " FROM \"" +
+                   StepRecordEntityDao.TABLENAME + "\" ORDER BY " +
+                   StepRecordEntityDao.Properties.Id.columnName + " DESC LIMIT 1");
+    }
+
+    /**
+     * 版本4为原始记录的STEP_TIME建立索引，支持按时间范围分页读取
+     */
+    private void migrateToVersion4(Database db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS IDX_STEP_RECORD_ENTITY_STEP_TIME ON \"" + StepRecordEntityDao.TABLENAME + "\" (\"" +
+                   StepRecordEntityDao.Properties.StepTime.columnName + "\" ASC)");
+    }
+
+    /**
+     * 版本5新增按MAC地址唯一的设备表
+     */
+    private void migrateToVersion5(Database db) {
+        DeviceEntityDao.createTable(db, true);
+    }
+
+    private static void writeRollup(Database db, StepRollup rollup) {
+        addDeltas(db, StepMinuteEntityDao.TABLENAME, rollup.getMinuteDeltas());
+        addDeltas(db, StepHourEntityDao.TABLENAME, rollup.getHourDeltas());
+        addDeltas(db, StepDayEntityDao.TABLENAME, rollup.getDayDeltas());
+    }
+
+    /**
+     * 三张汇总表结构相同: START_TIME(主键), STEP_COUNT
+     */
+    private static void addDeltas(Database db, String table, Map<Long, Long> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        DatabaseStatement insert = db.compileStatement("INSERT OR IGNORE INTO \"" + table + "\" (\"START_TIME\", \"STEP_COUNT\") VALUES (?, 0)");
+        DatabaseStatement update = db.compileStatement("UPDATE \"" + table + "\" SET \"STEP_COUNT\" = \"STEP_COUNT\" + ? WHERE \"START_TIME\" = ?");
+        try {
+            for (Map.Entry<Long, Long> delta : deltas.entrySet()) {
+                insert.bindLong(1, delta.getKey());
+                insert.execute();
+                update.bindLong(1, delta.getValue());
+                update.bindLong(2, delta.getKey());
+                update.execute();
+            }
+        } finally {
+            insert.close();
+            update.close();
+        }
+    }
+}
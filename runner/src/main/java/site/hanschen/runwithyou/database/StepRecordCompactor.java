@@ -0,0 +1,349 @@
+package site.hanschen.runwithyou.database;
+
+import android.database.Cursor;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.greenrobot.greendao.database.Database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+import site.hanschen.runwithyou.database.entity.StepRecordEntity;
+import site.hanschen.runwithyou.database.gen.DaoSession;
+import site.hanschen.runwithyou.database.gen.StepRecordEntityDao;
+import site.hanschen.runwithyou.database.repository.SettingRepository;
+import site.hanschen.runwithyou.utils.TimeUtils;
+
+/**
+ * 压缩超出保留期限的原始计步记录：每个小时只保留最后一条记录。{@link site.hanschen.runwithyou.bean.StepRecord#getStepCount()}
+ * 是当天的累计步数，所以每天最后一条记录仍然保留，每日总步数不受影响；分钟、小时、天的汇总表在写入时已经生成，也不受影响。
+ * <p>
+ * 删除分批在独立的小事务中进行，批次之间会暂停，避免长时间占用数据库写锁阻塞插入新记录。
+ * 数据库是增量auto_vacuum模式时，每批删除后最多回收{@link #VACUUM_PAGES_PER_BATCH}个空闲页。
+ * 新数据库由{@link RunnerOpenHelper}在还没有原始记录时切换到增量模式；已有数据的数据库在{@link Conditions}允许时
+ * (正在充电并且灭屏)，于一次压缩结束后执行唯一一次切换模式的完整VACUUM，之前空闲页只留给之后插入的记录复用
+ *
+ * @author HansChen
+ */
+public class StepRecordCompactor {
+
+    private static final String TAG = "StepRecordCompactor";
+
+    public static final int  DEFAULT_BATCH_SIZE  = 500;
+    public static final long DEFAULT_BATCH_PAUSE = 50;
+
+    /**
+     * SQLite auto_vacuum = INCREMENTAL
+     */
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * 每批删除后最多回收的空闲页数，按4KB的页约1MB，回收时持有写锁的时间和一批删除相当
+     */
+    static final int VACUUM_PAGES_PER_BATCH = 256;
+
+    /**
+     * 还没有切换到增量模式时，检查是否可以切换的间隔，每天一次的压缩很难正好遇到充电并且灭屏
+     */
+    static final long SWITCH_CHECK_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    public interface Conditions {
+
+        /**
+         * @return 是否允许执行重写整个数据库的VACUUM，期间写入新记录会等待
+         */
+        boolean isFullVacuumAllowed();
+    }
+
+    public interface OnFinishedListener {
+
+        /**
+         * 一次压缩结束时回调，在压缩线程中调用
+         */
+        void onFinished(Progress progress);
+    }
+
+    public static class Progress {
+
+        private final long mCutoffTime;
+        private final long mStartTime;
+        private long    mScannedCount;
+        private long    mDeletedCount;
+        private int     mBatchCount;
+        private long    mElapsedMillis;
+        private long    mVacuumedPages;
+        private boolean mSwitchedToIncremental;
+
+        Progress(long cutoffTime) {
+            this.mCutoffTime = cutoffTime;
+            this.mStartTime = System.currentTimeMillis();
+        }
+
+        /**
+         * @return 早于该时间的原始记录会被压缩
+         */
+        public long getCutoffTime() {
+            return mCutoffTime;
+        }
+
+        public long getScannedCount() {
+            return mScannedCount;
+        }
+
+        public long getDeletedCount() {
+            return mDeletedCount;
+        }
+
+        public int getBatchCount() {
+            return mBatchCount;
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+
+        /**
+         * @return 回收的空闲页数，数据库不是增量auto_vacuum模式时总是0
+         */
+        public long getVacuumedPages() {
+            return mVacuumedPages;
+        }
+
+        /**
+         * @return 本次压缩后是否把已有的数据库切换到了增量auto_vacuum模式
+         */
+        public boolean isSwitchedToIncremental() {
+            return mSwitchedToIncremental;
+        }
+
+        @Override
+        public String toString() {
+            return "Progress{" +
+                    "mCutoffTime=" + mCutoffTime +
+                    ", mScannedCount=" + mScannedCount +
+                    ", mDeletedCount=" + mDeletedCount +
+                    ", mBatchCount=" + mBatchCount +
+                    ", mElapsedMillis=" + mElapsedMillis +
+                    ", mVacuumedPages=" + mVacuumedPages +
+                    ", mSwitchedToIncremental=" + mSwitchedToIncremental +
+                    '}';
+        }
+    }
+
+    private final DaoSession          mSession;
+    private final StepRecordEntityDao mDao;
+    private final SettingRepository   mSettingRepository;
+    private final int                 mBatchSize;
+    private final long                mBatchPauseMillis;
+    /* 压缩和切换模式不同时进行 */
+    private final Object              mWorkLock = new Object();
+
+    private volatile Conditions         mConditions;
+    private volatile OnFinishedListener mListener;
+    private volatile Progress           mLastProgress;
+    private volatile boolean            mCancelled;
+    private          Disposable         mSchedule;
+    private          Disposable         mSwitchSchedule;
+
+    public StepRecordCompactor(DaoSession session, SettingRepository settingRepository) {
+        this(session, settingRepository, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_PAUSE);
+    }
+
+    public StepRecordCompactor(DaoSession session, SettingRepository settingRepository, int batchSize, long batchPauseMillis) {
+        this.mSession = session;
+        this.mDao = session.getStepRecordEntityDao();
+        this.mSettingRepository = settingRepository;
+        this.mBatchSize = batchSize;
+        this.mBatchPauseMillis = batchPauseMillis;
+    }
+
+    public void setOnFinishedListener(@Nullable OnFinishedListener listener) {
+        this.mListener = listener;
+    }
+
+    /**
+     * @param conditions 决定已有数据的数据库何时切换到增量auto_vacuum模式，为null时不切换
+     */
+    public void setConditions(@Nullable Conditions conditions) {
+        this.mConditions = conditions;
+    }
+
+    /**
+     * 在后台线程周期性地执行压缩，数据库还不是增量auto_vacuum模式时每{@link #SWITCH_CHECK_INTERVAL}检查一次能否切换
+     */
+    public synchronized void start(long initialDelay, long period, TimeUnit unit) {
+        stop();
+        mCancelled = false;
+        mSchedule = Observable.interval(initialDelay, period, unit, Schedulers.io()).subscribe(new Consumer<Long>() {
+            @Override
+            public void accept(Long tick) throws Exception {
+                compact(System.currentTimeMillis());
+            }
+        });
+        mSwitchSchedule = Observable.interval(SWITCH_CHECK_INTERVAL, SWITCH_CHECK_INTERVAL, TimeUnit.MILLISECONDS, Schedulers.io())
+                                    .subscribe(new Consumer<Long>() {
+                                        @Override
+                                        public void accept(Long tick) throws Exception {
+                                            switchToIncrementalIfAllowed();
+                                        }
+                                    });
+    }
+
+    /**
+     * 停止周期任务，正在进行的压缩会在当前批次结束后退出
+     */
+    public synchronized void stop() {
+        mCancelled = true;
+        if (mSchedule != null) {
+            mSchedule.dispose();
+            mSchedule = null;
+        }
+        if (mSwitchSchedule != null) {
+            mSwitchSchedule.dispose();
+            mSwitchSchedule = null;
+        }
+    }
+
+    @Nullable
+    public Progress getLastProgress() {
+        return mLastProgress;
+    }
+
+    /**
+     * 同步执行一次压缩，不要在主线程调用
+     *
+     * @param now 当前时间
+     */
+    public Progress compact(long now) {
+        synchronized (mWorkLock) {
+            return compactLocked(now);
+        }
+    }
+
+    private Progress compactLocked(long now) {
+        long retention = TimeUnit.DAYS.toMillis(mSettingRepository.getRawRecordRetentionDays());
+        // 截止时间对齐到零点，保证截止时间前后的记录不会落在同一个小时内
+        Progress progress = new Progress(TimeUtils.startOfDay(now - retention));
+        mLastProgress = progress;
+
+        boolean incremental = queryLong(mSession.getDatabase(), "PRAGMA auto_vacuum") == AUTO_VACUUM_INCREMENTAL;
+        long lastId = -1;
+        StepRecordEntity pending = null;
+        while (!mCancelled) {
+            List<StepRecordEntity> rows = mDao.queryBuilder()
+                                              .where(StepRecordEntityDao.Properties.Id.gt(lastId),
+                                                     StepRecordEntityDao.Properties.StepTime.lt(progress.mCutoffTime))
+                                              .orderAsc(StepRecordEntityDao.Properties.Id)
+                                              .limit(mBatchSize)
+                                              .list();
+            if (rows.isEmpty()) {
+                break;
+            }
+            List<Long> deletions = new ArrayList<>();
+            for (StepRecordEntity row : rows) {
+                // 同一小时内只保留最后一条，pending是否保留要看下一条记录
+                if (pending != null && isSameHour(pending, row)) {
+                    deletions.add(pending.getId());
+                }
+                pending = row;
+            }
+            if (!deletions.isEmpty()) {
+                mDao.deleteByKeyInTx(deletions);
+                if (incremental) {
+                    progress.mVacuumedPages += vacuum();
+                }
+            }
+            mDao.detachAll();
+            lastId = rows.get(rows.size() - 1).getId();
+
+            progress.mScannedCount += rows.size();
+            progress.mDeletedCount += deletions.size();
+            progress.mBatchCount++;
+            progress.mElapsedMillis = System.currentTimeMillis() - progress.mStartTime;
+
+            if (rows.size() < mBatchSize) {
+                break;
+            }
+            pause();
+        }
+        if (!incremental && !mCancelled) {
+            // 删除之后再切换，VACUUM一次回收所有空闲页
+            progress.mSwitchedToIncremental = switchToIncrementalIfAllowed();
+        }
+
+        progress.mElapsedMillis = System.currentTimeMillis() - progress.mStartTime;
+        OnFinishedListener listener = mListener;
+        if (listener != null) {
+            listener.onFinished(progress);
+        }
+        return progress;
+    }
+
+    /**
+     * 切换auto_vacuum模式需要一次完整的VACUUM，成功后数据库不再需要重写，每个数据库只执行一次
+     *
+     * @return 是否执行了切换
+     */
+    private boolean switchToIncrementalIfAllowed() {
+        Conditions conditions = mConditions;
+        if (conditions == null) {
+            return false;
+        }
+        synchronized (mWorkLock) {
+            Database db = mSession.getDatabase();
+            if (queryLong(db, "PRAGMA auto_vacuum") == AUTO_VACUUM_INCREMENTAL || !conditions.isFullVacuumAllowed()) {
+                return false;
+            }
+            Log.i(TAG, "Switching existing database to incremental auto_vacuum");
+            try {
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                db.execSQL("VACUUM");
+            } catch (RuntimeException e) {
+                // 例如存储空间不足以写入临时副本，下次再试
+                Log.w(TAG, "VACUUM failed", e);
+                return false;
+            }
+            return queryLong(db, "PRAGMA auto_vacuum") == AUTO_VACUUM_INCREMENTAL;
+        }
+    }
+
+    /**
+     * 回收有限的空闲页，不会像VACUUM那样重写整个数据库
+     *
+     * @return 回收的页数
+     */
+    private long vacuum() {
+        Database db = mSession.getDatabase();
+        long before = queryLong(db, "PRAGMA freelist_count");
+        // incremental_vacuum没有返回行，需要执行一次step
+        queryLong(db, "PRAGMA incremental_vacuum(" + VACUUM_PAGES_PER_BATCH + ")");
+        return before - queryLong(db, "PRAGMA freelist_count");
+    }
+
+    static long queryLong(Database db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean isSameHour(StepRecordEntity a, StepRecordEntity b) {
+        return TimeUtils.startOfHour(a.getStepTime()) == TimeUtils.startOfHour(b.getStepTime());
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(mBatchPauseMillis);
+        } catch (InterruptedException e) {
+            mCancelled = true;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package site.hanschen.runwithyou.database.entity;
+
+
+import org.greenrobot.greendao.annotation.Entity;
+import org.greenrobot.greendao.annotation.Generated;
+import org.greenrobot.greendao.annotation.Id;
+import org.greenrobot.greendao.annotation.Index;
+import org.greenrobot.greendao.annotation.NotNull;
+
+/**
+ * 发现过或连接过的蓝牙设备，按MAC地址唯一
+ *
+ * @author HansChen
+ */
+@Entity
+public class DeviceEntity {
+
+    @Id(autoincrement = true)
+    private Long   id;
+    @NotNull
+    @Index(unique = true)
+    private String address;
+    private String name;
+    private int    rssi;
+    private long   lastSeenTime;
+    private int    connectAttempts;
+    private int    connectSuccesses;
+    private long   lastConnectedTime;
+
+    @Generated
+    public DeviceEntity(Long id, @NotNull String address, String name, int rssi, long lastSeenTime, int connectAttempts,
+                        int connectSuccesses, long lastConnectedTime) {
+        this.id = id;
+        this.address = address;
+        this.name = name;
+        this.rssi = rssi;
+        this.lastSeenTime = lastSeenTime;
+        this.connectAttempts = connectAttempts;
+        this.connectSuccesses = connectSuccesses;
+        this.lastConnectedTime = lastConnectedTime;
+    }
+
+    @Generated
+    public DeviceEntity() {
+    }
+
+    public Long getId() {
+        return this.id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getAddress() {
+        return this.address;
+    }
+
+    public void setAddress(String address) {
+        this.address = address;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getRssi() {
+        return this.rssi;
+    }
+
+    public void setRssi(int rssi) {
+        this.rssi = rssi;
+    }
+
+    public long getLastSeenTime() {
+        return this.lastSeenTime;
+    }
+
+    public void setLastSeenTime(long lastSeenTime) {
+        this.lastSeenTime = lastSeenTime;
+    }
+
+    public int getConnectAttempts() {
+        return this.connectAttempts;
+    }
+
+    public void setConnectAttempts(int connectAttempts) {
+        this.connectAttempts = connectAttempts;
+    }
+
+    public int getConnectSuccesses() {
+        return this.connectSuccesses;
+    }
+
+    public void setConnectSuccesses(int connectSuccesses) {
+        this.connectSuccesses = connectSuccesses;
+    }
+
+    public long getLastConnectedTime() {
+        return this.lastConnectedTime;
+    }
+
+    public void setLastConnectedTime(long lastConnectedTime) {
+        this.lastConnectedTime = lastConnectedTime;
+    }
+}
@@ -0,0 +1,48 @@
+package site.hanschen.runwithyou.database.entity;
+
+
+import org.greenrobot.greendao.annotation.Entity;
+import org.greenrobot.greendao.annotation.Generated;
+import org.greenrobot.greendao.annotation.Id;
+
+/**
+ * 每天的步数汇总，由{@link StepRecordEntity}增量聚合而来
+ *
+ * @author HansChen
+ */
+@Entity
+public class StepDayEntity {
+
+    /**
+     * 时间段的起始时间(本地时间)
+     */
+    @Id
+    private Long startTime;
+    private long stepCount;
+
+    @Generated
+    public StepDayEntity(Long startTime, long stepCount) {
+        this.startTime = startTime;
+        this.stepCount = stepCount;
+    }
+
+    @Generated
+    public StepDayEntity() {
+    }
+
+    public Long getStartTime() {
+        return this.startTime;
+    }
+
+    public void setStartTime(Long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getStepCount() {
+        return this.stepCount;
+    }
+
+    public void setStepCount(long stepCount) {
+        this.stepCount = stepCount;
+    }
+}
@@ -0,0 +1,48 @@
+package site.hanschen.runwithyou.database.entity;
+
+
+import org.greenrobot.greendao.annotation.Entity;
+import org.greenrobot.greendao.annotation.Generated;
+import org.greenrobot.greendao.annotation.Id;
+
+/**
+ * 每小时的步数汇总，由{@link StepRecordEntity}增量聚合而来
+ *
+ * @author HansChen
+ */
+@Entity
+public class StepHourEntity {
+
+    /**
+     * 时间段的起始时间(本地时间)
+     */
+    @Id
+    private Long startTime;
+    private long stepCount;
+
+    @Generated
+    public StepHourEntity(Long startTime, long stepCount) {
+        this.startTime = startTime;
+        this.stepCount = stepCount;
+    }
+
+    @Generated
+    public StepHourEntity() {
+    }
+
+    public Long getStartTime() {
+        return this.startTime;
+    }
+
+    public void setStartTime(Long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getStepCount() {
+        return this.stepCount;
+    }
+
+    public void setStepCount(long stepCount) {
+        this.stepCount = stepCount;
+    }
+}
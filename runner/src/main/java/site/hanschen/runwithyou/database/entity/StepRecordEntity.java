@@ -4,6 +4,7 @@ package site.hanschen.runwithyou.database.entity;
 import org.greenrobot.greendao.annotation.Entity;
 import org.greenrobot.greendao.annotation.Generated;
 import org.greenrobot.greendao.annotation.Id;
+import org.greenrobot.greendao.annotation.Index;
 
 /**
  * @author HansChen
@@ -12,13 +13,14 @@ import org.greenrobot.greendao.annotation.Id;
 public class StepRecordEntity {
 
     @Id(autoincrement = true)
-    private long id;
+    private Long id;
     private long countSinceReboot;
+    @Index
     private long stepTime;
     private long stepCount;
 
-    @Generated(hash = 2058002233)
-    public StepRecordEntity(long id, long countSinceReboot, long stepTime, long stepCount) {
+    @Generated
+    public StepRecordEntity(Long id, long countSinceReboot, long stepTime, long stepCount) {
         this.id = id;
         this.countSinceReboot = countSinceReboot;
         this.stepTime = stepTime;
@@ -29,11 +31,11 @@ public class StepRecordEntity {
     public StepRecordEntity() {
     }
 
-    public long getId() {
+    public Long getId() {
         return this.id;
     }
 
-    public void setId(long id) {
+    public void setId(Long id) {
         this.id = id;
     }
 
@@ -0,0 +1,66 @@
+package site.hanschen.runwithyou.database.entity;
+
+
+import org.greenrobot.greendao.annotation.Entity;
+import org.greenrobot.greendao.annotation.Generated;
+import org.greenrobot.greendao.annotation.Id;
+
+/**
+ * 只有一行的当前计步状态，与每次插入{@link StepRecordEntity}在同一个事务中更新，
+ * 启动时读取它而不必查询不断增长的原始记录表
+ *
+ * @author HansChen
+ */
+@Entity
+public class StepStateEntity {
+
+    @Id
+    private Long id;
+    private long countSinceReboot;
+    private long stepTime;
+    private long stepCount;
+
+    @Generated
+    public StepStateEntity(Long id, long countSinceReboot, long stepTime, long stepCount) {
+        this.id = id;
+        this.countSinceReboot = countSinceReboot;
+        this.stepTime = stepTime;
+        this.stepCount = stepCount;
+    }
+
+    @Generated
+    public StepStateEntity() {
+    }
+
+    public Long getId() {
+        return this.id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public long getCountSinceReboot() {
+        return this.countSinceReboot;
+    }
+
+    public void setCountSinceReboot(long countSinceReboot) {
+        this.countSinceReboot = countSinceReboot;
+    }
+
+    public long getStepTime() {
+        return this.stepTime;
+    }
+
+    public void setStepTime(long stepTime) {
+        this.stepTime = stepTime;
+    }
+
+    public long getStepCount() {
+        return this.stepCount;
+    }
+
+    public void setStepCount(long stepCount) {
+        this.stepCount = stepCount;
+    }
+}
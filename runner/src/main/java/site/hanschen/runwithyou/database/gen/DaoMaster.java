@@ -14,19 +14,29 @@ import org.greenrobot.greendao.identityscope.IdentityScopeType;
 
 // THIS CODE IS GENERATED BY greenDAO, DO NOT EDIT.
 /**
- * Master of DAO (schema version 1): knows all DAOs.
+ * Master of DAO (schema version 5): knows all DAOs.
  */
 public class DaoMaster extends AbstractDaoMaster {
-    public static final int SCHEMA_VERSION = 1;
+    public static final int SCHEMA_VERSION = 5;
 
     /** Creates underlying database table using DAOs. */
     public static void createAllTables(Database db, boolean ifNotExists) {
         StepRecordEntityDao.createTable(db, ifNotExists);
+        StepMinuteEntityDao.createTable(db, ifNotExists);
+        StepHourEntityDao.createTable(db, ifNotExists);
+        StepDayEntityDao.createTable(db, ifNotExists);
+        StepStateEntityDao.createTable(db, ifNotExists);
+        DeviceEntityDao.createTable(db, ifNotExists);
     }
 
     /** Drops underlying database table using DAOs. */
     public static void dropAllTables(Database db, boolean ifExists) {
         StepRecordEntityDao.dropTable(db, ifExists);
+        StepMinuteEntityDao.dropTable(db, ifExists);
+        StepHourEntityDao.dropTable(db, ifExists);
+        StepDayEntityDao.dropTable(db, ifExists);
+        StepStateEntityDao.dropTable(db, ifExists);
+        DeviceEntityDao.dropTable(db, ifExists);
     }
 
     /**
@@ -46,6 +56,11 @@ public class DaoMaster extends AbstractDaoMaster {
     public DaoMaster(Database db) {
         super(db, SCHEMA_VERSION);
         registerDaoClass(StepRecordEntityDao.class);
+        registerDaoClass(StepMinuteEntityDao.class);
+        registerDaoClass(StepHourEntityDao.class);
+        registerDaoClass(StepDayEntityDao.class);
+        registerDaoClass(StepStateEntityDao.class);
+        registerDaoClass(DeviceEntityDao.class);
     }
 
     public DaoSession newSession() {
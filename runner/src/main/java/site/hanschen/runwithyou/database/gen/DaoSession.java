@@ -9,8 +9,18 @@ import org.greenrobot.greendao.identityscope.IdentityScopeType;
 import org.greenrobot.greendao.internal.DaoConfig;
 
 import site.hanschen.runwithyou.database.entity.StepRecordEntity;
+import site.hanschen.runwithyou.database.entity.StepMinuteEntity;
+import site.hanschen.runwithyou.database.entity.StepHourEntity;
+import site.hanschen.runwithyou.database.entity.StepDayEntity;
+import site.hanschen.runwithyou.database.entity.StepStateEntity;
+import site.hanschen.runwithyou.database.entity.DeviceEntity;
 
 import site.hanschen.runwithyou.database.gen.StepRecordEntityDao;
+import site.hanschen.runwithyou.database.gen.StepMinuteEntityDao;
+import site.hanschen.runwithyou.database.gen.StepHourEntityDao;
+import site.hanschen.runwithyou.database.gen.StepDayEntityDao;
+import site.hanschen.runwithyou.database.gen.StepStateEntityDao;
+import site.hanschen.runwithyou.database.gen.DeviceEntityDao;
 
 // THIS CODE IS GENERATED BY greenDAO, DO NOT EDIT.
 
@@ -22,8 +32,18 @@ import site.hanschen.runwithyou.database.gen.StepRecordEntityDao;
 public class DaoSession extends AbstractDaoSession {
 
     private final DaoConfig stepRecordEntityDaoConfig;
+    private final DaoConfig stepMinuteEntityDaoConfig;
+    private final DaoConfig stepHourEntityDaoConfig;
+    private final DaoConfig stepDayEntityDaoConfig;
+    private final DaoConfig stepStateEntityDaoConfig;
+    private final DaoConfig deviceEntityDaoConfig;
 
     private final StepRecordEntityDao stepRecordEntityDao;
+    private final StepMinuteEntityDao stepMinuteEntityDao;
+    private final StepHourEntityDao stepHourEntityDao;
+    private final StepDayEntityDao stepDayEntityDao;
+    private final StepStateEntityDao stepStateEntityDao;
+    private final DeviceEntityDao deviceEntityDao;
 
     public DaoSession(Database db, IdentityScopeType type, Map<Class<? extends AbstractDao<?, ?>>, DaoConfig>
             daoConfigMap) {
@@ -32,17 +52,67 @@ public class DaoSession extends AbstractDaoSession {
         stepRecordEntityDaoConfig = daoConfigMap.get(StepRecordEntityDao.class).clone();
         stepRecordEntityDaoConfig.initIdentityScope(type);
 
+        stepMinuteEntityDaoConfig = daoConfigMap.get(StepMinuteEntityDao.class).clone();
+        stepMinuteEntityDaoConfig.initIdentityScope(type);
+
+        stepHourEntityDaoConfig = daoConfigMap.get(StepHourEntityDao.class).clone();
+        stepHourEntityDaoConfig.initIdentityScope(type);
+
+        stepDayEntityDaoConfig = daoConfigMap.get(StepDayEntityDao.class).clone();
+        stepDayEntityDaoConfig.initIdentityScope(type);
+
+        stepStateEntityDaoConfig = daoConfigMap.get(StepStateEntityDao.class).clone();
+        stepStateEntityDaoConfig.initIdentityScope(type);
+
+        deviceEntityDaoConfig = daoConfigMap.get(DeviceEntityDao.class).clone();
+        deviceEntityDaoConfig.initIdentityScope(type);
+
         stepRecordEntityDao = new StepRecordEntityDao(stepRecordEntityDaoConfig, this);
+        stepMinuteEntityDao = new StepMinuteEntityDao(stepMinuteEntityDaoConfig, this);
+        stepHourEntityDao = new StepHourEntityDao(stepHourEntityDaoConfig, this);
+        stepDayEntityDao = new StepDayEntityDao(stepDayEntityDaoConfig, this);
+        stepStateEntityDao = new StepStateEntityDao(stepStateEntityDaoConfig, this);
+        deviceEntityDao = new DeviceEntityDao(deviceEntityDaoConfig, this);
 
         registerDao(StepRecordEntity.class, stepRecordEntityDao);
+        registerDao(StepMinuteEntity.class, stepMinuteEntityDao);
+        registerDao(StepHourEntity.class, stepHourEntityDao);
+        registerDao(StepDayEntity.class, stepDayEntityDao);
+        registerDao(StepStateEntity.class, stepStateEntityDao);
+        registerDao(DeviceEntity.class, deviceEntityDao);
     }
     
     public void clear() {
         stepRecordEntityDaoConfig.clearIdentityScope();
+        stepMinuteEntityDaoConfig.clearIdentityScope();
+        stepHourEntityDaoConfig.clearIdentityScope();
+        stepDayEntityDaoConfig.clearIdentityScope();
+        stepStateEntityDaoConfig.clearIdentityScope();
+        deviceEntityDaoConfig.clearIdentityScope();
     }
 
     public StepRecordEntityDao getStepRecordEntityDao() {
         return stepRecordEntityDao;
     }
 
+    public StepMinuteEntityDao getStepMinuteEntityDao() {
+        return stepMinuteEntityDao;
+    }
+
+    public StepHourEntityDao getStepHourEntityDao() {
+        return stepHourEntityDao;
+    }
+
+    public StepDayEntityDao getStepDayEntityDao() {
+        return stepDayEntityDao;
+    }
+
+    public StepStateEntityDao getStepStateEntityDao() {
+        return stepStateEntityDao;
+    }
+
+    public DeviceEntityDao getDeviceEntityDao() {
+        return deviceEntityDao;
+    }
+
 }
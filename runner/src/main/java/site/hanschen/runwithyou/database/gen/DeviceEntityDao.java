@@ -0,0 +1,168 @@
+package site.hanschen.runwithyou.database.gen;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import org.greenrobot.greendao.AbstractDao;
+import org.greenrobot.greendao.Property;
+import org.greenrobot.greendao.internal.DaoConfig;
+import org.greenrobot.greendao.database.Database;
+import org.greenrobot.greendao.database.DatabaseStatement;
+
+import site.hanschen.runwithyou.database.entity.DeviceEntity;
+
+// THIS CODE IS GENERATED BY greenDAO, DO NOT EDIT.
+/** 
+ * DAO for table "DEVICE_ENTITY".
+*/
+public class DeviceEntityDao extends AbstractDao<DeviceEntity, Long> {
+
+    public static final String TABLENAME = "DEVICE_ENTITY";
+
+    /**
+     * Properties of entity DeviceEntity.<br/>
+     * Can be used for QueryBuilder and for referencing column names.
+     */
+    public static class Properties {
+        public final static Property Id = new Property(0, Long.class, "id", true, "_id");
+        public final static Property Address = new Property(1, String.class, "address", false, "ADDRESS");
+        public final static Property Name = new Property(2, String.class, "name", false, "NAME");
+        public final static Property Rssi = new Property(3, int.class, "rssi", false, "RSSI");
+        public final static Property LastSeenTime = new Property(4, long.class, "lastSeenTime", false, "LAST_SEEN_TIME");
+        public final static Property ConnectAttempts = new Property(5, int.class, "connectAttempts", false, "CONNECT_ATTEMPTS");
+        public final static Property ConnectSuccesses = new Property(6, int.class, "connectSuccesses", false, "CONNECT_SUCCESSES");
+        public final static Property LastConnectedTime = new Property(7, long.class, "lastConnectedTime", false, "LAST_CONNECTED_TIME");
+    }
+
+
+    public DeviceEntityDao(DaoConfig config) {
+        super(config);
+    }
+    
+    public DeviceEntityDao(DaoConfig config, DaoSession daoSession) {
+        super(config, daoSession);
+    }
+
+    /** Creates the underlying database table. */
+    public static void createTable(Database db, boolean ifNotExists) {
+        String constraint = ifNotExists? "IF NOT EXISTS ": "";
+        db.execSQL("CREATE TABLE " + constraint + "\"DEVICE_ENTITY\" (" + //
+                "\"_id\" INTEGER PRIMARY KEY AUTOINCREMENT ," + // 0: id
+                "\"ADDRESS\" TEXT NOT NULL ," + // 1: address
+                "\"NAME\" TEXT," + // 2: name
+                "\"RSSI\" INTEGER NOT NULL ," + // 3: rssi
+                "\"LAST_SEEN_TIME\" INTEGER NOT NULL ," + // 4: lastSeenTime
+                "\"CONNECT_ATTEMPTS\" INTEGER NOT NULL ," + // 5: connectAttempts
+                "\"CONNECT_SUCCESSES\" INTEGER NOT NULL ," + // 6: connectSuccesses
+                "\"LAST_CONNECTED_TIME\" INTEGER NOT NULL );"); // 7: lastConnectedTime
+        // Add Indexes
+        db.execSQL("CREATE UNIQUE INDEX " + constraint + "IDX_DEVICE_ENTITY_ADDRESS ON \"DEVICE_ENTITY\"" +
+                " (\"ADDRESS\" ASC);");
+    }
+
+    /** Drops the underlying database table. */
+    public static void dropTable(Database db, boolean ifExists) {
+        String sql = "DROP TABLE " + (ifExists ? "IF EXISTS " : "") + "\"DEVICE_ENTITY\"";
+        db.execSQL(sql);
+    }
+
+    @Override
+    protected final void bindValues(DatabaseStatement stmt, DeviceEntity entity) {
+        stmt.clearBindings();
+ 
+        Long id = entity.getId();
+        if (id != null) {
+            stmt.bindLong(1, id);
+        }
+        stmt.bindString(2, entity.getAddress());
+ 
+        String name = entity.getName();
+        if (name != null) {
+            stmt.bindString(3, name);
+        }
+        stmt.bindLong(4, entity.getRssi());
+        stmt.bindLong(5, entity.getLastSeenTime());
+        stmt.bindLong(6, entity.getConnectAttempts());
+        stmt.bindLong(7, entity.getConnectSuccesses());
+        stmt.bindLong(8, entity.getLastConnectedTime());
+    }
+
+    @Override
+    protected final void bindValues(SQLiteStatement stmt, DeviceEntity entity) {
+        stmt.clearBindings();
+ 
+        Long id = entity.getId();
+        if (id != null) {
+            stmt.bindLong(1, id);
+        }
+        stmt.bindString(2, entity.getAddress());
+ 
+        String name = entity.getName();
+        if (name != null) {
+            stmt.bindString(3, name);
+        }
+        stmt.bindLong(4, entity.getRssi());
+        stmt.bindLong(5, entity.getLastSeenTime());
+        stmt.bindLong(6, entity.getConnectAttempts());
+        stmt.bindLong(7, entity.getConnectSuccesses());
+        stmt.bindLong(8, entity.getLastConnectedTime());
+    }
+
+    @Override
+    public Long readKey(Cursor cursor, int offset) {
+        return cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0);
+    }    
+
+    @Override
+    public DeviceEntity readEntity(Cursor cursor, int offset) {
+        DeviceEntity entity = new DeviceEntity( //
+            cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0), // id
+            cursor.getString(offset + 1), // address
+            cursor.isNull(offset + 2) ? null : cursor.getString(offset + 2), // name
+            cursor.getInt(offset + 3), // rssi
+            cursor.getLong(offset + 4), // lastSeenTime
+            cursor.getInt(offset + 5), // connectAttempts
+            cursor.getInt(offset + 6), // connectSuccesses
+            cursor.getLong(offset + 7) // lastConnectedTime
+        );
+        return entity;
+    }
+     
+    @Override
+    public void readEntity(Cursor cursor, DeviceEntity entity, int offset) {
+        entity.setId(cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0));
+        entity.setAddress(cursor.getString(offset + 1));
+        entity.setName(cursor.isNull(offset + 2) ? null : cursor.getString(offset + 2));
+        entity.setRssi(cursor.getInt(offset + 3));
+        entity.setLastSeenTime(cursor.getLong(offset + 4));
+        entity.setConnectAttempts(cursor.getInt(offset + 5));
+        entity.setConnectSuccesses(cursor.getInt(offset + 6));
+        entity.setLastConnectedTime(cursor.getLong(offset + 7));
+     }
+    
+    @Override
+    protected final Long updateKeyAfterInsert(DeviceEntity entity, long rowId) {
+        entity.setId(rowId);
+        return rowId;
+    }
+    
+    @Override
+    public Long getKey(DeviceEntity entity) {
+        if(entity != null) {
+            return entity.getId();
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasKey(DeviceEntity entity) {
+        return entity.getId() != null;
+    }
+
+    @Override
+    protected final boolean isEntityUpdateable() {
+        return true;
+    }
+    
+}
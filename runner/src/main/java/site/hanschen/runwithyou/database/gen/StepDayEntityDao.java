@@ -0,0 +1,121 @@
+package site.hanschen.runwithyou.database.gen;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import org.greenrobot.greendao.AbstractDao;
+import org.greenrobot.greendao.Property;
+import org.greenrobot.greendao.internal.DaoConfig;
+import org.greenrobot.greendao.database.Database;
+import org.greenrobot.greendao.database.DatabaseStatement;
+
+import site.hanschen.runwithyou.database.entity.StepDayEntity;
+
+// THIS CODE IS GENERATED BY greenDAO, DO NOT EDIT.
+/** 
+ * DAO for table "STEP_DAY_ENTITY".
+*/
+public class StepDayEntityDao extends AbstractDao<StepDayEntity, Long> {
+
+    public static final String TABLENAME = "STEP_DAY_ENTITY";
+
+    /**
+     * Properties of entity StepDayEntity.<br/>
+     * Can be used for QueryBuilder and for referencing column names.
+     */
+    public static class Properties {
+        public final static Property StartTime = new Property(0, Long.class, "startTime", true, "START_TIME");
+        public final static Property StepCount = new Property(1, long.class, "stepCount", false, "STEP_COUNT");
+    }
+
+
+    public StepDayEntityDao(DaoConfig config) {
+        super(config);
+    }
+    
+    public StepDayEntityDao(DaoConfig config, DaoSession daoSession) {
+        super(config, daoSession);
+    }
+
+    /** Creates the underlying database table. */
+    public static void createTable(Database db, boolean ifNotExists) {
+        String constraint = ifNotExists? "IF NOT EXISTS ": "";
+        db.execSQL("CREATE TABLE " + constraint + "\"STEP_DAY_ENTITY\" (" + //
+                "\"START_TIME\" INTEGER PRIMARY KEY ," + // 0: startTime
+                "\"STEP_COUNT\" INTEGER NOT NULL );"); // 1: stepCount
+    }
+
+    /** Drops the underlying database table. */
+    public static void dropTable(Database db, boolean ifExists) {
+        String sql = "DROP TABLE " + (ifExists ? "IF EXISTS " : "") + "\"STEP_DAY_ENTITY\"";
+        db.execSQL(sql);
+    }
+
+    @Override
+    protected final void bindValues(DatabaseStatement stmt, StepDayEntity entity) {
+        stmt.clearBindings();
+ 
+        Long startTime = entity.getStartTime();
+        if (startTime != null) {
+            stmt.bindLong(1, startTime);
+        }
+        stmt.bindLong(2, entity.getStepCount());
+    }
+
+    @Override
+    protected final void bindValues(SQLiteStatement stmt, StepDayEntity entity) {
+        stmt.clearBindings();
+ 
+        Long startTime = entity.getStartTime();
+        if (startTime != null) {
+            stmt.bindLong(1, startTime);
+        }
+        stmt.bindLong(2, entity.getStepCount());
+    }
+
+    @Override
+    public Long readKey(Cursor cursor, int offset) {
+        return cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0);
+    }    
+
+    @Override
+    public StepDayEntity readEntity(Cursor cursor, int offset) {
+        StepDayEntity entity = new StepDayEntity( //
+            cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0), // startTime
+            cursor.getLong(offset + 1) // stepCount
+        );
+        return entity;
+    }
+     
+    @Override
+    public void readEntity(Cursor cursor, StepDayEntity entity, int offset) {
+        entity.setStartTime(cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0));
+        entity.setStepCount(cursor.getLong(offset + 1));
+     }
+    
+    @Override
+    protected final Long updateKeyAfterInsert(StepDayEntity entity, long rowId) {
+        entity.setStartTime(rowId);
+        return rowId;
+    }
+    
+    @Override
+    public Long getKey(StepDayEntity entity) {
+        if(entity != null) {
+            return entity.getStartTime();
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasKey(StepDayEntity entity) {
+        return entity.getStartTime() != null;
+    }
+
+    @Override
+    protected final boolean isEntityUpdateable() {
+        return true;
+    }
+    
+}
@@ -0,0 +1,121 @@
+package site.hanschen.runwithyou.database.gen;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import org.greenrobot.greendao.AbstractDao;
+import org.greenrobot.greendao.Property;
+import org.greenrobot.greendao.internal.DaoConfig;
+import org.greenrobot.greendao.database.Database;
+import org.greenrobot.greendao.database.DatabaseStatement;
+
+import site.hanschen.runwithyou.database.entity.StepHourEntity;
+
+// THIS CODE IS GENERATED BY greenDAO, DO NOT EDIT.
+/** 
+ * DAO for table "STEP_HOUR_ENTITY".
+*/
+public class StepHourEntityDao extends AbstractDao<StepHourEntity, Long> {
+
+    public static final String TABLENAME = "STEP_HOUR_ENTITY";
+
+    /**
+     * Properties of entity StepHourEntity.<br/>
+     * Can be used for QueryBuilder and for referencing column names.
+     */
+    public static class Properties {
+        public final static Property StartTime = new Property(0, Long.class, "startTime", true, "START_TIME");
+        public final static Property StepCount = new Property(1, long.class, "stepCount", false, "STEP_COUNT");
+    }
+
+
+    public StepHourEntityDao(DaoConfig config) {
+        super(config);
+    }
+    
+    public StepHourEntityDao(DaoConfig config, DaoSession daoSession) {
+        super(config, daoSession);
+    }
+
+    /** Creates the underlying database table. */
+    public static void createTable(Database db, boolean ifNotExists) {
+        String constraint = ifNotExists? "IF NOT EXISTS ": "";
+        db.execSQL("CREATE TABLE " + constraint + "\"STEP_HOUR_ENTITY\" (" + //
+                "\"START_TIME\" INTEGER PRIMARY KEY ," + // 0: startTime
+                "\"STEP_COUNT\" INTEGER NOT NULL );"); // 1: stepCount
+    }
+
+    /** Drops the underlying database table. */
+    public static void dropTable(Database db, boolean ifExists) {
+        String sql = "DROP TABLE " + (ifExists ? "IF EXISTS " : "") + "\"STEP_HOUR_ENTITY\"";
+        db.execSQL(sql);
+    }
+
+    @Override
+    protected final void bindValues(DatabaseStatement stmt, StepHourEntity entity) {
+        stmt.clearBindings();
+ 
+        Long startTime = entity.getStartTime();
+        if (startTime != null) {
+            stmt.bindLong(1, startTime);
+        }
+        stmt.bindLong(2, entity.getStepCount());
+    }
+
+    @Override
+    protected final void bindValues(SQLiteStatement stmt, StepHourEntity entity) {
+        stmt.clearBindings();
+ 
+        Long startTime = entity.getStartTime();
+        if (startTime != null) {
+            stmt.bindLong(1, startTime);
+        }
+        stmt.bindLong(2, entity.getStepCount());
+    }
+
+    @Override
+    public Long readKey(Cursor cursor, int offset) {
+        return cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0);
+    }    
+
+    @Override
+    public StepHourEntity readEntity(Cursor cursor, int offset) {
+        StepHourEntity entity = new StepHourEntity( //
+            cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0), // startTime
+            cursor.getLong(offset + 1) // stepCount
+        );
+        return entity;
+    }
+     
+    @Override
+    public void readEntity(Cursor cursor, StepHourEntity entity, int offset) {
+        entity.setStartTime(cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0));
+        entity.setStepCount(cursor.getLong(offset + 1));
+     }
+    
+    @Override
+    protected final Long updateKeyAfterInsert(StepHourEntity entity, long rowId) {
+        entity.setStartTime(rowId);
+        return rowId;
+    }
+    
+    @Override
+    public Long getKey(StepHourEntity entity) {
+        if(entity != null) {
+            return entity.getStartTime();
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasKey(StepHourEntity entity) {
+        return entity.getStartTime() != null;
+    }
+
+    @Override
+    protected final boolean isEntityUpdateable() {
+        return true;
+    }
+    
+}
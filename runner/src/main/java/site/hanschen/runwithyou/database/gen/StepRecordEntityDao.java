@@ -24,7 +24,7 @@ public class StepRecordEntityDao extends AbstractDao<StepRecordEntity, Long> {
      * Can be used for QueryBuilder and for referencing column names.
      */
     public static class Properties {
-        public final static Property Id = new Property(0, long.class, "id", true, "_id");
+        public final static Property Id = new Property(0, Long.class, "id", true, "_id");
         public final static Property CountSinceReboot = new Property(1, long.class, "countSinceReboot", false, "COUNT_SINCE_REBOOT");
         public final static Property StepTime = new Property(2, long.class, "stepTime", false, "STEP_TIME");
         public final static Property StepCount = new Property(3, long.class, "stepCount", false, "STEP_COUNT");
@@ -43,10 +43,13 @@ public class StepRecordEntityDao extends AbstractDao<StepRecordEntity, Long> {
     public static void createTable(Database db, boolean ifNotExists) {
         String constraint = ifNotExists? "IF NOT EXISTS ": "";
         db.execSQL("CREATE TABLE " + constraint + "\"STEP_RECORD_ENTITY\" (" + //
-                "\"_id\" INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL ," + // 0: id
+                "\"_id\" INTEGER PRIMARY KEY AUTOINCREMENT ," + // 0: id
                 "\"COUNT_SINCE_REBOOT\" INTEGER NOT NULL ," + // 1: countSinceReboot
                 "\"STEP_TIME\" INTEGER NOT NULL ," + // 2: stepTime
                 "\"STEP_COUNT\" INTEGER NOT NULL );"); // 3: stepCount
+        // Add Indexes
+        db.execSQL("CREATE INDEX " + constraint + "IDX_STEP_RECORD_ENTITY_STEP_TIME ON \"STEP_RECORD_ENTITY\"" +
+                " (\"STEP_TIME\" ASC);");
     }
 
     /** Drops the underlying database table. */
@@ -58,7 +61,11 @@ public class StepRecordEntityDao extends AbstractDao<StepRecordEntity, Long> {
     @Override
     protected final void bindValues(DatabaseStatement stmt, StepRecordEntity entity) {
         stmt.clearBindings();
-        stmt.bindLong(1, entity.getId());
+ 
+        Long id = entity.getId();
+        if (id != null) {
+            stmt.bindLong(1, id);
+        }
         stmt.bindLong(2, entity.getCountSinceReboot());
         stmt.bindLong(3, entity.getStepTime());
         stmt.bindLong(4, entity.getStepCount());
@@ -67,7 +74,11 @@ public class StepRecordEntityDao extends AbstractDao<StepRecordEntity, Long> {
     @Override
     protected final void bindValues(SQLiteStatement stmt, StepRecordEntity entity) {
         stmt.clearBindings();
-        stmt.bindLong(1, entity.getId());
+ 
+        Long id = entity.getId();
+        if (id != null) {
+            stmt.bindLong(1, id);
+        }
         stmt.bindLong(2, entity.getCountSinceReboot());
         stmt.bindLong(3, entity.getStepTime());
         stmt.bindLong(4, entity.getStepCount());
@@ -75,13 +86,13 @@ public class StepRecordEntityDao extends AbstractDao<StepRecordEntity, Long> {
 
     @Override
     public Long readKey(Cursor cursor, int offset) {
-        return cursor.getLong(offset + 0);
+        return cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0);
     }    
 
     @Override
     public StepRecordEntity readEntity(Cursor cursor, int offset) {
         StepRecordEntity entity = new StepRecordEntity( //
-            cursor.getLong(offset + 0), // id
+            cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0), // id
             cursor.getLong(offset + 1), // countSinceReboot
             cursor.getLong(offset + 2), // stepTime
             cursor.getLong(offset + 3) // stepCount
@@ -91,7 +102,7 @@ public class StepRecordEntityDao extends AbstractDao<StepRecordEntity, Long> {
      
     @Override
     public void readEntity(Cursor cursor, StepRecordEntity entity, int offset) {
-        entity.setId(cursor.getLong(offset + 0));
+        entity.setId(cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0));
         entity.setCountSinceReboot(cursor.getLong(offset + 1));
         entity.setStepTime(cursor.getLong(offset + 2));
         entity.setStepCount(cursor.getLong(offset + 3));
@@ -114,7 +125,7 @@ public class StepRecordEntityDao extends AbstractDao<StepRecordEntity, Long> {
 
     @Override
     public boolean hasKey(StepRecordEntity entity) {
-        throw new UnsupportedOperationException("Unsupported for entities with a non-null key");
+        return entity.getId() != null;
     }
 
     @Override
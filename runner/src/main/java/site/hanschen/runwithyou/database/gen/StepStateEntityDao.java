@@ -0,0 +1,133 @@
+package site.hanschen.runwithyou.database.gen;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import org.greenrobot.greendao.AbstractDao;
+import org.greenrobot.greendao.Property;
+import org.greenrobot.greendao.internal.DaoConfig;
+import org.greenrobot.greendao.database.Database;
+import org.greenrobot.greendao.database.DatabaseStatement;
+
+import site.hanschen.runwithyou.database.entity.StepStateEntity;
+
+// THIS CODE IS GENERATED BY greenDAO, DO NOT EDIT.
+/** 
+ * DAO for table "STEP_STATE_ENTITY".
+*/
+public class StepStateEntityDao extends AbstractDao<StepStateEntity, Long> {
+
+    public static final String TABLENAME = "STEP_STATE_ENTITY";
+
+    /**
+     * Properties of entity StepStateEntity.<br/>
+     * Can be used for QueryBuilder and for referencing column names.
+     */
+    public static class Properties {
+        public final static Property Id = new Property(0, Long.class, "id", true, "_id");
+        public final static Property CountSinceReboot = new Property(1, long.class, "countSinceReboot", false, "COUNT_SINCE_REBOOT");
+        public final static Property StepTime = new Property(2, long.class, "stepTime", false, "STEP_TIME");
+        public final static Property StepCount = new Property(3, long.class, "stepCount", false, "STEP_COUNT");
+    }
+
+
+    public StepStateEntityDao(DaoConfig config) {
+        super(config);
+    }
+    
+    public StepStateEntityDao(DaoConfig config, DaoSession daoSession) {
+        super(config, daoSession);
+    }
+
+    /** Creates the underlying database table. */
+    public static void createTable(Database db, boolean ifNotExists) {
+        String constraint = ifNotExists? "IF NOT EXISTS ": "";
+        db.execSQL("CREATE TABLE " + constraint + "\"STEP_STATE_ENTITY\" (" + //
+                "\"_id\" INTEGER PRIMARY KEY ," + // 0: id
+                "\"COUNT_SINCE_REBOOT\" INTEGER NOT NULL ," + // 1: countSinceReboot
+                "\"STEP_TIME\" INTEGER NOT NULL ," + // 2: stepTime
+                "\"STEP_COUNT\" INTEGER NOT NULL );"); // 3: stepCount
+    }
+
+    /** Drops the underlying database table. */
+    public static void dropTable(Database db, boolean ifExists) {
+        String sql = "DROP TABLE " + (ifExists ? "IF EXISTS " : "") + "\"STEP_STATE_ENTITY\"";
+        db.execSQL(sql);
+    }
+
+    @Override
+    protected final void bindValues(DatabaseStatement stmt, StepStateEntity entity) {
+        stmt.clearBindings();
+ 
+        Long id = entity.getId();
+        if (id != null) {
+            stmt.bindLong(1, id);
+        }
+        stmt.bindLong(2, entity.getCountSinceReboot());
+        stmt.bindLong(3, entity.getStepTime());
+        stmt.bindLong(4, entity.getStepCount());
+    }
+
+    @Override
+    protected final void bindValues(SQLiteStatement stmt, StepStateEntity entity) {
+        stmt.clearBindings();
+ 
+        Long id = entity.getId();
+        if (id != null) {
+            stmt.bindLong(1, id);
+        }
+        stmt.bindLong(2, entity.getCountSinceReboot());
+        stmt.bindLong(3, entity.getStepTime());
+        stmt.bindLong(4, entity.getStepCount());
+    }
+
+    @Override
+    public Long readKey(Cursor cursor, int offset) {
+        return cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0);
+    }    
+
+    @Override
+    public StepStateEntity readEntity(Cursor cursor, int offset) {
+        StepStateEntity entity = new StepStateEntity( //
+            cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0), // id
+            cursor.getLong(offset + 1), // countSinceReboot
+            cursor.getLong(offset + 2), // stepTime
+            cursor.getLong(offset + 3) // stepCount
+        );
+        return entity;
+    }
+     
+    @Override
+    public void readEntity(Cursor cursor, StepStateEntity entity, int offset) {
+        entity.setId(cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0));
+        entity.setCountSinceReboot(cursor.getLong(offset + 1));
+        entity.setStepTime(cursor.getLong(offset + 2));
+        entity.setStepCount(cursor.getLong(offset + 3));
+     }
+    
+    @Override
+    protected final Long updateKeyAfterInsert(StepStateEntity entity, long rowId) {
+        entity.setId(rowId);
+        return rowId;
+    }
+    
+    @Override
+    public Long getKey(StepStateEntity entity) {
+        if(entity != null) {
+            return entity.getId();
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasKey(StepStateEntity entity) {
+        return entity.getId() != null;
+    }
+
+    @Override
+    protected final boolean isEntityUpdateable() {
+        return true;
+    }
+    
+}
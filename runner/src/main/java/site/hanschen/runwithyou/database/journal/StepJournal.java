@@ -0,0 +1,519 @@
+package site.hanschen.runwithyou.database.journal;
+
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+
+/**
+ * 只追加的计步记录日志。日志由若干段文件组成，每段预分配固定大小并整体映射到内存，追加一条记录只是一次内存写入。
+ * <p>
+ * 段文件格式(大端):
+ * <pre>
+ * header(32 bytes): int magic | int version | long baseTime | int capacity | int headerCrc | 8 bytes reserved
+ * record(16 bytes): int timeOffset | int countSinceReboot | int stepCount | int crc
+ * </pre>
+ * timeOffset是相对于段baseTime的毫秒数，偏移溢出、时间倒退或段已满时开启新段，因此段内记录按时间有序，可以二分查找；
+ * 时间倒退后新段和之前的段时间范围会重叠，按时间查询时要合并所有重叠的段。
+ * 记录的序号由段文件的序号(高32位)和段内位置组成，按写入顺序递增。
+ * crc是前12个字节的CRC32，崩溃后从最后一段恢复时，以第一条校验失败的记录为结尾，其后的残留数据会被清零。
+ *
+ * @author HansChen
+ */
+public class StepJournal implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_CAPACITY = 64 * 1024;
+
+    static final int MAGIC       = 0x52575953;
+    static final int VERSION     = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 16;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * 恢复时向前校验的记录数，覆盖最后一次sync之后可能乱序落盘的一个页面
+     */
+    private static final int RECOVERY_WINDOW = 4096 / RECORD_SIZE;
+
+    public interface Visitor {
+
+        void visit(StepRecord record);
+    }
+
+    private final File                 mDir;
+    private final int                  mSegmentCapacity;
+    private final List<File>           mSegmentFiles = new ArrayList<>();
+    private final Map<File, Segment>   mSealedSegments = new HashMap<>();
+    private final CRC32                mCrc = new CRC32();
+    private final byte[]               mScratch = new byte[RECORD_SIZE];
+    private       Segment              mTail;
+    private       StepRecord           mLatestRecord;
+
+    public StepJournal(File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_CAPACITY);
+    }
+
+    public StepJournal(File dir, int segmentCapacity) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create journal directory: " + dir);
+        }
+        this.mDir = dir;
+        this.mSegmentCapacity = segmentCapacity;
+        File[] files = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File f1, File f2) {
+                    return f1.getName().compareTo(f2.getName());
+                }
+            });
+            mSegmentFiles.addAll(Arrays.asList(files));
+        }
+        // 只需要打开最后一段即可恢复尾部，与历史长度无关
+        while (!mSegmentFiles.isEmpty() && mTail == null) {
+            File last = mSegmentFiles.get(mSegmentFiles.size() - 1);
+            Segment segment = Segment.open(last, this);
+            if (segment == null) {
+                // 段头损坏(例如创建段文件时崩溃)，丢弃该段
+                mSegmentFiles.remove(mSegmentFiles.size() - 1);
+                if (!last.delete()) {
+                    throw new IOException("Cannot delete corrupted segment: " + last);
+                }
+            } else {
+                mTail = segment;
+            }
+        }
+        if (mTail != null) {
+            mLatestRecord = mTail.count > 0 ? mTail.read(mTail.count - 1) : findLastRecordBefore(mSegmentFiles.size() - 1);
+        }
+    }
+
+    public synchronized void append(StepRecord record) throws IOException {
+        checkRange(record);
+        appendChecked(record);
+    }
+
+    /**
+     * 追加一批记录，先校验所有记录，有无效记录时一条都不追加
+     */
+    public synchronized void append(List<StepRecord> records) throws IOException {
+        for (StepRecord record : records) {
+            checkRange(record);
+        }
+        for (StepRecord record : records) {
+            appendChecked(record);
+        }
+    }
+
+    private void appendChecked(StepRecord record) throws IOException {
+        if (mTail == null || !mTail.canAppend(record.getStepTime())) {
+            rollover(record.getStepTime());
+        }
+        mTail.append(record);
+        mLatestRecord = mTail.read(mTail.count - 1);
+    }
+
+    /**
+     * 把已追加的记录刷到磁盘
+     */
+    public synchronized void sync() {
+        if (mTail != null) {
+            mTail.buffer.force();
+        }
+    }
+
+    @Nullable
+    public synchronized StepRecord getLatestRecord() {
+        return mLatestRecord;
+    }
+
+    /**
+     * 按时间顺序访问stepTime在[from, to)内的记录
+     */
+    public synchronized void read(long from, long to, Visitor visitor) throws IOException {
+        read(from, to, Integer.MAX_VALUE, visitor);
+    }
+
+    /**
+     * 按时间顺序访问stepTime在[from, to)内的记录，最多limit条。时间相同的记录按写入顺序访问
+     */
+    public synchronized void read(long from, long to, int limit, Visitor visitor) throws IOException {
+        read(from, 0, to, limit, visitor);
+    }
+
+    /**
+     * 同{@link #read(long, long, int, Visitor)}，但stepTime等于from的记录只访问序号大于afterSequence的，用于分页
+     */
+    public synchronized void read(long from, long afterSequence, long to, int limit, Visitor visitor) throws IOException {
+        // 与[from, to)重叠的段和各自的读取位置，通常只有一段，时间倒退后会有多段
+        List<Segment> segments = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        for (int i = 0; i < mSegmentFiles.size(); i++) {
+            Segment segment = segmentAt(i);
+            if (segment.count == 0 || segment.timeAt(segment.count - 1) < from || segment.timeAt(0) >= to) {
+                continue;
+            }
+            int slot = segment.lowerBound(from);
+            while (slot < segment.count && segment.timeAt(slot) == from && segment.sequenceAt(slot) <= afterSequence) {
+                slot++;
+            }
+            segments.add(segment);
+            slots.add(slot);
+        }
+        for (int visited = 0; visited < limit; visited++) {
+            int next = -1;
+            long nextTime = to;
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                int slot = slots.get(i);
+                // 时间相同时先访问较早的段
+                if (slot < segment.count && segment.timeAt(slot) < nextTime) {
+                    next = i;
+                    nextTime = segment.timeAt(slot);
+                }
+            }
+            if (next < 0) {
+                return;
+            }
+            int slot = slots.get(next);
+            slots.set(next, slot + 1);
+            visitor.visit(segments.get(next).read(slot));
+        }
+    }
+
+    /**
+     * 按写入顺序访问序号大于afterSequence的记录，最多limit条。只打开包含这些记录的段
+     */
+    public synchronized void readAfter(long afterSequence, int limit, Visitor visitor) throws IOException {
+        int visited = 0;
+        for (int i = 0; i < mSegmentFiles.size() && visited < limit; i++) {
+            if (parseSequence(mSegmentFiles.get(i)) < afterSequence >>> 32) {
+                continue;
+            }
+            Segment segment = segmentAt(i);
+            int slot = (int) Math.max(0, Math.min(afterSequence - segment.sequenceBase, segment.count));
+            for (; slot < segment.count && visited < limit; slot++, visited++) {
+                visitor.visit(segment.read(slot));
+            }
+        }
+    }
+
+    /**
+     * @return stepTime早于time的最后一条记录，时间相同时取最后写入的
+     */
+    @Nullable
+    public synchronized StepRecord getRecordBefore(long time) throws IOException {
+        Segment before = null;
+        int beforeSlot = -1;
+        for (int i = 0; i < mSegmentFiles.size(); i++) {
+            Segment segment = segmentAt(i);
+            int slot = segment.lowerBound(time) - 1;
+            if (slot >= 0 && (before == null || segment.timeAt(slot) >= before.timeAt(beforeSlot))) {
+                before = segment;
+                beforeSlot = slot;
+            }
+        }
+        return before != null ? before.read(beforeSlot) : null;
+    }
+
+    /**
+     * @return 已写入记录实际占用的字节数，不包括段文件中预分配但还没有写入的部分
+     */
+    public synchronized long getUsedBytes() throws IOException {
+        long bytes = 0;
+        for (int i = 0; i < mSegmentFiles.size(); i++) {
+            bytes += HEADER_SIZE + (long) segmentAt(i).count * RECORD_SIZE;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return 所有段文件的长度之和，即实际的磁盘占用，每个段创建时按容量预分配
+     */
+    public synchronized long getFileBytes() {
+        long bytes = 0;
+        for (File file : mSegmentFiles) {
+            bytes += file.length();
+        }
+        return bytes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mTail != null) {
+            mTail.buffer.force();
+            mTail.close();
+            mTail = null;
+        }
+        for (Segment segment : mSealedSegments.values()) {
+            segment.close();
+        }
+        mSealedSegments.clear();
+    }
+
+    private void rollover(long baseTime) throws IOException {
+        if (mTail != null) {
+            mTail.buffer.force();
+            mSealedSegments.put(mTail.file, mTail);
+        }
+        int sequence = mSegmentFiles.isEmpty() ? 0 : parseSequence(mSegmentFiles.get(mSegmentFiles.size() - 1)) + 1;
+        File file = new File(mDir, String.format(Locale.US, "%010d%s", sequence, SEGMENT_SUFFIX));
+        mTail = Segment.create(file, baseTime, mSegmentCapacity, this);
+        mSegmentFiles.add(file);
+    }
+
+    private Segment segmentAt(int index) throws IOException {
+        File file = mSegmentFiles.get(index);
+        if (mTail != null && mTail.file.equals(file)) {
+            return mTail;
+        }
+        Segment segment = mSealedSegments.get(file);
+        if (segment == null) {
+            segment = Segment.open(file, this);
+            if (segment == null) {
+                throw new IOException("Corrupted segment: " + file);
+            }
+            mSealedSegments.put(file, segment);
+        }
+        return segment;
+    }
+
+    @Nullable
+    private StepRecord findLastRecordBefore(int segmentIndex) throws IOException {
+        for (int i = segmentIndex - 1; i >= 0; i--) {
+            Segment segment = segmentAt(i);
+            if (segment.count > 0) {
+                return segment.read(segment.count - 1);
+            }
+        }
+        return null;
+    }
+
+    private static int parseSequence(File file) {
+        String name = file.getName();
+        return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void checkRange(StepRecord record) {
+        checkRange(record.getCountSinceReboot(), "countSinceReboot");
+        checkRange(record.getStepCount(), "stepCount");
+    }
+
+    private static void checkRange(long value, String name) {
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(name + " out of range: " + value);
+        }
+    }
+
+    private int crc(byte[] bytes, int length) {
+        mCrc.reset();
+        mCrc.update(bytes, 0, length);
+        return (int) mCrc.getValue();
+    }
+
+    private static final class Segment {
+
+        final File             file;
+        final RandomAccessFile raf;
+        final MappedByteBuffer buffer;
+        final long             baseTime;
+        final int              capacity;
+        final StepJournal      journal;
+        final long             sequenceBase;
+        int count;
+
+        private Segment(File file, RandomAccessFile raf, MappedByteBuffer buffer, long baseTime, int capacity, StepJournal journal) {
+            this.file = file;
+            this.raf = raf;
+            this.buffer = buffer;
+            this.baseTime = baseTime;
+            this.capacity = capacity;
+            this.journal = journal;
+            this.sequenceBase = (long) parseSequence(file) << 32;
+        }
+
+        static Segment create(File file, long baseTime, int capacity, StepJournal journal) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            long length = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+            raf.setLength(length);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, baseTime);
+            buffer.putInt(16, capacity);
+            buffer.putInt(20, headerCrc(buffer, journal));
+            buffer.force();
+            return new Segment(file, raf, buffer, baseTime, capacity, journal);
+        }
+
+        /**
+         * @return 段头无效时返回null
+         */
+        @Nullable
+        static Segment open(File file, StepJournal journal) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            if (raf.length() < HEADER_SIZE) {
+                raf.close();
+                return null;
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            int capacity = buffer.getInt(16);
+            if (buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION
+                || buffer.getInt(20) != headerCrc(buffer, journal)
+                || raf.length() != HEADER_SIZE + (long) capacity * RECORD_SIZE) {
+                raf.close();
+                return null;
+            }
+            Segment segment = new Segment(file, raf, buffer, buffer.getLong(8), capacity, journal);
+            segment.recover();
+            return segment;
+        }
+
+        /**
+         * 二分查找最后一条有效记录，再向前校验一个窗口内的记录，截断到第一条无效记录并清除其后的残留数据
+         */
+        private void recover() {
+            int lo = 0;
+            int hi = capacity;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (isValid(mid)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int end = lo;
+            for (int slot = Math.max(0, end - RECOVERY_WINDOW); slot < end; slot++) {
+                if (!isValid(slot) || (slot > 0 && offsetAt(slot) < offsetAt(slot - 1))) {
+                    end = slot;
+                    break;
+                }
+            }
+            count = end;
+            int dirtyEnd = Math.min(capacity, lo + RECOVERY_WINDOW);
+            boolean dirty = false;
+            for (int slot = count; slot < dirtyEnd; slot++) {
+                int offset = HEADER_SIZE + slot * RECORD_SIZE;
+                for (int i = 0; i < RECORD_SIZE; i += 4) {
+                    if (buffer.getInt(offset + i) != 0) {
+                        buffer.putInt(offset + i, 0);
+                        dirty = true;
+                    }
+                }
+            }
+            if (dirty) {
+                buffer.force();
+            }
+        }
+
+        boolean canAppend(long time) {
+            if (count >= capacity) {
+                return false;
+            }
+            long offset = time - baseTime;
+            return offset >= 0 && offset <= Integer.MAX_VALUE && (count == 0 || offset >= offsetAt(count - 1));
+        }
+
+        void append(StepRecord record) {
+            byte[] scratch = journal.mScratch;
+            putInt(scratch, 0, (int) (record.getStepTime() - baseTime));
+            putInt(scratch, 4, (int) record.getCountSinceReboot());
+            putInt(scratch, 8, (int) record.getStepCount());
+            putInt(scratch, 12, journal.crc(scratch, 12));
+            buffer.position(HEADER_SIZE + count * RECORD_SIZE);
+            buffer.put(scratch);
+            count++;
+        }
+
+        StepRecord read(int slot) {
+            int offset = HEADER_SIZE + slot * RECORD_SIZE;
+            StepRecord record = new StepRecord(buffer.getInt(offset + 4), baseTime + buffer.getInt(offset), buffer.getInt(offset + 8));
+            record.setSequence(sequenceAt(slot));
+            return record;
+        }
+
+        /**
+         * @return 记录的序号，从1开始
+         */
+        long sequenceAt(int slot) {
+            return sequenceBase + slot + 1;
+        }
+
+        long timeAt(int slot) {
+            return baseTime + offsetAt(slot);
+        }
+
+        /**
+         * @return 第一条stepTime不早于time的记录位置
+         */
+        int lowerBound(long time) {
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (timeAt(mid) < time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        void close() throws IOException {
+            raf.close();
+        }
+
+        private int offsetAt(int slot) {
+            return buffer.getInt(HEADER_SIZE + slot * RECORD_SIZE);
+        }
+
+        private boolean isValid(int slot) {
+            byte[] scratch = journal.mScratch;
+            buffer.position(HEADER_SIZE + slot * RECORD_SIZE);
+            buffer.get(scratch);
+            return getInt(scratch, 12) == journal.crc(scratch, 12) && getInt(scratch, 0) >= 0;
+        }
+
+        private static int headerCrc(MappedByteBuffer buffer, StepJournal journal) {
+            byte[] header = new byte[20];
+            buffer.position(0);
+            buffer.get(header);
+            return journal.crc(header, header.length);
+        }
+
+        private static void putInt(byte[] bytes, int offset, int value) {
+            bytes[offset] = (byte) (value >>> 24);
+            bytes[offset + 1] = (byte) (value >>> 16);
+            bytes[offset + 2] = (byte) (value >>> 8);
+            bytes[offset + 3] = (byte) value;
+        }
+
+        private static int getInt(byte[] bytes, int offset) {
+            return (bytes[offset] << 24) | ((bytes[offset + 1] & 0xff) << 16) | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+        }
+    }
+}
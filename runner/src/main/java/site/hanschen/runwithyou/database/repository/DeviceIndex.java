@@ -0,0 +1,127 @@
+package site.hanschen.runwithyou.database.repository;
+
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import site.hanschen.runwithyou.bean.DeviceRecord;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+/**
+ * 内存中按MAC地址索引的设备，发现结果和连接结果增量合并到已有的记录中。非线程安全
+ *
+ * @author HansChen
+ */
+public class DeviceIndex {
+
+    /**
+     * 连接成功率高的排在前面，其次是信号强、最近连接过、最近发现的
+     */
+    public static final Comparator<DeviceRecord> RANKING = new Comparator<DeviceRecord>() {
+        @Override
+        public int compare(DeviceRecord a, DeviceRecord b) {
+            int result = Double.compare(b.getSuccessRate(), a.getSuccessRate());
+            if (result == 0) {
+                result = compareLong(b.getRssi(), a.getRssi());
+            }
+            if (result == 0) {
+                result = compareLong(b.getLastConnectedTime(), a.getLastConnectedTime());
+            }
+            if (result == 0) {
+                result = compareLong(b.getLastSeenTime(), a.getLastSeenTime());
+            }
+            if (result == 0) {
+                result = a.getAddress().compareTo(b.getAddress());
+            }
+            return result;
+        }
+    };
+
+    private final Map<String, DeviceRecord> mRecords = new HashMap<>();
+
+    public static String normalize(String address) {
+        return address.toUpperCase(Locale.US);
+    }
+
+    public static List<DeviceRecord> rank(Collection<DeviceRecord> records) {
+        List<DeviceRecord> ranked = new ArrayList<>(records);
+        Collections.sort(ranked, RANKING);
+        return ranked;
+    }
+
+    @Nullable
+    public DeviceRecord get(String address) {
+        return mRecords.get(normalize(address));
+    }
+
+    public void put(DeviceRecord record) {
+        mRecords.put(normalize(record.getAddress()), record);
+    }
+
+    public int size() {
+        return mRecords.size();
+    }
+
+    /**
+     * @return 合并后的记录
+     */
+    public DeviceRecord onSeen(Device device, int rssi, long time) {
+        DeviceRecord record = getOrCreate(device).withSeen(device.getName(), rssi, time);
+        put(record);
+        return record;
+    }
+
+    /**
+     * @return 合并后的记录
+     */
+    public DeviceRecord onConnectResult(Device device, boolean succeed, long time) {
+        DeviceRecord record = getOrCreate(device).withConnectResult(succeed, time);
+        put(record);
+        return record;
+    }
+
+    /**
+     * @return 尝试连接过的设备，按{@link #RANKING}排序
+     */
+    public List<DeviceRecord> getHistory() {
+        List<DeviceRecord> history = new ArrayList<>();
+        for (DeviceRecord record : mRecords.values()) {
+            if (record.getConnectAttempts() > 0) {
+                history.add(record);
+            }
+        }
+        Collections.sort(history, RANKING);
+        return history;
+    }
+
+    /**
+     * @return 每个设备对应的记录，不在索引中的设备只有名称和地址，按{@link #RANKING}排序
+     */
+    public List<DeviceRecord> lookup(Collection<Device> devices) {
+        Map<String, DeviceRecord> records = new HashMap<>();
+        for (Device device : devices) {
+            records.put(normalize(device.getAddress()), getOrCreate(device));
+        }
+        return rank(records.values());
+    }
+
+    private DeviceRecord getOrCreate(Device device) {
+        DeviceRecord record = get(device.getAddress());
+        if (record == null) {
+            record = new DeviceRecord(normalize(device.getAddress()), device.getName(), DeviceRecord.NO_RSSI, 0, 0, 0, 0);
+        }
+        return record;
+    }
+
+    private static int compareLong(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+}
@@ -0,0 +1,35 @@
+package site.hanschen.runwithyou.database.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+import site.hanschen.runwithyou.bean.DeviceRecord;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+/**
+ * 按MAC地址索引的设备，记录最后发现的时间、信号强度和连接成功率
+ *
+ * @author HansChen
+ */
+public interface DeviceRepository {
+
+    /**
+     * @return 尝试连接过的设备，最有可能连接成功的排在前面
+     */
+    List<DeviceRecord> getHistoryDevices();
+
+    /**
+     * @return 每个设备在索引中的记录，最有可能连接成功的排在前面
+     */
+    List<DeviceRecord> getDevices(Collection<Device> devices);
+
+    /**
+     * 合并一次发现结果
+     *
+     * @param rssi 信号强度，没有时为{@link DeviceRecord#NO_RSSI}
+     * @return 合并后的记录
+     */
+    DeviceRecord onDeviceFound(Device device, int rssi);
+
+    void onConnectResult(Device device, boolean succeed);
+}
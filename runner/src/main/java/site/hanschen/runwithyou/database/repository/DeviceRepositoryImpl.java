@@ -0,0 +1,117 @@
+package site.hanschen.runwithyou.database.repository;
+
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Scheduler;
+import site.hanschen.runwithyou.bean.DeviceRecord;
+import site.hanschen.runwithyou.database.entity.DeviceEntity;
+import site.hanschen.runwithyou.database.gen.DaoSession;
+import site.hanschen.runwithyou.database.gen.DeviceEntityDao;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+/**
+ * 第一次访问时把设备表全部读入{@link DeviceIndex}，之后的查询只读内存，
+ * 更新先合并到内存中再在写入线程中保存，发现设备时不会等待数据库
+ *
+ * @author HansChen
+ */
+public class DeviceRepositoryImpl implements DeviceRepository {
+
+    private final DeviceEntityDao   mDao;
+    private final Scheduler         mWriteScheduler;
+    private final DeviceIndex       mIndex = new DeviceIndex();
+    /* 地址对应的主键，只在写入线程中访问 */
+    private final Map<String, Long> mIds   = new HashMap<>();
+
+    private boolean mLoaded;
+
+    /**
+     * @param writeScheduler 保存记录的线程，需要按提交顺序执行
+     */
+    public DeviceRepositoryImpl(DaoSession session, Scheduler writeScheduler) {
+        this.mDao = session.getDeviceEntityDao();
+        this.mWriteScheduler = writeScheduler;
+    }
+
+    @Override
+    public synchronized List<DeviceRecord> getHistoryDevices() {
+        ensureLoaded();
+        return mIndex.getHistory();
+    }
+
+    @Override
+    public synchronized List<DeviceRecord> getDevices(Collection<Device> devices) {
+        ensureLoaded();
+        return mIndex.lookup(devices);
+    }
+
+    @Override
+    public synchronized DeviceRecord onDeviceFound(Device device, int rssi) {
+        ensureLoaded();
+        DeviceRecord record = mIndex.onSeen(device, rssi, System.currentTimeMillis());
+        save(record);
+        return record;
+    }
+
+    @Override
+    public synchronized void onConnectResult(Device device, boolean succeed) {
+        ensureLoaded();
+        save(mIndex.onConnectResult(device, succeed, System.currentTimeMillis()));
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        final List<DeviceEntity> entities = mDao.loadAll();
+        for (DeviceEntity entity : entities) {
+            mIndex.put(toRecord(entity));
+        }
+        mWriteScheduler.scheduleDirect(new Runnable() {
+            @Override
+            public void run() {
+                for (DeviceEntity entity : entities) {
+                    mIds.put(entity.getAddress(), entity.getId());
+                }
+            }
+        });
+        mLoaded = true;
+    }
+
+    private void save(final DeviceRecord record) {
+        mWriteScheduler.scheduleDirect(new Runnable() {
+            @Override
+            public void run() {
+                DeviceEntity entity = toEntity(record);
+                entity.setId(mIds.get(record.getAddress()));
+                mDao.insertOrReplace(entity);
+                mIds.put(record.getAddress(), entity.getId());
+            }
+        });
+    }
+
+    private static DeviceRecord toRecord(DeviceEntity entity) {
+        return new DeviceRecord(entity.getAddress(),
+                                entity.getName(),
+                                entity.getRssi(),
+                                entity.getLastSeenTime(),
+                                entity.getConnectAttempts(),
+                                entity.getConnectSuccesses(),
+                                entity.getLastConnectedTime());
+    }
+
+    private static DeviceEntity toEntity(DeviceRecord record) {
+        return new DeviceEntity(null,
+                                record.getAddress(),
+                                record.getName(),
+                                record.getRssi(),
+                                record.getLastSeenTime(),
+                                record.getConnectAttempts(),
+                                record.getConnectSuccesses(),
+                                record.getLastConnectedTime());
+    }
+}
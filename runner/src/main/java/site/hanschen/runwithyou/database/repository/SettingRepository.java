@@ -8,4 +8,9 @@ public interface SettingRepository {
     int getTargetStep();
 
     boolean isForegroundService();
+
+    /**
+     * @return 原始计步记录(每10秒一条)保留的天数，更早的记录会被压缩
+     */
+    int getRawRecordRetentionDays();
 }
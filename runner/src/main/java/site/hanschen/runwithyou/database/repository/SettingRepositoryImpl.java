@@ -32,4 +32,9 @@ public class SettingRepositoryImpl implements SettingRepository {
         return mPreferences.getBoolean(mContext.getResources()
                                                .getString(R.string.pref_memory_resident_foreground_service), true);
     }
+
+    @Override
+    public int getRawRecordRetentionDays() {
+        return mPreferences.getInt(mContext.getResources().getString(R.string.pref_raw_record_retention_days), 30);
+    }
 }
@@ -0,0 +1,131 @@
+package site.hanschen.runwithyou.database.repository;
+
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.bean.StepTotal;
+import site.hanschen.runwithyou.database.journal.StepJournal;
+
+/**
+ * 基于{@link StepJournal}的{@link StepRepository}实现，记录按固定长度追加到预分配的段文件，写入时不维护索引和汇总表。
+ * 和数据库实现的写入耗时、磁盘占用对比见StepJournalBenchmark。没有预先聚合的汇总表，范围查询需要扫描对应时间段内的原始记录
+ *
+ * @author HansChen
+ */
+public class StepJournalRepository implements StepRepository {
+
+    private final StepJournal mJournal;
+
+    public StepJournalRepository(File dir) {
+        try {
+            this.mJournal = new StepJournal(dir);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open step journal: " + dir, e);
+        }
+    }
+
+    public StepJournalRepository(StepJournal journal) {
+        this.mJournal = journal;
+    }
+
+    @Override
+    public void insertRecord(StepRecord stepRecord) {
+        insertRecords(Collections.singletonList(stepRecord));
+    }
+
+    @Override
+    public void insertRecords(List<StepRecord> stepRecords) {
+        try {
+            // 整批校验后再追加，失败时不会留下部分记录，StepRecordWriter重试时不会重复
+            mJournal.append(stepRecords);
+            mJournal.sync();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot append to step journal", e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public StepRecord getLatestRecord() {
+        return mJournal.getLatestRecord();
+    }
+
+    @Override
+    public List<StepRecord> getRecords(long from, long afterSequence, long to, int limit) {
+        try {
+            final List<StepRecord> records = new ArrayList<>();
+            mJournal.read(from, afterSequence, to, limit, new StepJournal.Visitor() {
+                @Override
+                public void visit(StepRecord record) {
+                    records.add(record);
+                }
+            });
+            return records;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read step journal", e);
+        }
+    }
+
+    @Override
+    public List<StepRecord> getRecordsAfter(long afterSequence, int limit) {
+        try {
+            final List<StepRecord> records = new ArrayList<>();
+            mJournal.readAfter(afterSequence, limit, new StepJournal.Visitor() {
+                @Override
+                public void visit(StepRecord record) {
+                    records.add(record);
+                }
+            });
+            return records;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read step journal", e);
+        }
+    }
+
+    @Override
+    public List<StepTotal> getMinuteTotals(long from, long to) {
+        return toTotals(rollup(from, to).getMinuteDeltas(), from, to);
+    }
+
+    @Override
+    public List<StepTotal> getHourlyTotals(long from, long to) {
+        return toTotals(rollup(from, to).getHourDeltas(), from, to);
+    }
+
+    @Override
+    public List<StepTotal> getDailyTotals(long from, long to) {
+        return toTotals(rollup(from, to).getDayDeltas(), from, to);
+    }
+
+    private StepRollup rollup(long from, long to) {
+        try {
+            final StepRollup rollup = new StepRollup(mJournal.getRecordBefore(from));
+            mJournal.read(from, to, new StepJournal.Visitor() {
+                @Override
+                public void visit(StepRecord record) {
+                    rollup.add(record);
+                }
+            });
+            return rollup;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read step journal", e);
+        }
+    }
+
+    private static List<StepTotal> toTotals(Map<Long, Long> deltas, long from, long to) {
+        List<StepTotal> totals = new ArrayList<>(deltas.size());
+        for (Map.Entry<Long, Long> delta : deltas.entrySet()) {
+            if (delta.getKey() >= from && delta.getKey() < to) {
+                totals.add(new StepTotal(delta.getKey(), delta.getValue()));
+            }
+        }
+        return totals;
+    }
+}
@@ -0,0 +1,270 @@
+package site.hanschen.runwithyou.database.repository;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import site.hanschen.common.utils.PreconditionUtils;
+import site.hanschen.runwithyou.bean.StepRecord;
+
+/**
+ * 计步记录的异步写入器。{@link #append(StepRecord)}只把记录放入内存中的环形缓冲区，由唯一的后台线程在
+ * 缓冲记录数达到阈值、距第一条未写入记录超过刷新间隔或{@link #close()}时，通过{@link StepRepository#insertRecords(List)}
+ * 在一个事务中批量写入，调用线程(传感器回调线程)永远不会等待磁盘IO
+ *
+ * @author HansChen
+ */
+public class StepRecordWriter {
+
+    public static final int  DEFAULT_CAPACITY       = 64;
+    public static final int  DEFAULT_FLUSH_SIZE     = 30;
+    public static final long DEFAULT_FLUSH_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String TAG = "StepRecordWriter";
+
+    private static final int  MAX_CLOSE_RETRIES = 3;
+    private static final long CLOSE_RETRY_DELAY = 100;
+
+    private final StepRepository mRepository;
+    private final int            mFlushSize;
+    private final long           mFlushIntervalNanos;
+    private final Object         mLock = new Object();
+    private final Thread         mWriterThread;
+
+    /* 以下字段均由mLock保护 */
+    private StepRecord[] mBuffer;
+    private int          mHead;
+    private int          mSize;
+    private long         mFirstPendingNanos;
+    private boolean      mFlushRequested;
+    private boolean      mClosed;
+
+    private volatile StepRecord mLatestRecord;
+    private volatile long       mWrittenCount;
+    private volatile long       mBatchCount;
+    private volatile long       mFailedBatchCount;
+
+    public StepRecordWriter(StepRepository repository) {
+        this(repository, DEFAULT_CAPACITY, DEFAULT_FLUSH_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    public StepRecordWriter(StepRepository repository, int capacity, int flushSize, long flushIntervalMillis) {
+        if (capacity <= 0 || flushSize <= 0 || flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("capacity, flushSize and flushIntervalMillis must be positive");
+        }
+        this.mRepository = PreconditionUtils.checkNotNull(repository, "StepRepository cannot be null!");
+        this.mBuffer = new StepRecord[capacity];
+        this.mFlushSize = flushSize;
+        this.mFlushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.mWriterThread = new Thread(mWriteLoop, "StepRecordWriter");
+    }
+
+    public void start() {
+        mWriterThread.start();
+    }
+
+    /**
+     * 追加一条记录，不会阻塞在磁盘IO上。缓冲区满时(通常意味着数据库长时间不可写)会扩容而不是丢弃记录
+     *
+     * @return 如果写入器已关闭则返回false
+     */
+    public boolean append(StepRecord record) {
+        PreconditionUtils.checkNotNull(record, "StepRecord cannot be null!");
+        synchronized (mLock) {
+            if (mClosed) {
+                return false;
+            }
+            if (mSize == mBuffer.length) {
+                grow();
+            }
+            mBuffer[(mHead + mSize) % mBuffer.length] = record;
+            mSize++;
+            mLatestRecord = record;
+            if (mSize == 1) {
+                mFirstPendingNanos = System.nanoTime();
+                mLock.notifyAll();
+            } else if (mSize >= mFlushSize) {
+                mLock.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 最后一条追加的记录(可能尚未写入数据库)，若本写入器还没有记录则从{@link StepRepository}中读取
+     */
+    @Nullable
+    public StepRecord getLatestRecord() {
+        StepRecord record = mLatestRecord;
+        return record != null ? record : mRepository.getLatestRecord();
+    }
+
+    /**
+     * 请求后台线程尽快写入缓冲区中的记录，不等待写入完成
+     */
+    public void flush() {
+        synchronized (mLock) {
+            mFlushRequested = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * 写入缓冲区中剩余的记录并停止后台线程，会等待写入完成
+     */
+    public void close() {
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mLock.notifyAll();
+        }
+        if (mWriterThread.isAlive()) {
+            boolean interrupted = false;
+            while (mWriterThread.isAlive()) {
+                try {
+                    mWriterThread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            // 未调用start()，直接在当前线程写入
+            writeOnClose(drain(new ArrayList<StepRecord>()));
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mSize;
+        }
+    }
+
+    public long getWrittenCount() {
+        return mWrittenCount;
+    }
+
+    public long getBatchCount() {
+        return mBatchCount;
+    }
+
+    public long getFailedBatchCount() {
+        return mFailedBatchCount;
+    }
+
+    private final Runnable mWriteLoop = new Runnable() {
+        @Override
+        public void run() {
+            // 写入失败的记录保留在batch中，等待一个刷新间隔后与新记录合并重试
+            List<StepRecord> batch = new ArrayList<>(mFlushSize);
+            long lastFailureNanos = 0;
+            boolean closed;
+            do {
+                synchronized (mLock) {
+                    awaitFlushLocked(batch.isEmpty() ? -1 : lastFailureNanos);
+                    drainLocked(batch);
+                    mFlushRequested = false;
+                    closed = mClosed;
+                }
+                if (write(batch)) {
+                    batch.clear();
+                } else {
+                    lastFailureNanos = System.nanoTime();
+                }
+            } while (!closed);
+            writeOnClose(batch);
+        }
+    };
+
+    /**
+     * 等待直到需要写入
+     *
+     * @param retryFromNanos 上次写入失败的时间，没有需要重试的记录时为-1
+     */
+    private void awaitFlushLocked(long retryFromNanos) {
+        while (!mClosed && !mFlushRequested && mSize < mFlushSize) {
+            try {
+                if (mSize == 0 && retryFromNanos < 0) {
+                    mLock.wait();
+                } else {
+                    long from = mSize == 0 ? retryFromNanos : mFirstPendingNanos;
+                    long remaining = from + mFlushIntervalNanos - System.nanoTime();
+                    if (remaining <= 0) {
+                        return;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(mLock, remaining);
+                }
+            } catch (InterruptedException ignore) {
+                return;
+            }
+        }
+    }
+
+    private List<StepRecord> drain(List<StepRecord> out) {
+        synchronized (mLock) {
+            drainLocked(out);
+        }
+        return out;
+    }
+
+    private void drainLocked(List<StepRecord> out) {
+        for (int i = 0; i < mSize; i++) {
+            int index = (mHead + i) % mBuffer.length;
+            out.add(mBuffer[index]);
+            mBuffer[index] = null;
+        }
+        mHead = 0;
+        mSize = 0;
+    }
+
+    private void grow() {
+        StepRecord[] buffer = new StepRecord[mBuffer.length * 2];
+        for (int i = 0; i < mSize; i++) {
+            buffer[i] = mBuffer[(mHead + i) % mBuffer.length];
+        }
+        mBuffer = buffer;
+        mHead = 0;
+    }
+
+    /**
+     * 关闭时最后一次写入，失败后退避重试，仍然失败则丢弃并记录日志
+     */
+    private void writeOnClose(List<StepRecord> batch) {
+        boolean written = write(batch);
+        for (int i = 0; i < MAX_CLOSE_RETRIES && !written; i++) {
+            try {
+                Thread.sleep(CLOSE_RETRY_DELAY * (i + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            written = write(batch);
+        }
+        if (!written) {
+            Log.e(TAG, "drop " + batch.size() + " records on close, " + mFailedBatchCount + " failed batches in total");
+        }
+    }
+
+    private boolean write(List<StepRecord> batch) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        try {
+            mRepository.insertRecords(batch);
+            mWrittenCount += batch.size();
+            mBatchCount++;
+            return true;
+        } catch (RuntimeException e) {
+            mFailedBatchCount++;
+            Log.w(TAG, "write " + batch.size() + " records failed, " + mFailedBatchCount + " failed batches so far", e);
+            return false;
+        }
+    }
+}
@@ -2,7 +2,10 @@ package site.hanschen.runwithyou.database.repository;
 
 import android.support.annotation.Nullable;
 
+import java.util.List;
+
 import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.bean.StepTotal;
 
 /**
  * @author HansChen
@@ -11,6 +14,41 @@ public interface StepRepository {
 
     void insertRecord(StepRecord stepRecord);
 
+    /**
+     * 在同一个事务中批量插入记录
+     */
+    void insertRecords(List<StepRecord> stepRecords);
+
     @Nullable
     StepRecord getLatestRecord();
+
+    /**
+     * 分页读取原始记录，下一页传入本页最后一条记录的时间和{@link StepRecord#getSequence()}，同一时间的多条记录不会因为分页而遗漏
+     *
+     * @param afterSequence stepTime等于from的记录只返回序号大于afterSequence的，第一页传0
+     * @return stepTime在[from, to)内的原始记录，按时间和序号升序，最多limit条
+     */
+    List<StepRecord> getRecords(long from, long afterSequence, long to, int limit);
+
+    /**
+     * 按写入顺序分页读取原始记录，时间倒退后写入的记录也不会遗漏，用于增量上传
+     *
+     * @return 序号大于afterSequence的原始记录，按序号升序，最多limit条
+     */
+    List<StepRecord> getRecordsAfter(long afterSequence, int limit);
+
+    /**
+     * @return 起始时间在[from, to)内的每分钟步数汇总，按时间升序
+     */
+    List<StepTotal> getMinuteTotals(long from, long to);
+
+    /**
+     * @return 起始时间在[from, to)内的每小时步数汇总，按时间升序
+     */
+    List<StepTotal> getHourlyTotals(long from, long to);
+
+    /**
+     * @return 零点在[from, to)内的每天步数汇总，按时间升序
+     */
+    List<StepTotal> getDailyTotals(long from, long to);
 }
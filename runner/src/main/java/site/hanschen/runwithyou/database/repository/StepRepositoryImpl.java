@@ -2,39 +2,221 @@ package site.hanschen.runwithyou.database.repository;
 
 
 import android.support.annotation.Nullable;
-import android.util.Log;
+
+import org.greenrobot.greendao.query.QueryBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.bean.StepTotal;
+import site.hanschen.runwithyou.database.entity.StepDayEntity;
+import site.hanschen.runwithyou.database.entity.StepHourEntity;
+import site.hanschen.runwithyou.database.entity.StepMinuteEntity;
 import site.hanschen.runwithyou.database.entity.StepRecordEntity;
+import site.hanschen.runwithyou.database.entity.StepStateEntity;
+import site.hanschen.runwithyou.database.gen.DaoSession;
+import site.hanschen.runwithyou.database.gen.StepDayEntityDao;
+import site.hanschen.runwithyou.database.gen.StepHourEntityDao;
+import site.hanschen.runwithyou.database.gen.StepMinuteEntityDao;
 import site.hanschen.runwithyou.database.gen.StepRecordEntityDao;
+import site.hanschen.runwithyou.database.gen.StepStateEntityDao;
 
 /**
+ * 原始记录写入时在同一个事务中增量更新分钟、小时、天的汇总表和当前计步状态，范围查询只读汇总表，
+ * {@link #getLatestRecord()}只读取当前计步状态并缓存在内存中，与原始记录表的大小无关
+ *
  * @author HansChen
  */
 public class StepRepositoryImpl implements StepRepository {
 
-    private StepRecordEntityDao mDao;
+    /**
+     * {@link StepStateEntity}只有一行
+     */
+    public static final long STATE_ID = 1L;
+
+    private final DaoSession          mSession;
+    private final StepRecordEntityDao mDao;
+    private final StepMinuteEntityDao mMinuteDao;
+    private final StepHourEntityDao   mHourDao;
+    private final StepDayEntityDao    mDayDao;
+    private final StepStateEntityDao  mStateDao;
 
-    public StepRepositoryImpl(StepRecordEntityDao dao) {
-        this.mDao = dao;
+    /* 写入时持有this，读取已缓存的值无需加锁，不会被进行中的写事务阻塞 */
+    private volatile StepRecord mLatestRecord;
+    private volatile boolean    mLatestRecordLoaded;
+
+    public StepRepositoryImpl(DaoSession session) {
+        this.mSession = session;
+        this.mDao = session.getStepRecordEntityDao();
+        this.mMinuteDao = session.getStepMinuteEntityDao();
+        this.mHourDao = session.getStepHourEntityDao();
+        this.mDayDao = session.getStepDayEntityDao();
+        this.mStateDao = session.getStepStateEntityDao();
     }
 
     @Override
     public void insertRecord(StepRecord stepRecord) {
-        StepRecordEntity entity = new StepRecordEntity();
-        entity.setCountSinceReboot(stepRecord.getCountSinceReboot());
-        entity.setStepCount(stepRecord.getStepCount());
-        entity.setStepTime(stepRecord.getStepTime());
-        mDao.insertOrReplace(entity);
+        insertRecords(Collections.singletonList(stepRecord));
+    }
+
+    @Override
+    public synchronized void insertRecords(final List<StepRecord> stepRecords) {
+        if (stepRecords.isEmpty()) {
+            return;
+        }
+        final StepRecord last = stepRecords.get(stepRecords.size() - 1);
+        final StepRecord previous = getLatestRecord();
+        mSession.runInTx(new Runnable() {
+            @Override
+            public void run() {
+                StepRollup rollup = new StepRollup(previous);
+                List<StepRecordEntity> entities = new ArrayList<>(stepRecords.size());
+                for (StepRecord record : stepRecords) {
+                    entities.add(toEntity(record));
+                    rollup.add(record);
+                }
+                mDao.insertInTx(entities);
+                updateRollup(rollup);
+                mStateDao.insertOrReplace(new StepStateEntity(STATE_ID,
+                                                              last.getCountSinceReboot(),
+                                                              last.getStepTime(),
+                                                              last.getStepCount()));
+            }
+        });
+        // 事务提交成功后才更新缓存
+        mLatestRecord = last;
     }
 
     @Nullable
     @Override
     public StepRecord getLatestRecord() {
-        StepRecordEntity entity = mDao.queryBuilder().orderDesc(StepRecordEntityDao.Properties.Id).unique();
-        if (entity == null) {
-            return null;
+        if (!mLatestRecordLoaded) {
+            synchronized (this) {
+                if (!mLatestRecordLoaded) {
+                    StepStateEntity state = mStateDao.load(STATE_ID);
+                    mLatestRecord = state == null ? null : new StepRecord(state.getCountSinceReboot(),
+                                                                          state.getStepTime(),
+                                                                          state.getStepCount());
+                    mLatestRecordLoaded = true;
+                }
+            }
+        }
+        return mLatestRecord;
+    }
+
+    @Override
+    public List<StepRecord> getRecords(long from, long afterSequence, long to, int limit) {
+        // 序号就是主键，STEP_TIME的索引按(STEP_TIME, _id)排序，不需要额外排序
+        QueryBuilder<StepRecordEntity> builder = mDao.queryBuilder();
+        List<StepRecordEntity> entities = builder.where(StepRecordEntityDao.Properties.StepTime.ge(from),
+                                                        StepRecordEntityDao.Properties.StepTime.lt(to),
+                                                        builder.or(StepRecordEntityDao.Properties.StepTime.gt(from),
+                                                                   StepRecordEntityDao.Properties.Id.gt(afterSequence)))
+                                                 .orderAsc(StepRecordEntityDao.Properties.StepTime, StepRecordEntityDao.Properties.Id)
+                                                 .limit(limit)
+                                                 .list();
+        return toRecords(entities);
+    }
+
+    @Override
+    public List<StepRecord> getRecordsAfter(long afterSequence, int limit) {
+        List<StepRecordEntity> entities = mDao.queryBuilder()
+                                              .where(StepRecordEntityDao.Properties.Id.gt(afterSequence))
+                                              .orderAsc(StepRecordEntityDao.Properties.Id)
+                                              .limit(limit)
+                                              .list();
+        return toRecords(entities);
+    }
+
+    private List<StepRecord> toRecords(List<StepRecordEntity> entities) {
+        List<StepRecord> records = new ArrayList<>(entities.size());
+        for (StepRecordEntity entity : entities) {
+            StepRecord record = new StepRecord(entity.getCountSinceReboot(), entity.getStepTime(), entity.getStepCount());
+            record.setSequence(entity.getId());
+            records.add(record);
+        }
+        // 分页读取大量历史记录时不保留在identity scope中
+        mDao.detachAll();
+        return records;
+    }
+
+    @Override
+    public List<StepTotal> getMinuteTotals(long from, long to) {
+        List<StepMinuteEntity> entities = mMinuteDao.queryBuilder()
+                                                    .where(StepMinuteEntityDao.Properties.StartTime.ge(from),
+                                                           StepMinuteEntityDao.Properties.StartTime.lt(to))
+                                                    .orderAsc(StepMinuteEntityDao.Properties.StartTime)
+                                                    .list();
+        List<StepTotal> totals = new ArrayList<>(entities.size());
+        for (StepMinuteEntity entity : entities) {
+            totals.add(new StepTotal(entity.getStartTime(), entity.getStepCount()));
+        }
+        return totals;
+    }
+
+    @Override
+    public List<StepTotal> getHourlyTotals(long from, long to) {
+        List<StepHourEntity> entities = mHourDao.queryBuilder()
+                                                .where(StepHourEntityDao.Properties.StartTime.ge(from),
+                                                       StepHourEntityDao.Properties.StartTime.lt(to))
+                                                .orderAsc(StepHourEntityDao.Properties.StartTime)
+                                                .list();
+        List<StepTotal> totals = new ArrayList<>(entities.size());
+        for (StepHourEntity entity : entities) {
+            totals.add(new StepTotal(entity.getStartTime(), entity.getStepCount()));
+        }
+        return totals;
+    }
+
+    @Override
+    public List<StepTotal> getDailyTotals(long from, long to) {
+        List<StepDayEntity> entities = mDayDao.queryBuilder()
+                                              .where(StepDayEntityDao.Properties.StartTime.ge(from),
+                                                     StepDayEntityDao.Properties.StartTime.lt(to))
+                                              .orderAsc(StepDayEntityDao.Properties.StartTime)
+                                              .list();
+        List<StepTotal> totals = new ArrayList<>(entities.size());
+        for (StepDayEntity entity : entities) {
+            totals.add(new StepTotal(entity.getStartTime(), entity.getStepCount()));
         }
-        return new StepRecord(entity.getCountSinceReboot(), entity.getStepTime(), entity.getStepCount());
+        return totals;
+    }
+
+    private void updateRollup(StepRollup rollup) {
+        for (Map.Entry<Long, Long> delta : rollup.getMinuteDeltas().entrySet()) {
+            StepMinuteEntity entity = mMinuteDao.load(delta.getKey());
+            if (entity == null) {
+                entity = new StepMinuteEntity(delta.getKey(), 0);
+            }
+            entity.setStepCount(entity.getStepCount() + delta.getValue());
+            mMinuteDao.insertOrReplace(entity);
+        }
+        for (Map.Entry<Long, Long> delta : rollup.getHourDeltas().entrySet()) {
+            StepHourEntity entity = mHourDao.load(delta.getKey());
+            if (entity == null) {
+                entity = new StepHourEntity(delta.getKey(), 0);
+            }
+            entity.setStepCount(entity.getStepCount() + delta.getValue());
+            mHourDao.insertOrReplace(entity);
+        }
+        for (Map.Entry<Long, Long> delta : rollup.getDayDeltas().entrySet()) {
+            StepDayEntity entity = mDayDao.load(delta.getKey());
+            if (entity == null) {
+                entity = new StepDayEntity(delta.getKey(), 0);
+            }
+            entity.setStepCount(entity.getStepCount() + delta.getValue());
+            mDayDao.insertOrReplace(entity);
+        }
+    }
+
+    private static StepRecordEntity toEntity(StepRecord stepRecord) {
+        StepRecordEntity entity = new StepRecordEntity();
+        entity.setCountSinceReboot(stepRecord.getCountSinceReboot());
+        entity.setStepCount(stepRecord.getStepCount());
+        entity.setStepTime(stepRecord.getStepTime());
+        return entity;
     }
 }
@@ -0,0 +1,99 @@
+package site.hanschen.runwithyou.database.repository;
+
+import android.support.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.utils.TimeUtils;
+
+/**
+ * 把按时间顺序到达的原始计步记录聚合为分钟、小时、天三个粒度的步数增量
+ *
+ * @author HansChen
+ */
+public class StepRollup {
+
+    private final Map<Long, Long> mMinuteDeltas = new LinkedHashMap<>();
+    private final Map<Long, Long> mHourDeltas   = new LinkedHashMap<>();
+    private final Map<Long, Long> mDayDeltas    = new LinkedHashMap<>();
+    private StepRecord mLastRecord;
+
+    /**
+     * @param lastRecord 已经聚合过的最后一条记录，用于计算第一条新记录的增量
+     */
+    public StepRollup(@Nullable StepRecord lastRecord) {
+        this.mLastRecord = lastRecord;
+    }
+
+    public void add(StepRecord record) {
+        long delta = stepDelta(mLastRecord, record);
+        mLastRecord = record;
+        if (delta <= 0) {
+            return;
+        }
+        long time = record.getStepTime();
+        accumulate(mMinuteDeltas, TimeUtils.startOfMinute(time), delta);
+        accumulate(mHourDeltas, TimeUtils.startOfHour(time), delta);
+        accumulate(mDayDeltas, TimeUtils.startOfDay(time), delta);
+    }
+
+    /**
+     * 清空已聚合的增量，保留最后一条记录以便继续聚合
+     */
+    public void clear() {
+        mMinuteDeltas.clear();
+        mHourDeltas.clear();
+        mDayDeltas.clear();
+    }
+
+    public boolean isEmpty() {
+        return mDayDeltas.isEmpty();
+    }
+
+    public int size() {
+        return mMinuteDeltas.size();
+    }
+
+    /**
+     * @return 分钟起始时间 -> 该分钟新增的步数
+     */
+    public Map<Long, Long> getMinuteDeltas() {
+        return mMinuteDeltas;
+    }
+
+    /**
+     * @return 小时起始时间 -> 该小时新增的步数
+     */
+    public Map<Long, Long> getHourDeltas() {
+        return mHourDeltas;
+    }
+
+    /**
+     * @return 当天零点 -> 当天新增的步数
+     */
+    public Map<Long, Long> getDayDeltas() {
+        return mDayDeltas;
+    }
+
+    @Nullable
+    public StepRecord getLastRecord() {
+        return mLastRecord;
+    }
+
+    /**
+     * {@link StepRecord#getStepCount()}是当天的累计步数，跨天后从0重新开始累计
+     */
+    static long stepDelta(@Nullable StepRecord previous, StepRecord record) {
+        if (previous == null || !TimeUtils.isSameDayOfMillis(previous.getStepTime(), record.getStepTime())) {
+            return record.getStepCount();
+        }
+        return Math.max(0, record.getStepCount() - previous.getStepCount());
+    }
+
+    private static void accumulate(Map<Long, Long> deltas, long key, long delta) {
+        Long value = deltas.get(key);
+        deltas.put(key, value == null ? delta : value + delta);
+    }
+}
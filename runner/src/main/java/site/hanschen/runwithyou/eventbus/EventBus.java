@@ -1,59 +1,104 @@
 package site.hanschen.runwithyou.eventbus;
 
-import android.os.RemoteException;
+import android.support.annotation.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
-
-import site.hanschen.runwithyou.service.RunnerCallback;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 /**
- * 分发应用事件，可通过{@link #registerStepCallback(Object, OnStepCallback)}注册对{@link OnStepCallback}的监听
- * 注意, 请在适当的时机调用{@link #unregisterCallback(Object)}方法,否则可能会引起内存泄露
+ * 按事件类型分发应用事件，每种类型有独立的订阅者数组，分发只遍历该类型的订阅者，不使用反射。
+ * 事件按{@link Object#getClass()}精确匹配，不分发给父类或接口的订阅者
+ * <p>
+ * 注意, 请在适当的时机调用{@link #unregister(Object)}方法；订阅者和回调都是弱引用，回调需要由订阅者持有。
+ * 粘性事件表示当前状态(例如{@link StepUpdateEvent})，晚注册的订阅者会立即收到最新的一个
  *
  * @author HansChen
  */
-public class EventBus extends RunnerCallback.Stub {
+public class EventBus {
 
-    private volatile static EventBus sEventBus;
+    private final Executor                                       mMainThreadExecutor;
+    private final ConcurrentMap<Class<?>, SubscriberRegistry<?>> mRegistries = new ConcurrentHashMap<>();
 
-    private EventBus() {
+    /**
+     * @param mainThreadExecutor {@link #register(Object, Class, Subscriber)}默认使用的Executor
+     */
+    public EventBus(Executor mainThreadExecutor) {
+        this.mMainThreadExecutor = mainThreadExecutor;
     }
 
-    public static EventBus getInstance() {
-        if (sEventBus == null) {
-            synchronized (EventBus.class) {
-                if (sEventBus == null) {
-                    sEventBus = new EventBus();
-                }
-            }
-        }
-        return sEventBus;
+    /**
+     * 注册监听，回调在主线程执行
+     */
+    public <T> void register(Object subscriber, Class<T> eventType, Subscriber<? super T> callback) {
+        register(subscriber, eventType, mMainThreadExecutor, callback);
     }
 
-    private Map<Object, OnStepCallback> mStepCallbacks = new HashMap<>();
+    /**
+     * 注册监听，同一个订阅者对同一种事件只能注册一次
+     *
+     * @param executor 执行回调的Executor，为null时在发送事件的线程直接回调
+     */
+    public <T> void register(Object subscriber, Class<T> eventType, @Nullable Executor executor, Subscriber<? super T> callback) {
+        if (subscriber != null && callback != null) {
+            registryOf(eventType).register(subscriber, callback, executor);
+        }
+    }
 
-    public void registerStepCallback(Object subscriber, OnStepCallback callback) {
+    /**
+     * 注销订阅者对所有事件的监听
+     */
+    public void unregister(Object subscriber) {
         if (subscriber != null) {
-            if (!mStepCallbacks.containsKey(subscriber)) {
-                mStepCallbacks.put(subscriber, callback);
-            } else {
-                throw new RuntimeException("Subscriber " + subscriber.getClass() + " already registered");
+            for (SubscriberRegistry<?> registry : mRegistries.values()) {
+                registry.unregister(subscriber);
             }
         }
     }
 
-    public void unregisterCallback(Object subscriber) {
-        mStepCallbacks.remove(subscriber);
+    /**
+     * 发送事件，可以在任意线程调用。通过Executor回调时每个订阅者分配一个Runnable，频繁的状态更新请使用{@link #postSticky(Object)}
+     */
+    public <T> void post(T event) {
+        @SuppressWarnings("unchecked")
+        SubscriberRegistry<T> registry = (SubscriberRegistry<T>) mRegistries.get(event.getClass());
+        if (registry != null) {
+            registry.post(event);
+        }
+    }
+
+    /**
+     * 发送粘性事件，替换同类型的上一个粘性事件。通过Executor回调时，来不及处理的多个事件合并为最新的一个
+     */
+    public <T> void postSticky(T event) {
+        @SuppressWarnings("unchecked")
+        Class<T> eventType = (Class<T>) event.getClass();
+        registryOf(eventType).postSticky(event);
+    }
+
+    @Nullable
+    public <T> T getStickyEvent(Class<T> eventType) {
+        SubscriberRegistry<?> registry = mRegistries.get(eventType);
+        return registry == null ? null : eventType.cast(registry.getSticky());
     }
 
-    @Override
-    public void onStepUpdate(final long count) throws RemoteException {
-        new IterableDispatcher<OnStepCallback>(mStepCallbacks.values()) {
-            @Override
-            protected void execute(OnStepCallback callback) {
-                callback.onStepUpdate(count);
+    public void removeStickyEvent(Class<?> eventType) {
+        SubscriberRegistry<?> registry = mRegistries.get(eventType);
+        if (registry != null) {
+            registry.removeSticky();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> SubscriberRegistry<T> registryOf(Class<T> eventType) {
+        SubscriberRegistry<?> registry = mRegistries.get(eventType);
+        if (registry == null) {
+            SubscriberRegistry<?> created = new SubscriberRegistry<T>();
+            registry = mRegistries.putIfAbsent(eventType, created);
+            if (registry == null) {
+                registry = created;
             }
-        }.dispatch();
+        }
+        return (SubscriberRegistry<T>) registry;
     }
 }
@@ -1,9 +0,0 @@
-package site.hanschen.runwithyou.eventbus;
-
-/**
- * @author HansChen
- */
-public interface OnStepCallback {
-
-    void onStepUpdate(long count);
-}
@@ -0,0 +1,24 @@
+package site.hanschen.runwithyou.eventbus;
+
+import android.os.RemoteException;
+
+import site.hanschen.runwithyou.service.RunnerCallback;
+
+/**
+ * 接收{@link site.hanschen.runwithyou.service.RunnerService}的回调，转换为{@link EventBus}中的事件
+ *
+ * @author HansChen
+ */
+public class RunnerEventReceiver extends RunnerCallback.Stub {
+
+    private final EventBus mEventBus;
+
+    public RunnerEventReceiver(EventBus eventBus) {
+        this.mEventBus = eventBus;
+    }
+
+    @Override
+    public void onStepUpdate(long count) throws RemoteException {
+        mEventBus.postSticky(new StepUpdateEvent(count));
+    }
+}
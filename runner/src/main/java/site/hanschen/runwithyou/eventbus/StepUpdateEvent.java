@@ -0,0 +1,26 @@
+package site.hanschen.runwithyou.eventbus;
+
+/**
+ * 当日步数更新，以粘性事件发送
+ *
+ * @author HansChen
+ */
+public class StepUpdateEvent {
+
+    private final long mStepCount;
+
+    public StepUpdateEvent(long stepCount) {
+        this.mStepCount = stepCount;
+    }
+
+    public long getStepCount() {
+        return mStepCount;
+    }
+
+    @Override
+    public String toString() {
+        return "StepUpdateEvent{" +
+                "mStepCount=" + mStepCount +
+                '}';
+    }
+}
@@ -3,7 +3,7 @@ package site.hanschen.runwithyou.eventbus;
 /**
  * @author HansChen
  */
-interface CallbackDispatcher {
+public interface Subscriber<T> {
 
-    void dispatch();
+    void onEvent(T event);
 }
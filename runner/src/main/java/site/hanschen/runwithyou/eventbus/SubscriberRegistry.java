@@ -0,0 +1,168 @@
+package site.hanschen.runwithyou.eventbus;
+
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一种事件类型的订阅者，写时复制的数组：注册和注销时复制数组，分发时只读取当前数组的快照，不加锁，
+ * 分发过程中注册或注销不会抛出{@link java.util.ConcurrentModificationException}
+ * <p>
+ * 订阅者和回调都是弱引用，回调需要由订阅者持有，例如作为订阅者的成员变量；已被回收的订阅在下次注册或注销时清除
+ * <p>
+ * 粘性事件只保留最新的一个，新的订阅者注册时立即收到；通过Executor分发时，来不及处理的多个粘性事件合并为最新的一个，不分配对象
+ *
+ * @author HansChen
+ */
+final class SubscriberRegistry<T> {
+
+    private static final class Subscription<T> {
+
+        final SubscriberRegistry<T>                registry;
+        final WeakReference<Object>                subscriber;
+        final WeakReference<Subscriber<? super T>> callback;
+        final Executor                             executor;
+        final AtomicBoolean                        scheduled = new AtomicBoolean();
+        volatile T                                 lastSticky;
+
+        Subscription(SubscriberRegistry<T> registry,
+                     Object subscriber,
+                     Subscriber<? super T> callback,
+                     @Nullable Executor executor) {
+            this.registry = registry;
+            this.subscriber = new WeakReference<>(subscriber);
+            this.callback = new WeakReference<Subscriber<? super T>>(callback);
+            this.executor = executor;
+        }
+
+        boolean isAlive() {
+            return subscriber.get() != null && callback.get() != null;
+        }
+
+        void deliver(@Nullable T event) {
+            Subscriber<? super T> target = callback.get();
+            if (event != null && target != null && subscriber.get() != null) {
+                target.onEvent(event);
+            }
+        }
+
+        void offer(final T event) {
+            if (executor == null) {
+                deliver(event);
+            } else {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(event);
+                    }
+                });
+            }
+        }
+
+        /**
+         * 通知有新的粘性事件，分发时读取最新的粘性事件
+         */
+        void offerSticky() {
+            if (executor == null) {
+                deliver(registry.mSticky);
+            } else if (scheduled.compareAndSet(false, true)) {
+                executor.execute(deliverSticky);
+            }
+        }
+
+        final Runnable deliverSticky = new Runnable() {
+            @Override
+            public void run() {
+                // 先清除标记再读取，之后的粘性事件一定会再分发一次；已分发过的同一个事件不重复分发
+                scheduled.set(false);
+                T sticky = registry.mSticky;
+                if (sticky != lastSticky) {
+                    lastSticky = sticky;
+                    deliver(sticky);
+                }
+            }
+        };
+    }
+
+    private final Object mLock = new Object();
+
+    private volatile Subscription<T>[] mSubscriptions = newArray(0);
+    private volatile T                 mSticky;
+
+    void register(Object subscriber, Subscriber<? super T> callback, @Nullable Executor executor) {
+        Subscription<T> subscription = new Subscription<>(this, subscriber, callback, executor);
+        synchronized (mLock) {
+            for (Subscription<T> existing : mSubscriptions) {
+                if (existing.subscriber.get() == subscriber) {
+                    throw new RuntimeException("Subscriber " + subscriber.getClass() + " already registered");
+                }
+            }
+            Subscription<T>[] next = retain(mSubscriptions, null, 1);
+            next[next.length - 1] = subscription;
+            mSubscriptions = next;
+        }
+        // 先加入数组再读取粘性事件，与postSticky并发时也能收到最新的事件
+        if (mSticky != null) {
+            subscription.offerSticky();
+        }
+    }
+
+    void unregister(Object subscriber) {
+        synchronized (mLock) {
+            mSubscriptions = retain(mSubscriptions, subscriber, 0);
+        }
+    }
+
+    void post(T event) {
+        Subscription<T>[] subscriptions = mSubscriptions;
+        for (int i = 0; i < subscriptions.length; i++) {
+            subscriptions[i].offer(event);
+        }
+    }
+
+    void postSticky(T event) {
+        mSticky = event;
+        Subscription<T>[] subscriptions = mSubscriptions;
+        for (int i = 0; i < subscriptions.length; i++) {
+            subscriptions[i].offerSticky();
+        }
+    }
+
+    @Nullable
+    T getSticky() {
+        return mSticky;
+    }
+
+    void removeSticky() {
+        mSticky = null;
+    }
+
+    /**
+     * @return 数组中的订阅数，包括尚未清除的已回收订阅
+     */
+    int size() {
+        return mSubscriptions.length;
+    }
+
+    /**
+     * @return 新数组，包含current中除excluded以外仍然存活的订阅，末尾预留extra个空位
+     */
+    private static <T> Subscription<T>[] retain(Subscription<T>[] current, @Nullable Object excluded, int extra) {
+        Subscription<T>[] next = newArray(current.length + extra);
+        int count = 0;
+        for (Subscription<T> subscription : current) {
+            if (subscription.isAlive() && subscription.subscriber.get() != excluded) {
+                next[count++] = subscription;
+            }
+        }
+        return count + extra == next.length ? next : Arrays.copyOf(next, count + extra);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Subscription<T>[] newArray(int length) {
+        return (Subscription<T>[]) new Subscription[length];
+    }
+}
@@ -0,0 +1,69 @@
+package site.hanschen.runwithyou.service;
+
+import java.util.concurrent.TimeUnit;
+
+import site.hanschen.runwithyou.utils.Clock;
+
+/**
+ * 有客户端请求实时上报时使用{@link SensorSampling#REALTIME}，不论是否亮屏(例如双人跑时手机放在口袋里)；
+ * 否则灭屏超过一段时间后切换到{@link SensorSampling#BATCHED}，避免短暂灭屏时频繁重新注册传感器；其余情况使用{@link SensorSampling#NORMAL}
+ *
+ * @author HansChen
+ */
+public class AdaptiveSamplingPolicy implements SamplingPolicy {
+
+    public static final long DEFAULT_SCREEN_OFF_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    private final Clock mClock;
+    private final long  mScreenOffDelayMillis;
+
+    private boolean mScreenOn = true;
+    private long    mScreenOffTime;
+    private boolean mRealtime;
+
+    public AdaptiveSamplingPolicy(Clock clock) {
+        this(clock, DEFAULT_SCREEN_OFF_DELAY);
+    }
+
+    public AdaptiveSamplingPolicy(Clock clock, long screenOffDelayMillis) {
+        this.mClock = clock;
+        this.mScreenOffDelayMillis = screenOffDelayMillis;
+    }
+
+    @Override
+    public void onScreenStateChanged(boolean screenOn) {
+        if (mScreenOn && !screenOn) {
+            mScreenOffTime = mClock.elapsedRealtime();
+        }
+        mScreenOn = screenOn;
+    }
+
+    @Override
+    public void onRealtimeRequested(boolean realtime) {
+        mRealtime = realtime;
+    }
+
+    @Override
+    public SensorSampling getSampling() {
+        if (mRealtime) {
+            return SensorSampling.REALTIME;
+        }
+        if (mScreenOn) {
+            return SensorSampling.NORMAL;
+        }
+        return getScreenOffElapsed() >= mScreenOffDelayMillis ? SensorSampling.BATCHED : SensorSampling.NORMAL;
+    }
+
+    @Override
+    public long getReevaluateDelay() {
+        if (mRealtime || mScreenOn) {
+            return -1;
+        }
+        long remain = mScreenOffDelayMillis - getScreenOffElapsed();
+        return remain > 0 ? remain : -1;
+    }
+
+    private long getScreenOffElapsed() {
+        return mClock.elapsedRealtime() - mScreenOffTime;
+    }
+}
@@ -0,0 +1,56 @@
+package site.hanschen.runwithyou.service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * 可以被其他线程取消的输出流，取消后的写入都抛出{@link InterruptedIOException}。
+ * 不会读取或丢弃管道中客户端还没有读取的数据；写入已经阻塞在写满的管道上时，需要客户端关闭读端才能返回
+ *
+ * @author HansChen
+ */
+public class CancellableOutputStream extends FilterOutputStream {
+
+    private volatile boolean mCancelled;
+
+    public CancellableOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkCancelled();
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkCancelled();
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        checkCancelled();
+        out.flush();
+    }
+
+    /**
+     * 可以在任意线程调用
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private void checkCancelled() throws IOException {
+        if (mCancelled) {
+            throw new InterruptedIOException("cancelled by client");
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package site.hanschen.runwithyou.service;
 
+import android.annotation.TargetApi;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.hardware.Sensor;
@@ -14,33 +17,46 @@ import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.PowerManager;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
-import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
+import android.util.Log;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.schedulers.Schedulers;
 import site.hanschen.runwithyou.R;
 import site.hanschen.runwithyou.application.RunnerApplication;
 import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.database.DeviceMaintenanceConditions;
+import site.hanschen.runwithyou.database.StepRecordCompactor;
 import site.hanschen.runwithyou.database.repository.SettingRepository;
+import site.hanschen.runwithyou.database.repository.StepRecordWriter;
 import site.hanschen.runwithyou.database.repository.StepRepository;
 import site.hanschen.runwithyou.ui.home.HomeActivity;
-import site.hanschen.runwithyou.utils.TimeUtils;
+import site.hanschen.runwithyou.upload.DeviceUploadConditions;
+import site.hanschen.runwithyou.upload.StepUploader;
+import site.hanschen.runwithyou.utils.Clock;
 
 /**
  * @author HansChen
  */
 public class RunnerService extends Service {
 
-    private static final long UNINITIALIZED_VALUE = -1;
-    private static final int  NOTIFICATION_ID     = 1;
+    private static final int NOTIFICATION_ID = 1;
 
     public static void bind(Context context, ServiceConnection conn) {
         Intent intent = new Intent(context, RunnerService.class);
@@ -61,15 +77,28 @@ public class RunnerService extends Service {
     SensorManager       mSensorManager;
     @Inject
     NotificationManager mNotificationManager;
+    @Inject
+    PowerManager        mPowerManager;
+    @Inject
+    StepRecordCompactor mStepRecordCompactor;
+    @Inject
+    StepUploader        mStepUploader;
 
     private Context mContext;
-    private final    Handler                            mMainHandler          = new Handler(Looper.getMainLooper());
-    private final    RemoteCallbackList<RunnerCallback> mCallbacks            = new RemoteCallbackList<>();
-    private volatile long                               mStepCount            = UNINITIALIZED_VALUE;
-    private          long                               mLastInsertTime       = UNINITIALIZED_VALUE;
-    private          long                               mLastCountSinceReboot = UNINITIALIZED_VALUE;
+    private final Handler                              mMainHandler      = new Handler(Looper.getMainLooper());
+    private final RemoteCallbackList<RunnerCallback>   mCallbacks        = new RemoteCallbackList<>();
+    private final SamplingPolicy                       mSamplingPolicy   = new AdaptiveSamplingPolicy(Clock.SYSTEM);
+    /* 请求实时上报的客户端，只在主线程访问 */
+    private final Map<IBinder, IBinder.DeathRecipient> mRealtimeRequests = new HashMap<>();
+    /* 正在写入的历史数据，binder线程和io线程都会访问，用自身加锁 */
+    private final Map<IBinder, HistoryStream>          mHistoryStreams   = new HashMap<>();
     private boolean                    mIsForegroundService;
     private NotificationCompat.Builder mNotificationBuilder;
+    private StepRecordWriter           mStepRecordWriter;
+    private StepCounter                mStepCounter;
+    private HandlerThread              mCallbackThread;
+    private StepCallbackDispatcher     mCallbackDispatcher;
+    private SensorSampling             mSensorSampling;
 
     @Override
     public void onCreate() {
@@ -80,6 +109,16 @@ public class RunnerService extends Service {
                                     .build()
                                     .inject(RunnerService.this);
 
+        mStepRecordWriter = new StepRecordWriter(mStepRepository);
+        mStepRecordWriter.start();
+        mStepCounter = new StepCounter(mRecordSink, Clock.SYSTEM);
+        mCallbackThread = new HandlerThread("RunnerCallback");
+        mCallbackThread.start();
+        mCallbackDispatcher = new StepCallbackDispatcher(mBroadcaster, AndroidSchedulers.from(mCallbackThread.getLooper()));
+        mStepRecordCompactor.setOnFinishedListener(mOnCompactFinishedListener);
+        mStepRecordCompactor.setConditions(new DeviceMaintenanceConditions(this));
+        mStepRecordCompactor.start(10, TimeUnit.DAYS.toMinutes(1), TimeUnit.MINUTES);
+        mStepUploader.start(15, TimeUnit.HOURS.toMinutes(1), TimeUnit.MINUTES, new DeviceUploadConditions(this));
         mPreferences.registerOnSharedPreferenceChangeListener(mOnPreferenceChangeListener);
         setForegroundState();
         setupSensor();
@@ -90,6 +129,24 @@ public class RunnerService extends Service {
         super.onDestroy();
         mPreferences.unregisterOnSharedPreferenceChangeListener(mOnPreferenceChangeListener);
         teardownSensor();
+        mStepRecordCompactor.stop();
+        mStepRecordCompactor.setOnFinishedListener(null);
+        mStepRecordCompactor.setConditions(null);
+        mStepUploader.stop();
+        mStepRecordWriter.close();
+        mCallbackDispatcher.close();
+        mCallbackThread.quit();
+        for (Map.Entry<IBinder, IBinder.DeathRecipient> request : mRealtimeRequests.entrySet()) {
+            request.getKey().unlinkToDeath(request.getValue(), 0);
+        }
+        mRealtimeRequests.clear();
+        synchronized (mHistoryStreams) {
+            for (HistoryStream stream : mHistoryStreams.values()) {
+                stream.cancel();
+            }
+            mHistoryStreams.clear();
+        }
+        Log.d("Hans", "RunnerService#onDestroy: " + mCallbackDispatcher);
     }
 
     private void setupSensor() {
@@ -98,17 +155,107 @@ public class RunnerService extends Service {
         }
         //Sensor stepDetectorSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR);
         //mSensorManager.registerListener(mSensorEventListener, stepDetectorSensor, SensorManager.SENSOR_DELAY_UI);
-        Sensor stepCountSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_STEP_COUNTER);
-        mSensorManager.registerListener(mSensorEventListener, stepCountSensor, SensorManager.SENSOR_DELAY_GAME);
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(mScreenReceiver, filter);
+        mSamplingPolicy.onScreenStateChanged(mPowerManager.isScreenOn());
+        applySampling();
     }
 
     private void teardownSensor() {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
             return;
         }
+        unregisterReceiver(mScreenReceiver);
+        mMainHandler.removeCallbacks(mApplySamplingRunnable);
         mSensorManager.unregisterListener(mSensorEventListener);
+        mSensorSampling = null;
+    }
+
+    /**
+     * 按{@link SamplingPolicy}的结果重新注册计步传感器，只在主线程调用
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void applySampling() {
+        mMainHandler.removeCallbacks(mApplySamplingRunnable);
+        SensorSampling sampling = mSamplingPolicy.getSampling();
+        Sensor stepCountSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_STEP_COUNTER);
+        if (stepCountSensor != null && sampling != mSensorSampling) {
+            // 计步传感器上报的是累计值，重新注册时丢弃FIFO中的事件不会丢失步数
+            mSensorManager.unregisterListener(mSensorEventListener);
+            mSensorManager.registerListener(mSensorEventListener,
+                                            stepCountSensor,
+                                            sampling.getSamplingPeriodUs(),
+                                            sampling.getMaxReportLatencyUs());
+            if (mSensorSampling != null && sampling.getMaxReportLatencyUs() < mSensorSampling.getMaxReportLatencyUs()) {
+                // 立即上报一次，界面不用等到下一步才刷新
+                mSensorManager.flush(mSensorEventListener);
+            }
+            Log.d("Hans", "RunnerService#applySampling: " + mSensorSampling + " -> " + sampling);
+            mSensorSampling = sampling;
+        }
+        long delay = mSamplingPolicy.getReevaluateDelay();
+        if (delay >= 0) {
+            mMainHandler.postDelayed(mApplySamplingRunnable, delay);
+        }
+    }
+
+    /**
+     * 记录客户端的实时上报请求，任一客户端请求时生效，客户端进程死亡后自动取消，只在主线程调用
+     */
+    private void updateRealtimeRequest(final IBinder token, boolean realtime) {
+        if (realtime) {
+            if (mRealtimeRequests.containsKey(token)) {
+                return;
+            }
+            IBinder.DeathRecipient recipient = new IBinder.DeathRecipient() {
+                @Override
+                public void binderDied() {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            updateRealtimeRequest(token, false);
+                        }
+                    });
+                }
+            };
+            try {
+                token.linkToDeath(recipient, 0);
+            } catch (RemoteException e) {
+                // 客户端已经死亡
+                return;
+            }
+            mRealtimeRequests.put(token, recipient);
+        } else {
+            IBinder.DeathRecipient recipient = mRealtimeRequests.remove(token);
+            if (recipient == null) {
+                return;
+            }
+            token.unlinkToDeath(recipient, 0);
+        }
+        mSamplingPolicy.onRealtimeRequested(!mRealtimeRequests.isEmpty());
+        // 传感器未注册或服务已经销毁
+        if (mSensorSampling != null) {
+            applySampling();
+        }
     }
 
+    private final Runnable mApplySamplingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applySampling();
+        }
+    };
+
+    private BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mSamplingPolicy.onScreenStateChanged(Intent.ACTION_SCREEN_ON.equals(intent.getAction()));
+            applySampling();
+        }
+    };
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         return START_STICKY;
@@ -123,23 +270,13 @@ public class RunnerService extends Service {
         @Override
         public void onSensorChanged(SensorEvent event) {
             if (event.sensor.getType() == Sensor.TYPE_STEP_COUNTER) {
-                long countSinceReboot = (long) event.values[0];
-                if (mStepCount == UNINITIALIZED_VALUE) {
-                    mStepCount = calcStepOfDay(countSinceReboot);
-                } else {
-                    mStepCount = mStepCount + countSinceReboot - mLastCountSinceReboot;
-                }
-                mLastCountSinceReboot = countSinceReboot;
-                dispatchCallback(new CallbackRunnable<RunnerCallback>() {
-                    @Override
-                    public void run(RunnerCallback callback) throws RemoteException {
-                        callback.onStepUpdate(mStepCount);
-                    }
-                });
+                long currentTimeMillis = System.currentTimeMillis();
+                long stepCount = mStepCounter.update((long) event.values[0], currentTimeMillis);
+                mCallbackDispatcher.dispatch(stepCount);
                 if (mIsForegroundService) {
                     mNotificationManager.notify(NOTIFICATION_ID, getNotification());
                 }
-                insertRecord(mStepCount, countSinceReboot);
+                mStepCounter.record(currentTimeMillis);
             }
         }
 
@@ -149,33 +286,27 @@ public class RunnerService extends Service {
         }
     };
 
-    private long calcStepOfDay(long countSinceReboot) {
-        long currentTimeMillis = System.currentTimeMillis();
-        long bootTime = currentTimeMillis - SystemClock.elapsedRealtime();
-        StepRecord record = mStepRepository.getLatestRecord();
-
-        if (record == null || !TimeUtils.isSameDayOfMillis(record.getStepTime(), currentTimeMillis)) {
-            if (TimeUtils.isSameDayOfMillis(bootTime, currentTimeMillis)) {
-                return countSinceReboot;
-            } else {
-                return 0;
-            }
+    /**
+     * 从写入器中读取最后一条记录，追加的记录由写入器在后台批量写入数据库
+     */
+    private final StepCounter.RecordSink mRecordSink = new StepCounter.RecordSink() {
+        @Override
+        public StepRecord getLatestRecord() {
+            return mStepRecordWriter.getLatestRecord();
         }
-        
-        if (bootTime > record.getStepTime()) {
-            return countSinceReboot + record.getStepCount();
-        } else {
-            return record.getStepCount() + countSinceReboot - record.getCountSinceReboot();
+
+        @Override
+        public boolean append(StepRecord record) {
+            return mStepRecordWriter.append(record);
         }
-    }
+    };
 
-    private void insertRecord(long stepCount, long countSinceReboot) {
-        long currentTimeMillis = System.currentTimeMillis();
-        if (mLastInsertTime == UNINITIALIZED_VALUE || currentTimeMillis - mLastInsertTime >= TimeUnit.SECONDS.toMillis(10)) {
-            mStepRepository.insertRecord(new StepRecord(countSinceReboot, currentTimeMillis, stepCount));
-            mLastInsertTime = currentTimeMillis;
+    private StepRecordCompactor.OnFinishedListener mOnCompactFinishedListener = new StepRecordCompactor.OnFinishedListener() {
+        @Override
+        public void onFinished(StepRecordCompactor.Progress progress) {
+            Log.d("Hans", "RunnerService#compact: " + progress);
         }
-    }
+    };
 
     private SharedPreferences.OnSharedPreferenceChangeListener mOnPreferenceChangeListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
         @Override
@@ -216,18 +347,18 @@ public class RunnerService extends Service {
                                                                        .setContentTitle(getString(R.string.app_name))
                                                                        .setContentText(String.format(Locale.getDefault(),
                                                                                                      "当日步数: %d",
-                                                                                                     mStepCount))
+                                                                                                     mStepCounter.getStepCount()))
                                                                        .setContentIntent(pendingIntent)
                                                                        .setPriority(NotificationCompat.PRIORITY_DEFAULT);
         }
-        return mNotificationBuilder.setContentText(String.format(Locale.getDefault(), "当日步数: %d", mStepCount)).build();
+        return mNotificationBuilder.setContentText(String.format(Locale.getDefault(), "当日步数: %d", mStepCounter.getStepCount())).build();
     }
 
     public final class RunnerManagerImpl extends RunnerManager.Stub {
 
         @Override
         public long getStepCount() throws RemoteException {
-            return mStepCount;
+            return mStepCounter.getStepCount();
         }
 
         @Override
@@ -243,30 +374,148 @@ public class RunnerService extends Service {
                 mCallbacks.unregister(callback);
             }
         }
-    }
 
-    /**
-     * dispatch {@link CallbackRunnable#run(Object)} on main thread. But consider {@link RunnerService} could be remote process
-     * it still possible become non-main thread in client invoke
-     */
-    private void dispatchCallback(final CallbackRunnable<RunnerCallback> runnable) {
-        mMainHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                final int number = mCallbacks.beginBroadcast();
-                for (int i = 0; i < number; i++) {
+        @Override
+        public void setRealtimeSampling(final IBinder token, final boolean realtime) throws RemoteException {
+            if (token == null) {
+                throw new IllegalArgumentException("token cannot be null");
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    updateRealtimeRequest(token, realtime);
+                }
+            });
+        }
+
+        @Override
+        public ParcelFileDescriptor openStepHistory(final IBinder token, final int type, final long from, final long to)
+                throws RemoteException {
+            if (token == null) {
+                throw new IllegalArgumentException("token cannot be null");
+            }
+            if (!StepHistoryReader.isValidType(type)) {
+                throw new IllegalArgumentException("Unknown history type: " + type);
+            }
+            final ParcelFileDescriptor[] pipe;
+            try {
+                pipe = ParcelFileDescriptor.createPipe();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot create pipe", e);
+            }
+            // 服务端只持有写端，返回值写入Parcel后binder会关闭服务端的读端，客户端关闭读端后写入以EPIPE失败
+            final CancellableOutputStream output = new CancellableOutputStream(new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]));
+            final HistoryStream stream = new HistoryStream(token, output);
+            try {
+                token.linkToDeath(stream, 0);
+            } catch (RemoteException e) {
+                // 客户端已经死亡
+                closeQuietly(output);
+                try {
+                    pipe[0].close();
+                } catch (IOException ignore) {
+                }
+                throw e;
+            }
+            HistoryStream previous;
+            synchronized (mHistoryStreams) {
+                previous = mHistoryStreams.put(token, stream);
+            }
+            if (previous != null) {
+                previous.cancel();
+            }
+            // 尽量让缓冲区中的记录先写入数据库
+            mStepRecordWriter.flush();
+            Schedulers.io().scheduleDirect(new Runnable() {
+                @Override
+                public void run() {
                     try {
-                        runnable.run(mCallbacks.getBroadcastItem(i));
-                    } catch (RemoteException ignore) {
+                        new StepHistoryWriter(mStepRepository).write(type, from, to, output);
+                    } catch (IOException e) {
+                        Log.d("Hans", "RunnerService#openStepHistory: client closed, " + e.getMessage());
+                    } finally {
+                        removeHistoryStream(stream);
+                        closeQuietly(output);
                     }
                 }
-                mCallbacks.finishBroadcast();
+            });
+            return pipe[0];
+        }
+
+        @Override
+        public void cancelStepHistory(IBinder token) throws RemoteException {
+            HistoryStream stream;
+            synchronized (mHistoryStreams) {
+                stream = mHistoryStreams.get(token);
+            }
+            if (stream != null) {
+                stream.cancel();
+            }
+        }
+    }
+
+    /**
+     * 写入结束后在io线程调用，同一token已经开始新的读取时只解除自己的死亡监听
+     */
+    private void removeHistoryStream(HistoryStream stream) {
+        synchronized (mHistoryStreams) {
+            if (mHistoryStreams.get(stream.mToken) == stream) {
+                mHistoryStreams.remove(stream.mToken);
             }
-        });
+        }
+        stream.mToken.unlinkToDeath(stream, 0);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignore) {
+        }
     }
 
-    interface CallbackRunnable<T> {
+    /**
+     * 一次历史数据读取，客户端取消或进程死亡时停止写入
+     */
+    private static class HistoryStream implements IBinder.DeathRecipient {
+
+        private final IBinder                 mToken;
+        private final CancellableOutputStream mOutput;
+
+        HistoryStream(IBinder token, CancellableOutputStream output) {
+            this.mToken = token;
+            this.mOutput = output;
+        }
+
+        void cancel() {
+            mOutput.cancel();
+        }
 
-        void run(T callback) throws RemoteException;
+        /**
+         * 进程死亡时内核关闭读端，阻塞的写入会以EPIPE返回，之后由io线程移除
+         */
+        @Override
+        public void binderDied() {
+            cancel();
+        }
     }
+
+    /**
+     * 在回调线程中广播步数，如果{@link RunnerService}运行在远程进程，客户端会在binder线程收到回调
+     */
+    private StepCallbackDispatcher.Broadcaster mBroadcaster = new StepCallbackDispatcher.Broadcaster() {
+        @Override
+        public int broadcast(long stepCount) {
+            int delivered = 0;
+            final int number = mCallbacks.beginBroadcast();
+            for (int i = 0; i < number; i++) {
+                try {
+                    mCallbacks.getBroadcastItem(i).onStepUpdate(stepCount);
+                    delivered++;
+                } catch (RemoteException ignore) {
+                }
+            }
+            mCallbacks.finishBroadcast();
+            return delivered;
+        }
+    };
 }
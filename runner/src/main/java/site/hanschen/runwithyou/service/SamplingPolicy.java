@@ -0,0 +1,28 @@
+package site.hanschen.runwithyou.service;
+
+/**
+ * 根据屏幕状态和客户端的需求选择计步传感器的采样方式，所有方法都在同一个线程调用
+ *
+ * @author HansChen
+ */
+public interface SamplingPolicy {
+
+    void onScreenStateChanged(boolean screenOn);
+
+    /**
+     * 客户端通过{@link RunnerManager#setRealtimeSampling(android.os.IBinder, boolean)}请求实时上报步数
+     *
+     * @param realtime 是否有任一客户端正在请求
+     */
+    void onRealtimeRequested(boolean realtime);
+
+    /**
+     * @return 当前应该使用的采样方式
+     */
+    SensorSampling getSampling();
+
+    /**
+     * @return 在没有新事件的情况下，多久之后采样方式可能改变(毫秒)，-1表示不会改变
+     */
+    long getReevaluateDelay();
+}
@@ -0,0 +1,55 @@
+package site.hanschen.runwithyou.service;
+
+import android.hardware.SensorManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 计步传感器的注册参数，见{@link SensorManager#registerListener(android.hardware.SensorEventListener, android.hardware.Sensor, int, int)}
+ *
+ * @author HansChen
+ */
+public final class SensorSampling {
+
+    /**
+     * 界面正在显示步数，每一步都立即上报
+     */
+    public static final SensorSampling REALTIME = new SensorSampling("realtime", SensorManager.SENSOR_DELAY_GAME, 0);
+
+    /**
+     * 亮屏但没有界面关注步数，延迟与写入数据库的间隔一致
+     */
+    public static final SensorSampling NORMAL = new SensorSampling("normal",
+                                                                   SensorManager.SENSOR_DELAY_NORMAL,
+                                                                   (int) TimeUnit.SECONDS.toMicros(10));
+
+    /**
+     * 灭屏，事件缓存在传感器硬件FIFO中批量上报，尽量不唤醒CPU
+     */
+    public static final SensorSampling BATCHED = new SensorSampling("batched",
+                                                                    SensorManager.SENSOR_DELAY_NORMAL,
+                                                                    (int) TimeUnit.MINUTES.toMicros(5));
+
+    private final String mName;
+    private final int    mSamplingPeriodUs;
+    private final int    mMaxReportLatencyUs;
+
+    private SensorSampling(String name, int samplingPeriodUs, int maxReportLatencyUs) {
+        this.mName = name;
+        this.mSamplingPeriodUs = samplingPeriodUs;
+        this.mMaxReportLatencyUs = maxReportLatencyUs;
+    }
+
+    public int getSamplingPeriodUs() {
+        return mSamplingPeriodUs;
+    }
+
+    public int getMaxReportLatencyUs() {
+        return mMaxReportLatencyUs;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
@@ -0,0 +1,136 @@
+package site.hanschen.runwithyou.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Scheduler;
+import site.hanschen.runwithyou.utils.Clock;
+
+/**
+ * 合并步数回调：只保留最新的步数，每个帧间隔内最多广播一次，广播在调用方提供的{@link Scheduler}(通常是专用的HandlerThread)上执行。
+ * 传感器上报很频繁，每次广播对每个客户端都是一次binder调用，合并后可以大幅减少跨进程调用，界面刷新不会有明显延迟。
+ * 帧间隔按{@link Clock}的单调时间计算，{@link Scheduler#now(TimeUnit)}是墙上时间，调整系统时间时会让广播停顿
+ *
+ * @author HansChen
+ */
+public class StepCallbackDispatcher {
+
+    public static final long DEFAULT_FRAME_INTERVAL = 100;
+
+    public interface Broadcaster {
+
+        /**
+         * 把步数广播给所有客户端，在{@link Scheduler}的线程中调用
+         *
+         * @return 成功回调的客户端个数
+         */
+        int broadcast(long stepCount);
+    }
+
+    private final Broadcaster      mBroadcaster;
+    private final Scheduler.Worker mWorker;
+    private final Clock            mClock;
+    private final long             mFrameIntervalMillis;
+
+    private final AtomicLong    mPendingStepCount = new AtomicLong();
+    private final AtomicBoolean mScheduled        = new AtomicBoolean();
+    private volatile long       mNextFrameTime    = Long.MIN_VALUE;
+    private          long       mLastStepCount;
+    private          boolean    mHasBroadcast;
+
+    private final AtomicLong mRequestedCount   = new AtomicLong();
+    private final AtomicLong mBroadcastCount   = new AtomicLong();
+    private final AtomicLong mTransactionCount = new AtomicLong();
+
+    public StepCallbackDispatcher(Broadcaster broadcaster, Scheduler scheduler) {
+        this(broadcaster, scheduler, Clock.SYSTEM, DEFAULT_FRAME_INTERVAL);
+    }
+
+    /**
+     * @param frameIntervalMillis 两次广播之间的最小间隔
+     */
+    public StepCallbackDispatcher(Broadcaster broadcaster, Scheduler scheduler, Clock clock, long frameIntervalMillis) {
+        if (frameIntervalMillis < 0) {
+            throw new IllegalArgumentException("frameIntervalMillis must not be negative: " + frameIntervalMillis);
+        }
+        this.mBroadcaster = broadcaster;
+        this.mWorker = scheduler.createWorker();
+        this.mClock = clock;
+        this.mFrameIntervalMillis = frameIntervalMillis;
+    }
+
+    /**
+     * 提交最新步数，可以在任意线程调用
+     */
+    public void dispatch(long stepCount) {
+        mPendingStepCount.set(stepCount);
+        mRequestedCount.incrementAndGet();
+        if (mScheduled.compareAndSet(false, true)) {
+            long delay = Math.max(0, mNextFrameTime - mClock.elapsedRealtime());
+            mWorker.schedule(mBroadcastRunnable, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 停止广播，尚未执行的广播会被丢弃
+     */
+    public void close() {
+        mWorker.dispose();
+    }
+
+    /**
+     * @return 提交的步数更新次数
+     */
+    public long getRequestedCount() {
+        return mRequestedCount.get();
+    }
+
+    /**
+     * @return 实际执行的广播次数
+     */
+    public long getBroadcastCount() {
+        return mBroadcastCount.get();
+    }
+
+    /**
+     * @return 被合并掉、没有单独广播的步数更新次数
+     */
+    public long getCoalescedCount() {
+        return mRequestedCount.get() - mBroadcastCount.get();
+    }
+
+    /**
+     * @return 回调客户端的总次数，即binder调用次数
+     */
+    public long getTransactionCount() {
+        return mTransactionCount.get();
+    }
+
+    private final Runnable mBroadcastRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // 先更新下一帧的时间再清除标记，保证之后提交的更新不会早于下一帧广播
+            mNextFrameTime = mClock.elapsedRealtime() + mFrameIntervalMillis;
+            mScheduled.set(false);
+            long stepCount = mPendingStepCount.get();
+            if (mHasBroadcast && stepCount == mLastStepCount) {
+                return;
+            }
+            mHasBroadcast = true;
+            mLastStepCount = stepCount;
+            mBroadcastCount.incrementAndGet();
+            mTransactionCount.addAndGet(mBroadcaster.broadcast(stepCount));
+        }
+    };
+
+    @Override
+    public String toString() {
+        return "StepCallbackDispatcher{" +
+                "requested=" + getRequestedCount() +
+                ", broadcast=" + getBroadcastCount() +
+                ", coalesced=" + getCoalescedCount() +
+                ", transactions=" + getTransactionCount() +
+                '}';
+    }
+}
@@ -0,0 +1,117 @@
+package site.hanschen.runwithyou.service;
+
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.utils.Clock;
+import site.hanschen.runwithyou.utils.TimeUtils;
+
+/**
+ * 根据计步传感器上报的开机以来步数计算当日步数，并按间隔生成计步记录。不依赖Android框架，
+ * 只在传感器回调线程调用{@link #update(long, long)}和{@link #record(long)}
+ *
+ * @author HansChen
+ */
+public class StepCounter {
+
+    public static final long UNINITIALIZED_VALUE     = -1;
+    public static final long DEFAULT_INSERT_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    public interface RecordSink {
+
+        /**
+         * @return 最后一条记录，没有记录时返回null
+         */
+        @Nullable
+        StepRecord getLatestRecord();
+
+        /**
+         * 追加一条记录，不能阻塞在磁盘IO上
+         */
+        boolean append(StepRecord record);
+    }
+
+    private final RecordSink mSink;
+    private final Clock      mClock;
+    private final long       mInsertIntervalMillis;
+
+    private volatile long mStepCount            = UNINITIALIZED_VALUE;
+    private          long mLastCountSinceReboot = UNINITIALIZED_VALUE;
+    private          long mLastInsertTime       = UNINITIALIZED_VALUE;
+
+    public StepCounter(RecordSink sink, Clock clock) {
+        this(sink, clock, DEFAULT_INSERT_INTERVAL);
+    }
+
+    /**
+     * @param insertIntervalMillis 两条记录之间的最小间隔
+     */
+    public StepCounter(RecordSink sink, Clock clock, long insertIntervalMillis) {
+        this.mSink = sink;
+        this.mClock = clock;
+        this.mInsertIntervalMillis = insertIntervalMillis;
+    }
+
+    /**
+     * 处理一次传感器上报
+     *
+     * @return 当日步数
+     */
+    public long update(long countSinceReboot, long currentTimeMillis) {
+        if (mStepCount == UNINITIALIZED_VALUE) {
+            mStepCount = calcStepOfDay(countSinceReboot, currentTimeMillis);
+        } else {
+            mStepCount = mStepCount + countSinceReboot - mLastCountSinceReboot;
+        }
+        mLastCountSinceReboot = countSinceReboot;
+        return mStepCount;
+    }
+
+    /**
+     * 距离上一条记录超过插入间隔时，把当前步数追加到{@link RecordSink}
+     *
+     * @return 是否追加了记录
+     */
+    public boolean record(long currentTimeMillis) {
+        if (mStepCount == UNINITIALIZED_VALUE) {
+            return false;
+        }
+        if (mLastInsertTime == UNINITIALIZED_VALUE || currentTimeMillis - mLastInsertTime >= mInsertIntervalMillis) {
+            mSink.append(new StepRecord(mLastCountSinceReboot, currentTimeMillis, mStepCount));
+            mLastInsertTime = currentTimeMillis;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return 当日步数，还没有收到传感器上报时返回{@link #UNINITIALIZED_VALUE}，可以在任意线程调用
+     */
+    public long getStepCount() {
+        return mStepCount;
+    }
+
+    /**
+     * 服务启动后第一次上报时，根据最后一条记录和开机时间推算当日步数
+     */
+    public long calcStepOfDay(long countSinceReboot, long currentTimeMillis) {
+        long bootTime = currentTimeMillis - mClock.elapsedRealtime();
+        StepRecord record = mSink.getLatestRecord();
+
+        if (record == null || !TimeUtils.isSameDayOfMillis(record.getStepTime(), currentTimeMillis)) {
+            if (TimeUtils.isSameDayOfMillis(bootTime, currentTimeMillis)) {
+                return countSinceReboot;
+            } else {
+                return 0;
+            }
+        }
+
+        if (bootTime > record.getStepTime()) {
+            return countSinceReboot + record.getStepCount();
+        } else {
+            return record.getStepCount() + countSinceReboot - record.getCountSinceReboot();
+        }
+    }
+}
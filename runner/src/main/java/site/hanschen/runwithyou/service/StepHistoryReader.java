@@ -0,0 +1,169 @@
+package site.hanschen.runwithyou.service;
+
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.bean.StepTotal;
+
+/**
+ * 读取{@link RunnerManager#openStepHistory(android.os.IBinder, int, long, long)}返回的历史数据流，数据由{@link StepHistoryWriter}写入。
+ * 读取会阻塞直到服务端写入数据，不要在主线程调用
+ * <p>
+ * 格式(大端): 魔数, 类型, 若干页[记录数n(0, MAX_PAGE_SIZE], n条记录], 结束标记0；服务端出错时以-1和错误信息结束。
+ * 记录数或数据不合法时抛出{@link IOException}，不会把错位的数据当作记录返回
+ *
+ * @author HansChen
+ */
+public class StepHistoryReader implements Closeable {
+
+    /**
+     * 原始记录，每条记录: stepTime, countSinceReboot, stepCount
+     */
+    public static final int TYPE_RECORD = 0;
+    /**
+     * 每分钟汇总，每条记录: startTime, stepCount
+     */
+    public static final int TYPE_MINUTE = 1;
+    public static final int TYPE_HOUR   = 2;
+    public static final int TYPE_DAY    = 3;
+
+    /**
+     * 一页的最大记录数，按分钟汇总时一页是一天，最多1440条
+     */
+    public static final int MAX_PAGE_SIZE = 2048;
+
+    static final int MAGIC       = 0x52575948;
+    static final int END_OF_DATA = 0;
+    static final int ERROR       = -1;
+
+    private final DataInputStream mInput;
+    private final int             mType;
+    private       int             mRemaining;
+    private       boolean         mFinished;
+    /* 上一条数据的时间，数据按时间顺序写入 */
+    private       long            mLastTime = -1;
+
+    public StepHistoryReader(ParcelFileDescriptor fd) throws IOException {
+        this(new ParcelFileDescriptor.AutoCloseInputStream(fd));
+    }
+
+    public StepHistoryReader(InputStream input) throws IOException {
+        this.mInput = new DataInputStream(new BufferedInputStream(input));
+        try {
+            if (mInput.readInt() != MAGIC) {
+                throw new IOException("Not a step history stream");
+            }
+            this.mType = mInput.readInt();
+            if (!isValidType(mType)) {
+                throw new IOException("Unknown history type: " + mType);
+            }
+        } catch (IOException e) {
+            mInput.close();
+            throw e;
+        }
+    }
+
+    public static boolean isValidType(int type) {
+        return type >= TYPE_RECORD && type <= TYPE_DAY;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return 下一条原始记录，读完返回null
+     */
+    @Nullable
+    public StepRecord readRecord() throws IOException {
+        checkType(mType == TYPE_RECORD);
+        if (!nextEntry()) {
+            return null;
+        }
+        long stepTime = mInput.readLong();
+        long countSinceReboot = mInput.readLong();
+        long stepCount = mInput.readLong();
+        // 原始记录按(时间, 序号)排序，时间可以重复
+        checkTime(stepTime, stepTime >= mLastTime);
+        checkValue(countSinceReboot >= 0 && stepCount >= 0, "Invalid step count");
+        return new StepRecord(countSinceReboot, stepTime, stepCount);
+    }
+
+    /**
+     * @return 下一条汇总，读完返回null
+     */
+    @Nullable
+    public StepTotal readTotal() throws IOException {
+        checkType(mType != TYPE_RECORD);
+        if (!nextEntry()) {
+            return null;
+        }
+        long startTime = mInput.readLong();
+        long stepCount = mInput.readLong();
+        // 每个时间窗口只有一条汇总
+        checkTime(startTime, startTime > mLastTime);
+        checkValue(stepCount >= 0, "Invalid step count");
+        return new StepTotal(startTime, stepCount);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+
+    private boolean nextEntry() throws IOException {
+        if (mFinished) {
+            return false;
+        }
+        try {
+            if (mRemaining == 0) {
+                int count = mInput.readInt();
+                if (count == END_OF_DATA) {
+                    mFinished = true;
+                    return false;
+                }
+                if (count == ERROR) {
+                    mFinished = true;
+                    throw new IOException("Step history failed: " + mInput.readUTF());
+                }
+                checkValue(count > 0 && count <= MAX_PAGE_SIZE, "Invalid page size: " + count);
+                mRemaining = count;
+            }
+        } catch (EOFException e) {
+            // 服务端异常退出时没有写入结束标记
+            mFinished = true;
+            throw new IOException("Step history truncated", e);
+        }
+        mRemaining--;
+        return true;
+    }
+
+    private void checkTime(long time, boolean ordered) throws IOException {
+        checkValue(time >= 0 && ordered, "Invalid time: " + time);
+        mLastTime = time;
+    }
+
+    /**
+     * 数据不合法说明流已经错位或损坏，之后的数据都不可信
+     */
+    private void checkValue(boolean expression, String message) throws IOException {
+        if (!expression) {
+            mFinished = true;
+            throw new IOException(message);
+        }
+    }
+
+    private void checkType(boolean expression) {
+        if (!expression) {
+            throw new IllegalStateException("Wrong read method for history type " + mType);
+        }
+    }
+}
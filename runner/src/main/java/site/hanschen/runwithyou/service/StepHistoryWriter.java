@@ -0,0 +1,154 @@
+package site.hanschen.runwithyou.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.bean.StepTotal;
+import site.hanschen.runwithyou.database.repository.StepRepository;
+import site.hanschen.runwithyou.utils.TimeUtils;
+
+import static site.hanschen.runwithyou.service.StepHistoryReader.END_OF_DATA;
+import static site.hanschen.runwithyou.service.StepHistoryReader.ERROR;
+import static site.hanschen.runwithyou.service.StepHistoryReader.MAGIC;
+import static site.hanschen.runwithyou.service.StepHistoryReader.MAX_PAGE_SIZE;
+import static site.hanschen.runwithyou.service.StepHistoryReader.TYPE_DAY;
+import static site.hanschen.runwithyou.service.StepHistoryReader.TYPE_HOUR;
+import static site.hanschen.runwithyou.service.StepHistoryReader.TYPE_MINUTE;
+import static site.hanschen.runwithyou.service.StepHistoryReader.TYPE_RECORD;
+
+/**
+ * 把{@link StepRepository}中的历史数据分页写入流，格式见{@link StepHistoryReader}。
+ * 每次只从数据库读取一页，管道写满时阻塞，内存占用与时间范围无关
+ *
+ * @author HansChen
+ */
+public class StepHistoryWriter {
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private final StepRepository mRepository;
+    private final int            mPageSize;
+
+    public StepHistoryWriter(StepRepository repository) {
+        this(repository, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param pageSize 每页的记录数，不能超过{@link StepHistoryReader#MAX_PAGE_SIZE}
+     */
+    public StepHistoryWriter(StepRepository repository, int pageSize) {
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+        this.mRepository = repository;
+        this.mPageSize = pageSize;
+    }
+
+    /**
+     * 写入时间在[from, to)内的数据，不关闭输出流
+     *
+     * @throws IOException 客户端提前关闭了流
+     */
+    public void write(int type, long from, long to, OutputStream output) throws IOException {
+        if (!StepHistoryReader.isValidType(type)) {
+            throw new IllegalArgumentException("Unknown history type: " + type);
+        }
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output));
+        data.writeInt(MAGIC);
+        data.writeInt(type);
+        try {
+            switch (type) {
+                case TYPE_RECORD:
+                    writeRecords(data, from, to);
+                    break;
+                case TYPE_MINUTE:
+                    // 一天最多1440条
+                    writeTotals(data, type, from, to, TimeUnit.DAYS.toMillis(1));
+                    break;
+                case TYPE_HOUR:
+                    writeTotals(data, type, from, to, TimeUnit.DAYS.toMillis(30));
+                    break;
+                default:
+                    writeTotals(data, type, from, to, TimeUnit.DAYS.toMillis(mPageSize));
+                    break;
+            }
+            data.writeInt(END_OF_DATA);
+        } catch (RuntimeException e) {
+            data.writeInt(ERROR);
+            data.writeUTF(String.valueOf(e.getMessage()));
+        }
+        data.flush();
+    }
+
+    /**
+     * 按(stepTime, 序号)分页，时间相同的记录跨页时不会丢失
+     */
+    private void writeRecords(DataOutputStream data, long from, long to) throws IOException {
+        long start = from;
+        long afterSequence = 0;
+        while (start < to) {
+            List<StepRecord> page = mRepository.getRecords(start, afterSequence, to, mPageSize);
+            if (page.isEmpty()) {
+                return;
+            }
+            data.writeInt(page.size());
+            for (StepRecord record : page) {
+                data.writeLong(record.getStepTime());
+                data.writeLong(record.getCountSinceReboot());
+                data.writeLong(record.getStepCount());
+            }
+            if (page.size() < mPageSize) {
+                return;
+            }
+            StepRecord last = page.get(page.size() - 1);
+            start = last.getStepTime();
+            afterSequence = last.getSequence();
+        }
+    }
+
+    /**
+     * 汇总表按时间窗口分页，每个窗口查询一次
+     */
+    private void writeTotals(DataOutputStream data, int type, long from, long to, long window) throws IOException {
+        // 把范围收缩到有数据的区间，客户端可以传入[0, Long.MAX_VALUE)读取全部历史
+        List<StepRecord> first = mRepository.getRecords(from, 0, to, 1);
+        StepRecord latest = mRepository.getLatestRecord();
+        if (first.isEmpty() || latest == null) {
+            return;
+        }
+        from = Math.max(from, TimeUtils.startOfDay(first.get(0).getStepTime()));
+        to = Math.min(to, latest.getStepTime() + 1);
+        long end;
+        for (long start = from; start < to; start = end) {
+            end = to - start <= window ? to : start + window;
+            List<StepTotal> page;
+            switch (type) {
+                case TYPE_MINUTE:
+                    page = mRepository.getMinuteTotals(start, end);
+                    break;
+                case TYPE_HOUR:
+                    page = mRepository.getHourlyTotals(start, end);
+                    break;
+                default:
+                    page = mRepository.getDailyTotals(start, end);
+                    break;
+            }
+            if (page.isEmpty()) {
+                continue;
+            }
+            if (page.size() > MAX_PAGE_SIZE) {
+                throw new IllegalStateException("Too many totals in window: " + page.size());
+            }
+            data.writeInt(page.size());
+            for (StepTotal total : page) {
+                data.writeLong(total.getStartTime());
+                data.writeLong(total.getStepCount());
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package site.hanschen.runwithyou.sync;
+
+import java.net.ProtocolException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import site.hanschen.runwithyou.bluetooth.Frame;
+
+/**
+ * 多人跑模式下hub发给每个成员的全体步数，格式为：
+ * <pre>
+ * [接收方的成员编号][成员数]{[成员编号][步数]}...
+ * </pre>
+ * 都是变长整数，{@link GroupStepHub#HOST_ID}表示hub自己
+ *
+ * @author HansChen
+ */
+public final class GroupState {
+
+    private final int                mSelfId;
+    private final Map<Integer, Long> mSteps;
+
+    private GroupState(int selfId, Map<Integer, Long> steps) {
+        this.mSelfId = selfId;
+        this.mSteps = Collections.unmodifiableMap(steps);
+    }
+
+    /**
+     * @return 接收方自己的成员编号
+     */
+    public int getSelfId() {
+        return mSelfId;
+    }
+
+    /**
+     * @return 按成员编号排序的步数
+     */
+    public Map<Integer, Long> getSteps() {
+        return mSteps;
+    }
+
+    public static boolean isGroupState(Frame frame) {
+        return frame.getType() == GroupStepHub.TYPE_GROUP_STATE;
+    }
+
+    public static GroupState read(Frame frame) throws ProtocolException {
+        if (!isGroupState(frame)) {
+            throw new ProtocolException("Not a group state frame: " + frame.getType());
+        }
+        Varint.Reader reader = new Varint.Reader(frame.getPayload(), frame.getLength());
+        int selfId = (int) reader.read();
+        long count = reader.read();
+        if (count > frame.getLength()) {
+            throw new ProtocolException("Bad member count: " + count);
+        }
+        Map<Integer, Long> steps = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            int id = (int) reader.read();
+            steps.put(id, reader.read());
+        }
+        return new GroupState(selfId, steps);
+    }
+
+    /**
+     * 写入除接收方编号以外的部分，所有成员共用
+     *
+     * @return 写入后的位置
+     */
+    static int writeMembers(Map<Integer, Long> steps, byte[] dst, int position) {
+        position = Varint.write(steps.size(), dst, position);
+        for (Map.Entry<Integer, Long> entry : steps.entrySet()) {
+            position = Varint.write(entry.getKey(), dst, position);
+            position = Varint.write(entry.getValue(), dst, position);
+        }
+        return position;
+    }
+
+    @Override
+    public String toString() {
+        return "GroupState{" + "selfId=" + mSelfId + ", steps=" + mSteps + '}';
+    }
+}
@@ -0,0 +1,310 @@
+package site.hanschen.runwithyou.sync;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import site.hanschen.runwithyou.bluetooth.BluetoothControler;
+import site.hanschen.runwithyou.bluetooth.BluetoothHub;
+import site.hanschen.runwithyou.bluetooth.BluetoothListener;
+import site.hanschen.runwithyou.bluetooth.Frame;
+import site.hanschen.runwithyou.bluetooth.HubListener;
+import site.hanschen.runwithyou.bluetooth.SendMetrics;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+import site.hanschen.runwithyou.utils.Clock;
+
+/**
+ * 多人跑模式的hub端，汇总所有成员的步数后发给每个成员。
+ * <p>
+ * 和每个成员之间各运行一个{@link StepSyncEngine}，成员端和双人跑模式一样使用{@link StepSyncEngine}，
+ * 另外会收到{@link GroupState}。全体步数变化后按{@link StepSyncEngine#MIN_SEND_INTERVAL}合并发送，
+ * 发送队列满的成员本次被跳过，等它可写后只补发最新的一次，不会拖慢其他成员。
+ * <p>
+ * 所有方法都需要在{@link Scheduler}的线程中调用，{@link BluetoothHub}的回调也需要在这个线程中执行
+ *
+ * @author HansChen
+ */
+public class GroupStepHub {
+
+    public static final int TYPE_GROUP_STATE = 0x14;
+
+    /**
+     * hub自己的成员编号，{@link BluetoothHub}分配的编号从1开始
+     */
+    public static final int HOST_ID = 0;
+
+    public interface Listener {
+
+        /**
+         * 成员的步数发生变化，包括新加入的成员
+         */
+        void onMemberStepChanged(int memberId, long stepCount);
+
+        void onMemberLeft(int memberId);
+
+        /**
+         * 第一个成员连接时为true，最后一个成员断开或{@link #stop()}时为false。
+         * 有成员期间应该通过RunnerManager#setRealtimeSampling请求实时上报步数，否则灭屏后成员只能成批收到步数
+         */
+        void onSessionActiveChanged(boolean active);
+    }
+
+    private final BluetoothHub                 mHub;
+    private final Scheduler                    mScheduler;
+    private final Clock                        mClock;
+    private final Listener                     mListener;
+    private final Map<Integer, StepSyncEngine> mEngines     = new HashMap<>();
+    private final Map<Integer, Long>           mSteps       = new TreeMap<>();
+    private final Set<Integer>                 mStalePeers  = new HashSet<>();
+    private final byte[]                       mBuffer      = new byte[Frame.MAX_PAYLOAD];
+    private final byte[]                       mSelfIdBytes = new byte[Varint.MAX_SIZE];
+
+    private Scheduler.Worker mWorker;
+    private boolean          mBroadcastScheduled;
+    private long             mNextBroadcastTime;
+    private int              mStateOffset;
+    private int              mStateLength;
+
+    private long mStatesSent;
+    private long mStatesSkipped;
+
+    public GroupStepHub(BluetoothHub hub, Scheduler scheduler, Listener listener) {
+        this(hub, scheduler, Clock.SYSTEM, listener);
+    }
+
+    public GroupStepHub(BluetoothHub hub, Scheduler scheduler, Clock clock, Listener listener) {
+        this.mHub = hub;
+        this.mScheduler = scheduler;
+        this.mClock = clock;
+        this.mListener = listener;
+    }
+
+    /**
+     * 开始接受成员的连接
+     */
+    public void start(boolean secure) {
+        stop();
+        mWorker = mScheduler.createWorker();
+        mHub.registerListener(mHubListener);
+        mHub.start(secure);
+    }
+
+    /**
+     * 断开所有成员
+     */
+    public void stop() {
+        if (mWorker == null) {
+            return;
+        }
+        mHub.stop();
+        mHub.clearListener();
+        for (StepSyncEngine engine : mEngines.values()) {
+            engine.stop();
+        }
+        boolean active = !mEngines.isEmpty();
+        mEngines.clear();
+        if (active) {
+            mListener.onSessionActiveChanged(false);
+        }
+        mStalePeers.clear();
+        Long host = mSteps.get(HOST_ID);
+        mSteps.clear();
+        if (host != null) {
+            mSteps.put(HOST_ID, host);
+        }
+        mWorker.dispose();
+        mWorker = null;
+        mBroadcastScheduled = false;
+    }
+
+    /**
+     * hub自己的步数更新
+     */
+    public void onLocalStepChanged(long stepCount) {
+        mSteps.put(HOST_ID, stepCount);
+        for (StepSyncEngine engine : mEngines.values()) {
+            engine.onLocalStepChanged(stepCount);
+        }
+        requestBroadcast();
+    }
+
+    /**
+     * @return 按成员编号排序的步数，包括hub自己
+     */
+    public Map<Integer, Long> getSteps() {
+        return new TreeMap<>(mSteps);
+    }
+
+    public int getMemberCount() {
+        return mEngines.size();
+    }
+
+    /**
+     * @return 发给每个成员的{@link GroupState}总数
+     */
+    public long getStatesSent() {
+        return mStatesSent;
+    }
+
+    /**
+     * @return 因为成员的发送队列满而跳过的次数
+     */
+    public long getStatesSkipped() {
+        return mStatesSkipped;
+    }
+
+    private final HubListener mHubListener = new HubListener() {
+        @Override
+        public void onPeerConnected(final int peerId, Device device) {
+            StepSyncEngine engine = new StepSyncEngine(new PeerControler(peerId), mScheduler, mClock, new StepSyncEngine.Listener() {
+                @Override
+                public void onPartnerStepChanged(long stepCount) {
+                    mSteps.put(peerId, stepCount);
+                    mListener.onMemberStepChanged(peerId, stepCount);
+                    requestBroadcast();
+                }
+            });
+            Long host = mSteps.get(HOST_ID);
+            if (host != null) {
+                engine.onLocalStepChanged(host);
+            }
+            mEngines.put(peerId, engine);
+            if (mEngines.size() == 1) {
+                mListener.onSessionActiveChanged(true);
+            }
+            engine.start();
+            // 新成员需要完整的全体步数
+            requestBroadcast();
+        }
+
+        @Override
+        public void onPeerDisconnected(int peerId) {
+            StepSyncEngine engine = mEngines.remove(peerId);
+            if (engine == null) {
+                return;
+            }
+            engine.stop();
+            mStalePeers.remove(peerId);
+            if (mSteps.remove(peerId) != null) {
+                mListener.onMemberLeft(peerId);
+                requestBroadcast();
+            }
+            if (mEngines.isEmpty()) {
+                mListener.onSessionActiveChanged(false);
+            }
+        }
+
+        @Override
+        public void onDataReceived(int peerId, Frame frame) {
+            StepSyncEngine engine = mEngines.get(peerId);
+            if (engine != null) {
+                engine.onFrameReceived(frame);
+            }
+        }
+
+        @Override
+        public void onPeerWritable(int peerId) {
+            StepSyncEngine engine = mEngines.get(peerId);
+            if (engine == null) {
+                return;
+            }
+            engine.onWritable();
+            if (mStalePeers.contains(peerId) && !mBroadcastScheduled && mStateLength > 0) {
+                // 没有待发送的更新时，只给这个成员补发上一次的全体步数
+                sendState(peerId);
+            }
+        }
+    };
+
+    private void requestBroadcast() {
+        if (mWorker == null || mBroadcastScheduled) {
+            return;
+        }
+        mBroadcastScheduled = true;
+        long delay = Math.max(0, mNextBroadcastTime - mClock.elapsedRealtime());
+        mWorker.schedule(mBroadcastRunnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private final Runnable mBroadcastRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mBroadcastScheduled = false;
+            mNextBroadcastTime = mClock.elapsedRealtime() + StepSyncEngine.MIN_SEND_INTERVAL;
+            // 成员共用的部分只编码一次，前面留出接收方编号的位置
+            mStateOffset = Varint.MAX_SIZE;
+            mStateLength = GroupState.writeMembers(mSteps, mBuffer, mStateOffset) - mStateOffset;
+            for (int peerId : mEngines.keySet()) {
+                sendState(peerId);
+            }
+        }
+    };
+
+    private void sendState(int peerId) {
+        int idLength = Varint.write(peerId, mSelfIdBytes, 0);
+        int offset = mStateOffset - idLength;
+        System.arraycopy(mSelfIdBytes, 0, mBuffer, offset, idLength);
+        if (mHub.sendData(peerId, TYPE_GROUP_STATE, mBuffer, offset, idLength + mStateLength)) {
+            mStatesSent++;
+            mStalePeers.remove(peerId);
+        } else {
+            mStatesSkipped++;
+            mStalePeers.add(peerId);
+        }
+    }
+
+    /**
+     * 把一个成员的连接包装成{@link StepSyncEngine}使用的{@link BluetoothControler}，
+     * 连接由{@link BluetoothHub}管理，这里只需要发送
+     */
+    private class PeerControler implements BluetoothControler {
+
+        private final int mPeerId;
+
+        PeerControler(int peerId) {
+            this.mPeerId = peerId;
+        }
+
+        @Override
+        public boolean sendData(int type, byte[] out) {
+            return sendData(type, out, 0, out.length);
+        }
+
+        @Override
+        public boolean sendData(int type, byte[] out, int offset, int length) {
+            return mHub.sendData(mPeerId, type, out, offset, length);
+        }
+
+        @Override
+        public SendMetrics getSendMetrics() {
+            return mHub.getSendMetrics(mPeerId);
+        }
+
+        @Override
+        public void listenInsecure(int timeout) {
+        }
+
+        @Override
+        public void listenSecure(int timeout) {
+        }
+
+        @Override
+        public void connect(Device device, boolean secure) {
+        }
+
+        @Override
+        public void registerListener(BluetoothListener listener) {
+        }
+
+        @Override
+        public void clearListener() {
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package site.hanschen.runwithyou.sync;
+
+import java.net.ProtocolException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import site.hanschen.runwithyou.bluetooth.BluetoothControler;
+import site.hanschen.runwithyou.bluetooth.Frame;
+import site.hanschen.runwithyou.utils.Clock;
+
+/**
+ * 双人跑模式下同步双方的步数，两端对称运行。
+ * <p>
+ * 平时只发送与上次发送值的差值(变长整数编码，通常只有几个字节)，每条消息带序号；
+ * 接收方发现序号不连续时请求全量快照，发送方也会在发送差值后定期补发快照，保证双方不会累积误差。
+ * <p>
+ * 发送频率自适应：本地步数不变时不发送；两次发送之间至少间隔当前的发送间隔，
+ * 发送队列满时间隔加倍，发送成功后减半，对方处理不过来时自动降低发送频率。
+ * 发送间隔按{@link Clock}的开机时间计算，不受系统时间调整影响。
+ * <p>
+ * 每次连接建立后双方先交换HELLO，带上自己的会话标识、记录的对方会话标识和期望收到的下一个序号。
+ * 重连到同一个会话时，发送方从对方确认的序号继续发送差值，不需要重新发送快照；对方是新的会话时才从快照开始。
+ * <p>
+ * 所有方法都需要在{@link Scheduler}的线程(通常是主线程)中调用
+ *
+ * @author HansChen
+ */
+public class StepSyncEngine {
+
+    public static final int TYPE_SNAPSHOT = 0x10;
+    public static final int TYPE_DELTA    = 0x11;
+    public static final int TYPE_RESYNC   = 0x12;
+    public static final int TYPE_HELLO    = 0x13;
+
+    public static final long MIN_SEND_INTERVAL = 250;
+    public static final long MAX_SEND_INTERVAL = 4000;
+    public static final long SNAPSHOT_INTERVAL = 15000;
+
+    /**
+     * 保留最近发送的消息数，重连时只能从这个范围内的序号继续
+     */
+    private static final int HISTORY_SIZE = 64;
+
+    public interface Listener {
+
+        /**
+         * 对方的步数发生变化
+         */
+        void onPartnerStepChanged(long stepCount);
+    }
+
+    private final BluetoothControler mControler;
+    private final Scheduler          mScheduler;
+    private final Clock              mClock;
+    private final Listener           mListener;
+    private final byte[]             mBuffer = new byte[Varint.MAX_SIZE * 3];
+    private final long               mSessionToken;
+    private final long[]             mSentHistory = new long[HISTORY_SIZE];
+
+    private Scheduler.Worker mWorker;
+    private boolean          mSendScheduled;
+    private boolean          mSnapshotScheduled;
+    private boolean          mHelloPending;
+    private boolean          mHandshakeDone;
+
+    // 发送状态
+    private boolean mHasLocal;
+    private long    mLocalStep;
+    private boolean mHasSent;
+    private long    mSentStep;
+    private long    mSequence;
+    private boolean mSnapshotRequested;
+    private int     mDeltasSinceSnapshot;
+    private long    mSendInterval;
+    private long    mNextSendTime;
+
+    // 接收状态
+    private long    mPeerToken;
+    private boolean mHasPartner;
+    private long    mPartnerStep;
+    private long    mExpectedSequence;
+    private boolean mResyncRequested;
+
+    private long mSnapshotsSent;
+    private long mDeltasSent;
+    private long mRejectedSends;
+    private long mResumedSessions;
+
+    public StepSyncEngine(BluetoothControler controler, Scheduler scheduler, Listener listener) {
+        this(controler, scheduler, Clock.SYSTEM, listener);
+    }
+
+    public StepSyncEngine(BluetoothControler controler, Scheduler scheduler, Clock clock, Listener listener) {
+        this.mControler = controler;
+        this.mScheduler = scheduler;
+        this.mClock = clock;
+        this.mListener = listener;
+        // 0表示不认识对方的会话
+        this.mSessionToken = (new Random().nextLong() & Long.MAX_VALUE) | 1;
+    }
+
+    /**
+     * 连接建立后调用，先交换HELLO，之后从上次的会话继续或者发送全量快照
+     */
+    public void start() {
+        stop();
+        mWorker = mScheduler.createWorker();
+        mHelloPending = true;
+        mHandshakeDone = false;
+        mSendInterval = MIN_SEND_INTERVAL;
+        mNextSendTime = 0;
+        mResyncRequested = false;
+        requestSend();
+    }
+
+    /**
+     * 连接断开后调用，取消所有定时任务
+     */
+    public void stop() {
+        if (mWorker != null) {
+            mWorker.dispose();
+            mWorker = null;
+        }
+        mSendScheduled = false;
+        mSnapshotScheduled = false;
+    }
+
+    /**
+     * 本地步数更新，未连接时只记录最新的步数
+     */
+    public void onLocalStepChanged(long stepCount) {
+        mLocalStep = stepCount;
+        mHasLocal = true;
+        requestSend();
+    }
+
+    /**
+     * 发送队列有空间了
+     */
+    public void onWritable() {
+        requestSend();
+    }
+
+    /**
+     * 处理对方发来的帧
+     *
+     * @return 是否为同步消息，其他类型的帧不处理
+     */
+    public boolean onFrameReceived(Frame frame) {
+        int type = frame.getType();
+        if (type != TYPE_SNAPSHOT && type != TYPE_DELTA && type != TYPE_RESYNC && type != TYPE_HELLO) {
+            return false;
+        }
+        if (type == TYPE_RESYNC) {
+            mSnapshotRequested = true;
+            requestSend();
+            return true;
+        }
+        if (type == TYPE_HELLO) {
+            onHelloReceived(frame);
+            return true;
+        }
+
+        long sequence;
+        long value;
+        try {
+            Varint.Reader reader = new Varint.Reader(frame.getPayload(), frame.getLength());
+            sequence = reader.read();
+            value = reader.read();
+        } catch (ProtocolException e) {
+            requestResync();
+            return true;
+        }
+        if (type == TYPE_SNAPSHOT) {
+            mResyncRequested = false;
+            mExpectedSequence = sequence + 1;
+            updatePartner(value);
+        } else if (mHasPartner && sequence == mExpectedSequence) {
+            mExpectedSequence++;
+            updatePartner(mPartnerStep + value);
+        } else {
+            // 丢失了消息，差值没有基准，等待快照
+            requestResync();
+        }
+        return true;
+    }
+
+    public boolean hasPartnerStep() {
+        return mHasPartner;
+    }
+
+    public long getPartnerStepCount() {
+        return mPartnerStep;
+    }
+
+    /**
+     * @return 当前的最小发送间隔
+     */
+    public long getSendInterval() {
+        return mSendInterval;
+    }
+
+    public long getSnapshotsSent() {
+        return mSnapshotsSent;
+    }
+
+    public long getDeltasSent() {
+        return mDeltasSent;
+    }
+
+    /**
+     * @return 发送队列满被拒绝的次数
+     */
+    public long getRejectedSends() {
+        return mRejectedSends;
+    }
+
+    /**
+     * @return 重连后从对方确认的序号继续发送、没有重新发送快照的次数
+     */
+    public long getResumedSessions() {
+        return mResumedSessions;
+    }
+
+    private void onHelloReceived(Frame frame) {
+        long peerToken;
+        long knownToken;
+        long peerExpected;
+        try {
+            Varint.Reader reader = new Varint.Reader(frame.getPayload(), frame.getLength());
+            peerToken = reader.read();
+            knownToken = reader.read();
+            peerExpected = reader.read();
+        } catch (ProtocolException e) {
+            peerToken = 0;
+            knownToken = 0;
+            peerExpected = 0;
+        }
+
+        // 接收方向：对方是新的会话，之前的步数和序号都作废，等待快照
+        if (peerToken != mPeerToken) {
+            mPeerToken = peerToken;
+            mHasPartner = false;
+            mExpectedSequence = 0;
+        }
+
+        // 发送方向：对方记得这个会话时，从对方期望的序号继续
+        boolean resumed = knownToken == mSessionToken && mHasSent && resume(peerExpected);
+        if (!resumed) {
+            mSnapshotRequested = true;
+        }
+        mHandshakeDone = true;
+        requestSend();
+    }
+
+    /**
+     * 回退到对方确认的序号，之后的差值以对方已知的步数为基准
+     *
+     * @return 对方确认的序号不在保留的范围内时返回false
+     */
+    private boolean resume(long expected) {
+        if (expected > mSequence || expected == 0 || mSequence - expected >= HISTORY_SIZE) {
+            return false;
+        }
+        mSentStep = mSentHistory[(int) ((expected - 1) % HISTORY_SIZE)];
+        mSequence = expected;
+        mResumedSessions++;
+        return true;
+    }
+
+    private boolean sendHello() {
+        int length = Varint.write(mSessionToken, mBuffer, 0);
+        length = Varint.write(mPeerToken, mBuffer, length);
+        length = Varint.write(mHasPartner ? mExpectedSequence : 0, mBuffer, length);
+        return mControler.sendData(TYPE_HELLO, mBuffer, 0, length);
+    }
+
+    private void updatePartner(long stepCount) {
+        boolean changed = !mHasPartner || stepCount != mPartnerStep;
+        mHasPartner = true;
+        mPartnerStep = stepCount;
+        if (changed) {
+            mListener.onPartnerStepChanged(stepCount);
+        }
+    }
+
+    private void requestResync() {
+        if (!mResyncRequested && mWorker != null) {
+            // 发送失败时不标记，下一条差值到达时再次请求
+            mResyncRequested = mControler.sendData(TYPE_RESYNC, mBuffer, 0, 0);
+        }
+    }
+
+    private void requestSend() {
+        if (mWorker == null || mSendScheduled) {
+            return;
+        }
+        mSendScheduled = true;
+        long delay = Math.max(0, mNextSendTime - mClock.elapsedRealtime());
+        mWorker.schedule(mSendRunnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private final Runnable mSendRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mSendScheduled = false;
+            if (mHelloPending) {
+                if (sendHello()) {
+                    mHelloPending = false;
+                } else {
+                    mRejectedSends++;
+                    mNextSendTime = mClock.elapsedRealtime() + mSendInterval;
+                    requestSend();
+                    return;
+                }
+            }
+            if (!mHandshakeDone || !mHasLocal) {
+                return;
+            }
+            // 步数减少(例如跨天清零)时差值无意义，改为发送快照
+            boolean snapshot = mSnapshotRequested || !mHasSent || mLocalStep < mSentStep;
+            if (!snapshot && mLocalStep == mSentStep) {
+                return;
+            }
+
+            long stepCount = mLocalStep;
+            int length = Varint.write(mSequence, mBuffer, 0);
+            length = Varint.write(snapshot ? stepCount : stepCount - mSentStep, mBuffer, length);
+            boolean sent = mControler.sendData(snapshot ? TYPE_SNAPSHOT : TYPE_DELTA, mBuffer, 0, length);
+            long now = mClock.elapsedRealtime();
+            if (sent) {
+                mSentHistory[(int) (mSequence % HISTORY_SIZE)] = stepCount;
+                mSequence++;
+                mHasSent = true;
+                mSentStep = stepCount;
+                if (snapshot) {
+                    mSnapshotsSent++;
+                    mSnapshotRequested = false;
+                    mDeltasSinceSnapshot = 0;
+                } else {
+                    mDeltasSent++;
+                    mDeltasSinceSnapshot++;
+                    scheduleSnapshot();
+                }
+                mSendInterval = Math.max(MIN_SEND_INTERVAL, mSendInterval / 2);
+            } else {
+                mRejectedSends++;
+                mSendInterval = Math.min(MAX_SEND_INTERVAL, mSendInterval * 2);
+            }
+            mNextSendTime = now + mSendInterval;
+            if (!sent) {
+                // 除了等待onWritable，也按新的间隔重试
+                requestSend();
+            }
+        }
+    };
+
+    /**
+     * 发送差值之后一段时间补发一次快照，之后没有新的差值就不再发送
+     */
+    private void scheduleSnapshot() {
+        if (mSnapshotScheduled) {
+            return;
+        }
+        mSnapshotScheduled = true;
+        mWorker.schedule(mSnapshotRunnable, SNAPSHOT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private final Runnable mSnapshotRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mSnapshotScheduled = false;
+            if (mDeltasSinceSnapshot > 0) {
+                mSnapshotRequested = true;
+                requestSend();
+            }
+        }
+    };
+}
@@ -0,0 +1,55 @@
+package site.hanschen.runwithyou.sync;
+
+import java.net.ProtocolException;
+
+/**
+ * 无符号变长整数编码(LEB128)，每个字节7位有效数据，小的数值只占1~2个字节
+ *
+ * @author HansChen
+ */
+final class Varint {
+
+    static final int MAX_SIZE = 10;
+
+    private Varint() {
+    }
+
+    /**
+     * @return 写入后的位置
+     */
+    static int write(long value, byte[] dst, int position) {
+        while ((value & ~0x7FL) != 0) {
+            dst[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dst[position++] = (byte) value;
+        return position;
+    }
+
+    static final class Reader {
+
+        private final byte[] mSrc;
+        private final int    mLimit;
+        private       int    mPosition;
+
+        Reader(byte[] src, int length) {
+            this.mSrc = src;
+            this.mLimit = length;
+        }
+
+        long read() throws ProtocolException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (mPosition >= mLimit) {
+                    throw new ProtocolException("Truncated varint");
+                }
+                byte b = mSrc[mPosition++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new ProtocolException("Malformed varint");
+        }
+    }
+}
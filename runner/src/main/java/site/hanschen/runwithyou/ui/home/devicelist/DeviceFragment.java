@@ -23,9 +23,7 @@ import android.widget.ProgressBar;
 import com.afollestad.materialdialogs.DialogAction;
 import com.afollestad.materialdialogs.MaterialDialog;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -34,6 +32,7 @@ import butterknife.ButterKnife;
 import site.hanschen.runwithyou.R;
 import site.hanschen.runwithyou.application.RunnerApplication;
 import site.hanschen.runwithyou.base.LazyFragment;
+import site.hanschen.runwithyou.bean.DeviceRecord;
 import site.hanschen.runwithyou.ui.home.devicelist.adapter.DeviceListAdapter;
 import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
 import site.hanschen.runwithyou.ui.home.doublerunner.DoubleRunnerActivity;
@@ -60,8 +59,7 @@ public class DeviceFragment extends LazyFragment implements DeviceListContract.V
     @BindView(R.id.device_list_discovery_status)
     ProgressBar  mDiscoveryStatus;
 
-    private DeviceCategory mCategory;
-    private List<Device> mDevices = new ArrayList<>();
+    private DeviceCategory    mCategory;
     private DeviceListAdapter mAdapter;
     @Inject
     DeviceListPresenter mPresenter;
@@ -181,6 +179,8 @@ public class DeviceFragment extends LazyFragment implements DeviceListContract.V
     protected void onFirstUserVisible() {
         if (mCategory == DeviceCategory.PAIRED) {
             mPresenter.loadPairedDevices();
+        } else if (mCategory == DeviceCategory.HISTORY) {
+            mPresenter.loadHistoryDevices();
         }
     }
 
@@ -220,18 +220,8 @@ public class DeviceFragment extends LazyFragment implements DeviceListContract.V
     }
 
     @Override
-    public void showAllDevice(Set<Device> devices) {
-        mDevices.clear();
-        mDevices.addAll(devices);
-        mAdapter.setData(mDevices);
-    }
-
-    @Override
-    public void addNewDevice(Device device) {
-        if (!mDevices.contains(device)) {
-            mDevices.add(device);
-            mAdapter.setData(mDevices);
-        }
+    public void showDevices(List<DeviceRecord> devices) {
+        mAdapter.setData(devices);
     }
 
     @Override
@@ -253,7 +243,8 @@ public class DeviceFragment extends LazyFragment implements DeviceListContract.V
             String action = intent.getAction();
             if (BluetoothDevice.ACTION_FOUND.equals(action)) {
                 BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                addNewDevice(new Device(device.getName(), device.getAddress()));
+                int rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, (short) DeviceRecord.NO_RSSI);
+                mPresenter.onDeviceFound(new Device(device.getName(), device.getAddress()), rssi);
             } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
                 showDiscoveryFinishedInfo();
             }
@@ -1,10 +1,11 @@
 package site.hanschen.runwithyou.ui.home.devicelist;
 
 
-import java.util.Set;
+import java.util.List;
 
 import site.hanschen.runwithyou.base.BasePresenter;
 import site.hanschen.runwithyou.base.BaseView;
+import site.hanschen.runwithyou.bean.DeviceRecord;
 import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
 
 /**
@@ -14,9 +15,10 @@ class DeviceListContract {
 
     interface View extends BaseView<Presenter> {
 
-        void showAllDevice(Set<Device> devices);
-
-        void addNewDevice(Device device);
+        /**
+         * @param devices 已经排好序，最有可能连接成功的在前面
+         */
+        void showDevices(List<DeviceRecord> devices);
 
         void showDiscoveryStartInfo();
 
@@ -32,5 +34,12 @@ class DeviceListContract {
         void discoveryDevices();
 
         void cancelDiscovery();
+
+        /**
+         * 发现了一个设备，同一个设备可能被发现多次
+         *
+         * @param rssi 信号强度，没有时为{@link DeviceRecord#NO_RSSI}
+         */
+        void onDeviceFound(Device device, int rssi);
     }
 }
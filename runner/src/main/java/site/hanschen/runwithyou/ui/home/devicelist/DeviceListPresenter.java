@@ -3,13 +3,29 @@ package site.hanschen.runwithyou.ui.home.devicelist;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.support.annotation.Nullable;
+import android.util.Log;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.inject.Inject;
 
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
 import site.hanschen.common.utils.PreconditionUtils;
+import site.hanschen.runwithyou.bean.DeviceRecord;
+import site.hanschen.runwithyou.database.repository.DeviceIndex;
+import site.hanschen.runwithyou.database.repository.DeviceRepository;
 import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
 
 /**
@@ -17,14 +33,24 @@ import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
  */
 class DeviceListPresenter implements DeviceListContract.Presenter {
 
+    private static final String TAG = "DeviceListPresenter";
+
     private BluetoothAdapter        mBtAdapter;
     private DeviceListContract.View mView;
+    private DeviceRepository        mDeviceRepository;
+
+    /* 本次发现的设备，按地址去重 */
+    private final Map<String, DeviceRecord> mFoundDevices = new HashMap<>();
+    private final CompositeDisposable       mDisposables  = new CompositeDisposable();
+    /* 发现事件只订阅一次，不随每次广播增加Disposable */
+    private PublishSubject<FoundEvent> mFoundEvents;
 
     @Inject
-    DeviceListPresenter(DeviceListContract.View view, @Nullable BluetoothAdapter btAdapter) {
+    DeviceListPresenter(DeviceListContract.View view, @Nullable BluetoothAdapter btAdapter, DeviceRepository deviceRepository) {
         this.mView = PreconditionUtils.checkNotNull(view, "DeviceListContract.View cannot be null!");
         assert btAdapter != null;
         this.mBtAdapter = PreconditionUtils.checkNotNull(btAdapter, "BluetoothAdapter cannot be null!");
+        this.mDeviceRepository = PreconditionUtils.checkNotNull(deviceRepository, "DeviceRepository cannot be null!");
     }
 
     @Inject
@@ -34,22 +60,33 @@ class DeviceListPresenter implements DeviceListContract.Presenter {
 
     @Override
     public void detach() {
-
+        mDisposables.clear();
+        mFoundEvents = null;
     }
 
     @Override
     public void loadHistoryDevices() {
-
+        load(new Callable<List<DeviceRecord>>() {
+            @Override
+            public List<DeviceRecord> call() throws Exception {
+                return mDeviceRepository.getHistoryDevices();
+            }
+        });
     }
 
     @Override
     public void loadPairedDevices() {
         Set<BluetoothDevice> pairedDevices = mBtAdapter.getBondedDevices();
-        Set<Device> devices = new HashSet<>();
+        final List<Device> devices = new ArrayList<>(pairedDevices.size());
         for (BluetoothDevice device : pairedDevices) {
             devices.add(new Device(device.getName(), device.getAddress()));
         }
-        mView.showAllDevice(devices);
+        load(new Callable<List<DeviceRecord>>() {
+            @Override
+            public List<DeviceRecord> call() throws Exception {
+                return mDeviceRepository.getDevices(devices);
+            }
+        });
     }
 
     @Override
@@ -67,4 +104,64 @@ class DeviceListPresenter implements DeviceListContract.Presenter {
             mBtAdapter.cancelDiscovery();
         }
     }
+
+    @Override
+    public void onDeviceFound(Device device, int rssi) {
+        if (mFoundEvents == null) {
+            mFoundEvents = PublishSubject.create();
+            subscribeFoundEvents(mFoundEvents);
+        }
+        mFoundEvents.onNext(new FoundEvent(device, rssi));
+    }
+
+    private void subscribeFoundEvents(Observable<FoundEvent> events) {
+        // 在同一个线程中按发现的顺序合并，单个设备出错不影响后续的发现事件
+        mDisposables.add(events.observeOn(Schedulers.single()).concatMap(new Function<FoundEvent, ObservableSource<DeviceRecord>>() {
+            @Override
+            public ObservableSource<DeviceRecord> apply(final FoundEvent event) throws Exception {
+                return Observable.fromCallable(new Callable<DeviceRecord>() {
+                    @Override
+                    public DeviceRecord call() throws Exception {
+                        return mDeviceRepository.onDeviceFound(event.mDevice, event.mRssi);
+                    }
+                }).doOnError(mOnLoadError).onErrorResumeNext(Observable.<DeviceRecord>empty());
+            }
+        }).observeOn(AndroidSchedulers.mainThread()).subscribe(new Consumer<DeviceRecord>() {
+            @Override
+            public void accept(DeviceRecord record) throws Exception {
+                mFoundDevices.put(record.getAddress(), record);
+                mView.showDevices(DeviceIndex.rank(mFoundDevices.values()));
+            }
+        }, mOnLoadError));
+    }
+
+    private void load(Callable<List<DeviceRecord>> loader) {
+        mDisposables.add(Observable.fromCallable(loader)
+                                   .subscribeOn(Schedulers.io())
+                                   .observeOn(AndroidSchedulers.mainThread())
+                                   .subscribe(new Consumer<List<DeviceRecord>>() {
+                                       @Override
+                                       public void accept(List<DeviceRecord> devices) throws Exception {
+                                           mView.showDevices(devices);
+                                       }
+                                   }, mOnLoadError));
+    }
+
+    private final Consumer<Throwable> mOnLoadError = new Consumer<Throwable>() {
+        @Override
+        public void accept(Throwable throwable) throws Exception {
+            Log.e(TAG, "load devices failed", throwable);
+        }
+    };
+
+    private static class FoundEvent {
+
+        private final Device mDevice;
+        private final int    mRssi;
+
+        FoundEvent(Device device, int rssi) {
+            this.mDevice = device;
+            this.mRssi = rssi;
+        }
+    }
 }
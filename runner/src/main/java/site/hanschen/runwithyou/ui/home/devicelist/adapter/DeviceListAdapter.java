@@ -1,17 +1,22 @@
 package site.hanschen.runwithyou.ui.home.devicelist.adapter;
 
 import android.content.Context;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import site.hanschen.runwithyou.R;
+import site.hanschen.runwithyou.bean.DeviceRecord;
 import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
 
 /**
@@ -19,7 +24,7 @@ import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
  */
 public class DeviceListAdapter extends RecyclerView.Adapter<DeviceListAdapter.ViewHolder> implements View.OnClickListener {
 
-    private List<Device>        mDevices;
+    private List<DeviceRecord>  mDevices = Collections.emptyList();
     private Context             mContext;
     private LayoutInflater      mInflater;
     private OnItemClickListener mOnItemClickListener;
@@ -29,9 +34,14 @@ public class DeviceListAdapter extends RecyclerView.Adapter<DeviceListAdapter.Vi
         this.mInflater = LayoutInflater.from(context);
     }
 
-    public void setData(List<Device> devices) {
-        this.mDevices = devices;
-        notifyDataSetChanged();
+    /**
+     * 与当前的列表比较，只通知插入、删除、移动和内容变化的项
+     */
+    public void setData(List<DeviceRecord> devices) {
+        List<DeviceRecord> newDevices = new ArrayList<>(devices);
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DeviceDiffCallback(mDevices, newDevices), true);
+        this.mDevices = newDevices;
+        result.dispatchUpdatesTo(this);
     }
 
     public void setOnItemClickListener(OnItemClickListener onItemClickListener) {
@@ -42,28 +52,33 @@ public class DeviceListAdapter extends RecyclerView.Adapter<DeviceListAdapter.Vi
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         View root = mInflater.inflate(R.layout.list_item_two_line_with_icon, parent, false);
         root.setOnClickListener(DeviceListAdapter.this);
-        return new ViewHolder(root);
+        ViewHolder holder = new ViewHolder(root);
+        // 移动的项不会重新绑定，点击时从holder取当前位置
+        root.setTag(holder);
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        holder.itemView.setTag(position);
-
-        Device device = mDevices.get(position);
+        DeviceRecord device = mDevices.get(position);
         holder.deviceName.setText(device.getName());
-        holder.deviceAddress.setText(device.getAddress());
+        if (device.getRssi() == DeviceRecord.NO_RSSI) {
+            holder.deviceAddress.setText(device.getAddress());
+        } else {
+            holder.deviceAddress.setText(String.format(Locale.US, "%s  %ddBm", device.getAddress(), device.getRssi()));
+        }
     }
 
     @Override
     public int getItemCount() {
-        return mDevices == null ? 0 : mDevices.size();
+        return mDevices.size();
     }
 
     @Override
     public void onClick(View v) {
-        if (mOnItemClickListener != null) {
-            Device device = mDevices.get((Integer) v.getTag());
-            mOnItemClickListener.onItemClick(device);
+        int position = ((ViewHolder) v.getTag()).getAdapterPosition();
+        if (mOnItemClickListener != null && position != RecyclerView.NO_POSITION) {
+            mOnItemClickListener.onItemClick(mDevices.get(position).toDevice());
         }
     }
 
@@ -72,6 +87,41 @@ public class DeviceListAdapter extends RecyclerView.Adapter<DeviceListAdapter.Vi
         void onItemClick(Device device);
     }
 
+    private static class DeviceDiffCallback extends DiffUtil.Callback {
+
+        private final List<DeviceRecord> mOldDevices;
+        private final List<DeviceRecord> mNewDevices;
+
+        DeviceDiffCallback(List<DeviceRecord> oldDevices, List<DeviceRecord> newDevices) {
+            this.mOldDevices = oldDevices;
+            this.mNewDevices = newDevices;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldDevices.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewDevices.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldDevices.get(oldItemPosition).getAddress().equals(mNewDevices.get(newItemPosition).getAddress());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            DeviceRecord oldDevice = mOldDevices.get(oldItemPosition);
+            DeviceRecord newDevice = mNewDevices.get(newItemPosition);
+            // 只比较显示的内容
+            return oldDevice.getRssi() == newDevice.getRssi() &&
+                   (oldDevice.getName() != null ? oldDevice.getName().equals(newDevice.getName()) : newDevice.getName() == null);
+        }
+    }
+
     static class ViewHolder extends RecyclerView.ViewHolder {
 
         @BindView(R.id.primary_text)
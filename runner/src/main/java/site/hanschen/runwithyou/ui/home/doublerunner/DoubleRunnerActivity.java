@@ -6,6 +6,7 @@ import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.view.View;
 import android.widget.RelativeLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import java.util.concurrent.TimeUnit;
@@ -48,6 +49,9 @@ public class DoubleRunnerActivity extends RunnerBaseActivity implements DoubleRu
     private Mode           mMode;
     private Device         mDevice;
     private RelativeLayout mConnectingInfo;
+    private View           mStepInfo;
+    private TextView       mMyStepCount;
+    private TextView       mPartnerStepCount;
     @Inject
     DoubleRunnerPresenter mPresenter;
 
@@ -78,6 +82,9 @@ public class DoubleRunnerActivity extends RunnerBaseActivity implements DoubleRu
 
     private void initViews() {
         mConnectingInfo = findView(R.id.double_runner_connecting_info);
+        mStepInfo = findView(R.id.double_runner_step_info);
+        mMyStepCount = findView(R.id.double_runner_my_step_count);
+        mPartnerStepCount = findView(R.id.double_runner_partner_step_count);
     }
 
     private void parseData() {
@@ -110,6 +117,17 @@ public class DoubleRunnerActivity extends RunnerBaseActivity implements DoubleRu
     @Override
     public void showConnectedInfo(Device device) {
         mConnectingInfo.setVisibility(View.GONE);
+        mStepInfo.setVisibility(View.VISIBLE);
         Toast.makeText(mContext, String.format("连接成功: %s", device.getName()), Toast.LENGTH_SHORT).show();
     }
+
+    @Override
+    public void showMyStepCount(long stepCount) {
+        mMyStepCount.setText(String.valueOf(stepCount));
+    }
+
+    @Override
+    public void showPartnerStepCount(long stepCount) {
+        mPartnerStepCount.setText(String.valueOf(stepCount));
+    }
 }
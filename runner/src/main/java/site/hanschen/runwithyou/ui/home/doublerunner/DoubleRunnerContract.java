@@ -17,6 +17,10 @@ class DoubleRunnerContract {
         void showConnectFailedInfo();
 
         void showConnectedInfo(Device device);
+
+        void showMyStepCount(long stepCount);
+
+        void showPartnerStepCount(long stepCount);
     }
 
     interface Presenter extends BasePresenter {
@@ -33,8 +37,11 @@ class DoubleRunnerContract {
         void connect(Device device);
 
         /**
-         * 发送数据
+         * 发送一帧数据
+         *
+         * @param type 帧类型
+         * @return 未连接或发送队列已满时返回false
          */
-        void sendData(byte[] out);
+        boolean sendData(int type, byte[] out);
     }
 }
@@ -1,10 +1,23 @@
 package site.hanschen.runwithyou.ui.home.doublerunner;
 
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.RemoteException;
+
 import javax.inject.Inject;
 
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.schedulers.Schedulers;
 import site.hanschen.common.utils.PreconditionUtils;
 import site.hanschen.runwithyou.bluetooth.BluetoothControler;
 import site.hanschen.runwithyou.bluetooth.BluetoothListener;
+import site.hanschen.runwithyou.bluetooth.Frame;
+import site.hanschen.runwithyou.database.repository.DeviceRepository;
+import site.hanschen.runwithyou.eventbus.EventBus;
+import site.hanschen.runwithyou.eventbus.StepUpdateEvent;
+import site.hanschen.runwithyou.eventbus.Subscriber;
+import site.hanschen.runwithyou.service.RunnerManager;
+import site.hanschen.runwithyou.sync.StepSyncEngine;
 import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
 
 /**
@@ -14,11 +27,29 @@ class DoubleRunnerPresenter implements DoubleRunnerContract.Presenter {
 
     private DoubleRunnerContract.View mView;
     private BluetoothControler        mControler;
+    private EventBus                  mEventBus;
+    private StepSyncEngine            mSyncEngine;
+    private DeviceRepository          mDeviceRepository;
+    private RunnerManager             mRunnerManager;
+    private final IBinder             mRealtimeToken = new Binder();
 
     @Inject
-    DoubleRunnerPresenter(DoubleRunnerContract.View view, BluetoothControler bluetoothControler) {
+    DoubleRunnerPresenter(DoubleRunnerContract.View view,
+                          BluetoothControler bluetoothControler,
+                          EventBus eventBus,
+                          DeviceRepository deviceRepository,
+                          RunnerManager runnerManager) {
         this.mView = PreconditionUtils.checkNotNull(view, "DoubleRunnerContract.View cannot be null!");
         this.mControler = PreconditionUtils.checkNotNull(bluetoothControler, "BluetoothControler cannot be null!");
+        this.mEventBus = PreconditionUtils.checkNotNull(eventBus, "EventBus cannot be null!");
+        this.mDeviceRepository = PreconditionUtils.checkNotNull(deviceRepository, "DeviceRepository cannot be null!");
+        this.mRunnerManager = PreconditionUtils.checkNotNull(runnerManager, "RunnerManager cannot be null!");
+        this.mSyncEngine = new StepSyncEngine(mControler, AndroidSchedulers.mainThread(), new StepSyncEngine.Listener() {
+            @Override
+            public void onPartnerStepChanged(long stepCount) {
+                mView.showPartnerStepCount(stepCount);
+            }
+        });
         this.mControler.registerListener(new BluetoothListener() {
 
             @Override
@@ -39,26 +70,76 @@ class DoubleRunnerPresenter implements DoubleRunnerContract.Presenter {
             @Override
             public void onConnectSucceed(Device device) {
                 mView.showConnectedInfo(device);
+                mSyncEngine.start();
+                setRealtimeSampling(true);
+                recordConnectResult(device, true);
             }
 
             @Override
             public void onConnectFailed(Device device) {
                 mView.showConnectFailedInfo();
+                recordConnectResult(device, false);
             }
 
             @Override
             public void onConnectLost() {
+                mSyncEngine.stop();
+                setRealtimeSampling(false);
+            }
 
+            @Override
+            public void onReconnecting(Device device, int attempt) {
+                mView.showConnectingInfo();
             }
 
             @Override
-            public void onDataSent(byte[] buffer) {
+            public void onDataSent(int frames, int bytes) {
+
+            }
 
+            @Override
+            public void onWritable() {
+                mSyncEngine.onWritable();
             }
 
             @Override
-            public void onDataReceived(byte[] buffer, int byteRead) {
+            public void onDataReceived(Frame frame) {
+                mSyncEngine.onFrameReceived(frame);
+            }
+        });
+        // 步数是粘性事件，注册后立即收到当前步数
+        this.mEventBus.register(DoubleRunnerPresenter.this, StepUpdateEvent.class, mOnStepUpdate);
+    }
+
+    private final Subscriber<StepUpdateEvent> mOnStepUpdate = new Subscriber<StepUpdateEvent>() {
+        @Override
+        public void onEvent(StepUpdateEvent event) {
+            mView.showMyStepCount(event.getStepCount());
+            mSyncEngine.onLocalStepChanged(event.getStepCount());
+        }
+    };
+
+    /**
+     * 连接期间对方需要实时的步数，灭屏时也不能进入批量上报
+     */
+    private void setRealtimeSampling(boolean realtime) {
+        try {
+            mRunnerManager.setRealtimeSampling(mRealtimeToken, realtime);
+        } catch (RemoteException ignore) {
+        }
+    }
 
+    /**
+     * 连接结果计入设备的成功率，设备列表中成功率高的排在前面
+     */
+    private void recordConnectResult(final Device device, final boolean succeed) {
+        if (device == null) {
+            return;
+        }
+        Schedulers.single().scheduleDirect(new Runnable() {
+            @Override
+            public void run() {
+                mDeviceRepository.onConnectResult(device, succeed);
             }
         });
     }
@@ -70,6 +151,9 @@ class DoubleRunnerPresenter implements DoubleRunnerContract.Presenter {
 
     @Override
     public void detach() {
+        mEventBus.unregister(DoubleRunnerPresenter.this);
+        mSyncEngine.stop();
+        setRealtimeSampling(false);
         mControler.clearListener();
         mControler.reset();
     }
@@ -85,7 +169,7 @@ class DoubleRunnerPresenter implements DoubleRunnerContract.Presenter {
     }
 
     @Override
-    public void sendData(byte[] out) {
-        mControler.sendData(out);
+    public boolean sendData(int type, byte[] out) {
+        return mControler.sendData(type, out);
     }
 }
@@ -21,5 +21,10 @@ class TodayContract {
     interface Presenter extends BasePresenter {
 
         void loadStepCount();
+
+        /**
+         * 界面可见时请求服务实时上报步数
+         */
+        void setRealtimeSampling(boolean realtime);
     }
 }
@@ -20,7 +20,8 @@ import site.hanschen.runwithyou.R;
 import site.hanschen.runwithyou.application.RunnerApplication;
 import site.hanschen.runwithyou.base.RunnerBaseFragment;
 import site.hanschen.runwithyou.eventbus.EventBus;
-import site.hanschen.runwithyou.eventbus.OnStepCallback;
+import site.hanschen.runwithyou.eventbus.StepUpdateEvent;
+import site.hanschen.runwithyou.eventbus.Subscriber;
 import site.hanschen.runwithyou.widget.CircleProgressBar;
 
 /**
@@ -30,6 +31,8 @@ public class TodayFragment extends RunnerBaseFragment implements TodayContract.V
 
     @Inject
     TodayPresenter    mPresenter;
+    @Inject
+    EventBus          mEventBus;
     @BindView(R.id.fragment_today_progress)
     CircleProgressBar mProgressBar;
 
@@ -41,14 +44,32 @@ public class TodayFragment extends RunnerBaseFragment implements TodayContract.V
                             .todayPresenterModule(new TodayPresenterModule(TodayFragment.this))
                             .build()
                             .inject(this);
-        EventBus.getInstance().registerStepCallback(TodayFragment.this, mOnStepCallback);
+        mEventBus.register(TodayFragment.this, StepUpdateEvent.class, mOnStepUpdate);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        mPresenter.setRealtimeSampling(!isHidden());
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        mPresenter.setRealtimeSampling(false);
+    }
+
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+        mPresenter.setRealtimeSampling(!hidden && isResumed());
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         mPresenter.detach();
-        EventBus.getInstance().unregisterCallback(TodayFragment.this);
+        mEventBus.unregister(TodayFragment.this);
     }
 
     @Nullable
@@ -64,10 +85,10 @@ public class TodayFragment extends RunnerBaseFragment implements TodayContract.V
         ButterKnife.bind(this, view);
     }
 
-    private OnStepCallback mOnStepCallback = new OnStepCallback() {
+    private Subscriber<StepUpdateEvent> mOnStepUpdate = new Subscriber<StepUpdateEvent>() {
         @Override
-        public void onStepUpdate(long count) {
-            showCurrentStepCount(count);
+        public void onEvent(StepUpdateEvent event) {
+            showCurrentStepCount(event.getStepCount());
         }
     };
 
@@ -1,5 +1,8 @@
 package site.hanschen.runwithyou.ui.home.today;
 
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.RemoteException;
 import android.support.annotation.NonNull;
 
 import javax.inject.Inject;
@@ -26,6 +29,7 @@ class TodayPresenter implements TodayContract.Presenter {
     private TodayContract.View mView;
     private RunnerManager      mRunnerManager;
     private SettingRepository  mSettingRepository;
+    private final IBinder      mRealtimeToken = new Binder();
 
     @Inject
     TodayPresenter(@NonNull TodayContract.View view,
@@ -95,4 +99,12 @@ class TodayPresenter implements TodayContract.Presenter {
             }
         });
     }
+
+    @Override
+    public void setRealtimeSampling(boolean realtime) {
+        try {
+            mRunnerManager.setRealtimeSampling(mRealtimeToken, realtime);
+        } catch (RemoteException ignore) {
+        }
+    }
 }
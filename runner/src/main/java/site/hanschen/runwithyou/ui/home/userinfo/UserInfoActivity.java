@@ -27,8 +27,8 @@ import butterknife.OnCheckedChanged;
 import butterknife.OnClick;
 import butterknife.OnTextChanged;
 import io.reactivex.Observer;
+import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
-import site.hanschen.api.user.ResultReply;
 import site.hanschen.api.user.Sex;
 import site.hanschen.api.user.UserCenterApiWrapper;
 import site.hanschen.api.user.UserInfo;
@@ -65,6 +65,9 @@ public class UserInfoActivity extends RunnerBaseActivity {
 
     private UserInfo mUserInfo;
     private Menu     mMenu;
+    private boolean  mFailedInfoChecked;
+    /* 离开页面时取消还在进行的请求 */
+    private final CompositeDisposable mCalls = new CompositeDisposable();
 
 
     @Override
@@ -81,6 +84,12 @@ public class UserInfoActivity extends RunnerBaseActivity {
         requestUserInfo();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mCalls.clear();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         super.onCreateOptionsMenu(menu);
@@ -119,6 +128,7 @@ public class UserInfoActivity extends RunnerBaseActivity {
         mUserCenterApi.requestUserInfo(AuthManager.getInstance().getToken()).subscribe(new Observer<UserInfoReply>() {
             @Override
             public void onSubscribe(Disposable d) {
+                mCalls.add(d);
                 showWaitingDialog();
             }
 
@@ -126,8 +136,15 @@ public class UserInfoActivity extends RunnerBaseActivity {
             public void onNext(UserInfoReply reply) {
                 dismissWaitingDialog();
                 if (reply.getSucceed()) {
-                    mUserInfo = reply.getUserInfo();
-                    updateUI(mUserInfo);
+                    // 先显示的是缓存，后台更新后再次返回时不覆盖正在编辑的内容
+                    if (mUserInfo == null || !hasEdits()) {
+                        mUserInfo = reply.getUserInfo();
+                        updateUI(mUserInfo);
+                    }
+                    if (!mFailedInfoChecked) {
+                        mFailedInfoChecked = true;
+                        checkFailedUserInfo();
+                    }
                 } else {
                     toast("网络有问题，请重试");
                     finish();
@@ -148,6 +165,39 @@ public class UserInfoActivity extends RunnerBaseActivity {
         });
     }
 
+    /**
+     * 之前保存的资料被服务端拒绝时，让用户选择重新提交还是放弃
+     */
+    private void checkFailedUserInfo() {
+        final String token = AuthManager.getInstance().getToken();
+        final UserInfo failed = mUserCenterApi.getFailedUserInfo(token);
+        if (failed == null) {
+            return;
+        }
+        new MaterialDialog.Builder(mContext).title("资料没有保存")
+                                            .content("上次修改的资料没有保存到服务器，是否重新提交？")
+                                            .positiveText("重新提交")
+                                            .onPositive(new MaterialDialog.SingleButtonCallback() {
+                                                @Override
+                                                public void onClick(@NonNull MaterialDialog dialog,
+                                                                    @NonNull DialogAction which) {
+                                                    updateUI(failed);
+                                                    updateUserInfo();
+                                                }
+                                            })
+                                            .negativeText("放弃")
+                                            .onNegative(new MaterialDialog.SingleButtonCallback() {
+                                                @Override
+                                                public void onClick(@NonNull MaterialDialog dialog,
+                                                                    @NonNull DialogAction which) {
+                                                    mUserCenterApi.discardFailedUserInfo(token);
+                                                }
+                                            })
+                                            .cancelable(false)
+                                            .build()
+                                            .show();
+    }
+
     private void updateUI(UserInfo userInfo) {
         mNickname.setText(userInfo.getNickname());
         mPhone.setText(userInfo.getPhone());
@@ -219,17 +269,17 @@ public class UserInfoActivity extends RunnerBaseActivity {
             return;
         }
 
-        if (!mUserInfo.getNickname().equals(mNickname.getEditableText().toString())
-            || !mUserInfo.getPhone()
-                         .equals(mPhone.getEditableText()
-                                       .toString())
-            || !mUserInfo.getBio().equals(mBio.getEditableText().toString())
-            || !mUserInfo.getBirthday().equals(mBirthday.getEditableText().toString())
-            || isSexChanged()) {
-            mMenu.findItem(R.id.user_info_save).setVisible(true);
-        } else {
-            mMenu.findItem(R.id.user_info_save).setVisible(false);
-        }
+        mMenu.findItem(R.id.user_info_save).setVisible(hasEdits());
+    }
+
+    private boolean hasEdits() {
+        return !mUserInfo.getNickname().equals(mNickname.getEditableText().toString())
+               || !mUserInfo.getPhone()
+                            .equals(mPhone.getEditableText()
+                                          .toString())
+               || !mUserInfo.getBio().equals(mBio.getEditableText().toString())
+               || !mUserInfo.getBirthday().equals(mBirthday.getEditableText().toString())
+               || isSexChanged();
     }
 
     private boolean isSexChanged() {
@@ -256,28 +306,23 @@ public class UserInfoActivity extends RunnerBaseActivity {
         builder.setBio(mBio.getEditableText().toString());
 
         final UserInfo userInfo = builder.build();
-        mUserCenterApi.updateUserInfo(AuthManager.getInstance().getToken(), userInfo).subscribe(new Observer<ResultReply>() {
+        // 保存到本地后就返回，网络不可用时恢复后再发送
+        mUserCenterApi.updateUserInfo(AuthManager.getInstance().getToken(), userInfo).subscribe(new Observer<String>() {
             @Override
             public void onSubscribe(Disposable d) {
-                showWaitingDialog();
+                mCalls.add(d);
             }
 
             @Override
-            public void onNext(ResultReply resultReply) {
-                dismissWaitingDialog();
-                if (resultReply.getSecceed()) {
-                    toast("资料更新成功");
-                    mUserInfo = userInfo;
-                    updateUI(mUserInfo);
-                } else {
-                    toast("资料更新失败");
-                }
+            public void onNext(String requestId) {
+                toast("资料已保存");
+                mUserInfo = userInfo;
+                updateUI(mUserInfo);
             }
 
             @Override
             public void onError(Throwable e) {
-                dismissWaitingDialog();
-                toast("网络异常");
+                toast("资料保存失败");
             }
 
             @Override
@@ -15,6 +15,7 @@ import butterknife.ButterKnife;
 import butterknife.OnClick;
 import butterknife.OnTextChanged;
 import io.reactivex.Observer;
+import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 import site.hanschen.api.user.LoginReply;
 import site.hanschen.api.user.UserCenterApiWrapper;
@@ -43,6 +44,9 @@ public class LoginActivity extends RunnerBaseActivity {
     @Inject
     UserCenterApiWrapper mUserCenterApi;
 
+    /* 离开页面时取消还在进行的请求 */
+    private final CompositeDisposable mCalls = new CompositeDisposable();
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -66,6 +70,12 @@ public class LoginActivity extends RunnerBaseActivity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mCalls.clear();
+    }
+
     private void setLoginBtnState() {
         String username = mUsername.getEditableText().toString();
         String password = mPassword.getEditableText().toString();
@@ -107,6 +117,7 @@ public class LoginActivity extends RunnerBaseActivity {
         mUserCenterApi.login(username, password).subscribe(new Observer<LoginReply>() {
             @Override
             public void onSubscribe(Disposable d) {
+                mCalls.add(d);
                 clearErrorInfo();
                 showWaitingDialog();
             }
@@ -19,6 +19,7 @@ import butterknife.ButterKnife;
 import butterknife.OnClick;
 import butterknife.OnTextChanged;
 import io.reactivex.Observer;
+import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 import site.hanschen.api.user.RegisterReply;
 import site.hanschen.api.user.UserCenterApiWrapper;
@@ -53,6 +54,9 @@ public class RegisterActivity extends RunnerBaseActivity {
     @Inject
     UserCenterApiWrapper mUserCenterApi;
 
+    /* 离开页面时取消还在进行的请求 */
+    private final CompositeDisposable mCalls = new CompositeDisposable();
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -70,6 +74,7 @@ public class RegisterActivity extends RunnerBaseActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        mCalls.clear();
         stopCountDown();
     }
 
@@ -185,6 +190,7 @@ public class RegisterActivity extends RunnerBaseActivity {
         mUserCenterApi.requestVerificationCode(email).subscribe(new Observer<VerificationReply>() {
             @Override
             public void onSubscribe(Disposable d) {
+                mCalls.add(d);
                 showWaitingDialog();
             }
 
@@ -226,6 +232,7 @@ public class RegisterActivity extends RunnerBaseActivity {
         mUserCenterApi.register(email, verificationCode, password).subscribe(new Observer<RegisterReply>() {
             @Override
             public void onSubscribe(Disposable d) {
+                mCalls.add(d);
                 showWaitingDialog();
             }
 
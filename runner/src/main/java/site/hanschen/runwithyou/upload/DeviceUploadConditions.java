@@ -0,0 +1,49 @@
+package site.hanschen.runwithyou.upload;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.support.annotation.Nullable;
+import android.support.v4.net.ConnectivityManagerCompat;
+
+import site.hanschen.runwithyou.application.AuthManager;
+
+/**
+ * 已登录，并且连接的是不计流量的网络或者正在充电时才上传
+ *
+ * @author HansChen
+ */
+public class DeviceUploadConditions implements StepUploader.Conditions {
+
+    private final Context mContext;
+
+    public DeviceUploadConditions(Context context) {
+        this.mContext = context.getApplicationContext();
+    }
+
+    @Nullable
+    @Override
+    public String getToken() {
+        AuthManager authManager = AuthManager.getInstance();
+        return authManager.isLogined() ? authManager.getToken() : null;
+    }
+
+    @Override
+    public boolean isUploadAllowed() {
+        ConnectivityManager manager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = manager.getActiveNetworkInfo();
+        if (info == null || !info.isConnected()) {
+            return false;
+        }
+        return !ConnectivityManagerCompat.isActiveNetworkMetered(manager) || isCharging();
+    }
+
+    private boolean isCharging() {
+        // ACTION_BATTERY_CHANGED是粘性广播，不需要真正注册接收器
+        Intent battery = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+}
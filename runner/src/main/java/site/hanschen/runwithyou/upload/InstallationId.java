@@ -0,0 +1,77 @@
+package site.hanschen.runwithyou.upload;
+
+import android.content.Context;
+import android.support.v4.content.ContextCompat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * 本次安装的标识，上传计步记录时和本地序号一起发送，服务端按用户和这个标识分别保存检查点。
+ * <p>
+ * 本地序号在重装或清除数据后从头开始，标识也随之重新生成；保存在不参与备份的目录中，
+ * 从备份恢复的数据会用新的标识重新上传，服务端可能重复保存，但不会漏传
+ *
+ * @author HansChen
+ */
+public final class InstallationId {
+
+    private static final String FILE_NAME = "installation-id";
+
+    private static String sId;
+
+    private InstallationId() {
+        /* cannot be instantiated */
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    /**
+     * 第一次调用时读取或生成，会访问磁盘
+     */
+    public static synchronized String get(Context context) {
+        if (sId != null) {
+            return sId;
+        }
+        File file = new File(ContextCompat.getNoBackupFilesDir(context), FILE_NAME);
+        try {
+            sId = file.exists() ? read(file) : write(file, UUID.randomUUID().toString());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot access installation id: " + file, e);
+        }
+        return sId;
+    }
+
+    private static String read(File file) throws IOException {
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+        try {
+            return input.readUTF();
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * 先写到临时文件再替换，写入时崩溃不会留下不完整的标识
+     */
+    private static String write(File file, String id) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(tmp);
+        try {
+            DataOutputStream data = new DataOutputStream(output);
+            data.writeUTF(id);
+            data.flush();
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot rename " + tmp + " to " + file);
+        }
+        return id;
+    }
+}
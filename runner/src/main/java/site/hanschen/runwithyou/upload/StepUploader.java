@@ -0,0 +1,221 @@
+package site.hanschen.runwithyou.upload;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+import site.hanschen.api.user.StepBatch;
+import site.hanschen.api.user.StepBatchSource;
+import site.hanschen.api.user.StepBatches;
+import site.hanschen.api.user.UploadCheckpoint;
+import site.hanschen.api.user.UserCenterAsyncApi;
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.database.repository.StepRepository;
+
+/**
+ * 把服务端检查点之后的原始计步记录分批上传，每批{@link #DEFAULT_BATCH_SIZE}条。
+ * <p>
+ * 每次上传前先获取服务端的检查点，只上传之后的记录；服务端每收到一批就更新检查点，
+ * 上传中断后下一次从新的检查点继续，已经保存的记录不会重复上传。
+ * <p>
+ * 本地序号只在同一次安装内递增，检查点按用户和{@link InstallationId}分别保存，
+ * 重装或者同一个账号在另一台手机上登录时从头上传
+ *
+ * @author HansChen
+ */
+public class StepUploader {
+
+    public static final int  DEFAULT_BATCH_SIZE   = 500;
+    public static final long UPLOAD_DEADLINE_MINS = 5;
+
+    public interface Conditions {
+
+        /**
+         * @return 当前用户的标识，没有登录时返回null
+         */
+        @Nullable
+        String getToken();
+
+        /**
+         * @return 当前是否允许上传
+         */
+        boolean isUploadAllowed();
+    }
+
+    public static class Result {
+
+        private final long       mStartTime;
+        private UploadCheckpoint mCheckpoint;
+        private int              mBatchCount;
+        private long             mRecordCount;
+        private long             mBytes;
+        private long             mElapsedMillis;
+
+        Result(UploadCheckpoint checkpoint) {
+            this.mStartTime = System.currentTimeMillis();
+            this.mCheckpoint = checkpoint;
+        }
+
+        /**
+         * @return 上传后服务端的检查点
+         */
+        public UploadCheckpoint getCheckpoint() {
+            return mCheckpoint;
+        }
+
+        public int getBatchCount() {
+            return mBatchCount;
+        }
+
+        public long getRecordCount() {
+            return mRecordCount;
+        }
+
+        /**
+         * @return 发送的{@link StepBatch}序列化后的总字节数
+         */
+        public long getBytes() {
+            return mBytes;
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "mLastSequence=" + mCheckpoint.getLastSequence() +
+                    ", mLastStepTime=" + mCheckpoint.getLastStepTime() +
+                    ", mBatchCount=" + mBatchCount +
+                    ", mRecordCount=" + mRecordCount +
+                    ", mBytes=" + mBytes +
+                    ", mElapsedMillis=" + mElapsedMillis +
+                    '}';
+        }
+    }
+
+    private final StepRepository     mRepository;
+    private final UserCenterAsyncApi mApi;
+    private final String             mDeviceId;
+    private final int                mBatchSize;
+
+    private Disposable mSchedule;
+
+    public StepUploader(StepRepository repository, UserCenterAsyncApi api, String deviceId) {
+        this(repository, api, deviceId, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param deviceId 本地序号所属的安装标识，见{@link InstallationId}
+     */
+    public StepUploader(StepRepository repository, UserCenterAsyncApi api, String deviceId, int batchSize) {
+        this.mRepository = repository;
+        this.mApi = api.withDeadline(UPLOAD_DEADLINE_MINS, TimeUnit.MINUTES);
+        this.mDeviceId = deviceId;
+        this.mBatchSize = batchSize;
+    }
+
+    /**
+     * 在后台线程周期性地检查条件并上传
+     */
+    public synchronized void start(long initialDelay, long period, TimeUnit unit, final Conditions conditions) {
+        stop();
+        mSchedule = Observable.interval(initialDelay, period, unit, Schedulers.io()).subscribe(new Consumer<Long>() {
+            @Override
+            public void accept(Long tick) throws Exception {
+                String token = conditions.getToken();
+                if (token == null || !conditions.isUploadAllowed()) {
+                    return;
+                }
+                try {
+                    Log.d("Hans", "StepUploader#upload: " + upload(token));
+                } catch (RuntimeException e) {
+                    // 下一个周期从服务端的检查点继续
+                    Log.w("Hans", "StepUploader#upload failed", e);
+                }
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (mSchedule != null) {
+            mSchedule.dispose();
+            mSchedule = null;
+        }
+    }
+
+    /**
+     * 同步上传检查点之后的所有记录，不要在主线程调用
+     *
+     * @throws RuntimeException 调用失败或者服务端拒绝
+     */
+    public Result upload(String token) {
+        Result result = new Result(check(mApi.requestUploadCheckpoint(token, mDeviceId).blockingGet()));
+        RecordSource source = new RecordSource(token, result);
+        if (source.hasRecords()) {
+            result.mCheckpoint = check(mApi.uploadSteps(source).blockingGet());
+        }
+        result.mElapsedMillis = System.currentTimeMillis() - result.mStartTime;
+        return result;
+    }
+
+    private static UploadCheckpoint check(UploadCheckpoint checkpoint) {
+        if (!checkpoint.getSucceed()) {
+            throw new IllegalStateException("upload rejected: " + checkpoint.getErrCode());
+        }
+        return checkpoint;
+    }
+
+    /**
+     * 按写入顺序分页读取记录，下一页从本页最后一条记录的序号之后开始。
+     * 不按时间分页，时钟倒退后写入的记录时间早于检查点，按时间会永远上传不了
+     */
+    private class RecordSource implements StepBatchSource {
+
+        private final String           mToken;
+        private final Result           mResult;
+        private       long             mLastTime;
+        private       long             mLastSequence;
+        private       List<StepRecord> mPage;
+
+        RecordSource(String token, Result result) {
+            this.mToken = token;
+            this.mResult = result;
+            this.mLastTime = result.mCheckpoint.getLastStepTime();
+            this.mLastSequence = result.mCheckpoint.getLastSequence();
+            this.mPage = mRepository.getRecordsAfter(mLastSequence, mBatchSize);
+        }
+
+        boolean hasRecords() {
+            return !mPage.isEmpty();
+        }
+
+        @Nullable
+        @Override
+        public StepBatch next() throws Exception {
+            if (mPage == null) {
+                mPage = mRepository.getRecordsAfter(mLastSequence, mBatchSize);
+            }
+            List<StepRecord> page = mPage;
+            mPage = null;
+            if (page.isEmpty()) {
+                return null;
+            }
+            StepBatch batch = StepBatches.encode(mToken, mDeviceId, mLastTime, mLastSequence, page);
+            StepRecord last = page.get(page.size() - 1);
+            mLastTime = last.getStepTime();
+            mLastSequence = last.getSequence();
+            mResult.mBatchCount++;
+            mResult.mRecordCount += page.size();
+            mResult.mBytes += batch.getSerializedSize();
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package site.hanschen.runwithyou.utils;
+
+import android.os.SystemClock;
+
+/**
+ * 单调时钟，便于在测试中替换为可控的时间
+ *
+ * @author HansChen
+ */
+public interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    /**
+     * @return 开机以来经过的毫秒数，包括休眠时间
+     */
+    long elapsedRealtime();
+}
@@ -7,15 +7,43 @@ import java.util.TimeZone;
  */
 public class TimeUtils {
 
-    private static final int  SECONDS_IN_DAY = 60 * 60 * 24;
-    private static final long MILLIS_IN_DAY  = 1000L * SECONDS_IN_DAY;
+    private static final int  SECONDS_IN_DAY   = 60 * 60 * 24;
+    private static final long MILLIS_IN_DAY    = 1000L * SECONDS_IN_DAY;
+    private static final long MILLIS_IN_HOUR   = 1000L * 60 * 60;
+    private static final long MILLIS_IN_MINUTE = 1000L * 60;
 
     public static boolean isSameDayOfMillis(final long ms1, final long ms2) {
         final long interval = ms1 - ms2;
         return (interval < MILLIS_IN_DAY) && (interval > -1L * MILLIS_IN_DAY) && (toDay(ms1) == toDay(ms2));
     }
 
+    /**
+     * @return 本地时间中millis所在分钟的起始时间
+     */
+    public static long startOfMinute(long millis) {
+        return truncate(millis, MILLIS_IN_MINUTE);
+    }
+
+    /**
+     * @return 本地时间中millis所在小时的起始时间
+     */
+    public static long startOfHour(long millis) {
+        return truncate(millis, MILLIS_IN_HOUR);
+    }
+
+    /**
+     * @return 本地时间中millis所在日期的零点
+     */
+    public static long startOfDay(long millis) {
+        return truncate(millis, MILLIS_IN_DAY);
+    }
+
     private static long toDay(long millis) {
         return (millis + TimeZone.getDefault().getOffset(millis)) / MILLIS_IN_DAY;
     }
+
+    private static long truncate(long millis, long unit) {
+        final long offset = TimeZone.getDefault().getOffset(millis);
+        return (millis + offset) / unit * unit - offset;
+    }
 }
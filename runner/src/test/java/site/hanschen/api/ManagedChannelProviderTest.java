@@ -0,0 +1,152 @@
+package site.hanschen.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import site.hanschen.api.user.LoginInfo;
+import site.hanschen.api.user.LoginReply;
+import site.hanschen.api.user.UserCenterAsyncApi;
+import site.hanschen.api.user.UserCenterAsyncApiImpl;
+import site.hanschen.api.user.UserCenterGrpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 使用进程内的gRPC服务测试{@link ManagedChannelProvider}
+ *
+ * @author HansChen
+ */
+public class ManagedChannelProviderTest {
+
+    private static final String SERVER_NAME   = "channel-provider-test";
+    private static final long   AWAIT_TIMEOUT = 5000;
+
+    private AtomicInteger          mCalls;
+    private Server                 mServer;
+    private ManagedChannelProvider mProvider;
+    private UserCenterAsyncApi     mApi;
+
+    @Before
+    public void setUp() throws Exception {
+        mCalls = new AtomicInteger();
+        mServer = InProcessServerBuilder.forName(SERVER_NAME).addService(new UserCenterGrpc.UserCenterImplBase() {
+            @Override
+            public void login(LoginInfo request, StreamObserver<LoginReply> responseObserver) {
+                mCalls.incrementAndGet();
+                responseObserver.onNext(LoginReply.newBuilder().setSucceed(true).build());
+                responseObserver.onCompleted();
+            }
+        }).directExecutor().build().start();
+        mProvider = new ManagedChannelProvider(new ManagedChannelProvider.Factory() {
+            @Override
+            public ManagedChannel create() {
+                return InProcessChannelBuilder.forName(SERVER_NAME).directExecutor().build();
+            }
+        }, Schedulers.trampoline());
+        mApi = new UserCenterAsyncApiImpl(mProvider.getChannel());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mProvider.getChannel().shutdownNow();
+        mServer.shutdownNow();
+        assertTrue(mProvider.getChannel().awaitTermination(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(mServer.awaitTermination(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void warmUpConnectsBeforeFirstCall() throws Exception {
+        assertEquals(0, mProvider.getMetrics().getChannelsCreated());
+
+        mProvider.warmUp();
+        awaitReady(1);
+        ChannelMetrics metrics = mProvider.getMetrics();
+        assertEquals(1, metrics.getWarmUps());
+        assertEquals(1, metrics.getConnects());
+        assertTrue(metrics.getLastConnectLatency() >= 0);
+        assertEquals(0, mCalls.get());
+
+        // 已经连接好的channel不会重复发起连接
+        mProvider.warmUp();
+        assertEquals(1, mProvider.getMetrics().getWarmUps());
+
+        assertTrue(mApi.login("hans", "secret").blockingGet().getSucceed());
+        assertEquals(1, mProvider.getMetrics().getChannelsCreated());
+    }
+
+    @Test
+    public void networkChangeReplacesChannel() throws Exception {
+        // 还没有使用过channel时不需要重建
+        mProvider.onNetworkChanged();
+        assertEquals(0, mProvider.getMetrics().getChannelsCreated());
+
+        assertTrue(mApi.login("hans", "secret").blockingGet().getSucceed());
+        mProvider.onNetworkChanged();
+        awaitReady(2);
+        assertEquals(1, mProvider.getMetrics().getNetworkChanges());
+
+        // 之前创建的stub继续可用，调用使用新的channel
+        assertTrue(mApi.login("hans", "secret").blockingGet().getSucceed());
+        assertEquals(2, mCalls.get());
+        assertEquals(2, mProvider.getMetrics().getChannelsCreated());
+    }
+
+    @Test
+    public void shutdownClosesEveryChannel() throws Exception {
+        mProvider.warmUp();
+        awaitReady(1);
+        mProvider.onNetworkChanged();
+        awaitReady(2);
+
+        ManagedChannel channel = mProvider.getChannel();
+        channel.shutdown();
+        assertTrue(channel.isShutdown());
+        assertTrue(channel.awaitTermination(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(channel.isTerminated());
+
+        TestObserver<LoginReply> observer = mApi.login("hans", "secret").test();
+        assertTrue(observer.awaitTerminalEvent(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(Status.Code.UNAVAILABLE, Status.fromThrowable(observer.errors().get(0)).getCode());
+        // 关闭后网络变化不再创建新的channel
+        mProvider.onNetworkChanged();
+        assertEquals(2, mProvider.getMetrics().getChannelsCreated());
+        assertFalse(mProvider.getMetrics().getState() == ConnectivityState.READY);
+    }
+
+    private void awaitReady(final int channelsCreated) throws Exception {
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                ChannelMetrics metrics = mProvider.getMetrics();
+                return metrics.getChannelsCreated() == channelsCreated && metrics.getState() == ConnectivityState.READY;
+            }
+        });
+    }
+
+    private static void awaitCondition(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT;
+        while (!condition.call()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("condition not met in " + AWAIT_TIMEOUT + "ms");
+            }
+            Thread.sleep(5);
+        }
+    }
+}
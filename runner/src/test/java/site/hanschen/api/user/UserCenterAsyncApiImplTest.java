@@ -0,0 +1,147 @@
+package site.hanschen.api.user;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import site.hanschen.runwithyou.utils.MD5Utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 使用进程内的gRPC服务测试{@link UserCenterAsyncApiImpl}
+ *
+ * @author HansChen
+ */
+public class UserCenterAsyncApiImplTest {
+
+    private static final String SERVER_NAME   = "user-center-test";
+    private static final long   AWAIT_TIMEOUT = 5000;
+
+    private FakeUserCenter     mService;
+    private Server             mServer;
+    private ManagedChannel     mChannel;
+    private UserCenterAsyncApi mApi;
+
+    @Before
+    public void setUp() throws Exception {
+        mService = new FakeUserCenter();
+        mServer = InProcessServerBuilder.forName(SERVER_NAME).addService(mService).directExecutor().build().start();
+        mChannel = InProcessChannelBuilder.forName(SERVER_NAME).directExecutor().build();
+        mApi = new UserCenterAsyncApiImpl(mChannel);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mChannel.shutdownNow();
+        mServer.shutdownNow();
+        assertTrue(mChannel.awaitTermination(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(mServer.awaitTermination(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void loginSucceeds() throws Exception {
+        LoginReply reply = mApi.login("hans", "secret").blockingGet();
+
+        assertTrue(reply.getSucceed());
+        assertEquals("token-hans", reply.getToken());
+        assertEquals(MD5Utils.getMD5("secret"), mService.mLastPasswordMd5);
+    }
+
+    @Test
+    public void callStartsOnSubscribe() throws Exception {
+        Single<LoginReply> login = mApi.login("hans", "secret");
+        assertEquals(0, mService.mCalls.get());
+
+        login.blockingGet();
+        login.blockingGet();
+        assertEquals(2, mService.mCalls.get());
+    }
+
+    @Test
+    public void serverErrorIsDelivered() throws Exception {
+        TestObserver<RegisterReply> observer = mApi.register("a@b.c", "0000", "secret").test();
+
+        assertTrue(observer.awaitTerminalEvent(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        observer.assertError(StatusRuntimeException.class);
+        assertEquals(Status.Code.UNAVAILABLE, Status.fromThrowable(observer.errors().get(0)).getCode());
+    }
+
+    @Test
+    public void deadlineExceeded() throws Exception {
+        TestObserver<UserInfoReply> observer = mApi.withDeadline(100, TimeUnit.MILLISECONDS).requestUserInfo("token").test();
+
+        assertTrue(observer.awaitTerminalEvent(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(Status.Code.DEADLINE_EXCEEDED, Status.fromThrowable(observer.errors().get(0)).getCode());
+        // 服务端也会收到取消
+        assertTrue(mService.mCancelled.await(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void disposeCancelsCall() throws Exception {
+        TestObserver<UserInfoReply> observer = mApi.requestUserInfo("token").test();
+        assertTrue(mService.mUserInfoRequested.await(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        observer.dispose();
+        assertTrue(mService.mCancelled.await(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        // 取消产生的CANCELLED不会交给已经取消订阅的下游
+        observer.assertNoErrors();
+        observer.assertNoValues();
+    }
+
+    /**
+     * login正常返回，register返回错误，requestUserInfo一直不返回
+     */
+    private static class FakeUserCenter extends UserCenterGrpc.UserCenterImplBase {
+
+        private final AtomicInteger  mCalls             = new AtomicInteger();
+        private final CountDownLatch mUserInfoRequested = new CountDownLatch(1);
+        private final CountDownLatch mCancelled         = new CountDownLatch(1);
+        private volatile String      mLastPasswordMd5;
+
+        @Override
+        public void login(LoginInfo request, StreamObserver<LoginReply> responseObserver) {
+            mCalls.incrementAndGet();
+            mLastPasswordMd5 = request.getPasswordMd5();
+            responseObserver.onNext(LoginReply.newBuilder().setSucceed(true).setToken("token-" + request.getUsername()).build());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void register(RegisterInfo request, StreamObserver<RegisterReply> responseObserver) {
+            responseObserver.onError(Status.UNAVAILABLE.withDescription("try later").asRuntimeException());
+        }
+
+        @Override
+        public void requestUserInfo(OperateToken request, StreamObserver<UserInfoReply> responseObserver) {
+            Context.current().addListener(new Context.CancellationListener() {
+                @Override
+                public void cancelled(Context context) {
+                    mCancelled.countDown();
+                }
+            }, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            });
+            mUserInfoRequested.countDown();
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package site.hanschen.api.user;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.Status;
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 使用会丢弃调用的假{@link UserCenterAsyncApi}测试{@link UserCenterOutbox}
+ *
+ * @author HansChen
+ */
+public class UserCenterOutboxTest {
+
+    private static final String TOKEN         = "token";
+    private static final long   RETRY_DELAY   = 1000;
+    private static final String AUTHORIZATION = "authorization-code";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private TestScheduler    mScheduler;
+    private FakeApi          mApi;
+    private File             mFile;
+    private UserCenterOutbox mOutbox;
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new TestScheduler();
+        mApi = new FakeApi();
+        mFile = new File(mFolder.getRoot(), "outbox/mutations.log");
+        mOutbox = newOutbox();
+    }
+
+    @Test
+    public void acknowledgeLocallyWhileOffline() throws Exception {
+        mApi.mOnline = false;
+        TestObserver<String> observer = mOutbox.updateUserInfo(TOKEN, info("a")).test();
+        mScheduler.triggerActions();
+
+        observer.assertNoErrors();
+        assertFalse(observer.values().get(0).isEmpty());
+        assertEquals(1, mOutbox.getPendingCount());
+        assertEquals("a", mOutbox.getPendingUserInfo(TOKEN).getNickname());
+        assertTrue(mApi.mApplied.isEmpty());
+    }
+
+    @Test
+    public void replayInOrderOnReconnect() throws Exception {
+        mApi.mOnline = false;
+        mOutbox.updateUserInfo(TOKEN, info("a")).test();
+        mOutbox.updateUserInfo("other", info("b")).test();
+        mOutbox.updateUserInfo("third", info("c")).test();
+        mScheduler.triggerActions();
+        assertEquals(3, mOutbox.getPendingCount());
+
+        mApi.mOnline = true;
+        mOutbox.flush();
+        mScheduler.triggerActions();
+
+        assertEquals(0, mOutbox.getPendingCount());
+        assertEquals(3, mApi.mApplied.size());
+        assertEquals("a", mApi.mApplied.get(0));
+        assertEquals("b", mApi.mApplied.get(1));
+        assertEquals("c", mApi.mApplied.get(2));
+        assertNull(mOutbox.getPendingUserInfo(TOKEN));
+    }
+
+    @Test
+    public void coalesceUpdatesForSameToken() throws Exception {
+        mApi.mOnline = false;
+        for (String nickname : new String[]{"a", "b", "c"}) {
+            mOutbox.updateUserInfo(TOKEN, info(nickname)).test();
+            mScheduler.triggerActions();
+        }
+        assertEquals(1, mOutbox.getPendingCount());
+        assertEquals(2, mOutbox.getCoalescedCount());
+        assertEquals("c", mOutbox.getPendingUserInfo(TOKEN).getNickname());
+
+        mApi.mOnline = true;
+        mOutbox.flush();
+        mScheduler.triggerActions();
+
+        assertEquals(1, mApi.mApplied.size());
+        assertEquals("c", mApi.mApplied.get(0));
+        assertEquals(1, mOutbox.getSentCount());
+    }
+
+    @Test
+    public void retryWithSameRequestId() throws Exception {
+        // 服务端执行了但是回复丢失
+        mApi.mDropReplies = true;
+        TestObserver<String> observer = mOutbox.updateUserInfo(TOKEN, info("a")).test();
+        mScheduler.triggerActions();
+        assertEquals(1, mApi.mApplied.size());
+
+        mScheduler.advanceTimeBy(RETRY_DELAY, TimeUnit.MILLISECONDS);
+        mApi.mDropReplies = false;
+        mScheduler.advanceTimeBy(2 * RETRY_DELAY, TimeUnit.MILLISECONDS);
+
+        assertEquals(3, mApi.mRequestIds.size());
+        for (String requestId : mApi.mRequestIds) {
+            assertEquals(observer.values().get(0), requestId);
+        }
+        // 重发的请求不会重复执行
+        assertEquals(1, mApi.mApplied.size());
+        assertEquals(0, mOutbox.getPendingCount());
+    }
+
+    @Test
+    public void survivesRestart() throws Exception {
+        mApi.mOnline = false;
+        mOutbox.updateUserInfo(TOKEN, info("a")).test();
+        mOutbox.updateUserInfo("other", info("b")).test();
+        mScheduler.triggerActions();
+
+        mApi.mOnline = true;
+        UserCenterOutbox restarted = newOutbox();
+        restarted.flush();
+        mScheduler.triggerActions();
+
+        assertEquals(2, mApi.mApplied.size());
+        assertEquals("a", mApi.mApplied.get(0));
+        assertEquals("b", mApi.mApplied.get(1));
+        assertEquals(2, restarted.getSentCount());
+    }
+
+    @Test
+    public void sentMutationsAreNotReplayed() throws Exception {
+        mOutbox.updateUserInfo(TOKEN, info("a")).test();
+        mScheduler.triggerActions();
+        assertEquals(1, mApi.mRequestIds.size());
+
+        UserCenterOutbox restarted = newOutbox();
+        restarted.flush();
+        mScheduler.triggerActions();
+
+        assertEquals(1, mApi.mRequestIds.size());
+        assertEquals(0, restarted.getPendingCount());
+    }
+
+    @Test
+    public void recoverFromTornTail() throws Exception {
+        mApi.mOnline = false;
+        mOutbox.updateUserInfo(TOKEN, info("a")).test();
+        mScheduler.triggerActions();
+        // 追加时崩溃，最后一条记录只写了一半
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        out.write(new byte[]{0, 0, 0, 100, 1, 2, 3});
+        out.close();
+
+        UserCenterOutbox restarted = newOutbox();
+        restarted.updateUserInfo("other", info("b")).test().assertNoErrors();
+        mScheduler.triggerActions();
+        assertEquals(2, restarted.getPendingCount());
+
+        mApi.mOnline = true;
+        UserCenterOutbox again = newOutbox();
+        again.flush();
+        mScheduler.triggerActions();
+
+        assertEquals(2, mApi.mApplied.size());
+        assertEquals("a", mApi.mApplied.get(0));
+        assertEquals("b", mApi.mApplied.get(1));
+    }
+
+    @Test
+    public void dropMutationOnPermanentError() throws Exception {
+        final List<Boolean> results = new ArrayList<>();
+        mOutbox.setListener(new UserCenterOutbox.Listener() {
+            @Override
+            public void onMutationSent(PendingMutation mutation, boolean succeed) {
+                results.add(succeed);
+            }
+        });
+        mApi.mRejected = true;
+        mOutbox.updateUserInfo(TOKEN, info("a")).test();
+        mOutbox.updateUserInfo("other", info("b")).test();
+        mScheduler.triggerActions();
+
+        assertEquals(0, mOutbox.getPendingCount());
+        assertEquals(2, results.size());
+        assertFalse(results.get(0));
+        assertFalse(results.get(1));
+        assertEquals("a", mOutbox.getFailedUserInfo(TOKEN).getNickname());
+        assertEquals("b", mOutbox.getFailedUserInfo("other").getNickname());
+    }
+
+    @Test
+    public void keepFailedUserInfoUntilDiscarded() throws Exception {
+        mApi.mRejected = true;
+        mOutbox.updateUserInfo(TOKEN, info("a")).test();
+        mScheduler.triggerActions();
+
+        UserCenterOutbox restarted = newOutbox();
+        restarted.flush();
+        mScheduler.triggerActions();
+        assertEquals("a", restarted.getFailedUserInfo(TOKEN).getNickname());
+        assertEquals(0, restarted.getPendingCount());
+
+        restarted.discardFailedUserInfo(TOKEN);
+        mScheduler.triggerActions();
+        assertNull(restarted.getFailedUserInfo(TOKEN));
+
+        UserCenterOutbox again = newOutbox();
+        again.flush();
+        mScheduler.triggerActions();
+        assertNull(again.getFailedUserInfo(TOKEN));
+    }
+
+    @Test
+    public void resubmitClearsFailedUserInfo() throws Exception {
+        mApi.mRejected = true;
+        mOutbox.updateUserInfo(TOKEN, info("a")).test();
+        mScheduler.triggerActions();
+        assertEquals("a", mOutbox.getFailedUserInfo(TOKEN).getNickname());
+
+        mApi.mRejected = false;
+        mOutbox.updateUserInfo(TOKEN, info("b")).test();
+        mScheduler.triggerActions();
+        assertNull(mOutbox.getFailedUserInfo(TOKEN));
+        assertEquals("b", mApi.mApplied.get(0));
+
+        UserCenterOutbox restarted = newOutbox();
+        restarted.flush();
+        mScheduler.triggerActions();
+        assertNull(restarted.getFailedUserInfo(TOKEN));
+    }
+
+    @Test
+    public void dropPasswordChangeFromOldLog() throws Exception {
+        // 旧版本把修改密码请求写入了日志
+        MutationLog log = new MutationLog(mFile);
+        log.append(entry(PendingMutation.newBuilder()
+                                        .setSequence(1)
+                                        .setChangePassword(UserCenterRequests.newPassword(TOKEN, "secret", AUTHORIZATION, "1"))));
+        log.append(entry(PendingMutation.newBuilder()
+                                        .setSequence(2)
+                                        .setUpdateUserInfo(UserCenterRequests.update(TOKEN, info("a"), "2"))));
+        log.close();
+        assertTrue(logContains(AUTHORIZATION));
+
+        mOutbox.flush();
+        mScheduler.triggerActions();
+
+        assertFalse(logContains(AUTHORIZATION));
+        assertEquals(1, mApi.mApplied.size());
+        assertEquals("a", mApi.mApplied.get(0));
+        assertEquals(0, mOutbox.getPendingCount());
+    }
+
+    private boolean logContains(String text) throws IOException {
+        byte[] bytes = new byte[(int) mFile.length()];
+        DataInputStream input = new DataInputStream(new FileInputStream(mFile));
+        try {
+            input.readFully(bytes);
+        } finally {
+            input.close();
+        }
+        return new String(bytes, "ISO-8859-1").contains(text);
+    }
+
+    private UserCenterOutbox newOutbox() {
+        return new UserCenterOutbox(mFile, mApi, mScheduler, RETRY_DELAY);
+    }
+
+    private static OutboxEntry entry(PendingMutation.Builder mutation) {
+        return OutboxEntry.newBuilder().setMutation(mutation).build();
+    }
+
+    private static UserInfo info(String nickname) {
+        return UserInfo.newBuilder().setNickname(nickname).build();
+    }
+
+    /**
+     * 离线时丢弃调用，服务端按幂等键去重
+     */
+    private static class FakeApi implements UserCenterAsyncApi {
+
+        private final List<String> mApplied    = new ArrayList<>();
+        private final List<String> mRequestIds = new ArrayList<>();
+        private final Set<String>  mSeen       = new HashSet<>();
+        private       boolean      mOnline     = true;
+        private       boolean      mDropReplies;
+        private       boolean      mRejected;
+
+        private <T> Single<T> call(String requestId, String applied, T reply) {
+            if (!mOnline) {
+                return Single.error(Status.UNAVAILABLE.asRuntimeException());
+            }
+            if (mRejected) {
+                return Single.error(Status.INVALID_ARGUMENT.asRuntimeException());
+            }
+            mRequestIds.add(requestId);
+            if (mSeen.add(requestId)) {
+                mApplied.add(applied);
+            }
+            if (mDropReplies) {
+                return Single.error(Status.DEADLINE_EXCEEDED.asRuntimeException());
+            }
+            return Single.just(reply);
+        }
+
+        @Override
+        public Single<ResultReply> updateUserInfo(UpdateRequest request) {
+            return call(request.getRequestId(),
+                        request.getUserInfo().getNickname(),
+                        ResultReply.newBuilder().setSecceed(true).build());
+        }
+
+        @Override
+        public Single<NewPasswordReply> changePassword(NewPassword request) {
+            // 修改密码不经过队列
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public UserCenterAsyncApi withDeadline(long duration, TimeUnit unit) {
+            return this;
+        }
+
+        @Override
+        public Single<UserInfoReply> requestUserInfo(String token) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<ResultReply> updateUserInfo(String token, UserInfo userInfo) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<LoginReply> login(String username, String password) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<VerificationReply> requestVerificationCode(String email) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<RegisterReply> register(String email, String verificationCode, String password) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<AuthorizationReply> requestAuthorization(String username, String password) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<NewPasswordReply> changePassword(String token, String newPassword, String authorization) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<UploadCheckpoint> requestUploadCheckpoint(String token, String deviceId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<UploadCheckpoint> uploadSteps(StepBatchSource source) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
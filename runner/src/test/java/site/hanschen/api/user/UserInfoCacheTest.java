@@ -0,0 +1,296 @@
+package site.hanschen.api.user;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 使用假的{@link UserCenterAsyncApi}测试{@link UserInfoCache}
+ *
+ * @author HansChen
+ */
+public class UserInfoCacheTest {
+
+    private static final String TOKEN     = "token";
+    private static final long   TTL       = TimeUnit.MINUTES.toMillis(10);
+    private static final long   MAX_STALE = TimeUnit.DAYS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private TestScheduler mScheduler;
+    private FakeApi       mApi;
+    private File          mDir;
+    private UserInfoCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new TestScheduler();
+        mApi = new FakeApi();
+        mDir = new File(mFolder.getRoot(), "user-info");
+        mCache = newCache();
+    }
+
+    @Test
+    public void freshEntryIsServedFromCache() throws Exception {
+        mApi.mNickname = "hans";
+        assertNicknames(request(), "hans");
+        assertEquals(1, mCache.getMisses());
+
+        mApi.mNickname = "chen";
+        mScheduler.advanceTimeBy(TTL - 1, TimeUnit.MILLISECONDS);
+        assertNicknames(request(), "hans");
+        assertEquals(1, mCache.getHits());
+        assertEquals(1, mApi.mRequests);
+    }
+
+    @Test
+    public void staleEntryIsServedThenRefreshed() throws Exception {
+        mApi.mNickname = "hans";
+        request();
+        mApi.mNickname = "chen";
+        mScheduler.advanceTimeBy(TTL, TimeUnit.MILLISECONDS);
+
+        // 先返回旧的数据，更新后再返回新的
+        assertNicknames(request(), "hans", "chen");
+        assertEquals(1, mCache.getStaleHits());
+        assertEquals(2, mApi.mRequests);
+
+        assertNicknames(request(), "chen");
+        assertEquals(1, mCache.getHits());
+    }
+
+    @Test
+    public void unchangedRefreshIsNotEmittedTwice() throws Exception {
+        mApi.mNickname = "hans";
+        request();
+        mScheduler.advanceTimeBy(TTL, TimeUnit.MILLISECONDS);
+
+        assertNicknames(request(), "hans");
+        assertEquals(2, mApi.mRequests);
+    }
+
+    @Test
+    public void failedRefreshKeepsStaleEntry() throws Exception {
+        mApi.mNickname = "hans";
+        request();
+        mApi.mFail = true;
+        mScheduler.advanceTimeBy(TTL, TimeUnit.MILLISECONDS);
+
+        TestObserver<UserInfoReply> observer = request();
+        observer.assertNoErrors();
+        observer.assertComplete();
+        assertNicknames(observer, "hans");
+    }
+
+    @Test
+    public void expiredEntryWaitsForNetwork() throws Exception {
+        mApi.mNickname = "hans";
+        request();
+        mApi.mNickname = "chen";
+        mScheduler.advanceTimeBy(TTL + MAX_STALE, TimeUnit.MILLISECONDS);
+
+        assertNicknames(request(), "chen");
+        assertEquals(2, mCache.getMisses());
+
+        mApi.mFail = true;
+        mScheduler.advanceTimeBy(TTL + MAX_STALE, TimeUnit.MILLISECONDS);
+        request().assertError(IllegalStateException.class);
+    }
+
+    @Test
+    public void entriesSurviveRestart() throws Exception {
+        mApi.mNickname = "hans";
+        request();
+
+        mCache = newCache();
+        assertNicknames(request(), "hans");
+        assertEquals(1, mCache.getHits());
+        assertEquals(1, mApi.mRequests);
+    }
+
+    @Test
+    public void updateInvalidatesEntry() throws Exception {
+        mApi.mNickname = "hans";
+        request();
+
+        TestObserver<ResultReply> update = mCache.updateUserInfo(TOKEN, UserInfo.newBuilder().setNickname("chen").build()).test();
+        update.assertValueCount(1);
+        assertNicknames(request(), "chen");
+        assertEquals(2, mCache.getMisses());
+    }
+
+    @Test
+    public void clearRemovesEveryToken() throws Exception {
+        mApi.mNickname = "hans";
+        request();
+        mCache.requestUserInfo("other").test();
+        mScheduler.triggerActions();
+        assertEquals(2, mDir.listFiles().length);
+
+        mCache.clear();
+        assertEquals(0, mDir.listFiles().length);
+        mCache = newCache();
+        request();
+        assertEquals(1, mCache.getMisses());
+    }
+
+    @Test
+    public void replyAfterInvalidateIsNotCached() throws Exception {
+        mApi.mNickname = "hans";
+        mApi.mPending = true;
+        TestObserver<UserInfoReply> observer = mCache.requestUserInfo(TOKEN).test();
+        mScheduler.triggerActions();
+
+        // 请求返回前退出登录，返回的旧数据不再写入缓存
+        mCache.clear();
+        mApi.mPending = false;
+        mApi.mPendingEmitter.onSuccess(mApi.reply());
+        mScheduler.triggerActions();
+        assertNicknames(observer, "hans");
+
+        request();
+        assertEquals(2, mCache.getMisses());
+    }
+
+    @Test
+    public void invalidTokenDropsEntry() throws Exception {
+        mApi.mNickname = "hans";
+        request();
+        mApi.mTokenInvalid = true;
+        mScheduler.advanceTimeBy(TTL, TimeUnit.MILLISECONDS);
+
+        request();
+        mApi.mTokenInvalid = false;
+        request();
+        assertEquals(2, mCache.getMisses());
+    }
+
+    private UserInfoCache newCache() {
+        return new UserInfoCache(mApi, mDir, mScheduler, TTL, MAX_STALE, TimeUnit.MILLISECONDS);
+    }
+
+    private TestObserver<UserInfoReply> request() {
+        TestObserver<UserInfoReply> observer = mCache.requestUserInfo(TOKEN).test();
+        mScheduler.triggerActions();
+        observer.assertTerminated();
+        return observer;
+    }
+
+    private static void assertNicknames(TestObserver<UserInfoReply> observer, String... nicknames) {
+        observer.assertValueCount(nicknames.length);
+        for (int i = 0; i < nicknames.length; i++) {
+            assertEquals(nicknames[i], observer.values().get(i).getUserInfo().getNickname());
+        }
+    }
+
+    /**
+     * 只实现了用户信息相关的接口
+     */
+    private static class FakeApi implements UserCenterAsyncApi {
+
+        private String                       mNickname;
+        private boolean                      mFail;
+        private boolean                      mTokenInvalid;
+        private boolean                      mPending;
+        private SingleEmitter<UserInfoReply> mPendingEmitter;
+        private int                          mRequests;
+
+        UserInfoReply reply() {
+            return UserInfoReply.newBuilder()
+                                .setSucceed(true)
+                                .setUserInfo(UserInfo.newBuilder().setNickname(mNickname).build())
+                                .build();
+        }
+
+        @Override
+        public Single<UserInfoReply> requestUserInfo(String token) {
+            return Single.create(new SingleOnSubscribe<UserInfoReply>() {
+                @Override
+                public void subscribe(SingleEmitter<UserInfoReply> e) throws Exception {
+                    mRequests++;
+                    if (mPending) {
+                        mPendingEmitter = e;
+                    } else if (mFail) {
+                        e.onError(new IllegalStateException("unavailable"));
+                    } else if (mTokenInvalid) {
+                        e.onSuccess(UserInfoReply.newBuilder()
+                                                 .setSucceed(false)
+                                                 .setErrCode(UserInfoReply.ErrorCode.TOKEN_INVALID)
+                                                 .build());
+                    } else {
+                        e.onSuccess(reply());
+                    }
+                }
+            });
+        }
+
+        @Override
+        public Single<ResultReply> updateUserInfo(String token, UserInfo userInfo) {
+            mNickname = userInfo.getNickname();
+            return Single.just(ResultReply.newBuilder().setSecceed(true).build());
+        }
+
+        @Override
+        public Single<ResultReply> updateUserInfo(UpdateRequest request) {
+            return updateUserInfo(request.getToken(), request.getUserInfo());
+        }
+
+        @Override
+        public UserCenterAsyncApi withDeadline(long duration, TimeUnit unit) {
+            return this;
+        }
+
+        @Override
+        public Single<LoginReply> login(String username, String password) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<VerificationReply> requestVerificationCode(String email) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<RegisterReply> register(String email, String verificationCode, String password) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<AuthorizationReply> requestAuthorization(String username, String password) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<NewPasswordReply> changePassword(String token, String newPassword, String authorization) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<NewPasswordReply> changePassword(NewPassword request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<UploadCheckpoint> requestUploadCheckpoint(String token, String deviceId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<UploadCheckpoint> uploadSteps(StepBatchSource source) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
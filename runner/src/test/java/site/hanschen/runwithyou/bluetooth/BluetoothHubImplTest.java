@@ -0,0 +1,281 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.schedulers.Schedulers;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 多个成员通过{@link InMemoryTransport}连接到同一个{@link BluetoothHubImpl}
+ *
+ * @author HansChen
+ */
+public class BluetoothHubImplTest {
+
+    private static final int  MAX_PEERS     = 7;
+    private static final long AWAIT_TIMEOUT = 5000;
+
+    private Map<String, InMemoryTransport> mNetwork;
+    private InMemoryTransport              mHubTransport;
+    private ScheduledExecutorService       mCallbackExecutor;
+    private RecordingListener              mListener;
+    private BluetoothHubImpl               mHub;
+
+    @Before
+    public void setUp() throws Exception {
+        mNetwork = new ConcurrentHashMap<>();
+        mHubTransport = new InMemoryTransport(mNetwork, new Device("hub", "00:00:00:00:00:10"));
+        mCallbackExecutor = Executors.newSingleThreadScheduledExecutor();
+        mListener = new RecordingListener();
+        mHub = new BluetoothHubImpl(mHubTransport, Schedulers.from(mCallbackExecutor), MAX_PEERS);
+        mHub.registerListener(mListener);
+        mHub.start(false);
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mHubTransport.getOpenServers() == 1;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHub.shutdown();
+        assertTrue(mHub.awaitTermination(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        mCallbackExecutor.shutdown();
+    }
+
+    @Test
+    public void exchangeFramesWithEveryPeer() throws Exception {
+        Client[] clients = connectClients(MAX_PEERS);
+        for (int i = 0; i < clients.length; i++) {
+            clients[i].mWriter.write(1, new byte[]{(byte) i});
+        }
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mListener.mReceived.size() == MAX_PEERS;
+            }
+        });
+        for (Map.Entry<Integer, byte[]> entry : mListener.mReceived.entrySet()) {
+            // 每个成员的帧交给对应的编号
+            assertEquals("client" + entry.getValue()[0], mListener.mDevices.get(entry.getKey()).getName());
+        }
+
+        assertEquals(MAX_PEERS, mHub.broadcast(2, new byte[]{42}, 0, 1));
+        for (Client client : clients) {
+            assertEquals(42, client.takePayload()[0]);
+        }
+        for (int peerId : mListener.mDevices.keySet()) {
+            assertNotNull(mHub.getSendMetrics(peerId));
+        }
+    }
+
+    @Test
+    public void slowPeerDoesNotStallOthers() throws Exception {
+        Client[] clients = connectClients(6);
+        Client slow = clients[0];
+        mHubTransport.setStalled(slow.mDevice, true);
+
+        byte[] payload = new byte[1000];
+        int rejected = 0;
+        for (int n = 0; n < 200; n++) {
+            payload[0] = (byte) n;
+            int accepted = mHub.broadcast(3, payload, 0, payload.length);
+            assertTrue(accepted >= clients.length - 1);
+            rejected += clients.length - accepted;
+            // 其他成员不受影响，每一帧都及时收到
+            for (int i = 1; i < clients.length; i++) {
+                assertEquals((byte) n, clients[i].takePayload()[0]);
+            }
+        }
+        assertTrue(rejected > 0);
+        assertTrue(mListener.mWritable.get() == 0);
+
+        // 慢的成员恢复后收到已经排队的帧，并通知可以继续发送
+        mHubTransport.setStalled(slow.mDevice, false);
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mListener.mWritable.get() > 0;
+            }
+        });
+        assertEquals(0, slow.takePayload()[0]);
+        assertEquals(clients.length, mHub.broadcast(3, payload, 0, payload.length));
+    }
+
+    @Test
+    public void acceptAgainWhenPeerLeaves() throws Exception {
+        Client[] clients = connectClients(MAX_PEERS);
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mHubTransport.getOpenServers() == 0;
+            }
+        });
+        // 满员后不再接受连接
+        Client extra = new Client(MAX_PEERS);
+        assertFalse(extra.tryConnect());
+
+        clients[3].close();
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mListener.mDisconnected.get() == 1 && mHubTransport.getOpenServers() == 1;
+            }
+        });
+        assertTrue(extra.tryConnect());
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mListener.mDevices.size() == MAX_PEERS + 1 && mHub.getPeerCount() == MAX_PEERS;
+            }
+        });
+    }
+
+    @Test
+    public void stopDisconnectsEveryPeer() throws Exception {
+        Client[] clients = connectClients(6);
+        mHub.stop();
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mListener.mDisconnected.get() == 6;
+            }
+        });
+        for (Client client : clients) {
+            assertTrue(client.mClosed.await(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(0, mHub.getPeerCount());
+        assertEquals(0, mHubTransport.getOpenServers());
+        assertEquals(0, mHubTransport.getOpenLinks());
+        assertEquals(0, mHub.broadcast(1, new byte[1], 0, 1));
+    }
+
+    private Client[] connectClients(final int count) throws Exception {
+        Client[] clients = new Client[count];
+        for (int i = 0; i < count; i++) {
+            clients[i] = new Client(i);
+            assertTrue(clients[i].tryConnect());
+        }
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mListener.mDevices.size() == count;
+            }
+        });
+        return clients;
+    }
+
+    private static void awaitCondition(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT;
+        while (!condition.call()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("condition not met in " + AWAIT_TIMEOUT + "ms");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * 成员端直接读写帧，不经过{@link ControlerCore}
+     */
+    private class Client implements Runnable {
+
+        private final InMemoryTransport           mTransport;
+        private final Device                      mDevice;
+        private final LinkedBlockingQueue<byte[]> mReceived = new LinkedBlockingQueue<>();
+        private final CountDownLatch              mClosed   = new CountDownLatch(1);
+        private       Transport.Link              mLink;
+        private       FrameWriter                 mWriter;
+
+        Client(int index) {
+            mDevice = new Device("client" + index, String.format("00:00:00:00:01:%02d", index));
+            mTransport = new InMemoryTransport(mNetwork, mDevice);
+        }
+
+        boolean tryConnect() throws IOException {
+            Transport.Link link = mTransport.createLink(mHubTransport.getDevice(), false);
+            try {
+                link.connect();
+            } catch (IOException e) {
+                return false;
+            }
+            mLink = link;
+            mWriter = new FrameWriter(link.getOutputStream());
+            new Thread(this, "Client " + mDevice.getName()).start();
+            return true;
+        }
+
+        @Override
+        public void run() {
+            try {
+                FrameReader reader = new FrameReader(mLink.getInputStream(), new FramePool(4));
+                while (true) {
+                    Frame frame = reader.read();
+                    mReceived.offer(frame.copyPayload());
+                    frame.recycle();
+                }
+            } catch (IOException e) {
+                mClosed.countDown();
+            }
+        }
+
+        byte[] takePayload() throws InterruptedException {
+            byte[] payload = mReceived.poll(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+            assertNotNull(payload);
+            return payload;
+        }
+
+        void close() {
+            mLink.close();
+        }
+    }
+
+    private static class RecordingListener implements HubListener {
+
+        private final Map<Integer, Device>        mDevices      = new ConcurrentHashMap<>();
+        private final AtomicInteger               mDisconnected = new AtomicInteger();
+        private final AtomicInteger               mWritable     = new AtomicInteger();
+        private final Map<Integer, byte[]>        mReceived     = new ConcurrentHashMap<>();
+
+        @Override
+        public void onPeerConnected(int peerId, Device device) {
+            mDevices.put(peerId, device);
+        }
+
+        @Override
+        public void onPeerDisconnected(int peerId) {
+            mDisconnected.incrementAndGet();
+        }
+
+        @Override
+        public void onDataReceived(int peerId, Frame frame) {
+            mReceived.put(peerId, frame.copyPayload());
+        }
+
+        @Override
+        public void onPeerWritable(int peerId) {
+            mWritable.incrementAndGet();
+        }
+    }
+}
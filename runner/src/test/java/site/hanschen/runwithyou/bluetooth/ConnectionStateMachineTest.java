@@ -0,0 +1,174 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.TestScheduler;
+import site.hanschen.runwithyou.bluetooth.ConnectionStateMachine.State;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author HansChen
+ */
+public class ConnectionStateMachineTest {
+
+    private static final long BASE_DELAY   = 1000;
+    private static final long MAX_DELAY    = 8000;
+    private static final int  MAX_ATTEMPTS = 4;
+
+    private TestScheduler          mScheduler;
+    private RecordingActions       mActions;
+    private ConnectionStateMachine mMachine;
+    private Device                 mDevice;
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new TestScheduler();
+        mActions = new RecordingActions();
+        mMachine = new ConnectionStateMachine(mActions,
+                                              new ReconnectBackoff(BASE_DELAY, MAX_DELAY, MAX_ATTEMPTS, new Random(1)),
+                                              mScheduler);
+        mDevice = new Device("partner", "00:11:22:33:44:55");
+    }
+
+    @Test
+    public void connectAndLoseAsClient() throws Exception {
+        mMachine.connect(mDevice, false);
+        assertEquals(State.CONNECTING, mMachine.getState());
+        assertTrue(mMachine.onConnected(mDevice, false));
+        assertEquals(State.CONNECTED, mMachine.getState());
+
+        // 连接断开后等待退避时间，然后重连缓存的设备
+        mMachine.onConnectionLost();
+        assertEquals(State.WAITING, mMachine.getState());
+        assertEquals(1, mActions.mLost);
+        long delay = mActions.mDelays.get(0);
+        assertTrue(delay >= BASE_DELAY / 2 && delay <= BASE_DELAY);
+        mScheduler.advanceTimeBy(delay, TimeUnit.MILLISECONDS);
+        assertEquals(State.CONNECTING, mMachine.getState());
+        assertEquals(2, mActions.mConnects.size());
+        assertSame(mDevice, mActions.mConnects.get(1));
+
+        // 重连成功后重试次数清零
+        assertTrue(mMachine.onConnected(mDevice, false));
+        mMachine.onConnectionLost();
+        assertEquals(Integer.valueOf(1), mActions.mAttempts.get(1));
+    }
+
+    @Test
+    public void backOffUntilGiveUp() throws Exception {
+        mMachine.connect(mDevice, true);
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            mMachine.onConnectFailed();
+            assertEquals(State.WAITING, mMachine.getState());
+            long delay = mActions.mDelays.get(attempt - 1);
+            long cap = Math.min(MAX_DELAY, BASE_DELAY << (attempt - 1));
+            assertTrue(delay >= cap / 2 && delay <= cap);
+            // 等待时间未到不会重连
+            mScheduler.advanceTimeBy(delay - 1, TimeUnit.MILLISECONDS);
+            assertEquals(State.WAITING, mMachine.getState());
+            mScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+            assertEquals(State.CONNECTING, mMachine.getState());
+        }
+        mMachine.onConnectFailed();
+        assertEquals(State.IDLE, mMachine.getState());
+        assertEquals(State.CONNECTING, mActions.mGaveUpFrom);
+        assertEquals(MAX_ATTEMPTS + 1, mActions.mConnects.size());
+        assertTrue(mActions.mSecure);
+    }
+
+    @Test
+    public void serverListensAgainAfterLoss() throws Exception {
+        assertTrue(mMachine.listen(false, 30000));
+        assertTrue(mMachine.onConnected(mDevice, false));
+        assertFalse(mMachine.listen(false, 30000));
+
+        mMachine.onConnectionLost();
+        assertEquals(State.LISTENING, mMachine.getState());
+        assertEquals(2, mActions.mListens);
+        assertTrue(mActions.mDelays.isEmpty());
+
+        mMachine.onListenTimeout();
+        assertEquals(State.IDLE, mMachine.getState());
+        assertEquals(State.LISTENING, mActions.mGaveUpFrom);
+    }
+
+    @Test
+    public void resetCancelsPendingReconnect() throws Exception {
+        mMachine.connect(mDevice, false);
+        mMachine.onConnectFailed();
+        mMachine.reset();
+        mScheduler.advanceTimeBy(MAX_DELAY * 2, TimeUnit.MILLISECONDS);
+
+        assertEquals(State.IDLE, mMachine.getState());
+        assertEquals(1, mActions.mConnects.size());
+        // 缓存的设备保留，用于下次连接
+        assertSame(mDevice, mMachine.getCachedDevice());
+    }
+
+    @Test
+    public void rejectUnexpectedConnection() throws Exception {
+        assertFalse(mMachine.onConnected(mDevice, false));
+        mMachine.onConnectionLost();
+        mMachine.onConnectFailed();
+        assertEquals(State.IDLE, mMachine.getState());
+        assertEquals(0, mActions.mLost);
+        assertTrue(mActions.mDelays.isEmpty());
+    }
+
+    private static class RecordingActions implements ConnectionStateMachine.Actions {
+
+        private final List<Device>  mConnects = new ArrayList<>();
+        private final List<Long>    mDelays   = new ArrayList<>();
+        private final List<Integer> mAttempts = new ArrayList<>();
+        private       int           mListens;
+        private       int           mLost;
+        private       boolean       mSecure;
+        private       State         mGaveUpFrom;
+
+        @Override
+        public void startListening(boolean secure, int timeout) {
+            mListens++;
+        }
+
+        @Override
+        public void startConnecting(Device device, boolean secure) {
+            mConnects.add(device);
+            mSecure = secure;
+        }
+
+        @Override
+        public void closeConnections() {
+        }
+
+        @Override
+        public void onConnected(Device device) {
+        }
+
+        @Override
+        public void onConnectionLost() {
+            mLost++;
+        }
+
+        @Override
+        public void onReconnectScheduled(Device device, int attempt, long delay) {
+            mAttempts.add(attempt);
+            mDelays.add(delay);
+        }
+
+        @Override
+        public void onGaveUp(State from) {
+            mGaveUpFrom = from;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 两个{@link ControlerCore}通过{@link InMemoryTransport}连接
+ *
+ * @author HansChen
+ */
+public class ControlerCoreTest {
+
+    private static final int  LISTEN_TIMEOUT = 60000;
+    private static final long AWAIT_TIMEOUT  = 5000;
+
+    private AtomicReference<Throwable> mUncaught;
+    private InMemoryTransport          mAliceTransport;
+    private InMemoryTransport          mBobTransport;
+    private RecordingListener          mAliceListener;
+    private RecordingListener          mBobListener;
+    private ControlerCore              mAlice;
+    private ControlerCore              mBob;
+
+    @Before
+    public void setUp() throws Exception {
+        mUncaught = new AtomicReference<>();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                mUncaught.compareAndSet(null, e);
+            }
+        });
+        Map<String, InMemoryTransport> network = new ConcurrentHashMap<>();
+        mAliceTransport = new InMemoryTransport(network, new Device("alice", "00:00:00:00:00:01"));
+        mBobTransport = new InMemoryTransport(network, new Device("bob", "00:00:00:00:00:02"));
+        mAliceListener = new RecordingListener();
+        mBobListener = new RecordingListener();
+        mAlice = new ControlerCore(mAliceTransport, mAliceListener, new ReconnectBackoff(10, 40, 5, new Random(1)));
+        mBob = new ControlerCore(mBobTransport, mBobListener, new ReconnectBackoff(10, 40, 5, new Random(2)));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mAlice.shutdown();
+        mBob.shutdown();
+        assertTrue(mAlice.awaitTermination(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(mBob.awaitTermination(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        Thread.setDefaultUncaughtExceptionHandler(null);
+        assertNull(mUncaught.get());
+    }
+
+    @Test
+    public void connectAndExchangeFrames() throws Exception {
+        connectAliceToBob(1);
+
+        assertEquals(ConnectionStateMachine.State.CONNECTED, mAlice.getState());
+        assertEquals(mBobTransport.getDevice(), mAliceListener.mLastDevice.get());
+        assertEquals(mAliceTransport.getDevice(), mBobListener.mLastDevice.get());
+        assertTrue(mAlice.sendData(1, new byte[]{1, 2, 3}, 0, 3));
+        assertTrue(mBob.sendData(2, new byte[]{4, 5}, 0, 2));
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3}, mBobListener.takePayload()));
+        assertTrue(Arrays.equals(new byte[]{4, 5}, mAliceListener.takePayload()));
+        assertNotNull(mAlice.getSendMetrics());
+    }
+
+    @Test
+    public void reconnectAfterLoss() throws Exception {
+        connectAliceToBob(1);
+
+        // 主动连接的一方重连，监听的一方重新监听
+        mBobTransport.dropLinks();
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mAliceListener.mSucceed.get() == 2 && mBobListener.mSucceed.get() == 2;
+            }
+        });
+        assertEquals(1, mAliceListener.mLost.get());
+        assertEquals(1, mBobListener.mLost.get());
+        assertTrue(mAliceListener.mReconnecting.get() >= 1);
+        assertTrue(mAlice.sendData(1, new byte[]{7}, 0, 1));
+        assertTrue(Arrays.equals(new byte[]{7}, mBobListener.takePayload()));
+    }
+
+    @Test
+    public void listenTimeout() throws Exception {
+        mAlice.listen(false, 30);
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mAliceListener.mListenTimeout.get() == 1;
+            }
+        });
+        assertEquals(ConnectionStateMachine.State.IDLE, mAlice.getState());
+        assertEquals(0, mAliceTransport.getOpenServers());
+    }
+
+    @Test
+    public void listenFailure() throws Exception {
+        mAliceTransport.setListenFails(true);
+        mAlice.listen(true, LISTEN_TIMEOUT);
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mAliceListener.mListenTimeout.get() == 1;
+            }
+        });
+        assertEquals(ConnectionStateMachine.State.IDLE, mAlice.getState());
+
+        // 失败的监听不影响之后的连接
+        mAliceTransport.setListenFails(false);
+        mBob.listen(false, LISTEN_TIMEOUT);
+        mAlice.listen(false, LISTEN_TIMEOUT);
+        mBob.connect(mAliceTransport.getDevice(), false);
+        awaitSucceed(mAliceListener, 1);
+    }
+
+    @Test
+    public void giveUpWhenNobodyListens() throws Exception {
+        mAlice.connect(mBobTransport.getDevice(), false);
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mAliceListener.mFailed.get() == 1;
+            }
+        });
+        assertEquals(5, mAliceListener.mReconnecting.get());
+        assertEquals(ConnectionStateMachine.State.IDLE, mAlice.getState());
+        assertFalse(mAlice.sendData(1, new byte[1], 0, 1));
+    }
+
+    @Test
+    public void stressConnectResetListen() throws Exception {
+        mBob.listen(false, LISTEN_TIMEOUT);
+        mAliceTransport.setConnectDelay(1);
+        final Device bob = mBobTransport.getDevice();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger commands = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final Random random = new Random(i);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int n = 0; n < 500; n++) {
+                        switch (random.nextInt(4)) {
+                            case 0:
+                                mAlice.connect(bob, false);
+                                break;
+                            case 1:
+                                mAlice.reset();
+                                break;
+                            case 2:
+                                mAlice.listen(random.nextBoolean(), 20);
+                                break;
+                            default:
+                                mAlice.sendData(1, new byte[]{(byte) n}, 0, 1);
+                                break;
+                        }
+                        commands.incrementAndGet();
+                        if (random.nextInt(8) == 0) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(AWAIT_TIMEOUT * 4);
+        }
+        assertEquals(threads.length * 500, commands.get());
+
+        // 所有命令处理完后，不会遗留任何监听或连接
+        mAlice.reset();
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mAlice.getState() == ConnectionStateMachine.State.IDLE
+                       && mAliceTransport.getOpenServers() == 0
+                       && mAliceTransport.getOpenLinks() == 0
+                       && mBobTransport.getOpenLinks() == 0
+                       && mBob.getState() == ConnectionStateMachine.State.LISTENING;
+            }
+        });
+        assertTrue(countThreads("BluetoothIO") <= 2 * ControlerCore.IO_THREADS);
+        assertTrue(countThreads("BluetoothLoop") <= 2);
+        assertNull(mUncaught.get());
+
+        // 之后仍然可以正常连接和收发
+        int succeed = mAliceListener.mSucceed.get();
+        mBobListener.mReceived.clear();
+        mAlice.connect(bob, false);
+        awaitSucceed(mAliceListener, succeed + 1);
+        assertTrue(mAlice.sendData(3, new byte[]{9}, 0, 1));
+        assertTrue(Arrays.equals(new byte[]{9}, mBobListener.takePayload()));
+    }
+
+    private void connectAliceToBob(int expected) throws Exception {
+        mBob.listen(false, LISTEN_TIMEOUT);
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mBobTransport.getOpenServers() == 1;
+            }
+        });
+        mAlice.connect(mBobTransport.getDevice(), false);
+        awaitSucceed(mAliceListener, expected);
+        awaitSucceed(mBobListener, expected);
+    }
+
+    private static void awaitSucceed(final RecordingListener listener, final int count) throws Exception {
+        awaitCondition(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return listener.mSucceed.get() >= count;
+            }
+        });
+    }
+
+    private static void awaitCondition(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT;
+        while (!condition.call()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("condition not met in " + AWAIT_TIMEOUT + "ms");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static int countThreads(String prefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static class RecordingListener implements BluetoothListener {
+
+        private final AtomicInteger               mSucceed       = new AtomicInteger();
+        private final AtomicInteger               mFailed        = new AtomicInteger();
+        private final AtomicInteger               mLost          = new AtomicInteger();
+        private final AtomicInteger               mReconnecting  = new AtomicInteger();
+        private final AtomicInteger               mListenTimeout = new AtomicInteger();
+        private final AtomicReference<Device>     mLastDevice    = new AtomicReference<>();
+        private final LinkedBlockingQueue<byte[]> mReceived      = new LinkedBlockingQueue<>();
+
+        byte[] takePayload() throws InterruptedException {
+            byte[] payload = mReceived.poll(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+            assertNotNull(payload);
+            return payload;
+        }
+
+        @Override
+        public void onListenStart() {
+        }
+
+        @Override
+        public void onListenTimeout() {
+            mListenTimeout.incrementAndGet();
+        }
+
+        @Override
+        public void onConnectStart(Device target) {
+        }
+
+        @Override
+        public void onConnectSucceed(Device device) {
+            mLastDevice.set(device);
+            mSucceed.incrementAndGet();
+        }
+
+        @Override
+        public void onConnectFailed(Device device) {
+            mFailed.incrementAndGet();
+        }
+
+        @Override
+        public void onConnectLost() {
+            mLost.incrementAndGet();
+        }
+
+        @Override
+        public void onReconnecting(Device device, int attempt) {
+            mReconnecting.incrementAndGet();
+        }
+
+        @Override
+        public void onDataSent(int frames, int bytes) {
+        }
+
+        @Override
+        public void onDataReceived(Frame frame) {
+            mReceived.offer(frame.copyPayload());
+            frame.recycle();
+        }
+
+        @Override
+        public void onWritable() {
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * @author HansChen
+ */
+public class FrameCodecTest {
+
+    private static final int FRAME_COUNT = 20000;
+
+    @Test
+    public void pipelinedFramesOverPipe() throws Exception {
+        PipedInputStream in = new PipedInputStream(1024);
+        final PipedOutputStream out = new PipedOutputStream(in);
+        final FrameWriter writer = new FrameWriter(out);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < FRAME_COUNT; i++) {
+                        writer.write(i % 256, payloadOf(i));
+                    }
+                    out.close();
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }
+        });
+        sender.start();
+
+        FramePool pool = new FramePool(4);
+        FrameReader reader = new FrameReader(in, pool);
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            Frame frame = reader.read();
+            assertEquals(i % 256, frame.getType());
+            assertArrayEquals(payloadOf(i), frame.copyPayload());
+            frame.recycle();
+        }
+        sender.join();
+        assertNull(error.get());
+        // 每一帧处理完立即回收，只需要分配一个Frame
+        assertEquals(1, pool.getCreatedCount());
+    }
+
+    @Test
+    public void heldFrameIsNotReused() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameWriter writer = new FrameWriter(out);
+        writer.write(1, new byte[]{1, 1, 1});
+        writer.write(2, new byte[]{2, 2});
+        writer.write(3, new byte[]{3});
+
+        FramePool pool = new FramePool(4);
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(out.toByteArray()), pool);
+        List<Frame> held = new ArrayList<>();
+        held.add(reader.read());
+        held.add(reader.read());
+        assertNotSame(held.get(0).getPayload(), held.get(1).getPayload());
+        assertArrayEquals(new byte[]{1, 1, 1}, held.get(0).copyPayload());
+        assertArrayEquals(new byte[]{2, 2}, held.get(1).copyPayload());
+
+        // 回收之后才会被下一帧重用
+        byte[] recycled = held.get(0).getPayload();
+        held.get(0).recycle();
+        Frame third = reader.read();
+        assertSame(recycled, third.getPayload());
+        assertEquals(3, third.getType());
+        assertEquals(1, third.getLength());
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    @Test
+    public void emptyAndMaxPayload() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameWriter writer = new FrameWriter(out);
+        writer.write(0, new byte[0]);
+        writer.write(Frame.MAX_TYPE, payloadOf(7, Frame.MAX_PAYLOAD));
+        assertEquals(Frame.HEADER_SIZE * 2 + Frame.MAX_PAYLOAD, out.size());
+
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(out.toByteArray()), new FramePool(1));
+        Frame empty = reader.read();
+        assertEquals(0, empty.getLength());
+        empty.recycle();
+        Frame max = reader.read();
+        assertEquals(Frame.MAX_TYPE, max.getType());
+        assertArrayEquals(payloadOf(7, Frame.MAX_PAYLOAD), max.copyPayload());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectUnknownVersion() throws Exception {
+        byte[] data = {(byte) (Frame.VERSION + 1), 1, 0, 0};
+        new FrameReader(new ByteArrayInputStream(data), new FramePool(1)).read();
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectOversizedFrame() throws Exception {
+        int length = Frame.MAX_PAYLOAD + 1;
+        byte[] data = {(byte) Frame.VERSION, 1, (byte) (length >>> 8), (byte) length};
+        new FrameReader(new ByteArrayInputStream(data), new FramePool(1)).read();
+    }
+
+    @Test
+    public void truncatedFrameRecyclesBuffer() throws Exception {
+        byte[] data = {(byte) Frame.VERSION, 1, 0, 10, 1, 2, 3};
+        FramePool pool = new FramePool(1);
+        try {
+            new FrameReader(new ByteArrayInputStream(data), pool).read();
+            fail();
+        } catch (EOFException e) {
+            // 读取失败的Frame已归还，下次获取时重用
+        }
+        pool.obtain();
+        assertEquals(1, pool.getCreatedCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectAccessAfterRecycle() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new FrameWriter(out).write(1, new byte[]{1});
+        Frame frame = new FrameReader(new ByteArrayInputStream(out.toByteArray()), new FramePool(1)).read();
+        frame.recycle();
+        frame.getPayload();
+    }
+
+    /**
+     * 大部分是小帧，夹杂少量大帧
+     */
+    private static byte[] payloadOf(int seed) {
+        return payloadOf(seed, seed % 64 == 0 ? seed % Frame.MAX_PAYLOAD : seed % 64);
+    }
+
+    private static byte[] payloadOf(int seed, int length) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (seed + i);
+        }
+        return payload;
+    }
+}
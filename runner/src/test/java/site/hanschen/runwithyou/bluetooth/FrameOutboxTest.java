@@ -0,0 +1,197 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import site.hanschen.runwithyou.utils.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author HansChen
+ */
+public class FrameOutboxTest {
+
+    private static final int CAPACITY = Frame.HEADER_SIZE + Frame.MAX_PAYLOAD;
+
+    private GatedOutputStream mOut;
+    private RecordingCallback mCallback;
+    private FakeClock         mClock;
+    private FrameOutbox       mOutbox;
+    private Thread            mWriter;
+
+    @Before
+    public void setUp() throws Exception {
+        mOut = new GatedOutputStream();
+        mCallback = new RecordingCallback();
+        mClock = new FakeClock();
+        mOutbox = new FrameOutbox(mOut, mCallback, mClock, CAPACITY);
+        mWriter = new Thread(mOutbox);
+        mWriter.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mOutbox.close();
+        mOut.mGate.release(1000);
+        mWriter.join(5000);
+    }
+
+    @Test
+    public void coalesceFramesWhileWriting() throws Exception {
+        assertTrue(mOutbox.offer(0, new byte[]{0}));
+        // 写线程阻塞在第一次写入，期间的帧合并为下一次写入
+        assertTrue(mOut.mEntered.tryAcquire(5, TimeUnit.SECONDS));
+        byte[] payload = new byte[8];
+        for (int i = 1; i <= 100; i++) {
+            payload[0] = (byte) i;
+            assertTrue(mOutbox.offer(1, payload));
+        }
+        assertEquals(100, mOutbox.getMetrics().getQueuedFrames());
+        mOut.mGate.release(2);
+        mCallback.awaitFrames(101);
+
+        assertEquals(2, mOut.mWrites.get());
+        assertEquals(2, mOutbox.getMetrics().getWrites());
+        assertEquals(101, mOutbox.getMetrics().getSentFrames());
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(mOut.toByteArray()), new FramePool(1));
+        assertEquals(0, reader.read().getType());
+        for (int i = 1; i <= 100; i++) {
+            Frame frame = reader.read();
+            assertEquals(1, frame.getType());
+            assertEquals(8, frame.getLength());
+            assertEquals(i, frame.getPayload()[0]);
+            frame.recycle();
+        }
+    }
+
+    @Test
+    public void rejectWhenFullAndSignalWritable() throws Exception {
+        assertTrue(mOutbox.offer(0, new byte[0]));
+        assertTrue(mOut.mEntered.tryAcquire(5, TimeUnit.SECONDS));
+
+        // 对方不读取时offer立即返回false，不阻塞调用方
+        byte[] payload = new byte[1000];
+        int accepted = 0;
+        while (mOutbox.offer(1, payload)) {
+            accepted++;
+        }
+        assertEquals(CAPACITY / (Frame.HEADER_SIZE + payload.length), accepted);
+        assertFalse(mOutbox.offer(1, payload));
+        assertEquals(2, mOutbox.getMetrics().getRejectedFrames());
+        assertEquals(0, mCallback.mWritable.get());
+
+        mOut.mGate.release(2);
+        mCallback.awaitFrames(1 + accepted);
+        assertEquals(1, mCallback.mWritable.get());
+        assertTrue(mOutbox.offer(1, payload));
+    }
+
+    @Test
+    public void recordWriteLatency() throws Exception {
+        mOut.mGate.release(1000);
+        mOut.mOnWrite = new Runnable() {
+            @Override
+            public void run() {
+                mClock.mNow.addAndGet(30);
+            }
+        };
+        assertTrue(mOutbox.offer(0, new byte[100]));
+        mCallback.awaitFrames(1);
+        mClock.mNow.addAndGet(970);
+
+        SendMetrics metrics = mOutbox.getMetrics();
+        assertEquals(30, metrics.getAverageWriteLatency());
+        assertEquals(30, metrics.getMaxWriteLatency());
+        assertEquals(Frame.HEADER_SIZE + 100, metrics.getSentBytes());
+        assertEquals(Frame.HEADER_SIZE + 100, metrics.getBytesPerSecond());
+        assertEquals(Frame.HEADER_SIZE + 100, metrics.getMaxQueuedBytes());
+    }
+
+    @Test
+    public void stopOnWriteFailure() throws Exception {
+        mOut.mFail = true;
+        mOut.mGate.release(1000);
+        assertTrue(mOutbox.offer(0, new byte[]{1}));
+        mWriter.join(5000);
+
+        assertNotNull(mCallback.mFailure.get());
+        assertFalse(mOutbox.offer(0, new byte[]{1}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectOversizedPayload() throws Exception {
+        mOutbox.offer(0, new byte[Frame.MAX_PAYLOAD + 1]);
+    }
+
+    private static class GatedOutputStream extends ByteArrayOutputStream {
+
+        private final Semaphore     mGate    = new Semaphore(0);
+        private final Semaphore     mEntered = new Semaphore(0);
+        private final AtomicInteger mWrites  = new AtomicInteger();
+        private volatile boolean    mFail;
+        private volatile Runnable   mOnWrite;
+
+        @Override
+        public void flush() throws IOException {
+            mEntered.release();
+            mGate.acquireUninterruptibly();
+            if (mFail) {
+                throw new IOException("broken pipe");
+            }
+            if (mOnWrite != null) {
+                mOnWrite.run();
+            }
+            mWrites.incrementAndGet();
+        }
+    }
+
+    private static class RecordingCallback implements FrameOutbox.Callback {
+
+        private final AtomicInteger              mWritable = new AtomicInteger();
+        private final AtomicReference<Throwable> mFailure  = new AtomicReference<>();
+        private final Semaphore                  mSent     = new Semaphore(0);
+
+        @Override
+        public void onBatchSent(int frames, int bytes) {
+            mSent.release(frames);
+        }
+
+        @Override
+        public void onWritable() {
+            mWritable.incrementAndGet();
+        }
+
+        @Override
+        public void onWriteFailed(IOException e) {
+            mFailure.set(e);
+        }
+
+        void awaitFrames(int frames) throws InterruptedException {
+            assertTrue(mSent.tryAcquire(frames, 5, TimeUnit.SECONDS));
+        }
+    }
+
+    private static class FakeClock implements Clock {
+
+        private final AtomicLong mNow = new AtomicLong();
+
+        @Override
+        public long elapsedRealtime() {
+            return mNow.get();
+        }
+    }
+}
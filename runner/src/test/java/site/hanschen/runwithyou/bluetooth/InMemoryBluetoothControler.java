@@ -0,0 +1,139 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+/**
+ * 内存中的{@link BluetoothControler}，两个实例通过{@link #pair(InMemoryBluetoothControler, InMemoryBluetoothControler)}连接，
+ * 发送的帧经过latency毫秒后在{@link Scheduler}上交给对方的监听器，不需要真实的蓝牙
+ *
+ * @author HansChen
+ */
+public class InMemoryBluetoothControler implements BluetoothControler {
+
+    private final Scheduler.Worker mWorker;
+    private final long             mLatency;
+    private final FramePool        mPool = new FramePool(4);
+
+    private InMemoryBluetoothControler mPeer;
+    private BluetoothListener          mListener;
+    private boolean                    mWritable = true;
+    private int                        mDropCount;
+
+    private long mSentFrames;
+    private long mSentBytes;
+
+    public InMemoryBluetoothControler(Scheduler scheduler, long latency) {
+        this.mWorker = scheduler.createWorker();
+        this.mLatency = latency;
+    }
+
+    public static void pair(InMemoryBluetoothControler a, InMemoryBluetoothControler b) {
+        a.mPeer = b;
+        b.mPeer = a;
+    }
+
+    /**
+     * 模拟发送队列满，不可写时sendData返回false，恢复时回调{@link BluetoothListener#onWritable()}
+     */
+    public void setWritable(boolean writable) {
+        boolean notify = writable && !mWritable;
+        mWritable = writable;
+        if (notify && mListener != null) {
+            mListener.onWritable();
+        }
+    }
+
+    /**
+     * 丢弃接下来发送的count帧，模拟重连时丢失的数据
+     */
+    public void dropNext(int count) {
+        mDropCount = count;
+    }
+
+    public long getSentFrames() {
+        return mSentFrames;
+    }
+
+    /**
+     * @return 发送的总字节数，包括帧头
+     */
+    public long getSentBytes() {
+        return mSentBytes;
+    }
+
+    @Override
+    public void listenInsecure(int timeout) {
+    }
+
+    @Override
+    public void listenSecure(int timeout) {
+    }
+
+    @Override
+    public void connect(Device device, boolean secure) {
+    }
+
+    @Override
+    public boolean sendData(int type, byte[] out) {
+        return sendData(type, out, 0, out.length);
+    }
+
+    @Override
+    public boolean sendData(final int type, byte[] out, int offset, final int length) {
+        if (mPeer == null || !mWritable) {
+            return false;
+        }
+        mSentFrames++;
+        mSentBytes += Frame.HEADER_SIZE + length;
+        if (mDropCount > 0) {
+            mDropCount--;
+            return true;
+        }
+        final byte[] copy = new byte[length];
+        System.arraycopy(out, offset, copy, 0, length);
+        final InMemoryBluetoothControler peer = mPeer;
+        mWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                peer.deliver(type, copy);
+            }
+        }, mLatency, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void deliver(int type, byte[] payload) {
+        Frame frame = mPool.obtain();
+        System.arraycopy(payload, 0, frame.getBuffer(), 0, payload.length);
+        frame.set(type, payload.length);
+        try {
+            if (mListener != null) {
+                mListener.onDataReceived(frame);
+            }
+        } finally {
+            frame.recycle();
+        }
+    }
+
+    @Override
+    public SendMetrics getSendMetrics() {
+        return null;
+    }
+
+    @Override
+    public void registerListener(BluetoothListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void clearListener() {
+        mListener = null;
+    }
+
+    @Override
+    public void reset() {
+        mPeer = null;
+    }
+}
@@ -0,0 +1,178 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.reactivex.Scheduler;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+/**
+ * 内存中的{@link BluetoothHub}，每个成员是一对{@link InMemoryBluetoothControler}，
+ * hub一端的回调转发给{@link HubListener}，不需要真实的蓝牙
+ *
+ * @author HansChen
+ */
+public class InMemoryBluetoothHub implements BluetoothHub {
+
+    private final Scheduler                                mScheduler;
+    private final long                                     mLatency;
+    private final Map<Integer, InMemoryBluetoothControler> mPeers = new TreeMap<>();
+
+    private HubListener mListener;
+    private boolean     mRunning;
+    private int         mNextPeerId = 1;
+
+    public InMemoryBluetoothHub(Scheduler scheduler, long latency) {
+        this.mScheduler = scheduler;
+        this.mLatency = latency;
+    }
+
+    /**
+     * 成员加入，之后client发送的帧会交给hub的监听器
+     *
+     * @return 成员编号
+     */
+    public int addPeer(InMemoryBluetoothControler client, Device device) {
+        if (!mRunning) {
+            throw new IllegalStateException("hub not started");
+        }
+        final int peerId = mNextPeerId++;
+        InMemoryBluetoothControler channel = new InMemoryBluetoothControler(mScheduler, mLatency);
+        InMemoryBluetoothControler.pair(channel, client);
+        channel.registerListener(new ChannelListener(peerId));
+        mPeers.put(peerId, channel);
+        if (mListener != null) {
+            mListener.onPeerConnected(peerId, device);
+        }
+        return peerId;
+    }
+
+    public void removePeer(int peerId) {
+        InMemoryBluetoothControler channel = mPeers.remove(peerId);
+        if (channel != null) {
+            channel.reset();
+            if (mListener != null) {
+                mListener.onPeerDisconnected(peerId);
+            }
+        }
+    }
+
+    /**
+     * 模拟某个成员接收得慢，hub发给它的数据被拒绝
+     */
+    public void setWritable(int peerId, boolean writable) {
+        mPeers.get(peerId).setWritable(writable);
+    }
+
+    /**
+     * @return hub发给这个成员的帧数
+     */
+    public long getSentFrames(int peerId) {
+        return mPeers.get(peerId).getSentFrames();
+    }
+
+    @Override
+    public void start(boolean secure) {
+        mRunning = true;
+    }
+
+    @Override
+    public void stop() {
+        mRunning = false;
+        for (Integer peerId : new TreeMap<>(mPeers).keySet()) {
+            removePeer(peerId);
+        }
+    }
+
+    @Override
+    public boolean sendData(int peerId, int type, byte[] out, int offset, int length) {
+        InMemoryBluetoothControler channel = mPeers.get(peerId);
+        return channel != null && channel.sendData(type, out, offset, length);
+    }
+
+    @Override
+    public int broadcast(int type, byte[] out, int offset, int length) {
+        int accepted = 0;
+        for (InMemoryBluetoothControler channel : mPeers.values()) {
+            if (channel.sendData(type, out, offset, length)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Override
+    public int getPeerCount() {
+        return mPeers.size();
+    }
+
+    @Override
+    public SendMetrics getSendMetrics(int peerId) {
+        return null;
+    }
+
+    @Override
+    public void registerListener(HubListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void clearListener() {
+        mListener = null;
+    }
+
+    private class ChannelListener implements BluetoothListener {
+
+        private final int mPeerId;
+
+        ChannelListener(int peerId) {
+            this.mPeerId = peerId;
+        }
+
+        @Override
+        public void onDataReceived(Frame frame) {
+            if (mListener != null) {
+                mListener.onDataReceived(mPeerId, frame);
+            }
+        }
+
+        @Override
+        public void onWritable() {
+            if (mListener != null) {
+                mListener.onPeerWritable(mPeerId);
+            }
+        }
+
+        @Override
+        public void onListenStart() {
+        }
+
+        @Override
+        public void onListenTimeout() {
+        }
+
+        @Override
+        public void onConnectStart(Device target) {
+        }
+
+        @Override
+        public void onConnectSucceed(Device device) {
+        }
+
+        @Override
+        public void onConnectFailed(Device device) {
+        }
+
+        @Override
+        public void onConnectLost() {
+        }
+
+        @Override
+        public void onReconnecting(Device device, int attempt) {
+        }
+
+        @Override
+        public void onDataSent(int frames, int bytes) {
+        }
+    }
+}
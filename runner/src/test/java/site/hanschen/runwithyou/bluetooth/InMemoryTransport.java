@@ -0,0 +1,382 @@
+package site.hanschen.runwithyou.bluetooth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+/**
+ * 内存中的{@link Transport}，同一个network中的实例可以互相连接，
+ * 连接的两端通过内存管道传输数据，关闭任意一端后双方的读写都会抛出IOException
+ *
+ * @author HansChen
+ */
+class InMemoryTransport implements Transport {
+
+    private static final long POLL_INTERVAL = 5;
+
+    private final Map<String, InMemoryTransport> mNetwork;
+    private final Device                         mLocal;
+    private final List<MemoryServer>             mServers     = new ArrayList<>();
+    private final List<MemoryLink>               mLinks       = new ArrayList<>();
+    private final AtomicInteger                  mOpenServers = new AtomicInteger();
+    private final AtomicInteger                  mOpenLinks   = new AtomicInteger();
+    private volatile long                        mConnectDelay;
+    private volatile boolean                     mListenFails;
+
+    InMemoryTransport(Map<String, InMemoryTransport> network, Device local) {
+        this.mNetwork = network;
+        this.mLocal = local;
+        network.put(local.getAddress(), this);
+    }
+
+    Device getDevice() {
+        return mLocal;
+    }
+
+    /**
+     * 每次主动连接前等待的时间，期间可以被取消
+     */
+    void setConnectDelay(long connectDelay) {
+        mConnectDelay = connectDelay;
+    }
+
+    /**
+     * 模拟蓝牙关闭时注册监听失败
+     */
+    void setListenFails(boolean listenFails) {
+        mListenFails = listenFails;
+    }
+
+    int getOpenServers() {
+        return mOpenServers.get();
+    }
+
+    int getOpenLinks() {
+        return mOpenLinks.get();
+    }
+
+    /**
+     * 模拟连接意外断开
+     */
+    void dropLinks() {
+        List<MemoryLink> links;
+        synchronized (this) {
+            links = new ArrayList<>(mLinks);
+        }
+        for (MemoryLink link : links) {
+            link.mPipeIn.close();
+            link.mPipeOut.close();
+        }
+    }
+
+    /**
+     * 模拟对方接收得慢，发往remote的写入阻塞直到恢复
+     */
+    void setStalled(Device remote, boolean stalled) {
+        List<MemoryLink> links;
+        synchronized (this) {
+            links = new ArrayList<>(mLinks);
+        }
+        for (MemoryLink link : links) {
+            if (link.mRemote.equals(remote)) {
+                link.mPipeOut.setStalled(stalled);
+            }
+        }
+    }
+
+    @Override
+    public Server listen(boolean secure) throws IOException {
+        if (mListenFails) {
+            throw new IOException("bluetooth is off");
+        }
+        MemoryServer server = new MemoryServer(secure);
+        synchronized (this) {
+            mServers.add(server);
+        }
+        mOpenServers.incrementAndGet();
+        return server;
+    }
+
+    @Override
+    public Link createLink(Device device, boolean secure) throws IOException {
+        return new ClientLink(device.getAddress(), secure);
+    }
+
+    private synchronized MemoryServer findServer(boolean secure) {
+        for (MemoryServer server : mServers) {
+            if (server.mSecure == secure) {
+                return server;
+            }
+        }
+        return null;
+    }
+
+    private class MemoryServer implements Server {
+
+        private final boolean                         mSecure;
+        private final LinkedBlockingQueue<MemoryLink> mPending = new LinkedBlockingQueue<>();
+        private final AtomicBoolean                   mClosed  = new AtomicBoolean();
+
+        MemoryServer(boolean secure) {
+            this.mSecure = secure;
+        }
+
+        @Override
+        public Link accept(int timeout) throws IOException {
+            long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+            while (!mClosed.get() && System.currentTimeMillis() < deadline) {
+                try {
+                    MemoryLink link = mPending.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (link != null) {
+                        return link;
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            throw new IOException(mClosed.get() ? "server closed" : "accept timeout");
+        }
+
+        synchronized boolean offer(MemoryLink link) {
+            return !mClosed.get() && mPending.offer(link);
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (!mClosed.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+            synchronized (InMemoryTransport.this) {
+                mServers.remove(this);
+            }
+            mOpenServers.decrementAndGet();
+            MemoryLink link;
+            while ((link = mPending.poll()) != null) {
+                link.close();
+            }
+        }
+    }
+
+    private class MemoryLink implements Link {
+
+        private final Device        mRemote;
+        private final Pipe          mPipeIn;
+        private final Pipe          mPipeOut;
+        private final AtomicBoolean mClosed = new AtomicBoolean();
+
+        MemoryLink(Device remote, Pipe in, Pipe out) {
+            this.mRemote = remote;
+            this.mPipeIn = in;
+            this.mPipeOut = out;
+            synchronized (InMemoryTransport.this) {
+                mLinks.add(this);
+            }
+            mOpenLinks.incrementAndGet();
+        }
+
+        @Override
+        public void connect() throws IOException {
+            throw new IOException("already connected");
+        }
+
+        @Override
+        public Device getRemoteDevice() {
+            return mRemote;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mPipeIn.mInput;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mPipeOut.mOutput;
+        }
+
+        @Override
+        public void close() {
+            if (!mClosed.compareAndSet(false, true)) {
+                return;
+            }
+            mPipeIn.close();
+            mPipeOut.close();
+            synchronized (InMemoryTransport.this) {
+                mLinks.remove(this);
+            }
+            mOpenLinks.decrementAndGet();
+        }
+    }
+
+    /**
+     * 主动连接的一端，连接成功前close()会让connect()失败
+     */
+    private class ClientLink implements Link {
+
+        private final String         mAddress;
+        private final boolean        mSecure;
+        private final CountDownLatch mCancelled = new CountDownLatch(1);
+        private volatile MemoryLink  mLink;
+
+        ClientLink(String address, boolean secure) {
+            this.mAddress = address;
+            this.mSecure = secure;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            try {
+                if (mCancelled.await(mConnectDelay, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("connect cancelled");
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            InMemoryTransport remote = mNetwork.get(mAddress);
+            MemoryServer server = remote == null ? null : remote.findServer(mSecure);
+            if (server == null) {
+                throw new IOException("connection refused");
+            }
+            Pipe up = new Pipe();
+            Pipe down = new Pipe();
+            MemoryLink local = new MemoryLink(remote.mLocal, down, up);
+            MemoryLink accepted = remote.new MemoryLink(mLocal, up, down);
+            mLink = local;
+            if (mCancelled.getCount() == 0 || !server.offer(accepted)) {
+                local.close();
+                accepted.close();
+                throw new IOException("connection refused");
+            }
+        }
+
+        @Override
+        public Device getRemoteDevice() {
+            return mNetwork.get(mAddress).mLocal;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return connected().getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return connected().getOutputStream();
+        }
+
+        @Override
+        public void close() {
+            mCancelled.countDown();
+            MemoryLink link = mLink;
+            if (link != null) {
+                link.close();
+            }
+        }
+
+        private MemoryLink connected() throws IOException {
+            MemoryLink link = mLink;
+            if (link == null) {
+                throw new IOException("not connected");
+            }
+            return link;
+        }
+    }
+
+    /**
+     * 单向的内存管道，关闭后读写都抛出IOException，类似断开的socket
+     */
+    private static class Pipe {
+
+        private static final byte[] CLOSED = new byte[0];
+
+        private final LinkedBlockingQueue<byte[]> mChunks = new LinkedBlockingQueue<>();
+        private volatile boolean                  mClosed;
+        private boolean                           mStalled;
+        private byte[]                            mCurrent;
+        private int                               mPosition;
+
+        private final InputStream mInput = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                read(b, 0, 1);
+                return b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (mCurrent == null || mPosition == mCurrent.length) {
+                    try {
+                        mCurrent = mChunks.take();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    mPosition = 0;
+                    if (mCurrent == CLOSED) {
+                        mChunks.offer(CLOSED);
+                        throw new IOException("pipe closed");
+                    }
+                }
+                int count = Math.min(len, mCurrent.length - mPosition);
+                System.arraycopy(mCurrent, mPosition, b, off, count);
+                mPosition += count;
+                return count;
+            }
+        };
+
+        private final OutputStream mOutput = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                awaitWritable();
+                mChunks.offer(Arrays.copyOfRange(b, off, off + len));
+            }
+        };
+
+        private synchronized void awaitWritable() throws IOException {
+            while (mStalled && !mClosed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (mClosed) {
+                throw new IOException("pipe closed");
+            }
+        }
+
+        synchronized void setStalled(boolean stalled) {
+            mStalled = stalled;
+            notifyAll();
+        }
+
+        synchronized void close() {
+            if (!mClosed) {
+                mClosed = true;
+                mChunks.offer(CLOSED);
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package site.hanschen.runwithyou.database.journal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author HansChen
+ */
+public class StepJournalTest {
+
+    private static final long BASE_TIME = 1490000000000L;
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = File.createTempFile("step-journal", "");
+        if (!mDir.delete() || !mDir.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + mDir);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void appendAndReopen() throws Exception {
+        StepJournal journal = new StepJournal(mDir, 100);
+        assertNull(journal.getLatestRecord());
+        for (int i = 0; i < 250; i++) {
+            journal.append(record(i));
+        }
+        journal.close();
+
+        // 250条记录分布在3个段中
+        assertEquals(3, mDir.listFiles().length);
+        journal = new StepJournal(mDir, 100);
+        assertRecordEquals(record(249), journal.getLatestRecord());
+        assertEquals(3 * StepJournal.HEADER_SIZE + 250 * StepJournal.RECORD_SIZE, journal.getUsedBytes());
+        // 最后一个段也按容量预分配
+        assertEquals(3 * (StepJournal.HEADER_SIZE + 100 * StepJournal.RECORD_SIZE), journal.getFileBytes());
+
+        journal.append(record(250));
+        assertRecordEquals(record(250), journal.getLatestRecord());
+        journal.close();
+    }
+
+    @Test
+    public void readRange() throws Exception {
+        StepJournal journal = new StepJournal(mDir, 64);
+        for (int i = 0; i < 1000; i++) {
+            journal.append(record(i));
+        }
+
+        final List<StepRecord> records = new ArrayList<>();
+        journal.read(record(100).getStepTime(), record(700).getStepTime(), new StepJournal.Visitor() {
+            @Override
+            public void visit(StepRecord record) {
+                records.add(record);
+            }
+        });
+        assertEquals(600, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertRecordEquals(record(100 + i), records.get(i));
+        }
+        assertRecordEquals(record(99), journal.getRecordBefore(record(100).getStepTime()));
+        assertNull(journal.getRecordBefore(BASE_TIME));
+        journal.close();
+    }
+
+    @Test
+    public void rolloverOnLargeGap() throws Exception {
+        StepJournal journal = new StepJournal(mDir);
+        journal.append(new StepRecord(1, BASE_TIME, 1));
+        long later = BASE_TIME + TimeUnit.DAYS.toMillis(60);
+        journal.append(new StepRecord(2, later, 2));
+        // 时间倒退也开启新段
+        journal.append(new StepRecord(3, later - 1000, 3));
+        journal.close();
+
+        assertEquals(3, mDir.listFiles().length);
+        journal = new StepJournal(mDir);
+        assertRecordEquals(new StepRecord(3, later - 1000, 3), journal.getLatestRecord());
+        journal.close();
+    }
+
+    @Test
+    public void readOverlappingSegmentsAfterClockGoesBack() throws Exception {
+        StepJournal journal = new StepJournal(mDir, 100);
+        for (int i = 0; i < 10; i++) {
+            journal.append(record(i));
+        }
+        // 时钟倒退到record(3)的时间，新段和第一段的时间范围重叠
+        for (int i = 3; i < 6; i++) {
+            journal.append(new StepRecord(5000 + i, record(i).getStepTime(), 5000 + i));
+        }
+        assertEquals(2, mDir.listFiles().length);
+
+        final List<StepRecord> records = new ArrayList<>();
+        journal.read(record(0).getStepTime(), record(10).getStepTime(), new StepJournal.Visitor() {
+            @Override
+            public void visit(StepRecord record) {
+                records.add(record);
+            }
+        });
+        assertEquals(13, records.size());
+        for (int i = 1; i < records.size(); i++) {
+            assertTrue(records.get(i).getStepTime() >= records.get(i - 1).getStepTime());
+        }
+        // 时间相同时按写入顺序
+        assertRecordEquals(record(4), records.get(5));
+        assertEquals(5004, records.get(6).getStepCount());
+        assertTrue(records.get(6).getSequence() > records.get(5).getSequence());
+
+        // 从时间相同的第一条记录之后继续读取，不会漏掉第二条
+        final List<StepRecord> page = new ArrayList<>();
+        journal.read(records.get(5).getStepTime(), records.get(5).getSequence(), record(10).getStepTime(), 2, new StepJournal.Visitor() {
+            @Override
+            public void visit(StepRecord record) {
+                page.add(record);
+            }
+        });
+        assertEquals(2, page.size());
+        assertEquals(5004, page.get(0).getStepCount());
+        assertEquals(records.get(7).getSequence(), page.get(1).getSequence());
+
+        assertEquals(5005, journal.getRecordBefore(record(6).getStepTime()).getStepCount());
+        assertRecordEquals(record(9), journal.getRecordBefore(record(10).getStepTime()));
+        journal.close();
+    }
+
+    @Test
+    public void readAfterSequenceInWriteOrder() throws Exception {
+        StepJournal journal = new StepJournal(mDir, 8);
+        for (int i = 0; i < 10; i++) {
+            journal.append(record(i));
+        }
+        // 时钟倒退后写入的记录排在后面
+        for (int i = 3; i < 6; i++) {
+            journal.append(new StepRecord(5000 + i, record(i).getStepTime(), 5000 + i));
+        }
+        assertEquals(5005, journal.getLatestRecord().getStepCount());
+
+        final List<StepRecord> records = new ArrayList<>();
+        StepJournal.Visitor visitor = new StepJournal.Visitor() {
+            @Override
+            public void visit(StepRecord record) {
+                records.add(record);
+            }
+        };
+        journal.readAfter(0, Integer.MAX_VALUE, visitor);
+        assertEquals(13, records.size());
+        for (int i = 1; i < records.size(); i++) {
+            assertTrue(records.get(i).getSequence() > records.get(i - 1).getSequence());
+        }
+        assertEquals(journal.getLatestRecord().getSequence(), records.get(12).getSequence());
+
+        // 跨段继续读取
+        long afterSequence = records.get(6).getSequence();
+        records.clear();
+        journal.readAfter(afterSequence, 4, visitor);
+        assertEquals(4, records.size());
+        assertRecordEquals(record(7), records.get(0));
+        assertRecordEquals(record(9), records.get(2));
+        assertEquals(5003, records.get(3).getStepCount());
+        journal.close();
+    }
+
+    @Test
+    public void rejectInvalidBatchAsAWhole() throws Exception {
+        StepJournal journal = new StepJournal(mDir, 100);
+        try {
+            journal.append(Arrays.asList(record(0), new StepRecord(-1, record(1).getStepTime(), 3), record(2)));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertNull(journal.getLatestRecord());
+        assertEquals(0, journal.getUsedBytes());
+
+        journal.append(Arrays.asList(record(0), record(1)));
+        assertRecordEquals(record(1), journal.getLatestRecord());
+        journal.close();
+    }
+
+    @Test
+    public void recoverFromTornWrite() throws Exception {
+        StepJournal journal = new StepJournal(mDir, 1000);
+        for (int i = 0; i < 500; i++) {
+            journal.append(record(i));
+        }
+        journal.close();
+
+        // 模拟崩溃: 最后一条记录写了一半，后面还有一条残留的有效记录
+        File segment = mDir.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        long last = StepJournal.HEADER_SIZE + 499L * StepJournal.RECORD_SIZE;
+        byte[] stale = new byte[StepJournal.RECORD_SIZE];
+        raf.seek(last);
+        raf.readFully(stale);
+        raf.seek(last + 4);
+        raf.writeInt(0x7fffffff);
+        raf.seek(last + 3 * StepJournal.RECORD_SIZE);
+        raf.write(stale);
+        raf.close();
+
+        journal = new StepJournal(mDir, 1000);
+        assertRecordEquals(record(498), journal.getLatestRecord());
+        journal.append(record(499));
+        journal.append(record(500));
+        journal.close();
+
+        // 残留记录已被清除，不会在下次恢复时被当作有效记录
+        journal = new StepJournal(mDir, 1000);
+        assertRecordEquals(record(500), journal.getLatestRecord());
+        assertEquals(StepJournal.HEADER_SIZE + 501 * StepJournal.RECORD_SIZE, journal.getUsedBytes());
+        journal.close();
+    }
+
+    @Test
+    public void dropCorruptedTailSegment() throws Exception {
+        StepJournal journal = new StepJournal(mDir, 10);
+        for (int i = 0; i < 10; i++) {
+            journal.append(record(i));
+        }
+        journal.close();
+        // 创建新段时崩溃，只留下一个空文件
+        assertTrue(new File(mDir, "0000000001.seg").createNewFile());
+
+        journal = new StepJournal(mDir, 10);
+        assertNotNull(journal.getLatestRecord());
+        assertRecordEquals(record(9), journal.getLatestRecord());
+        assertEquals(1, mDir.listFiles().length);
+        journal.close();
+    }
+
+    private static StepRecord record(int index) {
+        return new StepRecord(1000 + index * 3, BASE_TIME + TimeUnit.SECONDS.toMillis(10) * index, index * 3);
+    }
+
+    private static void assertRecordEquals(StepRecord expected, StepRecord actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getCountSinceReboot(), actual.getCountSinceReboot());
+        assertEquals(expected.getStepTime(), actual.getStepTime());
+        assertEquals(expected.getStepCount(), actual.getStepCount());
+    }
+}
@@ -0,0 +1,104 @@
+package site.hanschen.runwithyou.database.repository;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import site.hanschen.runwithyou.bean.DeviceRecord;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author HansChen
+ */
+public class DeviceIndexTest {
+
+    private static final Device PHONE  = new Device("phone", "aa:bb:cc:dd:ee:01");
+    private static final Device WATCH  = new Device("watch", "AA:BB:CC:DD:EE:02");
+    private static final Device TABLET = new Device("tablet", "AA:BB:CC:DD:EE:03");
+
+    private DeviceIndex mIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        mIndex = new DeviceIndex();
+    }
+
+    @Test
+    public void mergeRepeatedDiscovery() throws Exception {
+        mIndex.onSeen(PHONE, -70, 1000);
+        mIndex.onSeen(new Device(null, "AA:BB:CC:DD:EE:01"), -50, 2000);
+
+        // 地址大小写不同也是同一个设备，名称为空时保留之前的名称
+        assertEquals(1, mIndex.size());
+        DeviceRecord record = mIndex.get("AA:BB:CC:DD:EE:01");
+        assertNotNull(record);
+        assertEquals("phone", record.getName());
+        assertEquals(-50, record.getRssi());
+        assertEquals(2000, record.getLastSeenTime());
+    }
+
+    @Test
+    public void historyOnlyContainsConnectedDevices() throws Exception {
+        mIndex.onSeen(PHONE, -60, 1000);
+        mIndex.onSeen(WATCH, -60, 1000);
+        mIndex.onConnectResult(WATCH, false, 2000);
+
+        List<DeviceRecord> history = mIndex.getHistory();
+        assertEquals(1, history.size());
+        assertEquals(WATCH.getAddress(), history.get(0).getAddress());
+        assertEquals(1, history.get(0).getConnectAttempts());
+        assertEquals(0, history.get(0).getConnectSuccesses());
+        assertEquals(-60, history.get(0).getRssi());
+    }
+
+    @Test
+    public void rankBySuccessRateThenSignal() throws Exception {
+        mIndex.onSeen(PHONE, -40, 1000);
+        mIndex.onSeen(WATCH, -80, 1000);
+        mIndex.onSeen(TABLET, -60, 1000);
+        assertOrder(mIndex.lookup(Arrays.asList(WATCH, TABLET, PHONE)), PHONE, TABLET, WATCH);
+
+        // 连接成功过的设备排在信号强但没有连接过的前面，总是失败的排在最后
+        mIndex.onConnectResult(WATCH, true, 2000);
+        mIndex.onConnectResult(PHONE, false, 2000);
+        mIndex.onConnectResult(PHONE, false, 3000);
+        assertOrder(mIndex.lookup(Arrays.asList(WATCH, TABLET, PHONE)), WATCH, TABLET, PHONE);
+        assertOrder(mIndex.getHistory(), WATCH, PHONE);
+    }
+
+    @Test
+    public void lookupUnknownDevices() throws Exception {
+        mIndex.onConnectResult(TABLET, true, 1000);
+        List<DeviceRecord> records = mIndex.lookup(Arrays.asList(PHONE, TABLET, PHONE));
+
+        assertOrder(records, TABLET, PHONE);
+        assertEquals(DeviceRecord.NO_RSSI, records.get(1).getRssi());
+        assertEquals(0, records.get(1).getConnectAttempts());
+        // 查询不会把设备加入索引
+        assertEquals(1, mIndex.size());
+    }
+
+    @Test
+    public void recordsAreImmutable() throws Exception {
+        DeviceRecord seen = mIndex.onSeen(PHONE, -60, 1000);
+        DeviceRecord connected = mIndex.onConnectResult(PHONE, true, 2000);
+
+        assertEquals(0, seen.getConnectAttempts());
+        assertEquals(1, connected.getConnectSuccesses());
+        assertEquals(2000, connected.getLastConnectedTime());
+        assertTrue(connected.getSuccessRate() > seen.getSuccessRate());
+    }
+
+    private static void assertOrder(List<DeviceRecord> records, Device... devices) {
+        assertEquals(devices.length, records.size());
+        for (int i = 0; i < devices.length; i++) {
+            assertEquals(DeviceIndex.normalize(devices[i].getAddress()), records.get(i).getAddress());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package site.hanschen.runwithyou.database.repository;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.bean.StepTotal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author HansChen
+ */
+public class StepRecordWriterTest {
+
+    @Test
+    public void replayStepCounterStream() throws Exception {
+        FakeStepRepository repository = new FakeStepRepository(1);
+        StepRecordWriter writer = new StepRecordWriter(repository, 4, 16, TimeUnit.SECONDS.toMillis(1));
+        writer.start();
+
+        // 模拟TYPE_STEP_COUNTER上报: 自开机以来的累计步数，单调递增
+        Random random = new Random(711);
+        long countSinceReboot = 12345;
+        long stepCount = 0;
+        long stepTime = 1490000000000L;
+        List<StepRecord> expected = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            long delta = random.nextInt(20);
+            countSinceReboot += delta;
+            stepCount += delta;
+            stepTime += TimeUnit.SECONDS.toMillis(10);
+            StepRecord record = new StepRecord(countSinceReboot, stepTime, stepCount);
+            expected.add(record);
+            assertTrue(writer.append(record));
+        }
+        writer.close();
+
+        List<StepRecord> actual = repository.getRecords();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), actual.get(i));
+        }
+        assertEquals(expected.size(), writer.getWrittenCount());
+        assertEquals(0, writer.getPendingCount());
+        assertTrue(repository.getBatchCount() < expected.size());
+        assertFalse(writer.append(new StepRecord(0, 0, 0)));
+    }
+
+    @Test
+    public void flushOnInterval() throws Exception {
+        FakeStepRepository repository = new FakeStepRepository(0);
+        StepRecordWriter writer = new StepRecordWriter(repository, 8, 100, 50);
+        writer.start();
+
+        StepRecord record = new StepRecord(1, 1, 1);
+        writer.append(record);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (repository.getRecords().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, repository.getRecords().size());
+        writer.close();
+    }
+
+    @Test
+    public void latestRecordServedFromBuffer() throws Exception {
+        FakeStepRepository repository = new FakeStepRepository(0);
+        StepRecordWriter writer = new StepRecordWriter(repository);
+        assertNull(writer.getLatestRecord());
+
+        StepRecord record = new StepRecord(10, 20, 30);
+        writer.append(record);
+        assertSame(record, writer.getLatestRecord());
+        assertTrue(repository.getRecords().isEmpty());
+
+        // 未启动后台线程时，close()在当前线程写入
+        writer.close();
+        assertEquals(1, repository.getRecords().size());
+    }
+
+    @Test
+    public void retryFailedBatch() throws Exception {
+        FakeStepRepository repository = new FakeStepRepository(0);
+        repository.setFailures(3);
+        StepRecordWriter writer = new StepRecordWriter(repository, 4, 1, 10);
+        writer.start();
+        for (int i = 0; i < 100; i++) {
+            writer.append(new StepRecord(i, i, i));
+        }
+        writer.close();
+
+        List<StepRecord> records = repository.getRecords();
+        assertEquals(100, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i, records.get(i).getStepCount());
+        }
+        assertEquals(3, writer.getFailedBatchCount());
+    }
+
+    private static class FakeStepRepository implements StepRepository {
+
+        private final List<StepRecord> mRecords = new ArrayList<>();
+        private final long             mWriteDelayMillis;
+        private       int              mFailures;
+        private       int              mBatchCount;
+
+        FakeStepRepository(long writeDelayMillis) {
+            this.mWriteDelayMillis = writeDelayMillis;
+        }
+
+        synchronized void setFailures(int failures) {
+            this.mFailures = failures;
+        }
+
+        @Override
+        public synchronized void insertRecord(StepRecord stepRecord) {
+            mRecords.add(stepRecord);
+        }
+
+        @Override
+        public void insertRecords(List<StepRecord> stepRecords) {
+            if (mWriteDelayMillis > 0) {
+                try {
+                    Thread.sleep(mWriteDelayMillis);
+                } catch (InterruptedException ignore) {
+                }
+            }
+            synchronized (this) {
+                if (mFailures > 0) {
+                    mFailures--;
+                    throw new IllegalStateException("disk I/O error");
+                }
+                mRecords.addAll(stepRecords);
+                mBatchCount++;
+            }
+        }
+
+        @Override
+        public synchronized StepRecord getLatestRecord() {
+            return mRecords.isEmpty() ? null : mRecords.get(mRecords.size() - 1);
+        }
+
+        @Override
+        public List<StepRecord> getRecords(long from, long afterSequence, long to, int limit) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<StepRecord> getRecordsAfter(long afterSequence, int limit) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<StepTotal> getMinuteTotals(long from, long to) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<StepTotal> getHourlyTotals(long from, long to) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<StepTotal> getDailyTotals(long from, long to) {
+            return Collections.emptyList();
+        }
+
+        synchronized List<StepRecord> getRecords() {
+            return new ArrayList<>(mRecords);
+        }
+
+        synchronized int getBatchCount() {
+            return mBatchCount;
+        }
+    }
+}
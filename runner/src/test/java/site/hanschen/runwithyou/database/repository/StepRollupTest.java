@@ -0,0 +1,94 @@
+package site.hanschen.runwithyou.database.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author HansChen
+ */
+public class StepRollupTest {
+
+    /**
+     * 2017-03-20 00:00:00 GMT+8
+     */
+    private static final long DAY_START = 1489939200000L;
+
+    private TimeZone mDefaultTimeZone;
+
+    @Before
+    public void setUp() throws Exception {
+        mDefaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT+8"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultTimeZone);
+    }
+
+    @Test
+    public void aggregateWithinDay() throws Exception {
+        StepRollup rollup = new StepRollup(null);
+        long nine = DAY_START + TimeUnit.HOURS.toMillis(9);
+        rollup.add(new StepRecord(1000, nine, 100));
+        rollup.add(new StepRecord(1010, nine + TimeUnit.SECONDS.toMillis(10), 110));
+        rollup.add(new StepRecord(1050, nine + TimeUnit.MINUTES.toMillis(1), 150));
+        rollup.add(new StepRecord(1150, nine + TimeUnit.HOURS.toMillis(1), 250));
+
+        Map<Long, Long> minutes = rollup.getMinuteDeltas();
+        assertEquals(3, minutes.size());
+        assertEquals(110L, (long) minutes.get(nine));
+        assertEquals(40L, (long) minutes.get(nine + TimeUnit.MINUTES.toMillis(1)));
+        assertEquals(100L, (long) minutes.get(nine + TimeUnit.HOURS.toMillis(1)));
+
+        Map<Long, Long> hours = rollup.getHourDeltas();
+        assertEquals(2, hours.size());
+        assertEquals(150L, (long) hours.get(nine));
+        assertEquals(100L, (long) hours.get(nine + TimeUnit.HOURS.toMillis(1)));
+
+        Map<Long, Long> days = rollup.getDayDeltas();
+        assertEquals(1, days.size());
+        assertEquals(250L, (long) days.get(DAY_START));
+    }
+
+    @Test
+    public void resetOnNewDay() throws Exception {
+        StepRecord yesterday = new StepRecord(5000, DAY_START - TimeUnit.MINUTES.toMillis(1), 9000);
+        StepRollup rollup = new StepRollup(yesterday);
+        rollup.add(new StepRecord(5020, DAY_START + TimeUnit.MINUTES.toMillis(1), 20));
+
+        Map<Long, Long> days = rollup.getDayDeltas();
+        assertEquals(1, days.size());
+        assertEquals(20L, (long) days.get(DAY_START));
+    }
+
+    @Test
+    public void dayTotalsMatchLastRecordAcrossFlushes() throws Exception {
+        StepRollup rollup = new StepRollup(null);
+        long dayTotal = 0;
+        long stepCount = 0;
+        for (int i = 0; i < 8640; i++) {
+            stepCount += i % 7;
+            rollup.add(new StepRecord(stepCount, DAY_START + TimeUnit.SECONDS.toMillis(10 * i), stepCount));
+            if (rollup.size() >= 100) {
+                dayTotal += rollup.getDayDeltas().get(DAY_START);
+                rollup.clear();
+            }
+        }
+        if (!rollup.isEmpty()) {
+            dayTotal += rollup.getDayDeltas().get(DAY_START);
+        }
+        assertEquals(stepCount, dayTotal);
+        assertTrue(rollup.getLastRecord() != null);
+    }
+}
@@ -0,0 +1,138 @@
+package site.hanschen.runwithyou.eventbus;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author HansChen
+ */
+public class EventBusTest {
+
+    private QueuedExecutor mMainThread;
+    private EventBus       mEventBus;
+
+    @Before
+    public void setUp() throws Exception {
+        mMainThread = new QueuedExecutor();
+        mEventBus = new EventBus(mMainThread);
+    }
+
+    @Test
+    public void deliverOnlyMatchingType() throws Exception {
+        Recorder<StepUpdateEvent> steps = new Recorder<>();
+        Recorder<String> texts = new Recorder<>();
+        mEventBus.register(steps, StepUpdateEvent.class, null, steps.mCallback);
+        mEventBus.register(texts, String.class, null, texts.mCallback);
+
+        mEventBus.post(new StepUpdateEvent(10));
+        mEventBus.post("hello");
+        mEventBus.post(1L);
+
+        assertEquals(1, steps.mEvents.size());
+        assertEquals(10, steps.mEvents.get(0).getStepCount());
+        assertEquals(1, texts.mEvents.size());
+        assertEquals("hello", texts.mEvents.get(0));
+    }
+
+    @Test
+    public void deliverOnMainThreadExecutor() throws Exception {
+        Recorder<StepUpdateEvent> recorder = new Recorder<>();
+        mEventBus.register(recorder, StepUpdateEvent.class, recorder.mCallback);
+
+        mEventBus.post(new StepUpdateEvent(1));
+        assertTrue(recorder.mEvents.isEmpty());
+        mMainThread.drain();
+        assertEquals(1, recorder.mEvents.size());
+    }
+
+    @Test
+    public void coalesceStickyEvents() throws Exception {
+        Recorder<StepUpdateEvent> recorder = new Recorder<>();
+        mEventBus.register(recorder, StepUpdateEvent.class, recorder.mCallback);
+
+        for (int i = 1; i <= 100; i++) {
+            mEventBus.postSticky(new StepUpdateEvent(i));
+        }
+        assertEquals(1, mMainThread.mQueue.size());
+        mMainThread.drain();
+
+        // 主线程来不及处理的更新合并为最新的一个
+        assertEquals(1, recorder.mEvents.size());
+        assertEquals(100, recorder.mEvents.get(0).getStepCount());
+    }
+
+    @Test
+    public void deliverStickyToLateSubscriber() throws Exception {
+        mEventBus.postSticky(new StepUpdateEvent(5));
+        mEventBus.postSticky(new StepUpdateEvent(6));
+
+        Recorder<StepUpdateEvent> recorder = new Recorder<>();
+        mEventBus.register(recorder, StepUpdateEvent.class, null, recorder.mCallback);
+        assertEquals(1, recorder.mEvents.size());
+        assertEquals(6, recorder.mEvents.get(0).getStepCount());
+        assertEquals(6, mEventBus.getStickyEvent(StepUpdateEvent.class).getStepCount());
+
+        mEventBus.removeStickyEvent(StepUpdateEvent.class);
+        assertNull(mEventBus.getStickyEvent(StepUpdateEvent.class));
+        Recorder<StepUpdateEvent> other = new Recorder<>();
+        mEventBus.register(other, StepUpdateEvent.class, null, other.mCallback);
+        assertTrue(other.mEvents.isEmpty());
+    }
+
+    @Test
+    public void unregisterFromAllTypes() throws Exception {
+        Recorder<StepUpdateEvent> recorder = new Recorder<>();
+        final List<String> texts = new ArrayList<>();
+        Subscriber<String> textCallback = new Subscriber<String>() {
+            @Override
+            public void onEvent(String event) {
+                texts.add(event);
+            }
+        };
+        mEventBus.register(recorder, StepUpdateEvent.class, null, recorder.mCallback);
+        mEventBus.register(recorder, String.class, null, textCallback);
+
+        mEventBus.unregister(recorder);
+        mEventBus.post(new StepUpdateEvent(1));
+        mEventBus.post("hello");
+
+        assertTrue(recorder.mEvents.isEmpty());
+        assertTrue(texts.isEmpty());
+    }
+
+    private static class Recorder<T> {
+
+        private final List<T> mEvents = new ArrayList<>();
+
+        private final Subscriber<T> mCallback = new Subscriber<T>() {
+            @Override
+            public void onEvent(T event) {
+                mEvents.add(event);
+            }
+        };
+    }
+
+    private static class QueuedExecutor implements Executor {
+
+        private final List<Runnable> mQueue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mQueue.add(command);
+        }
+
+        void drain() {
+            while (!mQueue.isEmpty()) {
+                mQueue.remove(0).run();
+            }
+        }
+    }
+}
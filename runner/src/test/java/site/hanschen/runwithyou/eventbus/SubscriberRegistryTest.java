@@ -0,0 +1,162 @@
+package site.hanschen.runwithyou.eventbus;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author HansChen
+ */
+public class SubscriberRegistryTest {
+
+    private static final int DISPATCH_COUNT = 200000;
+
+    @Test
+    public void concurrentRegisterAndDispatch() throws Exception {
+        final SubscriberRegistry<Long> registry = new SubscriberRegistry<>();
+        final List<RecordingSubscriber> permanent = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            registry.register(subscriber, subscriber.mCallback, null);
+            permanent.add(subscriber);
+        }
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch dispatched = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for (long i = 1; i <= DISPATCH_COUNT; i++) {
+                        registry.post(i);
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    dispatched.countDown();
+                }
+            }
+        }));
+        for (int t = 0; t < 4; t++) {
+            final Random random = new Random(t);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        List<RecordingSubscriber> churn = new ArrayList<>();
+                        while (dispatched.getCount() > 0) {
+                            if (churn.isEmpty() || random.nextBoolean()) {
+                                RecordingSubscriber subscriber = new RecordingSubscriber();
+                                registry.register(subscriber, subscriber.mCallback, null);
+                                churn.add(subscriber);
+                            } else {
+                                registry.unregister(churn.remove(random.nextInt(churn.size())));
+                            }
+                        }
+                        for (RecordingSubscriber subscriber : churn) {
+                            registry.unregister(subscriber);
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(error.get());
+        // 全程注册的订阅者收到每一次分发，并且顺序正确
+        for (RecordingSubscriber subscriber : permanent) {
+            assertEquals(DISPATCH_COUNT, subscriber.mReceived);
+            assertTrue(subscriber.mInOrder);
+        }
+        assertEquals(permanent.size(), registry.size());
+    }
+
+    @Test
+    public void coalesceOnExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        SubscriberRegistry<Long> registry = new SubscriberRegistry<>();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        registry.register(subscriber, subscriber.mCallback, executor);
+        for (long i = 1; i <= DISPATCH_COUNT; i++) {
+            registry.postSticky(i);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // 合并后的分发次数可能少于post次数，但最后一次一定送达
+        assertEquals(DISPATCH_COUNT, subscriber.mLast);
+        assertTrue(subscriber.mReceived <= DISPATCH_COUNT);
+        assertTrue(subscriber.mInOrder);
+    }
+
+    @Test
+    public void releaseCollectedSubscriber() throws Exception {
+        SubscriberRegistry<Long> registry = new SubscriberRegistry<>();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        registry.register(subscriber, subscriber.mCallback, null);
+        WeakReference<RecordingSubscriber> reference = new WeakReference<>(subscriber);
+        //noinspection UnusedAssignment
+        subscriber = null;
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+
+        // 已回收的订阅不再收到分发，并在下次注册时清除
+        registry.post(1L);
+        RecordingSubscriber other = new RecordingSubscriber();
+        registry.register(other, other.mCallback, null);
+        assertEquals(1, registry.size());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectDuplicateSubscriber() throws Exception {
+        SubscriberRegistry<Long> registry = new SubscriberRegistry<>();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        registry.register(subscriber, subscriber.mCallback, null);
+        registry.register(subscriber, subscriber.mCallback, null);
+    }
+
+    private static class RecordingSubscriber {
+
+        private int     mReceived;
+        private long    mLast;
+        private boolean mInOrder = true;
+
+        private final Subscriber<Long> mCallback = new Subscriber<Long>() {
+            @Override
+            public void onEvent(Long count) {
+                if (count <= mLast) {
+                    mInOrder = false;
+                }
+                mLast = count;
+                mReceived++;
+            }
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package site.hanschen.runwithyou.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import site.hanschen.runwithyou.utils.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author HansChen
+ */
+public class AdaptiveSamplingPolicyTest {
+
+    private static final long SCREEN_OFF_DELAY = 30000;
+
+    private FakeClock              mClock;
+    private AdaptiveSamplingPolicy mPolicy;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new FakeClock();
+        mPolicy = new AdaptiveSamplingPolicy(mClock, SCREEN_OFF_DELAY);
+    }
+
+    @Test
+    public void realtimeWhenRequested() throws Exception {
+        assertSame(SensorSampling.NORMAL, mPolicy.getSampling());
+        mPolicy.onRealtimeRequested(true);
+        assertSame(SensorSampling.REALTIME, mPolicy.getSampling());
+        assertEquals(-1, mPolicy.getReevaluateDelay());
+
+        mPolicy.onRealtimeRequested(false);
+        assertSame(SensorSampling.NORMAL, mPolicy.getSampling());
+    }
+
+    @Test
+    public void realtimeKeptWhenScreenOff() throws Exception {
+        // 双人跑时手机放进口袋，对方仍然需要实时的步数
+        mPolicy.onRealtimeRequested(true);
+        mPolicy.onScreenStateChanged(false);
+        assertSame(SensorSampling.REALTIME, mPolicy.getSampling());
+        assertEquals(-1, mPolicy.getReevaluateDelay());
+        mClock.advance(SCREEN_OFF_DELAY * 10);
+        assertSame(SensorSampling.REALTIME, mPolicy.getSampling());
+
+        // 取消后按灭屏的时间直接进入批量上报
+        mPolicy.onRealtimeRequested(false);
+        assertSame(SensorSampling.BATCHED, mPolicy.getSampling());
+    }
+
+    @Test
+    public void releaseRealtimeShortlyAfterScreenOff() throws Exception {
+        mPolicy.onRealtimeRequested(true);
+        mPolicy.onScreenStateChanged(false);
+        mClock.advance(SCREEN_OFF_DELAY / 2);
+        mPolicy.onRealtimeRequested(false);
+        assertSame(SensorSampling.NORMAL, mPolicy.getSampling());
+        assertEquals(SCREEN_OFF_DELAY / 2, mPolicy.getReevaluateDelay());
+    }
+
+    @Test
+    public void batchAfterScreenOffDelay() throws Exception {
+        mPolicy.onScreenStateChanged(false);
+        assertSame(SensorSampling.NORMAL, mPolicy.getSampling());
+        assertEquals(SCREEN_OFF_DELAY, mPolicy.getReevaluateDelay());
+
+        mClock.advance(SCREEN_OFF_DELAY - 1);
+        assertSame(SensorSampling.NORMAL, mPolicy.getSampling());
+        assertEquals(1, mPolicy.getReevaluateDelay());
+
+        mClock.advance(1);
+        assertSame(SensorSampling.BATCHED, mPolicy.getSampling());
+        assertEquals(-1, mPolicy.getReevaluateDelay());
+
+        mClock.advance(SCREEN_OFF_DELAY * 100);
+        assertSame(SensorSampling.BATCHED, mPolicy.getSampling());
+
+        mPolicy.onScreenStateChanged(true);
+        assertSame(SensorSampling.NORMAL, mPolicy.getSampling());
+    }
+
+    @Test
+    public void shortScreenOffDoesNotBatch() throws Exception {
+        mPolicy.onScreenStateChanged(false);
+        mClock.advance(SCREEN_OFF_DELAY / 2);
+        mPolicy.onScreenStateChanged(true);
+        mClock.advance(SCREEN_OFF_DELAY);
+        assertSame(SensorSampling.NORMAL, mPolicy.getSampling());
+
+        // 重复的灭屏广播不会重置计时
+        mPolicy.onScreenStateChanged(false);
+        mClock.advance(SCREEN_OFF_DELAY / 2);
+        mPolicy.onScreenStateChanged(false);
+        mClock.advance(SCREEN_OFF_DELAY / 2);
+        assertSame(SensorSampling.BATCHED, mPolicy.getSampling());
+    }
+
+    @Test
+    public void batchedLatencyIsLongerThanNormal() throws Exception {
+        assertEquals(0, SensorSampling.REALTIME.getMaxReportLatencyUs());
+        assertTrue(SensorSampling.BATCHED.getMaxReportLatencyUs() > SensorSampling.NORMAL.getMaxReportLatencyUs());
+    }
+
+    private static class FakeClock implements Clock {
+
+        private long mNow = 1000;
+
+        void advance(long millis) {
+            mNow += millis;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return mNow;
+        }
+    }
+}
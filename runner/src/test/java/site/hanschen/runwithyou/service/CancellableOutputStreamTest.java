@@ -0,0 +1,105 @@
+package site.hanschen.runwithyou.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author HansChen
+ */
+public class CancellableOutputStreamTest {
+
+    private PipedInputStream        mInput;
+    private CancellableOutputStream mOutput;
+
+    @Before
+    public void setUp() throws Exception {
+        mInput = new PipedInputStream(64);
+        mOutput = new CancellableOutputStream(new PipedOutputStream(mInput));
+    }
+
+    @Test
+    public void failWriteAfterCancel() throws Exception {
+        mOutput.write(new byte[16]);
+        mOutput.cancel();
+        try {
+            mOutput.write(new byte[16]);
+            fail();
+        } catch (InterruptedIOException expected) {
+        }
+        assertTrue(mOutput.isCancelled());
+        // 客户端没有读取的数据保持不变
+        assertEquals(16, mInput.available());
+    }
+
+    @Test
+    public void slowClientKeepsAllData() throws Exception {
+        final AtomicReference<IOException> error = new AtomicReference<>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 1024; i++) {
+                        mOutput.write(i);
+                    }
+                    mOutput.close();
+                } catch (IOException e) {
+                    error.set(e);
+                }
+            }
+        });
+        writer.start();
+        // 管道写满后写线程阻塞，客户端很久之后才读取
+        while (writer.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < 1024; i++) {
+            assertEquals(i & 0xff, mInput.read());
+        }
+        assertEquals(-1, mInput.read());
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertFalse(writer.isAlive());
+        assertFalse(mOutput.isCancelled());
+        assertNull(error.get());
+    }
+
+    @Test
+    public void blockedWriteFailsWhenClientCloses() throws Exception {
+        final AtomicReference<IOException> error = new AtomicReference<>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mOutput.write(new byte[1024]);
+                } catch (IOException e) {
+                    error.set(e);
+                }
+            }
+        });
+        writer.start();
+        while (writer.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(10);
+        }
+
+        mOutput.cancel();
+        mInput.close();
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertFalse(writer.isAlive());
+        assertNotNull(error.get());
+    }
+}
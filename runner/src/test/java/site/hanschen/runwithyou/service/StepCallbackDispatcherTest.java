@@ -0,0 +1,156 @@
+package site.hanschen.runwithyou.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.TestScheduler;
+import site.hanschen.runwithyou.utils.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author HansChen
+ */
+public class StepCallbackDispatcherTest {
+
+    private static final long FRAME_INTERVAL = 100;
+    private static final int  CLIENT_COUNT   = 3;
+
+    private TestScheduler          mScheduler;
+    private List<Long>             mBroadcasts;
+    private StepCallbackDispatcher mDispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new TestScheduler();
+        mBroadcasts = new ArrayList<>();
+        mDispatcher = createDispatcher(mScheduler);
+    }
+
+    private StepCallbackDispatcher createDispatcher(Scheduler scheduler) {
+        return new StepCallbackDispatcher(new StepCallbackDispatcher.Broadcaster() {
+            @Override
+            public int broadcast(long stepCount) {
+                mBroadcasts.add(stepCount);
+                return CLIENT_COUNT;
+            }
+        }, scheduler, new SchedulerClock(mScheduler), FRAME_INTERVAL);
+    }
+
+    @Test
+    public void firstUpdateIsBroadcastImmediately() throws Exception {
+        mDispatcher.dispatch(1);
+        mScheduler.triggerActions();
+        assertEquals(1, mBroadcasts.size());
+        assertEquals(1L, (long) mBroadcasts.get(0));
+        assertEquals(CLIENT_COUNT, mDispatcher.getTransactionCount());
+    }
+
+    @Test
+    public void coalesceWithinFrame() throws Exception {
+        mDispatcher.dispatch(1);
+        mScheduler.triggerActions();
+        for (int i = 2; i <= 50; i++) {
+            mDispatcher.dispatch(i);
+            mScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        }
+        // 上一帧之后的更新被合并，只广播最新的步数
+        assertEquals(1, mBroadcasts.size());
+        mScheduler.advanceTimeBy(FRAME_INTERVAL, TimeUnit.MILLISECONDS);
+        assertEquals(2, mBroadcasts.size());
+        assertEquals(50L, (long) mBroadcasts.get(1));
+
+        assertEquals(50, mDispatcher.getRequestedCount());
+        assertEquals(2, mDispatcher.getBroadcastCount());
+        assertEquals(48, mDispatcher.getCoalescedCount());
+        assertEquals(2 * CLIENT_COUNT, mDispatcher.getTransactionCount());
+    }
+
+    @Test
+    public void rateLimitUnderSensorStream() throws Exception {
+        // SENSOR_DELAY_GAME大约每20ms上报一次，持续10秒
+        long step = 0;
+        for (int i = 0; i < 500; i++) {
+            mDispatcher.dispatch(++step);
+            mScheduler.advanceTimeBy(20, TimeUnit.MILLISECONDS);
+        }
+        mScheduler.advanceTimeBy(FRAME_INTERVAL, TimeUnit.MILLISECONDS);
+
+        assertEquals(step, (long) mBroadcasts.get(mBroadcasts.size() - 1));
+        long duration = 500 * 20 + FRAME_INTERVAL;
+        assertTrue(mBroadcasts.size() <= duration / FRAME_INTERVAL + 1);
+        for (int i = 1; i < mBroadcasts.size(); i++) {
+            assertTrue(mBroadcasts.get(i) > mBroadcasts.get(i - 1));
+        }
+    }
+
+    @Test
+    public void wallClockJumpDoesNotStallBroadcast() throws Exception {
+        WallClockScheduler scheduler = new WallClockScheduler(mScheduler);
+        mDispatcher = createDispatcher(scheduler);
+        mDispatcher.dispatch(1);
+        mScheduler.triggerActions();
+        // 系统时间被调回一小时，下一帧仍然在帧间隔后广播
+        scheduler.mOffsetMillis = -TimeUnit.HOURS.toMillis(1);
+        mDispatcher.dispatch(2);
+        mScheduler.advanceTimeBy(FRAME_INTERVAL, TimeUnit.MILLISECONDS);
+        assertEquals(2, mBroadcasts.size());
+        assertEquals(2L, (long) mBroadcasts.get(1));
+    }
+
+    @Test
+    public void closeDropsPendingBroadcast() throws Exception {
+        mDispatcher.dispatch(1);
+        mScheduler.triggerActions();
+        mDispatcher.dispatch(2);
+        mDispatcher.close();
+        mScheduler.advanceTimeBy(FRAME_INTERVAL, TimeUnit.MILLISECONDS);
+        assertEquals(1, mBroadcasts.size());
+    }
+
+    /**
+     * 开机时间和{@link TestScheduler}的虚拟时间同步
+     */
+    private static class SchedulerClock implements Clock {
+
+        private final TestScheduler mScheduler;
+
+        SchedulerClock(TestScheduler scheduler) {
+            this.mScheduler = scheduler;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return mScheduler.now(TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 任务由{@link TestScheduler}执行，{@link #now(TimeUnit)}模拟可以被调整的墙上时间
+     */
+    private static class WallClockScheduler extends Scheduler {
+
+        private final TestScheduler mScheduler;
+        private       long          mOffsetMillis;
+
+        WallClockScheduler(TestScheduler scheduler) {
+            this.mScheduler = scheduler;
+        }
+
+        @Override
+        public Worker createWorker() {
+            return mScheduler.createWorker();
+        }
+
+        @Override
+        public long now(TimeUnit unit) {
+            return unit.convert(mScheduler.now(TimeUnit.MILLISECONDS) + mOffsetMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package site.hanschen.runwithyou.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.utils.Clock;
+import site.hanschen.runwithyou.utils.TimeUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author HansChen
+ */
+public class StepCounterTest {
+
+    private static final long HOUR     = TimeUnit.HOURS.toMillis(1);
+    private static final long INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * 2017-01-10 12:00(本地时间)，避开夏令时切换
+     */
+    private static final long NOON = TimeUtils.startOfDay(1484049600000L) + 12 * HOUR;
+
+    private FakeSink    mSink;
+    private FakeClock   mClock;
+    private StepCounter mCounter;
+
+    @Before
+    public void setUp() throws Exception {
+        mSink = new FakeSink();
+        mClock = new FakeClock();
+        mCounter = new StepCounter(mSink, mClock, INTERVAL);
+    }
+
+    @Test
+    public void bootTodayWithoutRecord() throws Exception {
+        mClock.mElapsedRealtime = 2 * HOUR;
+        assertEquals(StepCounter.UNINITIALIZED_VALUE, mCounter.getStepCount());
+        assertEquals(100, mCounter.update(100, NOON));
+        assertEquals(130, mCounter.update(130, NOON + 1000));
+        assertEquals(130, mCounter.getStepCount());
+    }
+
+    @Test
+    public void bootYesterdayWithoutRecordToday() throws Exception {
+        mClock.mElapsedRealtime = 24 * HOUR;
+        mSink.mRecords.add(new StepRecord(50, NOON - 20 * HOUR, 50));
+        assertEquals(0, mCounter.update(100, NOON));
+        assertEquals(10, mCounter.update(110, NOON + 1000));
+    }
+
+    @Test
+    public void continueFromRecordOfToday() throws Exception {
+        mClock.mElapsedRealtime = 24 * HOUR;
+        mSink.mRecords.add(new StepRecord(500, NOON - HOUR, 80));
+        assertEquals(100, mCounter.update(520, NOON));
+    }
+
+    @Test
+    public void rebootAfterRecordOfToday() throws Exception {
+        mClock.mElapsedRealtime = HOUR / 2;
+        mSink.mRecords.add(new StepRecord(500, NOON - HOUR, 80));
+        assertEquals(110, mCounter.update(30, NOON));
+    }
+
+    @Test
+    public void recordOncePerInterval() throws Exception {
+        mClock.mElapsedRealtime = 2 * HOUR;
+        assertFalse(mCounter.record(NOON));
+
+        mCounter.update(100, NOON);
+        assertTrue(mCounter.record(NOON));
+        mCounter.update(120, NOON + INTERVAL - 1);
+        assertFalse(mCounter.record(NOON + INTERVAL - 1));
+        mCounter.update(125, NOON + INTERVAL);
+        assertTrue(mCounter.record(NOON + INTERVAL));
+
+        assertEquals(2, mSink.mRecords.size());
+        StepRecord last = mSink.getLatestRecord();
+        assertEquals(125, last.getCountSinceReboot());
+        assertEquals(NOON + INTERVAL, last.getStepTime());
+        assertEquals(125, last.getStepCount());
+    }
+
+    private static class FakeSink implements StepCounter.RecordSink {
+
+        private final List<StepRecord> mRecords = new ArrayList<>();
+
+        @Override
+        public StepRecord getLatestRecord() {
+            return mRecords.isEmpty() ? null : mRecords.get(mRecords.size() - 1);
+        }
+
+        @Override
+        public boolean append(StepRecord record) {
+            return mRecords.add(record);
+        }
+    }
+
+    private static class FakeClock implements Clock {
+
+        private long mElapsedRealtime;
+
+        @Override
+        public long elapsedRealtime() {
+            return mElapsedRealtime;
+        }
+    }
+}
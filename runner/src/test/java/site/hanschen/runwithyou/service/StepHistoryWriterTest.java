@@ -0,0 +1,298 @@
+package site.hanschen.runwithyou.service;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.bean.StepTotal;
+import site.hanschen.runwithyou.database.repository.StepRepository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author HansChen
+ */
+public class StepHistoryWriterTest {
+
+    private static final long BASE_TIME = 1490000000000L;
+
+    @Test
+    public void streamRecordsInPages() throws Exception {
+        final FakeStepRepository repository = new FakeStepRepository(10000);
+        // 管道缓冲区远小于数据量，写入方只能边读边写
+        final PipedInputStream input = new PipedInputStream(1024);
+        final PipedOutputStream output = new PipedOutputStream(input);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new StepHistoryWriter(repository, 64).write(StepHistoryReader.TYPE_RECORD, 0, Long.MAX_VALUE, output);
+                    output.close();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        writer.start();
+
+        StepHistoryReader reader = new StepHistoryReader(input);
+        assertEquals(StepHistoryReader.TYPE_RECORD, reader.getType());
+        int count = 0;
+        StepRecord record;
+        while ((record = reader.readRecord()) != null) {
+            StepRecord expected = repository.mRecords.get(count++);
+            assertEquals(expected.getStepTime(), record.getStepTime());
+            assertEquals(expected.getCountSinceReboot(), record.getCountSinceReboot());
+            assertEquals(expected.getStepCount(), record.getStepCount());
+        }
+        reader.close();
+        writer.join();
+
+        assertEquals(10000, count);
+        // 10000 / 64 向上取整
+        assertEquals(157, repository.mPageQueries);
+    }
+
+    @Test
+    public void readRecordRange() throws Exception {
+        FakeStepRepository repository = new FakeStepRepository(100);
+        long from = repository.mRecords.get(10).getStepTime();
+        long to = repository.mRecords.get(20).getStepTime();
+        StepHistoryReader reader = write(new StepHistoryWriter(repository, 3), StepHistoryReader.TYPE_RECORD, from, to);
+        for (int i = 10; i < 20; i++) {
+            assertEquals(repository.mRecords.get(i).getStepTime(), reader.readRecord().getStepTime());
+        }
+        assertNull(reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void keepRecordsWithSameTimeAcrossPages() throws Exception {
+        // 时间倒退后重复写入的记录，同一时间的记录跨越多个分页
+        FakeStepRepository repository = new FakeStepRepository(0);
+        for (int i = 0; i < 20; i++) {
+            repository.add(new StepRecord(i, BASE_TIME + TimeUnit.SECONDS.toMillis(10) * (i / 7), i));
+        }
+        StepHistoryReader reader = write(new StepHistoryWriter(repository, 3), StepHistoryReader.TYPE_RECORD, 0, Long.MAX_VALUE);
+        for (int i = 0; i < 20; i++) {
+            StepRecord record = reader.readRecord();
+            assertEquals(repository.mRecords.get(i).getStepTime(), record.getStepTime());
+            assertEquals(i, record.getStepCount());
+        }
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void streamTotalsByWindow() throws Exception {
+        FakeStepRepository repository = new FakeStepRepository(10);
+        StepHistoryReader reader = write(new StepHistoryWriter(repository), StepHistoryReader.TYPE_DAY, 0, Long.MAX_VALUE);
+        assertEquals(StepHistoryReader.TYPE_DAY, reader.getType());
+        List<StepTotal> totals = new ArrayList<>();
+        StepTotal total;
+        while ((total = reader.readTotal()) != null) {
+            totals.add(total);
+        }
+        assertEquals(repository.mTotals.size(), totals.size());
+        for (int i = 0; i < totals.size(); i++) {
+            assertEquals(repository.mTotals.get(i).getStartTime(), totals.get(i).getStartTime());
+            assertEquals(repository.mTotals.get(i).getStepCount(), totals.get(i).getStepCount());
+        }
+        // 范围收缩到有数据的区间，不会逐窗口扫描到Long.MAX_VALUE
+        assertTrue(repository.mTotalQueries <= 2);
+    }
+
+    @Test
+    public void reportRepositoryError() throws Exception {
+        FakeStepRepository repository = new FakeStepRepository(100) {
+            @Override
+            public List<StepRecord> getRecords(long from, long afterSequence, long to, int limit) {
+                if (from > BASE_TIME) {
+                    throw new IllegalStateException("disk I/O error");
+                }
+                return super.getRecords(from, afterSequence, to, limit);
+            }
+        };
+        StepHistoryReader reader = write(new StepHistoryWriter(repository, 10), StepHistoryReader.TYPE_RECORD, 0, Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            reader.readRecord();
+        }
+        try {
+            reader.readRecord();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("disk I/O error"));
+        }
+    }
+
+    @Test
+    public void detectTruncatedStream() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StepHistoryWriter(new FakeStepRepository(5)).write(StepHistoryReader.TYPE_RECORD, 0, Long.MAX_VALUE, output);
+        byte[] bytes = output.toByteArray();
+        // 去掉结束标记，模拟服务端进程被杀
+        StepHistoryReader reader = new StepHistoryReader(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 4)));
+        for (int i = 0; i < 5; i++) {
+            reader.readRecord();
+        }
+        try {
+            reader.readRecord();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void rejectInvalidPageSize() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(StepHistoryReader.MAGIC);
+        data.writeInt(StepHistoryReader.TYPE_RECORD);
+        data.writeInt(StepHistoryReader.MAX_PAGE_SIZE + 1);
+        StepHistoryReader reader = new StepHistoryReader(new ByteArrayInputStream(bytes.toByteArray()));
+        try {
+            reader.readRecord();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void rejectMisalignedStream() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StepHistoryWriter(new FakeStepRepository(5)).write(StepHistoryReader.TYPE_RECORD, 0, Long.MAX_VALUE, output);
+        byte[] bytes = output.toByteArray();
+        // 丢掉第一条记录中的4个字节，后面的数据全部错位
+        byte[] misaligned = new byte[bytes.length - 4];
+        System.arraycopy(bytes, 0, misaligned, 0, 12);
+        System.arraycopy(bytes, 16, misaligned, 12, bytes.length - 16);
+        StepHistoryReader reader = new StepHistoryReader(new ByteArrayInputStream(misaligned));
+        try {
+            for (int i = 0; i < 5; i++) {
+                reader.readRecord();
+            }
+            fail();
+        } catch (IOException e) {
+            // 在读到流末尾之前发现错位
+            assertTrue(e.getMessage(), !e.getMessage().contains("truncated"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectUnknownType() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(StepHistoryReader.MAGIC);
+        data.writeInt(StepHistoryReader.TYPE_DAY + 1);
+        new StepHistoryReader(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void wrongReadMethod() throws Exception {
+        write(new StepHistoryWriter(new FakeStepRepository(5)), StepHistoryReader.TYPE_HOUR, 0, Long.MAX_VALUE).readRecord();
+    }
+
+    private static StepHistoryReader write(StepHistoryWriter writer, int type, long from, long to) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writer.write(type, from, to, output);
+        return new StepHistoryReader(new ByteArrayInputStream(output.toByteArray()));
+    }
+
+    private static class FakeStepRepository implements StepRepository {
+
+        final List<StepRecord> mRecords = new ArrayList<>();
+        final List<StepTotal>  mTotals  = new ArrayList<>();
+        int mPageQueries;
+        int mTotalQueries;
+
+        FakeStepRepository(int count) {
+            for (int i = 0; i < count; i++) {
+                add(new StepRecord(i * 2, BASE_TIME + TimeUnit.SECONDS.toMillis(10) * i, i));
+            }
+            for (int i = 0; i < count; i++) {
+                mTotals.add(new StepTotal(BASE_TIME + TimeUnit.DAYS.toMillis(1) * i - TimeUnit.HOURS.toMillis(1), i * 100));
+            }
+        }
+
+        /**
+         * 记录按时间顺序添加，序号从1开始
+         */
+        void add(StepRecord record) {
+            record.setSequence(mRecords.size() + 1);
+            mRecords.add(record);
+        }
+
+        @Override
+        public void insertRecord(StepRecord stepRecord) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void insertRecords(List<StepRecord> stepRecords) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public StepRecord getLatestRecord() {
+            return mTotals.isEmpty() ? null : new StepRecord(0, mTotals.get(mTotals.size() - 1).getStartTime(), 0);
+        }
+
+        @Override
+        public List<StepRecord> getRecords(long from, long afterSequence, long to, int limit) {
+            if (limit > 1) {
+                mPageQueries++;
+            }
+            List<StepRecord> page = new ArrayList<>();
+            for (StepRecord record : mRecords) {
+                if (record.getStepTime() == from && record.getSequence() <= afterSequence) {
+                    continue;
+                }
+                if (record.getStepTime() >= from && record.getStepTime() < to && page.size() < limit) {
+                    page.add(record);
+                }
+            }
+            return page;
+        }
+
+        @Override
+        public List<StepRecord> getRecordsAfter(long afterSequence, int limit) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<StepTotal> getMinuteTotals(long from, long to) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<StepTotal> getHourlyTotals(long from, long to) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<StepTotal> getDailyTotals(long from, long to) {
+            mTotalQueries++;
+            List<StepTotal> page = new ArrayList<>();
+            for (StepTotal total : mTotals) {
+                if (total.getStartTime() >= from && total.getStartTime() < to) {
+                    page.add(total);
+                }
+            }
+            return page;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package site.hanschen.runwithyou.sync;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.TestScheduler;
+import site.hanschen.runwithyou.bluetooth.BluetoothListener;
+import site.hanschen.runwithyou.bluetooth.Frame;
+import site.hanschen.runwithyou.bluetooth.InMemoryBluetoothControler;
+import site.hanschen.runwithyou.bluetooth.InMemoryBluetoothHub;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+import site.hanschen.runwithyou.utils.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 一个{@link GroupStepHub}和多个成员通过内存中的蓝牙连接同步步数
+ *
+ * @author HansChen
+ */
+public class GroupStepHubTest {
+
+    private static final long LATENCY = 20;
+    private static final int  MEMBERS = 6;
+
+    private TestScheduler        mScheduler;
+    private InMemoryBluetoothHub mHub;
+    private GroupStepHub         mGroup;
+    private Map<Integer, Long>   mHubSteps;
+    private List<Boolean>        mSessionActive;
+    private Member[]             mMembers;
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new TestScheduler();
+        mHub = new InMemoryBluetoothHub(mScheduler, LATENCY);
+        mHubSteps = new HashMap<>();
+        mSessionActive = new ArrayList<>();
+        mGroup = new GroupStepHub(mHub, mScheduler, new SchedulerClock(mScheduler), new GroupStepHub.Listener() {
+            @Override
+            public void onMemberStepChanged(int memberId, long stepCount) {
+                mHubSteps.put(memberId, stepCount);
+            }
+
+            @Override
+            public void onMemberLeft(int memberId) {
+                mHubSteps.remove(memberId);
+            }
+
+            @Override
+            public void onSessionActiveChanged(boolean active) {
+                mSessionActive.add(active);
+            }
+        });
+        mGroup.onLocalStepChanged(1000);
+        mGroup.start(false);
+
+        mMembers = new Member[MEMBERS];
+        for (int i = 0; i < MEMBERS; i++) {
+            mMembers[i] = new Member(mScheduler);
+            mMembers[i].step(100 * (i + 1));
+            mMembers[i].mPeerId = mHub.addPeer(mMembers[i].mControler, new Device("member" + i, "00:00:00:00:00:0" + i));
+            mMembers[i].mEngine.start();
+        }
+        advance(StepSyncEngine.MIN_SEND_INTERVAL + LATENCY * 3);
+    }
+
+    @Test
+    public void fanOutGroupState() throws Exception {
+        assertEquals(MEMBERS, mGroup.getMemberCount());
+        assertEquals(MEMBERS, mHubSteps.size());
+        for (int i = 0; i < MEMBERS; i++) {
+            Member member = mMembers[i];
+            assertEquals(100 * (i + 1), (long) mHubSteps.get(member.mPeerId));
+            // 成员和hub之间和双人跑一样同步，对方是hub
+            assertEquals(1000, member.mPartnerStep);
+
+            GroupState state = member.mState;
+            assertNotNull(state);
+            assertEquals(member.mPeerId, state.getSelfId());
+            assertEquals(MEMBERS + 1, state.getSteps().size());
+            assertEquals(1000, (long) state.getSteps().get(GroupStepHub.HOST_ID));
+            for (Member other : mMembers) {
+                assertEquals(other.mLocalStep, (long) state.getSteps().get(other.mPeerId));
+            }
+        }
+    }
+
+    @Test
+    public void coalesceStateUpdates() throws Exception {
+        long sent = mGroup.getStatesSent();
+        // 所有成员每100毫秒走一步，持续10秒
+        for (int n = 1; n <= 100; n++) {
+            for (Member member : mMembers) {
+                member.step(1);
+            }
+            advance(100);
+        }
+        advance(StepSyncEngine.MAX_SEND_INTERVAL);
+
+        for (Member member : mMembers) {
+            for (Member other : mMembers) {
+                assertEquals(other.mLocalStep, (long) member.mState.getSteps().get(other.mPeerId));
+            }
+        }
+        // 每个成员收到的全体步数按发送间隔合并，而不是每个成员的每次更新都广播
+        long perMember = (mGroup.getStatesSent() - sent) / MEMBERS;
+        assertTrue(perMember <= 100 * 100 / StepSyncEngine.MIN_SEND_INTERVAL + 2);
+    }
+
+    @Test
+    public void slowMemberDoesNotStallOthers() throws Exception {
+        Member slow = mMembers[2];
+        mHub.setWritable(slow.mPeerId, false);
+        for (int n = 1; n <= 20; n++) {
+            mMembers[0].step(10);
+            advance(StepSyncEngine.MIN_SEND_INTERVAL);
+        }
+        advance(StepSyncEngine.MIN_SEND_INTERVAL + LATENCY * 2);
+
+        long expected = mMembers[0].mLocalStep;
+        for (Member member : mMembers) {
+            if (member != slow) {
+                assertEquals(expected, (long) member.mState.getSteps().get(mMembers[0].mPeerId));
+            }
+        }
+        assertTrue(slow.mState.getSteps().get(mMembers[0].mPeerId) < expected);
+        assertTrue(mGroup.getStatesSkipped() > 0);
+
+        // 恢复后只补发最新的一次
+        long sentToSlow = mHub.getSentFrames(slow.mPeerId);
+        mHub.setWritable(slow.mPeerId, true);
+        advance(LATENCY);
+        assertEquals(expected, (long) slow.mState.getSteps().get(mMembers[0].mPeerId));
+        assertTrue(mHub.getSentFrames(slow.mPeerId) - sentToSlow <= 3);
+    }
+
+    @Test
+    public void memberLeaves() throws Exception {
+        Member leaving = mMembers[4];
+        mHub.removePeer(leaving.mPeerId);
+        advance(StepSyncEngine.MIN_SEND_INTERVAL + LATENCY);
+
+        assertEquals(MEMBERS - 1, mGroup.getMemberCount());
+        assertFalse(mHubSteps.containsKey(leaving.mPeerId));
+        for (Member member : mMembers) {
+            if (member != leaving) {
+                assertFalse(member.mState.getSteps().containsKey(leaving.mPeerId));
+                assertEquals(MEMBERS, member.mState.getSteps().size());
+            }
+        }
+    }
+
+    @Test
+    public void sessionActiveWhileMembersConnected() throws Exception {
+        // 第一个成员连接时通知一次，之后的成员不再重复
+        assertEquals(Arrays.asList(true), mSessionActive);
+        for (int i = 0; i < MEMBERS - 1; i++) {
+            mHub.removePeer(mMembers[i].mPeerId);
+        }
+        advance(LATENCY);
+        assertEquals(Arrays.asList(true), mSessionActive);
+
+        mHub.removePeer(mMembers[MEMBERS - 1].mPeerId);
+        advance(LATENCY);
+        assertEquals(Arrays.asList(true, false), mSessionActive);
+
+        // 没有成员时停止不会再次通知
+        mGroup.stop();
+        assertEquals(Arrays.asList(true, false), mSessionActive);
+    }
+
+    @Test
+    public void stopEndsActiveSession() throws Exception {
+        mGroup.stop();
+        assertEquals(Arrays.asList(true, false), mSessionActive);
+    }
+
+    private void advance(long millis) {
+        mScheduler.advanceTimeBy(millis, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Member implements BluetoothListener, StepSyncEngine.Listener {
+
+        private final InMemoryBluetoothControler mControler;
+        private final StepSyncEngine             mEngine;
+        private       int                        mPeerId;
+        private       long                       mLocalStep;
+        private       long                       mPartnerStep = -1;
+        private       GroupState                 mState;
+
+        Member(TestScheduler scheduler) {
+            mControler = new InMemoryBluetoothControler(scheduler, LATENCY);
+            mEngine = new StepSyncEngine(mControler, scheduler, new SchedulerClock(scheduler), this);
+            mControler.registerListener(this);
+        }
+
+        void step(long count) {
+            mLocalStep += count;
+            mEngine.onLocalStepChanged(mLocalStep);
+        }
+
+        @Override
+        public void onPartnerStepChanged(long stepCount) {
+            mPartnerStep = stepCount;
+        }
+
+        @Override
+        public void onDataReceived(Frame frame) {
+            if (GroupState.isGroupState(frame)) {
+                try {
+                    mState = GroupState.read(frame);
+                } catch (ProtocolException e) {
+                    throw new AssertionError(e);
+                }
+            } else {
+                mEngine.onFrameReceived(frame);
+            }
+        }
+
+        @Override
+        public void onWritable() {
+            mEngine.onWritable();
+        }
+
+        @Override
+        public void onListenStart() {
+        }
+
+        @Override
+        public void onListenTimeout() {
+        }
+
+        @Override
+        public void onConnectStart(Device target) {
+        }
+
+        @Override
+        public void onConnectSucceed(Device device) {
+        }
+
+        @Override
+        public void onConnectFailed(Device device) {
+        }
+
+        @Override
+        public void onConnectLost() {
+        }
+
+        @Override
+        public void onReconnecting(Device device, int attempt) {
+        }
+
+        @Override
+        public void onDataSent(int frames, int bytes) {
+        }
+    }
+
+    /**
+     * 开机时间和{@link TestScheduler}的虚拟时间同步
+     */
+    private static class SchedulerClock implements Clock {
+
+        private final TestScheduler mScheduler;
+
+        SchedulerClock(TestScheduler scheduler) {
+            this.mScheduler = scheduler;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return mScheduler.now(TimeUnit.MILLISECONDS);
+        }
+    }
+}
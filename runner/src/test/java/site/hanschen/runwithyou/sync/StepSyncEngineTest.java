@@ -0,0 +1,359 @@
+package site.hanschen.runwithyou.sync;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.TestScheduler;
+import site.hanschen.runwithyou.bluetooth.BluetoothListener;
+import site.hanschen.runwithyou.bluetooth.Frame;
+import site.hanschen.runwithyou.bluetooth.InMemoryBluetoothControler;
+import site.hanschen.runwithyou.ui.home.devicelist.bean.Device;
+import site.hanschen.runwithyou.utils.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 两个{@link StepSyncEngine}通过内存中的蓝牙连接同步步数
+ *
+ * @author HansChen
+ */
+public class StepSyncEngineTest {
+
+    private static final long LATENCY = 20;
+
+    private TestScheduler mScheduler;
+    private Partner       mAlice;
+    private Partner       mBob;
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new TestScheduler();
+        mAlice = new Partner(mScheduler);
+        mBob = new Partner(mScheduler);
+        InMemoryBluetoothControler.pair(mAlice.mControler, mBob.mControler);
+    }
+
+    @Test
+    public void exchangeSnapshotOnStart() throws Exception {
+        mAlice.mEngine.onLocalStepChanged(1200);
+        mBob.mEngine.onLocalStepChanged(800);
+        mAlice.mEngine.start();
+        mBob.mEngine.start();
+        // 先交换HELLO，再发送快照
+        advance(LATENCY * 2);
+
+        assertEquals(800, mAlice.mPartnerStep);
+        assertEquals(1200, mBob.mPartnerStep);
+        assertEquals(1, mAlice.mEngine.getSnapshotsSent());
+    }
+
+    @Test
+    public void convergeWithCoalescedDeltas() throws Exception {
+        startBoth(0);
+        // 每100毫秒走一步，持续100秒
+        for (int i = 1; i <= 1000; i++) {
+            mAlice.mEngine.onLocalStepChanged(i);
+            advance(100);
+        }
+        advance(StepSyncEngine.MAX_SEND_INTERVAL);
+
+        assertEquals(1000, mBob.mPartnerStep);
+        // 按发送间隔合并，消息数远少于步数更新次数，差值帧只有几个字节
+        long frames = mAlice.mControler.getSentFrames();
+        assertTrue(frames <= 1000 * 100 / StepSyncEngine.MIN_SEND_INTERVAL + 10);
+        assertTrue(mAlice.mControler.getSentBytes() <= frames * (Frame.HEADER_SIZE + 4));
+        assertTrue(mAlice.mEngine.getDeltasSent() > mAlice.mEngine.getSnapshotsSent());
+    }
+
+    @Test
+    public void idleSendsNothing() throws Exception {
+        startBoth(500);
+        long frames = mAlice.mControler.getSentFrames();
+        mAlice.mEngine.onLocalStepChanged(500);
+        advance(StepSyncEngine.SNAPSHOT_INTERVAL * 4);
+        assertEquals(frames, mAlice.mControler.getSentFrames());
+    }
+
+    @Test
+    public void snapshotAfterDeltas() throws Exception {
+        startBoth(0);
+        mAlice.mEngine.onLocalStepChanged(10);
+        advance(StepSyncEngine.MIN_SEND_INTERVAL);
+        assertEquals(1, mAlice.mEngine.getDeltasSent());
+        long snapshots = mAlice.mEngine.getSnapshotsSent();
+
+        advance(StepSyncEngine.SNAPSHOT_INTERVAL);
+        assertEquals(snapshots + 1, mAlice.mEngine.getSnapshotsSent());
+        // 没有新的差值，不再补发快照
+        advance(StepSyncEngine.SNAPSHOT_INTERVAL * 2);
+        assertEquals(snapshots + 1, mAlice.mEngine.getSnapshotsSent());
+    }
+
+    @Test
+    public void resyncAfterLostDelta() throws Exception {
+        startBoth(100);
+        mAlice.mControler.dropNext(1);
+        mAlice.mEngine.onLocalStepChanged(150);
+        advance(StepSyncEngine.MIN_SEND_INTERVAL);
+        assertEquals(100, mBob.mPartnerStep);
+
+        // 下一条差值的序号不连续，对方请求快照后恢复一致
+        mAlice.mEngine.onLocalStepChanged(160);
+        advance(StepSyncEngine.MIN_SEND_INTERVAL * 2);
+        assertEquals(160, mBob.mPartnerStep);
+        assertEquals(160, mBob.mEngine.getPartnerStepCount());
+    }
+
+    @Test
+    public void snapshotWhenStepDecreases() throws Exception {
+        startBoth(9000);
+        long snapshots = mAlice.mEngine.getSnapshotsSent();
+        mAlice.mEngine.onLocalStepChanged(3);
+        advance(StepSyncEngine.MIN_SEND_INTERVAL);
+        assertEquals(3, mBob.mPartnerStep);
+        assertEquals(snapshots + 1, mAlice.mEngine.getSnapshotsSent());
+    }
+
+    @Test
+    public void backOffWhenQueueFull() throws Exception {
+        startBoth(0);
+        mAlice.mControler.setWritable(false);
+        for (int i = 1; i <= 100; i++) {
+            mAlice.mEngine.onLocalStepChanged(i);
+            advance(100);
+        }
+        assertEquals(StepSyncEngine.MAX_SEND_INTERVAL, mAlice.mEngine.getSendInterval());
+        // 10秒内以加倍的间隔重试，而不是每次步数更新都重试
+        assertTrue(mAlice.mEngine.getRejectedSends() <= 8);
+
+        mAlice.mControler.setWritable(true);
+        advance(StepSyncEngine.MAX_SEND_INTERVAL + LATENCY);
+        assertEquals(100, mBob.mPartnerStep);
+        for (int i = 0; i < 10; i++) {
+            mAlice.mEngine.onLocalStepChanged(101 + i);
+            advance(StepSyncEngine.MAX_SEND_INTERVAL);
+        }
+        assertEquals(StepSyncEngine.MIN_SEND_INTERVAL, mAlice.mEngine.getSendInterval());
+    }
+
+    @Test
+    public void ignoreOtherFrameTypes() throws Exception {
+        startBoth(10);
+        mAlice.mControler.sendData(1, new byte[]{1, 2, 3});
+        advance(LATENCY);
+        assertFalse(mBob.mLastFrameHandled);
+        assertEquals(10, mBob.mPartnerStep);
+    }
+
+    @Test
+    public void resumeSessionWithoutSnapshot() throws Exception {
+        startBoth(100);
+        mAlice.mEngine.onLocalStepChanged(120);
+        advance(StepSyncEngine.MIN_SEND_INTERVAL);
+        assertEquals(120, mBob.mPartnerStep);
+
+        // 断线期间继续走路，重连后只发送差值
+        mAlice.mEngine.stop();
+        mBob.mEngine.stop();
+        mAlice.mEngine.onLocalStepChanged(180);
+        long snapshots = mAlice.mEngine.getSnapshotsSent();
+        mAlice.mEngine.start();
+        mBob.mEngine.start();
+        advance(LATENCY * 2);
+
+        assertEquals(180, mBob.mPartnerStep);
+        assertEquals(snapshots, mAlice.mEngine.getSnapshotsSent());
+        assertEquals(1, mAlice.mEngine.getResumedSessions());
+        assertEquals(1, mBob.mEngine.getResumedSessions());
+    }
+
+    @Test
+    public void resumeFromAcknowledgedSequence() throws Exception {
+        startBoth(100);
+        // 断线前发送的两条差值丢失了
+        mAlice.mControler.dropNext(2);
+        mAlice.mEngine.onLocalStepChanged(110);
+        advance(StepSyncEngine.MIN_SEND_INTERVAL);
+        mAlice.mEngine.onLocalStepChanged(130);
+        advance(StepSyncEngine.MIN_SEND_INTERVAL);
+        assertEquals(100, mBob.mPartnerStep);
+        assertEquals(2, mAlice.mEngine.getDeltasSent());
+
+        mAlice.mEngine.stop();
+        mBob.mEngine.stop();
+        long snapshots = mAlice.mEngine.getSnapshotsSent();
+        mAlice.mEngine.start();
+        mBob.mEngine.start();
+        advance(LATENCY * 2);
+
+        // 从对方确认的序号重发一条合并的差值
+        assertEquals(130, mBob.mPartnerStep);
+        assertEquals(snapshots, mAlice.mEngine.getSnapshotsSent());
+        assertEquals(3, mAlice.mEngine.getDeltasSent());
+        mAlice.mEngine.onLocalStepChanged(131);
+        advance(StepSyncEngine.MIN_SEND_INTERVAL);
+        assertEquals(131, mBob.mPartnerStep);
+    }
+
+    @Test
+    public void snapshotForNewPeerSession() throws Exception {
+        startBoth(100);
+        long snapshots = mAlice.mEngine.getSnapshotsSent();
+        mAlice.mEngine.stop();
+
+        // 对方重启了应用，会话标识不同
+        Partner restarted = new Partner(mScheduler);
+        InMemoryBluetoothControler.pair(mAlice.mControler, restarted.mControler);
+        restarted.mEngine.onLocalStepChanged(100);
+        mAlice.mEngine.start();
+        restarted.mEngine.start();
+        advance(LATENCY * 2);
+
+        assertEquals(100, restarted.mPartnerStep);
+        assertEquals(100, mAlice.mPartnerStep);
+        assertEquals(snapshots + 1, mAlice.mEngine.getSnapshotsSent());
+        assertEquals(0, mAlice.mEngine.getResumedSessions());
+    }
+
+    @Test
+    public void wallClockJumpDoesNotStallSync() throws Exception {
+        WallClockScheduler scheduler = new WallClockScheduler(mScheduler);
+        mAlice = new Partner(mScheduler, scheduler);
+        mBob = new Partner(mScheduler, scheduler);
+        InMemoryBluetoothControler.pair(mAlice.mControler, mBob.mControler);
+        startBoth(0);
+
+        mAlice.mEngine.onLocalStepChanged(100);
+        advance(StepSyncEngine.MIN_SEND_INTERVAL + LATENCY);
+        assertEquals(100, mBob.mPartnerStep);
+        // 系统时间被调回一小时，下一次发送仍然只等待发送间隔
+        scheduler.mOffsetMillis = -TimeUnit.HOURS.toMillis(1);
+        mAlice.mEngine.onLocalStepChanged(200);
+        advance(StepSyncEngine.MIN_SEND_INTERVAL + LATENCY);
+        assertEquals(200, mBob.mPartnerStep);
+    }
+
+    private void startBoth(long stepCount) {
+        mAlice.mEngine.onLocalStepChanged(stepCount);
+        mBob.mEngine.onLocalStepChanged(stepCount);
+        mAlice.mEngine.start();
+        mBob.mEngine.start();
+        advance(LATENCY * 2);
+        assertEquals(stepCount, mAlice.mPartnerStep);
+        assertEquals(stepCount, mBob.mPartnerStep);
+    }
+
+    private void advance(long millis) {
+        mScheduler.advanceTimeBy(millis, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Partner implements BluetoothListener, StepSyncEngine.Listener {
+
+        private final InMemoryBluetoothControler mControler;
+        private final StepSyncEngine             mEngine;
+        private       long                       mPartnerStep = -1;
+        private       boolean                    mLastFrameHandled;
+
+        Partner(TestScheduler scheduler) {
+            this(scheduler, scheduler);
+        }
+
+        Partner(TestScheduler scheduler, Scheduler engineScheduler) {
+            mControler = new InMemoryBluetoothControler(scheduler, LATENCY);
+            mEngine = new StepSyncEngine(mControler, engineScheduler, new SchedulerClock(scheduler), this);
+            mControler.registerListener(this);
+        }
+
+        @Override
+        public void onPartnerStepChanged(long stepCount) {
+            mPartnerStep = stepCount;
+        }
+
+        @Override
+        public void onDataReceived(Frame frame) {
+            mLastFrameHandled = mEngine.onFrameReceived(frame);
+        }
+
+        @Override
+        public void onWritable() {
+            mEngine.onWritable();
+        }
+
+        @Override
+        public void onListenStart() {
+        }
+
+        @Override
+        public void onListenTimeout() {
+        }
+
+        @Override
+        public void onConnectStart(Device target) {
+        }
+
+        @Override
+        public void onConnectSucceed(Device device) {
+        }
+
+        @Override
+        public void onConnectFailed(Device device) {
+        }
+
+        @Override
+        public void onConnectLost() {
+        }
+
+        @Override
+        public void onReconnecting(Device device, int attempt) {
+        }
+
+        @Override
+        public void onDataSent(int frames, int bytes) {
+        }
+    }
+
+    /**
+     * 开机时间和{@link TestScheduler}的虚拟时间同步
+     */
+    private static class SchedulerClock implements Clock {
+
+        private final TestScheduler mScheduler;
+
+        SchedulerClock(TestScheduler scheduler) {
+            this.mScheduler = scheduler;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return mScheduler.now(TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 任务由{@link TestScheduler}执行，{@link #now(TimeUnit)}模拟可以被调整的墙上时间
+     */
+    private static class WallClockScheduler extends Scheduler {
+
+        private final TestScheduler mScheduler;
+        private       long          mOffsetMillis;
+
+        WallClockScheduler(TestScheduler scheduler) {
+            this.mScheduler = scheduler;
+        }
+
+        @Override
+        public Worker createWorker() {
+            return mScheduler.createWorker();
+        }
+
+        @Override
+        public long now(TimeUnit unit) {
+            return unit.convert(mScheduler.now(TimeUnit.MILLISECONDS) + mOffsetMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package site.hanschen.runwithyou.upload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import site.hanschen.api.user.CheckpointRequest;
+import site.hanschen.api.user.StepBatch;
+import site.hanschen.api.user.StepBatchSource;
+import site.hanschen.api.user.StepBatches;
+import site.hanschen.api.user.UploadCheckpoint;
+import site.hanschen.api.user.UserCenterAsyncApi;
+import site.hanschen.api.user.UserCenterAsyncApiImpl;
+import site.hanschen.api.user.UserCenterGrpc;
+import site.hanschen.runwithyou.bean.StepRecord;
+import site.hanschen.runwithyou.bean.StepTotal;
+import site.hanschen.runwithyou.database.repository.StepRepository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 使用进程内的gRPC服务测试{@link StepUploader}，服务端按检查点保存记录
+ *
+ * @author HansChen
+ */
+public class StepUploaderTest {
+
+    private static final String SERVER_NAME   = "step-upload-test";
+    private static final String TOKEN         = "token";
+    private static final String DEVICE_ID     = "device";
+    private static final long   BASE_TIME     = 1480000000000L;
+    private static final long   AWAIT_TIMEOUT = 5000;
+    private static final int    BATCH_SIZE    = 500;
+
+    private StepServer         mService;
+    private Server             mServer;
+    private ManagedChannel     mChannel;
+    private UserCenterAsyncApi mApi;
+    private FakeStepRepository mRepository;
+    private StepUploader       mUploader;
+
+    @Before
+    public void setUp() throws Exception {
+        mService = new StepServer();
+        mServer = InProcessServerBuilder.forName(SERVER_NAME).addService(mService).directExecutor().build().start();
+        mChannel = InProcessChannelBuilder.forName(SERVER_NAME).directExecutor().build();
+        mApi = new UserCenterAsyncApiImpl(mChannel);
+        mRepository = new FakeStepRepository();
+        mUploader = new StepUploader(mRepository, mApi, DEVICE_ID, BATCH_SIZE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mChannel.shutdownNow();
+        mServer.shutdownNow();
+        assertTrue(mChannel.awaitTermination(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(mServer.awaitTermination(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void uploadHistoryInCompactBatches() throws Exception {
+        mRepository.addRecords(20000);
+
+        StepUploader.Result result = mUploader.upload(TOKEN);
+        assertEquals(20000 / BATCH_SIZE, result.getBatchCount());
+        assertEquals(20000, result.getRecordCount());
+        assertEquals(mRepository.mRecords.get(19999).getSequence(), result.getCheckpoint().getLastSequence());
+        assertEquals(mRepository.mRecords.get(19999).getStepTime(), result.getCheckpoint().getLastStepTime());
+        assertRecordsEqual(mRepository.mRecords, mService.records(DEVICE_ID));
+        // 差值使用packed varint，每条记录只需要几个字节
+        assertTrue(result.getBytes() / result.getRecordCount() <= 8);
+        assertTrue(result.getElapsedMillis() < 10000);
+    }
+
+    @Test
+    public void uploadOnlyDeltaSinceCheckpoint() throws Exception {
+        mRepository.addRecords(1200);
+        mUploader.upload(TOKEN);
+
+        StepUploader.Result result = mUploader.upload(TOKEN);
+        assertEquals(0, result.getBatchCount());
+        assertEquals(1, mService.mStreams);
+
+        mRepository.addRecords(30);
+        result = mUploader.upload(TOKEN);
+        assertEquals(1, result.getBatchCount());
+        assertEquals(30, result.getRecordCount());
+        assertRecordsEqual(mRepository.mRecords, mService.records(DEVICE_ID));
+    }
+
+    @Test
+    public void uploadRecordsWrittenAfterClockGoesBack() throws Exception {
+        mRepository.addRecords(100);
+        mUploader.upload(TOKEN);
+
+        // 时钟倒退一小时后写入的记录，时间都早于检查点
+        mRepository.mTimeOffset = -TimeUnit.HOURS.toMillis(1);
+        mRepository.addRecords(30);
+        assertTrue(mRepository.mRecords.get(129).getStepTime() < mRepository.mRecords.get(99).getStepTime());
+
+        StepUploader.Result result = mUploader.upload(TOKEN);
+        assertEquals(30, result.getRecordCount());
+        assertEquals(130, result.getCheckpoint().getRecordCount());
+        assertRecordsEqual(mRepository.mRecords, mService.records(DEVICE_ID));
+    }
+
+    @Test
+    public void uploadFromFreshInstallOfExistingAccount() throws Exception {
+        mRepository.addRecords(100);
+        mUploader.upload(TOKEN);
+
+        // 重装或者换手机后用同一个账号登录，本地序号从1重新开始
+        FakeStepRepository reinstalled = new FakeStepRepository();
+        reinstalled.mTimeOffset = TimeUnit.DAYS.toMillis(1);
+        reinstalled.addRecords(30);
+        StepUploader.Result result = new StepUploader(reinstalled, mApi, "reinstalled", BATCH_SIZE).upload(TOKEN);
+
+        assertEquals(30, result.getRecordCount());
+        assertEquals(30, result.getCheckpoint().getLastSequence());
+        assertRecordsEqual(reinstalled.mRecords, mService.records("reinstalled"));
+        assertRecordsEqual(mRepository.mRecords, mService.records(DEVICE_ID));
+    }
+
+    @Test
+    public void resumeAfterInterruption() throws Exception {
+        mRepository.addRecords(5000);
+        mService.mFailAfterBatches = 3;
+        try {
+            mUploader.upload(TOKEN);
+            fail("upload should be interrupted");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        }
+        // 中断前收到的批次已经保存
+        assertEquals(3 * BATCH_SIZE, mService.records(DEVICE_ID).size());
+
+        mService.mFailAfterBatches = -1;
+        StepUploader.Result result = mUploader.upload(TOKEN);
+        assertEquals(5000 - 3 * BATCH_SIZE, result.getRecordCount());
+        assertRecordsEqual(mRepository.mRecords, mService.records(DEVICE_ID));
+        assertEquals(5000, result.getCheckpoint().getRecordCount());
+    }
+
+    @Test
+    public void replayedBatchIsSavedOnce() throws Exception {
+        mRepository.addRecords(100);
+        List<StepRecord> first = mRepository.mRecords.subList(0, 50);
+        List<StepRecord> second = mRepository.mRecords.subList(50, 100);
+        StepRecord firstEnd = first.get(first.size() - 1);
+        // 模拟没有收到确认而重发：第二批和重发的第一批一起发送
+        UploadCheckpoint checkpoint = mApi.uploadSteps(new ListSource(StepBatches.encode(TOKEN, DEVICE_ID, 0, 0, first),
+                                                                      StepBatches.encode(TOKEN,
+                                                                                         DEVICE_ID,
+                                                                                         firstEnd.getStepTime(),
+                                                                                         firstEnd.getSequence(),
+                                                                                         second),
+                                                                      StepBatches.encode(TOKEN, DEVICE_ID, 0, 0, first)))
+                                          .blockingGet();
+        assertTrue(checkpoint.getSucceed());
+        assertEquals(100, checkpoint.getRecordCount());
+        assertRecordsEqual(mRepository.mRecords, mService.records(DEVICE_ID));
+    }
+
+    @Test
+    public void gapIsRejected() throws Exception {
+        mRepository.addRecords(100);
+        List<StepRecord> second = mRepository.mRecords.subList(50, 100);
+        UploadCheckpoint checkpoint = mApi.uploadSteps(new ListSource(StepBatches.encode(TOKEN,
+                                                                                         DEVICE_ID,
+                                                                                         second.get(0).getStepTime() - 1,
+                                                                                         second.get(0).getSequence() - 1,
+                                                                                         second)))
+                                          .blockingGet();
+        assertFalse(checkpoint.getSucceed());
+        assertEquals(UploadCheckpoint.ErrorCode.CHECKPOINT_MISMATCH, checkpoint.getErrCode());
+        assertTrue(mService.records(DEVICE_ID).isEmpty());
+    }
+
+    @Test
+    public void sourceFailureCancelsUpload() throws Exception {
+        try {
+            mApi.uploadSteps(new StepBatchSource() {
+                @Override
+                public StepBatch next() throws Exception {
+                    throw new IllegalStateException("database closed");
+                }
+            }).blockingGet();
+            fail("upload should be cancelled");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.CANCELLED, e.getStatus().getCode());
+        }
+        assertTrue(mService.records(DEVICE_ID).isEmpty());
+    }
+
+    private static void assertRecordsEqual(List<StepRecord> expected, List<StepRecord> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getSequence(), actual.get(i).getSequence());
+            assertEquals(expected.get(i).getStepTime(), actual.get(i).getStepTime());
+            assertEquals(expected.get(i).getStepCount(), actual.get(i).getStepCount());
+            assertEquals(expected.get(i).getCountSinceReboot(), actual.get(i).getCountSinceReboot());
+        }
+    }
+
+    private static class ListSource implements StepBatchSource {
+
+        private final List<StepBatch> mBatches;
+
+        ListSource(StepBatch... batches) {
+            mBatches = new ArrayList<>(Arrays.asList(batches));
+        }
+
+        @Override
+        public StepBatch next() throws Exception {
+            return mBatches.isEmpty() ? null : mBatches.remove(0);
+        }
+    }
+
+    /**
+     * 服务端的替身，只保存一个用户的记录，每个设备的记录每收到一批就按序号更新检查点
+     */
+    private static class StepServer extends UserCenterGrpc.UserCenterImplBase {
+
+        private final    Map<String, DeviceSteps> mDevices          = new HashMap<>();
+        private volatile int                      mFailAfterBatches = -1;
+        private volatile int                      mStreams;
+        private          int                      mBatches;
+
+        private static class DeviceSteps {
+
+            final List<StepRecord> mRecords = new ArrayList<>();
+            long mLastStepTime;
+            long mLastSequence;
+        }
+
+        synchronized List<StepRecord> records(String deviceId) {
+            return new ArrayList<>(device(deviceId).mRecords);
+        }
+
+        @Override
+        public void requestUploadCheckpoint(CheckpointRequest request, StreamObserver<UploadCheckpoint> responseObserver) {
+            responseObserver.onNext(checkpoint(request.getDeviceId()));
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public StreamObserver<StepBatch> uploadSteps(final StreamObserver<UploadCheckpoint> responseObserver) {
+            mStreams++;
+            return new StreamObserver<StepBatch>() {
+
+                private boolean mClosed;
+                private String  mDeviceId;
+
+                @Override
+                public void onNext(StepBatch batch) {
+                    if (mClosed) {
+                        return;
+                    }
+                    synchronized (StepServer.this) {
+                        mDeviceId = batch.getDeviceId();
+                        DeviceSteps steps = device(mDeviceId);
+                        if (batch.getBaseSequence() > steps.mLastSequence) {
+                            mClosed = true;
+                            responseObserver.onNext(UploadCheckpoint.newBuilder()
+                                                                    .setErrCode(UploadCheckpoint.ErrorCode.CHECKPOINT_MISMATCH)
+                                                                    .build());
+                            responseObserver.onCompleted();
+                            return;
+                        }
+                        for (StepRecord record : StepBatches.decode(batch)) {
+                            // 已经保存过的记录是重发的，忽略
+                            if (record.getSequence() > steps.mLastSequence) {
+                                steps.mRecords.add(record);
+                                steps.mLastStepTime = record.getStepTime();
+                                steps.mLastSequence = record.getSequence();
+                            }
+                        }
+                        mBatches++;
+                        if (mBatches == mFailAfterBatches) {
+                            mClosed = true;
+                            responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                        }
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    mClosed = true;
+                }
+
+                @Override
+                public void onCompleted() {
+                    if (!mClosed) {
+                        responseObserver.onNext(checkpoint(mDeviceId));
+                        responseObserver.onCompleted();
+                    }
+                }
+            };
+        }
+
+        private DeviceSteps device(String deviceId) {
+            DeviceSteps steps = mDevices.get(deviceId);
+            if (steps == null) {
+                steps = new DeviceSteps();
+                mDevices.put(deviceId, steps);
+            }
+            return steps;
+        }
+
+        private synchronized UploadCheckpoint checkpoint(String deviceId) {
+            DeviceSteps steps = device(deviceId);
+            return UploadCheckpoint.newBuilder()
+                                   .setSucceed(true)
+                                   .setLastStepTime(steps.mLastStepTime)
+                                   .setLastSequence(steps.mLastSequence)
+                                   .setRecordCount(steps.mRecords.size())
+                                   .build();
+        }
+    }
+
+    /**
+     * 每10秒一条记录，序号从1开始连续递增
+     */
+    private static class FakeStepRepository implements StepRepository {
+
+        final List<StepRecord> mRecords = new ArrayList<>();
+        long mTimeOffset;
+
+        void addRecords(int count) {
+            for (int n = 0; n < count; n++) {
+                int i = mRecords.size();
+                StepRecord record = new StepRecord(i * 2, BASE_TIME + mTimeOffset + TimeUnit.SECONDS.toMillis(10) * i, i);
+                record.setSequence(i + 1);
+                mRecords.add(record);
+            }
+        }
+
+        @Override
+        public void insertRecord(StepRecord stepRecord) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void insertRecords(List<StepRecord> stepRecords) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public StepRecord getLatestRecord() {
+            return mRecords.isEmpty() ? null : mRecords.get(mRecords.size() - 1);
+        }
+
+        @Override
+        public List<StepRecord> getRecords(long from, long afterSequence, long to, int limit) {
+            List<StepRecord> page = new ArrayList<>();
+            for (StepRecord record : mRecords) {
+                if (record.getStepTime() >= from && record.getStepTime() < to && page.size() < limit) {
+                    page.add(record);
+                }
+            }
+            return page;
+        }
+
+        @Override
+        public List<StepRecord> getRecordsAfter(long afterSequence, int limit) {
+            List<StepRecord> page = new ArrayList<>();
+            for (StepRecord record : mRecords) {
+                if (record.getSequence() > afterSequence && page.size() < limit) {
+                    page.add(record);
+                }
+            }
+            return page;
+        }
+
+        @Override
+        public List<StepTotal> getMinuteTotals(long from, long to) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<StepTotal> getHourlyTotals(long from, long to) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<StepTotal> getDailyTotals(long from, long to) {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package site.hanschen.server;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次性的数字验证码，例如注册验证码和修改密码的授权码，每个邮箱同时只有一个有效的验证码，使用一次或过期后失效
+ *
+ * @author HansChen
+ */
+public class OneTimeCodes {
+
+    private static final int DIGITS = 6;
+
+    private final ConcurrentMap<String, Code> mCodes  = new ConcurrentHashMap<>();
+    private final SecureRandom                mRandom = new SecureRandom();
+    private final long                        mValidity;
+
+    private static class Code {
+
+        final String value;
+        final long   expireAt;
+
+        Code(String value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    public OneTimeCodes(long validity, TimeUnit unit) {
+        this.mValidity = unit.toMillis(validity);
+    }
+
+    public String issue(String email) {
+        StringBuilder builder = new StringBuilder(DIGITS);
+        for (int i = 0; i < DIGITS; i++) {
+            builder.append(mRandom.nextInt(10));
+        }
+        String value = builder.toString();
+        mCodes.put(email, new Code(value, System.currentTimeMillis() + mValidity));
+        return value;
+    }
+
+    /**
+     * 验证码正确时使它失效并返回true
+     */
+    public boolean consume(String email, String value) {
+        Code code = mCodes.get(email);
+        if (code == null || !code.value.equals(value)) {
+            return false;
+        }
+        // 同时提交同一个验证码时只有一个成功
+        return mCodes.remove(email, code) && code.expireAt >= System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,115 @@
+package site.hanschen.server;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import site.hanschen.api.user.StepBatch;
+import site.hanschen.api.user.UploadCheckpoint;
+
+/**
+ * 按邮箱和设备保存在内存中的计步记录，每个设备的记录按客户端的本地序号升序，检查点是最后一条记录的序号。
+ * 客户端时间倒退后记录的时间不一定有序，不能用时间作为检查点。
+ * <p>
+ * 本地序号只在客户端的一次安装内递增，重装或另一台手机上的序号从头开始，所以检查点不能只按邮箱保存。
+ * 旧版本客户端不发送设备标识，作为空字符串的设备处理
+ *
+ * @author HansChen
+ */
+public class StepStore {
+
+    private final ConcurrentMap<String, Steps> mSteps = new ConcurrentHashMap<>();
+
+    private static class Steps {
+
+        long[] times        = new long[64];
+        long[] counts       = new long[64];
+        long[] rebootCounts = new long[64];
+        long   lastSequence;
+        int    size;
+
+        long lastTime() {
+            return size == 0 ? 0 : times[size - 1];
+        }
+
+        void add(long time, long count, long rebootCount) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+                rebootCounts = Arrays.copyOf(rebootCounts, size * 2);
+            }
+            times[size] = time;
+            counts[size] = count;
+            rebootCounts[size] = rebootCount;
+            size++;
+        }
+    }
+
+    public UploadCheckpoint checkpoint(String email, String deviceId) {
+        Steps steps = steps(email, deviceId);
+        synchronized (steps) {
+            return checkpoint(steps);
+        }
+    }
+
+    /**
+     * 保存一批记录到batch的设备下，序号不大于检查点的记录是重发的，忽略
+     *
+     * @return 保存后的检查点，base_sequence比检查点新时不保存并返回CHECKPOINT_MISMATCH
+     */
+    public UploadCheckpoint append(String email, StepBatch batch) {
+        int size = batch.getTimeDeltasCount();
+        if (batch.getSequenceDeltasCount() != size
+            || batch.getCountDeltasCount() != size
+            || batch.getRebootCountDeltasCount() != size) {
+            throw new IllegalArgumentException("malformed batch: " + size + " times, "
+                                               + batch.getSequenceDeltasCount() + " sequences, "
+                                               + batch.getCountDeltasCount() + " counts, "
+                                               + batch.getRebootCountDeltasCount() + " reboot counts");
+        }
+        Steps steps = steps(email, batch.getDeviceId());
+        synchronized (steps) {
+            if (batch.getBaseSequence() > steps.lastSequence) {
+                return UploadCheckpoint.newBuilder().setErrCode(UploadCheckpoint.ErrorCode.CHECKPOINT_MISMATCH).build();
+            }
+            long time = batch.getBaseTime();
+            long sequence = batch.getBaseSequence();
+            long count = 0;
+            long rebootCount = 0;
+            for (int i = 0; i < size; i++) {
+                time += batch.getTimeDeltas(i);
+                sequence += batch.getSequenceDeltas(i);
+                count += batch.getCountDeltas(i);
+                rebootCount += batch.getRebootCountDeltas(i);
+                if (sequence > steps.lastSequence) {
+                    steps.add(time, count, rebootCount);
+                    steps.lastSequence = sequence;
+                }
+            }
+            return checkpoint(steps);
+        }
+    }
+
+    private Steps steps(String email, String deviceId) {
+        // 邮箱中不会有换行
+        String key = email + '\n' + deviceId;
+        Steps steps = mSteps.get(key);
+        if (steps == null) {
+            Steps created = new Steps();
+            steps = mSteps.putIfAbsent(key, created);
+            if (steps == null) {
+                steps = created;
+            }
+        }
+        return steps;
+    }
+
+    private static UploadCheckpoint checkpoint(Steps steps) {
+        return UploadCheckpoint.newBuilder()
+                               .setSucceed(true)
+                               .setLastStepTime(steps.lastTime())
+                               .setLastSequence(steps.lastSequence)
+                               .setRecordCount(steps.size)
+                               .build();
+    }
+}
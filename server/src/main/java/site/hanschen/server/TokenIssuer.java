@@ -0,0 +1,110 @@
+package site.hanschen.server;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 登录标识的签发和查询。按邮箱分成多个段，每段有自己的锁和随机数生成器，不同用户的登录互不阻塞。
+ * token的前两位十六进制是段号，查询时不需要遍历所有段。每个邮箱同时只有一个有效的token，重新登录后旧的失效
+ *
+ * @author HansChen
+ */
+public class TokenIssuer {
+
+    private static final int    MAX_STRIPES  = 256;
+    private static final int    RANDOM_BYTES = 16;
+    private static final char[] HEX          = "0123456789abcdef".toCharArray();
+
+    private final Stripe[] mStripes;
+    private final int      mMask;
+
+    private static class Stripe {
+
+        final SecureRandom        random       = new SecureRandom();
+        final Map<String, String> emailByToken = new HashMap<>();
+        final Map<String, String> tokenByEmail = new HashMap<>();
+    }
+
+    public TokenIssuer() {
+        this(4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param concurrency 预计同时登录的线程数，向上取整到2的幂
+     */
+    public TokenIssuer(int concurrency) {
+        int count = 1;
+        while (count < concurrency && count < MAX_STRIPES) {
+            count <<= 1;
+        }
+        mStripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            mStripes[i] = new Stripe();
+        }
+        mMask = count - 1;
+    }
+
+    /**
+     * 签发新的token，这个邮箱之前的token失效
+     */
+    public String issue(String email) {
+        int index = spread(email.hashCode()) & mMask;
+        Stripe stripe = mStripes[index];
+        byte[] bytes = new byte[RANDOM_BYTES];
+        synchronized (stripe) {
+            stripe.random.nextBytes(bytes);
+            String token = toToken(index, bytes);
+            String old = stripe.tokenByEmail.put(email, token);
+            if (old != null) {
+                stripe.emailByToken.remove(old);
+            }
+            stripe.emailByToken.put(token, email);
+            return token;
+        }
+    }
+
+    /**
+     * @return token无效时返回null
+     */
+    public String getEmail(String token) {
+        Stripe stripe = stripeOf(token);
+        if (stripe == null) {
+            return null;
+        }
+        synchronized (stripe) {
+            return stripe.emailByToken.get(token);
+        }
+    }
+
+    private Stripe stripeOf(String token) {
+        if (token == null || token.length() != 2 + RANDOM_BYTES * 2) {
+            return null;
+        }
+        int high = Character.digit(token.charAt(0), 16);
+        int low = Character.digit(token.charAt(1), 16);
+        if (high < 0 || low < 0) {
+            return null;
+        }
+        int index = (high << 4) | low;
+        return index <= mMask ? mStripes[index] : null;
+    }
+
+    private static String toToken(int index, byte[] bytes) {
+        char[] chars = new char[2 + bytes.length * 2];
+        chars[0] = HEX[(index >>> 4) & 0xf];
+        chars[1] = HEX[index & 0xf];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 + i * 2] = HEX[(bytes[i] >>> 4) & 0xf];
+            chars[3 + i * 2] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 和HashMap一样把高位混合到低位，避免hashCode低位相同的邮箱落到同一段
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,89 @@
+package site.hanschen.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import io.grpc.Server;
+import io.grpc.netty.NettyServerBuilder;
+import site.hanschen.server.store.AccountStore;
+import site.hanschen.server.store.LogAccountStore;
+import site.hanschen.server.store.MemoryAccountStore;
+
+/**
+ * 本地运行的UserCenter服务，用于开发和压力测试，不依赖远程服务器:
+ * <pre>
+ * ./gradlew :server:run                                  // 端口8980，账号只保存在内存中
+ * ./gradlew :server:installDist && server/build/install/server/bin/server 8980 data/accounts.log
+ * </pre>
+ *
+ * @author HansChen
+ */
+public class UserCenterServer {
+
+    private static final Logger LOGGER       = Logger.getLogger(UserCenterServer.class.getName());
+    public static final  int    DEFAULT_PORT = 8980;
+
+    private final int             mPort;
+    private final AccountStore    mStore;
+    private final ExecutorService mExecutor;
+    private       Server          mServer;
+
+    public UserCenterServer(int port, AccountStore store) {
+        this.mPort = port;
+        this.mStore = store;
+        // 请求都在内存或页缓存中完成，线程数和CPU核数相同就够了，避免线程切换
+        this.mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    public void start() throws IOException {
+        mServer = NettyServerBuilder.forPort(mPort)
+                                    .addService(new UserCenterService(mStore))
+                                    .executor(mExecutor)
+                                    // 和客户端的keepalive间隔一致
+                                    .permitKeepAliveTime(5, TimeUnit.MINUTES)
+                                    .build()
+                                    .start();
+        LOGGER.info("UserCenter started, listening on " + mServer.getPort());
+    }
+
+    public void stop() throws InterruptedException, IOException {
+        if (mServer != null) {
+            mServer.shutdown();
+            if (!mServer.awaitTermination(5, TimeUnit.SECONDS)) {
+                mServer.shutdownNow();
+            }
+        }
+        mExecutor.shutdown();
+        mStore.close();
+    }
+
+    public void blockUntilShutdown() throws InterruptedException {
+        if (mServer != null) {
+            mServer.awaitTermination();
+        }
+    }
+
+    /**
+     * @param args [端口] [账号日志文件]，没有指定文件时账号只保存在内存中
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        AccountStore store = args.length > 1 ? new LogAccountStore(new File(args[1])) : new MemoryAccountStore();
+        final UserCenterServer server = new UserCenterServer(port, store);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.stop();
+                } catch (InterruptedException | IOException ignore) {
+                }
+            }
+        });
+        server.blockUntilShutdown();
+    }
+}
@@ -0,0 +1,349 @@
+package site.hanschen.server;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import site.hanschen.api.user.AuthorizationReply;
+import site.hanschen.api.user.AuthorizationRequest;
+import site.hanschen.api.user.CheckpointRequest;
+import site.hanschen.api.user.LoginInfo;
+import site.hanschen.api.user.LoginReply;
+import site.hanschen.api.user.NewPassword;
+import site.hanschen.api.user.NewPasswordReply;
+import site.hanschen.api.user.OperateToken;
+import site.hanschen.api.user.RegisterInfo;
+import site.hanschen.api.user.RegisterReply;
+import site.hanschen.api.user.ResultReply;
+import site.hanschen.api.user.StepBatch;
+import site.hanschen.api.user.UpdateRequest;
+import site.hanschen.api.user.UploadCheckpoint;
+import site.hanschen.api.user.UserCenterGrpc;
+import site.hanschen.api.user.UserInfoReply;
+import site.hanschen.api.user.VerificationReply;
+import site.hanschen.api.user.VerificationRequest;
+import site.hanschen.server.store.AccountRecord;
+import site.hanschen.server.store.AccountStore;
+
+/**
+ * user_center.proto中UserCenter服务的实现。
+ * <p>
+ * 账号的读取不加锁，修改同一个账号的请求按邮箱分段加锁串行执行；带幂等键的请求在同一个锁中记录回复，重发时直接返回之前的回复
+ *
+ * @author HansChen
+ */
+public class UserCenterService extends UserCenterGrpc.UserCenterImplBase {
+
+    private static final Logger  LOGGER       = Logger.getLogger(UserCenterService.class.getName());
+    private static final Pattern EMAIL        = Pattern.compile("[^@\\s]+@[^@\\s]+\\.[^@\\s]+");
+    private static final int     LOCK_STRIPES = 64;
+    /* 记住最近这么多个幂等键的回复 */
+    private static final int     MAX_REPLIES  = 10000;
+
+    private final AccountStore        mAccounts;
+    private final TokenIssuer         mTokens;
+    private final StepStore           mSteps;
+    private final OneTimeCodes        mVerificationCodes = new OneTimeCodes(30, TimeUnit.MINUTES);
+    private final OneTimeCodes        mAuthorizations    = new OneTimeCodes(10, TimeUnit.MINUTES);
+    private final Object[]            mAccountLocks      = new Object[LOCK_STRIPES];
+    private final Map<String, Object> mReplies;
+
+    public UserCenterService(AccountStore accounts) {
+        this(accounts, new TokenIssuer(), new StepStore());
+    }
+
+    public UserCenterService(AccountStore accounts, TokenIssuer tokens, StepStore steps) {
+        this.mAccounts = accounts;
+        this.mTokens = tokens;
+        this.mSteps = steps;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            mAccountLocks[i] = new Object();
+        }
+        this.mReplies = Collections.synchronizedMap(new LinkedHashMap<String, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > MAX_REPLIES;
+            }
+        });
+    }
+
+    /**
+     * 没有邮件服务，验证码只写到日志中
+     */
+    protected void sendVerificationCode(String email, String code) {
+        LOGGER.info("Verification code for " + email + ": " + code);
+    }
+
+    @Override
+    public void login(LoginInfo request, StreamObserver<LoginReply> responseObserver) {
+        LoginReply.Builder reply = LoginReply.newBuilder();
+        try {
+            if (request.getUsername().isEmpty()) {
+                reply.setErrCode(LoginReply.ErrorCode.ACCOUNT_EMPTY);
+            } else if (request.getPasswordMd5().isEmpty()) {
+                reply.setErrCode(LoginReply.ErrorCode.PASSWORD_EMPTY);
+            } else if (!checkPassword(request.getUsername(), request.getPasswordMd5())) {
+                reply.setErrCode(LoginReply.ErrorCode.ACCOUNT_PASSWORD_INCORRECT);
+            } else {
+                reply.setSucceed(true).setToken(mTokens.issue(request.getUsername()));
+            }
+        } catch (IOException e) {
+            onStoreError(e, responseObserver);
+            return;
+        }
+        complete(responseObserver, reply.build());
+    }
+
+    @Override
+    public void requestVerificationCode(VerificationRequest request, StreamObserver<VerificationReply> responseObserver) {
+        VerificationReply.Builder reply = VerificationReply.newBuilder();
+        String email = request.getEmail();
+        try {
+            if (!EMAIL.matcher(email).matches()) {
+                reply.setErrCode(VerificationReply.ErrorCode.EMAIL_INVALID);
+            } else if (mAccounts.get(email) != null) {
+                reply.setErrCode(VerificationReply.ErrorCode.EMAIL_ALREADY_REGISTERED);
+            } else {
+                sendVerificationCode(email, mVerificationCodes.issue(email));
+                reply.setSucceed(true);
+            }
+        } catch (IOException e) {
+            onStoreError(e, responseObserver);
+            return;
+        }
+        complete(responseObserver, reply.build());
+    }
+
+    @Override
+    public void register(RegisterInfo request, StreamObserver<RegisterReply> responseObserver) {
+        RegisterReply.Builder reply = RegisterReply.newBuilder();
+        String email = request.getEmail();
+        try {
+            if (!EMAIL.matcher(email).matches()) {
+                reply.setErrCode(RegisterReply.ErrorCode.EMAIL_INVALID);
+            } else if (request.getPasswordMd5().isEmpty()) {
+                reply.setErrCode(RegisterReply.ErrorCode.PASSWORD_INVALID);
+            } else if (!mVerificationCodes.consume(email, request.getVerificationCode())) {
+                reply.setErrCode(RegisterReply.ErrorCode.VERIFICATION_CODE_ERROR);
+            } else if (!mAccounts.create(AccountRecord.newBuilder()
+                                                      .setEmail(email)
+                                                      .setPasswordMd5(request.getPasswordMd5())
+                                                      .build())) {
+                reply.setErrCode(RegisterReply.ErrorCode.EMAIL_ALREADY_REGISTERED);
+            } else {
+                reply.setSucceed(true);
+            }
+        } catch (IOException e) {
+            onStoreError(e, responseObserver);
+            return;
+        }
+        complete(responseObserver, reply.build());
+    }
+
+    @Override
+    public void requestAuthorization(AuthorizationRequest request, StreamObserver<AuthorizationReply> responseObserver) {
+        AuthorizationReply.Builder reply = AuthorizationReply.newBuilder();
+        try {
+            if (checkPassword(request.getUsername(), request.getPasswordMd5())) {
+                reply.setSucceed(true).setAuthorization(mAuthorizations.issue(request.getUsername()));
+            }
+        } catch (IOException e) {
+            onStoreError(e, responseObserver);
+            return;
+        }
+        complete(responseObserver, reply.build());
+    }
+
+    @Override
+    public void changePassword(NewPassword request, StreamObserver<NewPasswordReply> responseObserver) {
+        String email = mTokens.getEmail(request.getToken());
+        if (email == null) {
+            complete(responseObserver,
+                     NewPasswordReply.newBuilder().setErrCode(NewPasswordReply.ErrorCode.AUTHORIZATION_INVALID).build());
+            return;
+        }
+        NewPasswordReply reply;
+        try {
+            synchronized (lockFor(email)) {
+                reply = (NewPasswordReply) replayed("changePassword", request.getRequestId());
+                if (reply == null) {
+                    reply = doChangePassword(email, request);
+                    remember("changePassword", request.getRequestId(), reply);
+                }
+            }
+        } catch (IOException e) {
+            onStoreError(e, responseObserver);
+            return;
+        }
+        complete(responseObserver, reply);
+    }
+
+    private NewPasswordReply doChangePassword(String email, NewPassword request) throws IOException {
+        NewPasswordReply.Builder reply = NewPasswordReply.newBuilder();
+        AccountRecord account = mAccounts.get(email);
+        if (account == null || !mAuthorizations.consume(email, request.getAuthorization())) {
+            reply.setErrCode(NewPasswordReply.ErrorCode.AUTHORIZATION_INVALID);
+        } else if (request.getNewPassword().isEmpty() || account.getPasswordMd5().equals(request.getNewPassword())) {
+            reply.setErrCode(NewPasswordReply.ErrorCode.PASSWORD_NOT_CHANGED);
+        } else {
+            mAccounts.update(account.toBuilder().setPasswordMd5(request.getNewPassword()).build());
+            reply.setSucceed(true);
+        }
+        return reply.build();
+    }
+
+    @Override
+    public void requestUserInfo(OperateToken request, StreamObserver<UserInfoReply> responseObserver) {
+        UserInfoReply.Builder reply = UserInfoReply.newBuilder();
+        String email = mTokens.getEmail(request.getToken());
+        try {
+            AccountRecord account = email != null ? mAccounts.get(email) : null;
+            if (account == null) {
+                reply.setErrCode(UserInfoReply.ErrorCode.TOKEN_INVALID);
+            } else {
+                reply.setSucceed(true).setUserInfo(account.getUserInfo());
+            }
+        } catch (IOException e) {
+            onStoreError(e, responseObserver);
+            return;
+        }
+        complete(responseObserver, reply.build());
+    }
+
+    @Override
+    public void updateUserInfo(UpdateRequest request, StreamObserver<ResultReply> responseObserver) {
+        String email = mTokens.getEmail(request.getToken());
+        if (email == null) {
+            complete(responseObserver, ResultReply.newBuilder().setSecceed(false).build());
+            return;
+        }
+        ResultReply reply;
+        try {
+            synchronized (lockFor(email)) {
+                reply = (ResultReply) replayed("updateUserInfo", request.getRequestId());
+                if (reply == null) {
+                    AccountRecord account = mAccounts.get(email);
+                    boolean succeed = account != null
+                                      && mAccounts.update(account.toBuilder().setUserInfo(request.getUserInfo()).build());
+                    reply = ResultReply.newBuilder().setSecceed(succeed).build();
+                    remember("updateUserInfo", request.getRequestId(), reply);
+                }
+            }
+        } catch (IOException e) {
+            onStoreError(e, responseObserver);
+            return;
+        }
+        complete(responseObserver, reply);
+    }
+
+    @Override
+    public void requestUploadCheckpoint(CheckpointRequest request, StreamObserver<UploadCheckpoint> responseObserver) {
+        String email = mTokens.getEmail(request.getToken());
+        if (email == null) {
+            complete(responseObserver, invalidToken());
+            return;
+        }
+        complete(responseObserver, mSteps.checkpoint(email, request.getDeviceId()));
+    }
+
+    @Override
+    public StreamObserver<StepBatch> uploadSteps(final StreamObserver<UploadCheckpoint> responseObserver) {
+        return new StreamObserver<StepBatch>() {
+
+            private String  mEmail;
+            private String  mDeviceId;
+            private boolean mClosed;
+
+            @Override
+            public void onNext(StepBatch batch) {
+                if (mClosed) {
+                    return;
+                }
+                if (mEmail == null) {
+                    mEmail = mTokens.getEmail(batch.getToken());
+                    if (mEmail == null) {
+                        close(invalidToken());
+                        return;
+                    }
+                    mDeviceId = batch.getDeviceId();
+                }
+                if (!mDeviceId.equals(batch.getDeviceId())) {
+                    mClosed = true;
+                    responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("device_id changed during upload")
+                                                                    .asRuntimeException());
+                    return;
+                }
+                UploadCheckpoint checkpoint;
+                try {
+                    checkpoint = mSteps.append(mEmail, batch);
+                } catch (IllegalArgumentException e) {
+                    mClosed = true;
+                    responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+                    return;
+                }
+                if (!checkpoint.getSucceed()) {
+                    close(checkpoint);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                // 客户端取消，已经收到的批次已经保存
+                mClosed = true;
+            }
+
+            @Override
+            public void onCompleted() {
+                if (!mClosed) {
+                    close(mEmail != null ? mSteps.checkpoint(mEmail, mDeviceId) : invalidToken());
+                }
+            }
+
+            private void close(UploadCheckpoint checkpoint) {
+                mClosed = true;
+                complete(responseObserver, checkpoint);
+            }
+        };
+    }
+
+    private boolean checkPassword(String email, String passwordMd5) throws IOException {
+        AccountRecord account = mAccounts.get(email);
+        return account != null && account.getPasswordMd5().equals(passwordMd5);
+    }
+
+    private Object lockFor(String email) {
+        int hash = email.hashCode();
+        return mAccountLocks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    private Object replayed(String method, String requestId) {
+        return requestId.isEmpty() ? null : mReplies.get(method + "/" + requestId);
+    }
+
+    private void remember(String method, String requestId, Object reply) {
+        if (!requestId.isEmpty()) {
+            mReplies.put(method + "/" + requestId, reply);
+        }
+    }
+
+    private static UploadCheckpoint invalidToken() {
+        return UploadCheckpoint.newBuilder().setErrCode(UploadCheckpoint.ErrorCode.TOKEN_INVALID).build();
+    }
+
+    private static <T> void complete(StreamObserver<T> responseObserver, T reply) {
+        responseObserver.onNext(reply);
+        responseObserver.onCompleted();
+    }
+
+    private static void onStoreError(IOException e, StreamObserver<?> responseObserver) {
+        LOGGER.log(Level.WARNING, "Account store failed", e);
+        responseObserver.onError(Status.INTERNAL.withDescription("account store failed").asRuntimeException());
+    }
+}
@@ -0,0 +1,31 @@
+package site.hanschen.server.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 账号存储，以邮箱为主键，实现需要是线程安全的
+ *
+ * @author HansChen
+ */
+public interface AccountStore extends Closeable {
+
+    /**
+     * @return 账号不存在时返回null
+     */
+    AccountRecord get(String email) throws IOException;
+
+    /**
+     * @return 账号已经存在时返回false
+     */
+    boolean create(AccountRecord account) throws IOException;
+
+    /**
+     * 替换已经存在的账号
+     *
+     * @return 账号不存在时返回false
+     */
+    boolean update(AccountRecord account) throws IOException;
+
+    int size();
+}
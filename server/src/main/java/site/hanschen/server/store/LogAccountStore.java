@@ -0,0 +1,222 @@
+package site.hanschen.server.store;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * 保存在磁盘上的只追加日志，每次修改都追加一条完整的{@link AccountRecord}，内存中只保存每个邮箱最新一条记录的位置。
+ * 每条记录(大端):
+ * <pre>
+ * int length | int crc | length bytes AccountRecord
+ * </pre>
+ * 写入后同步到磁盘才更新索引；读取使用{@link FileChannel}的定位读，多个线程可以同时读取。
+ * 打开时截掉最后一条不完整的记录，过期的记录超过一半时重写日志
+ *
+ * @author HansChen
+ */
+public class LogAccountStore implements AccountStore {
+
+    private static final int  HEADER_SIZE       = 8;
+    /* 单条记录不会超过这个大小，超过说明长度字段已经损坏 */
+    private static final int  MAX_RECORD_SIZE   = 64 * 1024;
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+
+    private final File                            mFile;
+    private final ConcurrentMap<String, Location> mIndex     = new ConcurrentHashMap<>();
+    private final Object                          mWriteLock = new Object();
+    private final FileChannel                     mChannel;
+    private final CRC32                           mCrc       = new CRC32();
+    private       long                            mEnd;
+    private       long                            mLiveBytes;
+
+    private static class Location {
+
+        final long offset;
+        final int  length;
+
+        Location(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    public LogAccountStore(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create store directory: " + dir);
+        }
+        this.mFile = file;
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        load(channel);
+        if (mEnd > MIN_COMPACT_BYTES && mEnd - mLiveBytes > mLiveBytes) {
+            channel = compact(channel);
+            load(channel);
+        }
+        this.mChannel = channel;
+    }
+
+    @Override
+    public AccountRecord get(String email) throws IOException {
+        Location location = mIndex.get(email);
+        if (location == null) {
+            return null;
+        }
+        return AccountRecord.parseFrom(read(mChannel, location));
+    }
+
+    @Override
+    public boolean create(AccountRecord account) throws IOException {
+        synchronized (mWriteLock) {
+            if (mIndex.containsKey(account.getEmail())) {
+                return false;
+            }
+            append(account);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean update(AccountRecord account) throws IOException {
+        synchronized (mWriteLock) {
+            Location old = mIndex.get(account.getEmail());
+            if (old == null) {
+                return false;
+            }
+            append(account);
+            mLiveBytes -= HEADER_SIZE + old.length;
+            return true;
+        }
+    }
+
+    @Override
+    public int size() {
+        return mIndex.size();
+    }
+
+    /**
+     * @return 日志文件的大小，包含已经过期的记录
+     */
+    public long length() {
+        synchronized (mWriteLock) {
+            return mEnd;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    private void append(AccountRecord account) throws IOException {
+        byte[] data = account.toByteArray();
+        long position = mEnd;
+        write(mChannel, position, data);
+        mChannel.force(false);
+        mEnd += HEADER_SIZE + data.length;
+        mLiveBytes += HEADER_SIZE + data.length;
+        mIndex.put(account.getEmail(), new Location(position + HEADER_SIZE, data.length));
+    }
+
+    /**
+     * 顺序读取整个日志重建索引
+     */
+    private void load(FileChannel channel) throws IOException {
+        mIndex.clear();
+        mLiveBytes = 0;
+        long length = channel.size();
+        long position = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile), 64 * 1024));
+        try {
+            while (position + HEADER_SIZE <= length) {
+                int size = in.readInt();
+                int crc = in.readInt();
+                if (size < 0 || size > MAX_RECORD_SIZE || position + HEADER_SIZE + size > length) {
+                    break;
+                }
+                byte[] data = new byte[size];
+                in.readFully(data);
+                if (crc(data) != crc) {
+                    break;
+                }
+                AccountRecord account = AccountRecord.parseFrom(data);
+                Location old = mIndex.put(account.getEmail(), new Location(position + HEADER_SIZE, size));
+                if (old != null) {
+                    mLiveBytes -= HEADER_SIZE + old.length;
+                }
+                mLiveBytes += HEADER_SIZE + size;
+                position += HEADER_SIZE + size;
+            }
+        } catch (EOFException ignore) {
+            // 文件在读取时被截断
+        } finally {
+            in.close();
+        }
+        if (position < length) {
+            // 追加时崩溃留下的残缺记录
+            channel.truncate(position);
+        }
+        mEnd = position;
+    }
+
+    /**
+     * 只保留每个邮箱最新的记录，先写到临时文件再替换，过程中崩溃不会丢失原来的日志
+     */
+    private FileChannel compact(FileChannel channel) throws IOException {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileChannel out = new RandomAccessFile(tmp, "rw").getChannel();
+        try {
+            out.truncate(0);
+            long position = 0;
+            for (Map.Entry<String, Location> entry : mIndex.entrySet()) {
+                byte[] data = read(channel, entry.getValue());
+                write(out, position, data);
+                position += HEADER_SIZE + data.length;
+            }
+            out.force(true);
+        } finally {
+            out.close();
+        }
+        channel.close();
+        if (!tmp.renameTo(mFile)) {
+            throw new IOException("Cannot replace account log: " + mFile);
+        }
+        return new RandomAccessFile(mFile, "rw").getChannel();
+    }
+
+    private static byte[] read(FileChannel channel, Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, location.offset + buffer.position()) < 0) {
+                throw new EOFException("Truncated account record at " + location.offset);
+            }
+        }
+        return buffer.array();
+    }
+
+    private void write(FileChannel channel, long position, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + data.length);
+        buffer.putInt(data.length).putInt(crc(data)).put(data);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private int crc(byte[] data) {
+        // 加载时只有一个线程，之后只在mWriteLock中调用
+        mCrc.reset();
+        mCrc.update(data, 0, data.length);
+        return (int) mCrc.getValue();
+    }
+}
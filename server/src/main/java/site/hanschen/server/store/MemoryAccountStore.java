@@ -0,0 +1,38 @@
+package site.hanschen.server.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 只保存在内存中的账号，重启后丢失，用于开发和压力测试
+ *
+ * @author HansChen
+ */
+public class MemoryAccountStore implements AccountStore {
+
+    private final ConcurrentMap<String, AccountRecord> mAccounts = new ConcurrentHashMap<>();
+
+    @Override
+    public AccountRecord get(String email) {
+        return mAccounts.get(email);
+    }
+
+    @Override
+    public boolean create(AccountRecord account) {
+        return mAccounts.putIfAbsent(account.getEmail(), account) == null;
+    }
+
+    @Override
+    public boolean update(AccountRecord account) {
+        return mAccounts.replace(account.getEmail(), account) != null;
+    }
+
+    @Override
+    public int size() {
+        return mAccounts.size();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,332 @@
+package site.hanschen.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import site.hanschen.api.user.AuthorizationReply;
+import site.hanschen.api.user.AuthorizationRequest;
+import site.hanschen.api.user.CheckpointRequest;
+import site.hanschen.api.user.LoginInfo;
+import site.hanschen.api.user.LoginReply;
+import site.hanschen.api.user.NewPassword;
+import site.hanschen.api.user.NewPasswordReply;
+import site.hanschen.api.user.OperateToken;
+import site.hanschen.api.user.RegisterInfo;
+import site.hanschen.api.user.RegisterReply;
+import site.hanschen.api.user.ResultReply;
+import site.hanschen.api.user.StepBatch;
+import site.hanschen.api.user.UpdateRequest;
+import site.hanschen.api.user.UploadCheckpoint;
+import site.hanschen.api.user.UserCenterGrpc;
+import site.hanschen.api.user.UserInfo;
+import site.hanschen.api.user.UserInfoReply;
+import site.hanschen.api.user.VerificationReply;
+import site.hanschen.api.user.VerificationRequest;
+import site.hanschen.server.store.MemoryAccountStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 使用进程内的gRPC连接测试{@link UserCenterService}
+ *
+ * @author HansChen
+ */
+public class UserCenterServiceTest {
+
+    private static final String SERVER_NAME   = "user-center-service-test";
+    private static final String EMAIL         = "runner@hanschen.site";
+    private static final String PASSWORD_MD5  = "5f4dcc3b5aa765d61d8327deb882cf99";
+    private static final long   AWAIT_TIMEOUT = 5000;
+    private static final String DEVICE_ID     = "device";
+
+    private final Map<String, String> mCodes = new ConcurrentHashMap<>();
+
+    private Server                                mServer;
+    private ManagedChannel                        mChannel;
+    private UserCenterGrpc.UserCenterBlockingStub mStub;
+
+    @Before
+    public void setUp() throws Exception {
+        UserCenterService service = new UserCenterService(new MemoryAccountStore()) {
+            @Override
+            protected void sendVerificationCode(String email, String code) {
+                mCodes.put(email, code);
+            }
+        };
+        mServer = InProcessServerBuilder.forName(SERVER_NAME).addService(service).directExecutor().build().start();
+        mChannel = InProcessChannelBuilder.forName(SERVER_NAME).directExecutor().build();
+        mStub = UserCenterGrpc.newBlockingStub(mChannel);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mChannel.shutdownNow();
+        mServer.shutdownNow();
+        assertTrue(mChannel.awaitTermination(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(mServer.awaitTermination(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void registerAndLogin() throws Exception {
+        register(EMAIL, PASSWORD_MD5);
+
+        LoginReply reply = login(EMAIL, PASSWORD_MD5);
+        assertTrue(reply.getSucceed());
+        assertFalse(reply.getToken().isEmpty());
+
+        reply = login(EMAIL, "wrong");
+        assertFalse(reply.getSucceed());
+        assertEquals(LoginReply.ErrorCode.ACCOUNT_PASSWORD_INCORRECT, reply.getErrCode());
+
+        VerificationReply verification = mStub.requestVerificationCode(VerificationRequest.newBuilder()
+                                                                                          .setEmail(EMAIL)
+                                                                                          .build());
+        assertEquals(VerificationReply.ErrorCode.EMAIL_ALREADY_REGISTERED, verification.getErrCode());
+    }
+
+    @Test
+    public void rejectWrongVerificationCode() throws Exception {
+        mStub.requestVerificationCode(VerificationRequest.newBuilder().setEmail(EMAIL).build());
+        String wrong = mCodes.get(EMAIL).equals("000000") ? "111111" : "000000";
+        RegisterReply reply = mStub.register(RegisterInfo.newBuilder()
+                                                         .setEmail(EMAIL)
+                                                         .setVerificationCode(wrong)
+                                                         .setPasswordMd5(PASSWORD_MD5)
+                                                         .build());
+        assertEquals(RegisterReply.ErrorCode.VERIFICATION_CODE_ERROR, reply.getErrCode());
+        assertFalse(login(EMAIL, PASSWORD_MD5).getSucceed());
+    }
+
+    @Test
+    public void reloginInvalidatesOldToken() throws Exception {
+        register(EMAIL, PASSWORD_MD5);
+        String first = login(EMAIL, PASSWORD_MD5).getToken();
+        String second = login(EMAIL, PASSWORD_MD5).getToken();
+        assertNotEquals(first, second);
+
+        assertEquals(UserInfoReply.ErrorCode.TOKEN_INVALID, requestUserInfo(first).getErrCode());
+        assertTrue(requestUserInfo(second).getSucceed());
+    }
+
+    @Test
+    public void updateUserInfoOnce() throws Exception {
+        register(EMAIL, PASSWORD_MD5);
+        String token = login(EMAIL, PASSWORD_MD5).getToken();
+
+        assertTrue(updateUserInfo(token, "a", "request-a").getSecceed());
+        assertTrue(updateUserInfo(token, "b", "request-b").getSecceed());
+        // 重发的请求返回之前的结果，不会覆盖之后的修改
+        assertTrue(updateUserInfo(token, "a", "request-a").getSecceed());
+        assertEquals("b", requestUserInfo(token).getUserInfo().getNickname());
+
+        assertFalse(updateUserInfo("invalid", "c", "request-c").getSecceed());
+    }
+
+    @Test
+    public void changePassword() throws Exception {
+        register(EMAIL, PASSWORD_MD5);
+        String token = login(EMAIL, PASSWORD_MD5).getToken();
+        AuthorizationReply authorization = mStub.requestAuthorization(AuthorizationRequest.newBuilder()
+                                                                                          .setUsername(EMAIL)
+                                                                                          .setPasswordMd5(PASSWORD_MD5)
+                                                                                          .build());
+        assertTrue(authorization.getSucceed());
+
+        NewPassword request = NewPassword.newBuilder()
+                                         .setToken(token)
+                                         .setNewPassword("new")
+                                         .setAuthorization(authorization.getAuthorization())
+                                         .setRequestId("change")
+                                         .build();
+        assertTrue(mStub.changePassword(request).getSucceed());
+        // 授权码已经使用过，重发的请求返回之前的结果
+        assertTrue(mStub.changePassword(request).getSucceed());
+        NewPasswordReply reused = mStub.changePassword(request.toBuilder().setRequestId("other").build());
+        assertEquals(NewPasswordReply.ErrorCode.AUTHORIZATION_INVALID, reused.getErrCode());
+
+        assertFalse(login(EMAIL, PASSWORD_MD5).getSucceed());
+        assertTrue(login(EMAIL, "new").getSucceed());
+    }
+
+    @Test
+    public void uploadStepsFromCheckpoint() throws Exception {
+        register(EMAIL, PASSWORD_MD5);
+        String token = login(EMAIL, PASSWORD_MD5).getToken();
+        CheckpointRequest checkpointRequest = CheckpointRequest.newBuilder().setToken(token).setDeviceId(DEVICE_ID).build();
+        assertEquals(0, mStub.requestUploadCheckpoint(checkpointRequest).getLastSequence());
+
+        UploadCheckpoint checkpoint = uploadSteps(batch(token, 0, 1000, 2000), batch(token, 2, 3000));
+        assertTrue(checkpoint.getSucceed());
+        assertEquals(3, checkpoint.getLastSequence());
+        assertEquals(3000, checkpoint.getLastStepTime());
+        assertEquals(3, checkpoint.getRecordCount());
+
+        // 重发的记录被忽略
+        checkpoint = uploadSteps(batch(token, 1, 2000, 3000, 4000));
+        assertEquals(4, checkpoint.getLastSequence());
+        assertEquals(4, checkpoint.getRecordCount());
+
+        // 时钟倒退后的记录时间早于检查点，按序号仍然会保存
+        checkpoint = uploadSteps(batch(token, 4, 500));
+        assertEquals(5, checkpoint.getLastSequence());
+        assertEquals(500, checkpoint.getLastStepTime());
+        assertEquals(5, checkpoint.getRecordCount());
+
+        // 检查点之后有缺失时拒绝
+        checkpoint = uploadSteps(batch(token, 7, 6000));
+        assertEquals(UploadCheckpoint.ErrorCode.CHECKPOINT_MISMATCH, checkpoint.getErrCode());
+        assertEquals(5, mStub.requestUploadCheckpoint(checkpointRequest).getLastSequence());
+    }
+
+    @Test
+    public void keepCheckpointPerDevice() throws Exception {
+        register(EMAIL, PASSWORD_MD5);
+        String token = login(EMAIL, PASSWORD_MD5).getToken();
+        uploadSteps(batch(token, 0, 1000, 2000, 3000));
+
+        // 重装后本地序号从1开始，用新的设备标识不会被当作重发
+        StepBatch reinstalled = batch(token, 0, 4000, 5000).toBuilder().setDeviceId("reinstalled").build();
+        UploadCheckpoint checkpoint = uploadSteps(reinstalled);
+        assertEquals(2, checkpoint.getLastSequence());
+        assertEquals(2, checkpoint.getRecordCount());
+        CheckpointRequest request = CheckpointRequest.newBuilder().setToken(token).setDeviceId(DEVICE_ID).build();
+        assertEquals(3, mStub.requestUploadCheckpoint(request).getLastSequence());
+
+        // 同一次上传中不能换设备
+        boolean rejected = false;
+        try {
+            uploadSteps(batch(token, 3, 6000), reinstalled);
+        } catch (AssertionError expected) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+    }
+
+    @Test
+    public void concurrentLoginAndRequestUserInfo() throws Exception {
+        final int users = 32;
+        for (int i = 0; i < users; i++) {
+            register(i + EMAIL, PASSWORD_MD5);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < users; i++) {
+                final String email = i + EMAIL;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int succeed = 0;
+                        for (int n = 0; n < 100; n++) {
+                            String token = login(email, PASSWORD_MD5).getToken();
+                            if (requestUserInfo(token).getSucceed()) {
+                                succeed++;
+                            }
+                        }
+                        return succeed;
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(100, (int) future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void register(String email, String passwordMd5) {
+        assertTrue(mStub.requestVerificationCode(VerificationRequest.newBuilder().setEmail(email).build()).getSucceed());
+        RegisterReply reply = mStub.register(RegisterInfo.newBuilder()
+                                                         .setEmail(email)
+                                                         .setVerificationCode(mCodes.get(email))
+                                                         .setPasswordMd5(passwordMd5)
+                                                         .build());
+        assertTrue(reply.getSucceed());
+    }
+
+    private LoginReply login(String email, String passwordMd5) {
+        return mStub.login(LoginInfo.newBuilder().setUsername(email).setPasswordMd5(passwordMd5).build());
+    }
+
+    private UserInfoReply requestUserInfo(String token) {
+        return mStub.requestUserInfo(OperateToken.newBuilder().setToken(token).build());
+    }
+
+    private ResultReply updateUserInfo(String token, String nickname, String requestId) {
+        return mStub.updateUserInfo(UpdateRequest.newBuilder()
+                                                 .setToken(token)
+                                                 .setUserInfo(UserInfo.newBuilder().setNickname(nickname))
+                                                 .setRequestId(requestId)
+                                                 .build());
+    }
+
+    private UploadCheckpoint uploadSteps(StepBatch... batches) throws Exception {
+        final UploadCheckpoint[] result = new UploadCheckpoint[1];
+        final Throwable[] error = new Throwable[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        StreamObserver<UploadCheckpoint> replyObserver = new StreamObserver<UploadCheckpoint>() {
+            @Override
+            public void onNext(UploadCheckpoint value) {
+                result[0] = value;
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                error[0] = t;
+                latch.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+                latch.countDown();
+            }
+        };
+        StreamObserver<StepBatch> requests = UserCenterGrpc.newStub(mChannel).uploadSteps(replyObserver);
+        for (StepBatch batch : batches) {
+            requests.onNext(batch);
+        }
+        requests.onCompleted();
+        assertTrue(latch.await(AWAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        if (error[0] != null) {
+            throw new AssertionError(error[0]);
+        }
+        return result[0];
+    }
+
+    /**
+     * 序号从baseSequence之后连续递增，每条记录比前一条多10步
+     */
+    private static StepBatch batch(String token, long baseSequence, long... times) {
+        StepBatch.Builder builder = StepBatch.newBuilder().setToken(token).setDeviceId(DEVICE_ID).setBaseSequence(baseSequence);
+        long time = 0;
+        for (int i = 0; i < times.length; i++) {
+            builder.addTimeDeltas(times[i] - time);
+            builder.addSequenceDeltas(1);
+            builder.addCountDeltas(10);
+            builder.addRebootCountDeltas(10);
+            time = times[i];
+        }
+        return builder.build();
+    }
+}
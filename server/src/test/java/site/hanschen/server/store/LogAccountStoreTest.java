@@ -0,0 +1,116 @@
+package site.hanschen.server.store;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import site.hanschen.api.user.UserInfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author HansChen
+ */
+public class LogAccountStoreTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File            mFile;
+    private LogAccountStore mStore;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = new File(mFolder.getRoot(), "data/accounts.log");
+        mStore = new LogAccountStore(mFile);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mStore.close();
+    }
+
+    @Test
+    public void createAndUpdate() throws Exception {
+        assertNull(mStore.get("a@b.c"));
+        assertFalse(mStore.update(account("a@b.c", "x")));
+        assertTrue(mStore.create(account("a@b.c", "x")));
+        assertFalse(mStore.create(account("a@b.c", "y")));
+        assertTrue(mStore.update(account("a@b.c", "z")));
+
+        assertEquals("z", mStore.get("a@b.c").getUserInfo().getNickname());
+        assertEquals(1, mStore.size());
+    }
+
+    @Test
+    public void reopenKeepsLatestRecords() throws Exception {
+        mStore.create(account("a@b.c", "a1"));
+        mStore.create(account("d@e.f", "d1"));
+        mStore.update(account("a@b.c", "a2"));
+        mStore.close();
+
+        mStore = new LogAccountStore(mFile);
+        assertEquals(2, mStore.size());
+        assertEquals("a2", mStore.get("a@b.c").getUserInfo().getNickname());
+        assertEquals("d1", mStore.get("d@e.f").getUserInfo().getNickname());
+    }
+
+    @Test
+    public void truncateTornTail() throws Exception {
+        mStore.create(account("a@b.c", "a1"));
+        long length = mStore.length();
+        mStore.close();
+        // 追加时崩溃，最后一条记录只写了一半
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        out.write(new byte[]{0, 0, 0, 50, 1, 2, 3, 4, 5});
+        out.close();
+
+        mStore = new LogAccountStore(mFile);
+        assertEquals(length, mFile.length());
+        assertTrue(mStore.create(account("d@e.f", "d1")));
+        mStore.close();
+
+        mStore = new LogAccountStore(mFile);
+        assertEquals("a1", mStore.get("a@b.c").getUserInfo().getNickname());
+        assertEquals("d1", mStore.get("d@e.f").getUserInfo().getNickname());
+    }
+
+    @Test
+    public void compactStaleRecordsOnOpen() throws Exception {
+        char[] bio = new char[1000];
+        Arrays.fill(bio, 'x');
+        mStore.create(account("a@b.c", "0"));
+        mStore.create(account("d@e.f", "d1"));
+        // 每条记录约1KB，一共超过1MB，只有最后一条有效
+        for (int i = 1; i <= 1200; i++) {
+            UserInfo info = UserInfo.newBuilder().setNickname(String.valueOf(i)).setBio(new String(bio)).build();
+            mStore.update(account("a@b.c", "").toBuilder().setUserInfo(info).build());
+        }
+        long length = mStore.length();
+        mStore.close();
+
+        mStore = new LogAccountStore(mFile);
+        assertTrue(mStore.length() < length / 100);
+        assertEquals(mStore.length(), mFile.length());
+        assertEquals("1200", mStore.get("a@b.c").getUserInfo().getNickname());
+        assertEquals("d1", mStore.get("d@e.f").getUserInfo().getNickname());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    private static AccountRecord account(String email, String nickname) {
+        return AccountRecord.newBuilder()
+                            .setEmail(email)
+                            .setPasswordMd5("md5")
+                            .setUserInfo(UserInfo.newBuilder().setNickname(nickname))
+                            .build();
+    }
+}